@@ -10,7 +10,9 @@ javac -d %CPATH% -cp %CPATH% ..\src\FileRef.java
 IF %ERRORLEVEL% NEQ 0  goto exit
 javac -d %CPATH% -cp %CPATH% ..\src\ICode.java
 IF %ERRORLEVEL% NEQ 0  goto exit
-javac -d %CPATH% -cp %CPATH% ..\src\Scanner.java
+javac -d %CPATH% -cp %CPATH% ..\src\ICodeList.java
+IF %ERRORLEVEL% NEQ 0  goto exit
+javac -d %CPATH% -cp %CPATH% ..\src\FlowGraph.java
 IF %ERRORLEVEL% NEQ 0  goto exit
 javac -d %CPATH% -cp %CPATH% ..\src\Node.java
 IF %ERRORLEVEL% NEQ 0  goto exit
@@ -24,6 +26,14 @@ javac -d %CPATH% -cp %CPATH% ..\src\Func.java
 IF %ERRORLEVEL% NEQ 0  goto exit
 javac -d %CPATH% -cp %CPATH% ..\src\Module.java
 IF %ERRORLEVEL% NEQ 0  goto exit
+javac -d %CPATH% -cp %CPATH% ..\src\SourceCache.java
+IF %ERRORLEVEL% NEQ 0  goto exit
+javac -d %CPATH% -cp %CPATH% ..\src\ModuleCache.java
+IF %ERRORLEVEL% NEQ 0  goto exit
+javac -d %CPATH% -cp %CPATH% ..\src\CompilationContext.java
+IF %ERRORLEVEL% NEQ 0  goto exit
+javac -d %CPATH% -cp %CPATH% ..\src\Scanner.java
+IF %ERRORLEVEL% NEQ 0  goto exit
 javac -d %CPATH% -cp %CPATH% ..\src\Util.java
 IF %ERRORLEVEL% NEQ 0  goto exit
 javac -d %CPATH% -cp %CPATH% ..\src\Parser.java
@@ -34,16 +44,42 @@ javac -d %CPATH% -cp %CPATH% ..\src\FoldConst.java
 IF %ERRORLEVEL% NEQ 0  goto exit
 javac -d %CPATH% -cp %CPATH% ..\src\ICodeGen.java
 IF %ERRORLEVEL% NEQ 0  goto exit
+javac -d %CPATH% -cp %CPATH% ..\src\Inliner.java
+IF %ERRORLEVEL% NEQ 0  goto exit
+javac -d %CPATH% -cp %CPATH% ..\src\GlobalOpt.java
+IF %ERRORLEVEL% NEQ 0  goto exit
+javac -d %CPATH% -cp %CPATH% ..\src\ExprOpt.java
+IF %ERRORLEVEL% NEQ 0  goto exit
 javac -d %CPATH% -cp %CPATH% ..\src\ICodeOpt.java
 IF %ERRORLEVEL% NEQ 0  goto exit
 javac -d %CPATH% -cp %CPATH% ..\src\CallTree.java
 IF %ERRORLEVEL% NEQ 0  goto exit
 javac -d %CPATH% -cp %CPATH% ..\src\AsmGen18Offsets.java
 IF %ERRORLEVEL% NEQ 0  goto exit
+javac -d %CPATH% -cp %CPATH% ..\src\AsmGen18Frames.java
+IF %ERRORLEVEL% NEQ 0  goto exit
+javac -d %CPATH% -cp %CPATH% ..\src\AsmGen18Peep.java
+IF %ERRORLEVEL% NEQ 0  goto exit
+javac -d %CPATH% -cp %CPATH% ..\src\Miny18Asm.java
+IF %ERRORLEVEL% NEQ 0  goto exit
 javac -d %CPATH% -cp %CPATH% ..\src\AsmGen18.java
 IF %ERRORLEVEL% NEQ 0  goto exit
+javac -d %CPATH% -cp %CPATH% ..\src\Miny18Compiler.java
+IF %ERRORLEVEL% NEQ 0  goto exit
 javac -d %CPATH% -cp %CPATH% ..\src\Miny18.java
 IF %ERRORLEVEL% NEQ 0  goto exit
-javac -d %CPATH% -cp %CPATH% ..\src\Miny18Asm.java
+javac -d %CPATH% -cp %CPATH% ..\src\Miny18Server.java
+IF %ERRORLEVEL% NEQ 0  goto exit
+javac -d %CPATH% -cp %CPATH% ..\src\Miny18Client.java
+IF %ERRORLEVEL% NEQ 0  goto exit
+javac -d %CPATH% -cp %CPATH% ..\src\Miny18Bench.java
+IF %ERRORLEVEL% NEQ 0  goto exit
+javac -d %CPATH% -cp %CPATH% ..\src\SimBoard.java
+IF %ERRORLEVEL% NEQ 0  goto exit
+javac -d %CPATH% -cp %CPATH% ..\src\Proc18Sim.java ..\src\Proc18Blocks.java ..\src\Proc18Prof.java
+IF %ERRORLEVEL% NEQ 0  goto exit
+javac -d %CPATH% -cp %CPATH% ..\src\Miny18Test.java
+IF %ERRORLEVEL% NEQ 0  goto exit
+javac -d %CPATH% -cp %CPATH% ..\src\Proc18Fleet.java
 
 :exit
@@ -0,0 +1,3 @@
+echo off
+cls
+java -cp %CPATH% Miny18Bench %1 %2 %3 %4 %5
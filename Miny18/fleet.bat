@@ -0,0 +1,3 @@
+echo off
+cls
+java -cp %CPATH% Proc18Fleet %1 %2 %3 %4 %5 %6 %7 %8 %9
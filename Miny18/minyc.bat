@@ -0,0 +1,9 @@
+echo off
+set DEST=C:\Users\mike\Projects\Proc18Miny18\Proc18\proc
+cls
+java -cp %CPATH% Miny18Client %1
+IF %ERRORLEVEL% NEQ 0  goto exit
+echo %DEST%
+copy *.hex %DEST%
+
+:exit
@@ -0,0 +1,9 @@
+echo off
+cls
+java -cp %CPATH% Miny18 -a %1 %2 %3 %4 %5
+IF %ERRORLEVEL% NEQ 0  goto exit
+java -cp %CPATH% Miny18Asm %1
+IF %ERRORLEVEL% NEQ 0  goto exit
+java -cp %CPATH% Proc18Sim
+
+:exit
@@ -9,6 +9,19 @@
 //                      Change NOP ICodeId to NONE to support NOP command
 // 1.2.1   10/12/2020   Fix bug in boolean register allocation
 // 1.2.2   10/22/2020   Fix bug in single operand boolean operations
+// 1.3.0   10/18/2026   Use ICodeList for icodes
+// 1.4.0   10/18/2026   Move static state to CompilationContext
+//                      Write asm to a Writer
+// 1.5.0   10/18/2026   Emit directly to the assembler
+// 1.6.0   10/18/2026   Skip self moves, report register use
+// 1.7.0   10/18/2026   Place frames with AsmGen18Frames
+// 1.8.0   10/18/2026   Spill locals to RAM
+// 1.9.0   10/18/2026   Pass a bool expression to a bool parm with BMOV
+// 1.10.0  10/18/2026   Run the peephole optimizer on each func
+// 1.11.0  10/18/2026   Leave out module symbols no func uses
+// 1.12.0  10/18/2026   Write a debug map of funcs and source lines
+// 1.13.0  10/18/2026   Remove a fall through in update_symbols
+// 1.14.0  10/18/2026   Report the const and global sizes
 //-------------------------------------------------------------------
 // Copyright 2020 Mike Christle
 //
@@ -34,70 +47,93 @@
 // OTHER DEALINGS IN THE SOFTWARE.
 //-------------------------------------------------------------------
 
-import java.io.FileWriter;
+import java.io.Writer;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.TreeSet;
 import java.util.LinkedList;
 
 //-------------------------------------------------------------------
 public class AsmGen18
 {
-    private LinkedList<ICode> icodes;
+    private static final int REG_COUNT = 64;
+
     private TreeSet<String> func_names = new TreeSet<>();
     private TreeSet<String> module_names = new TreeSet<>();
     private LinkedList<CallTree> to_do = new LinkedList<>();
     private LinkedList<Func> funcs_to_do = new LinkedList<>();
-
-    private AsmGen18Offsets asm_offsets = new AsmGen18Offsets();
-    private FileWriter ofp;
+    private LinkedList<String> modules_to_do = new LinkedList<>();
+    private HashSet<Symbol> used = new HashSet<>();
+
+    private AsmGen18Offsets asm_offsets;
+    private AsmGen18Frames frames;
+    private AsmGen18Peep peep;
+    private ArrayList<AsmGen18Peep.Inst> code;  // Code of the current func
+    private CompilationContext ctx;
+    private Writer ofp;
+    private Miny18Asm asm;
     private String func_name;
     private Func func;
     private int reg_base, bit_base;
+    private Src src, last_src;          // For the debug map
 
     //---------------------------------------------------------------
-    public void run(String name) throws MError
+    public AsmGen18(CompilationContext _ctx)
+    {
+        ctx = _ctx;
+        asm_offsets = new AsmGen18Offsets(ctx);
+        frames = new AsmGen18Frames(ctx);
+        peep = new AsmGen18Peep(ctx);
+    }
+
+    //---------------------------------------------------------------
+    public void run(String name, Writer _ofp) throws MError
+    {
+        run(name, _ofp, null);
+    }
+
+    //---------------------------------------------------------------
+    // Either output may be null. The code is written as asm text to
+    // ofp, and passed directly to the assembler's encoder in asm.
+    //---------------------------------------------------------------
+    public void run(String name, Writer _ofp, Miny18Asm _asm) throws MError
     {
         try
         {
-            ofp = new FileWriter(name + ".asm");
-
-            write_consts();
-            write_isr_vectors(name + ".main");
+            ofp = _ofp;
+            asm = _asm;
 
-            CallTree call_tree = CallTree.build(name + ".main");
+            CallTree call_tree = CallTree.build(ctx, name + ".main");
+            frames.add_root(call_tree, 0);
+            add_funcs(call_tree);
 
-            to_do.add(call_tree);
-            while (to_do.size() > 0)
+            // Add ISR funcs to list
+            for (int i = 1; i < 16; i++)
             {
-                CallTree tree_node = to_do.remove();
-                int idx = tree_node.name.indexOf('.');
-                String module_name = tree_node.name.substring(0, idx);
-                Module module = Module.modules.get(module_name);
-
-                if (module_names.add(module_name))
-                    asm_offsets.scan_symbols(module.symbols);
-
-                if (func_names.add(tree_node.name))
+                String label = ctx.isr_labels[i];
+                if (label != null)
                 {
-                    func = get_func(tree_node.name);
-                    funcs_to_do.add(func);
-
-                    if (tree_node.tree != null)
-                        for (CallTree tree : tree_node.tree)
-                            to_do.add(tree);
+                    CallTree isr_tree = CallTree.build(ctx, label);
+                    frames.add_root(isr_tree, i);
+                    add_funcs(isr_tree);
                 }
             }
 
+            // Global symbols are below all the func frames
+            find_used();
+            int first = asm_offsets.ram_offset + asm_offsets.reg_offset +
+                        asm_offsets.bit_offset;
+            for (String module_name : modules_to_do)
+                asm_offsets.scan_symbols(
+                    ctx.modules.get(module_name).symbols, used);
             bit_base = asm_offsets.bit_offset;
             reg_base = asm_offsets.reg_offset;
+            ctx.global_size = asm_offsets.ram_offset + reg_base + bit_base -
+                              first;
 
-            // Add ISR funcs to list
-            for (int i = 1; i < 16; i++)
-            {
-                String label = Module.isr_labels[i];
-                if (label != null)
-                    funcs_to_do.add(get_func(label));
-            }
+            write_consts();
+            write_isr_vectors(name + ".main");
 
             // Get func offsets
             for (Func fn : funcs_to_do)
@@ -107,22 +143,11 @@ public class AsmGen18
                 asm_offsets.scan_func(fn);
             }
 
-            // Set ISR base offsets
-            for (int i = 1; i < 16; i++)
-            {
-                String label = Module.isr_labels[i];
-                if (label != null)
-                {
-                    func = get_func(label);
-                    func.bit_base = bit_base;
-                    func.reg_base = reg_base;
-                    bit_base += func.bit_cnt;
-                    reg_base += func.reg_cnt;
-                }
-            }
-
             // Set func base offsets
-            set_base_offsets(call_tree);
+            frames.run(reg_base, bit_base);
+            while (spill_local())
+                frames.run(reg_base, bit_base);
+            if (ctx.debug) dump_pressure();
 
             // Update symbol tables
             for (Func fn : funcs_to_do)
@@ -135,10 +160,11 @@ public class AsmGen18
             // Gen code
             for (Func fn : funcs_to_do)
                 gen_code(fn);
+            if (ctx.debug) peep.dump();
 
-            ofp.close();
+            if (ofp != null) ofp.flush();
 
-            // CallTree.dump_tree(call_tree, 0);
+            // CallTree.dump_tree(ctx, call_tree, 0);
         }
         catch (IOException e)
         {
@@ -147,18 +173,18 @@ public class AsmGen18
     }
 
     //---------------------------------------------------------------
-    private void write_isr_vectors(String name) throws IOException
+    private void write_isr_vectors(String name) throws IOException, MError
     {
-        ofp.write("    ORG     0\n");
+        emit_org(0);
         for (int i = 0; i < 16; i++)
         {
-            String label = Module.isr_labels[i];
+            String label = ctx.isr_labels[i];
             if (label != null)
                 emit1("JMP", label);
             else
                 emit1("JMP", name);
         }        
-        ofp.write("\n");
+        write("\n");
     }
 
     //---------------------------------------------------------------
@@ -178,7 +204,7 @@ public class AsmGen18
                         break;
 
                     case CALL:
-                        Func call_func = Module.find_func((String)icode.parm);
+                        Func call_func = ctx.find_func((String)icode.parm);
                         if (call_func.type != TypeId.NONE)
                             icode.offset = call_func.symbols.get("return").offset;
                         break;
@@ -212,7 +238,8 @@ public class AsmGen18
                 case INT:
                 case RAMP:
                 case ROMP:
-                    sym.offset = func.reg_base - sym.offset - 1;
+                    if (sym.type != TypeId.INT || sym.store != StoreId.RAM)
+                        sym.offset = func.reg_base - sym.offset - 1;
                     break;
 
                 case BOOL:
@@ -223,21 +250,146 @@ public class AsmGen18
     }
 
     //---------------------------------------------------------------
-    private void set_base_offsets(CallTree tree_node)
+    // Add every func in the tree, and each new module.
+    //---------------------------------------------------------------
+    private void add_funcs(CallTree call_tree) throws MError
     {
-        Func func = Module.find_func(tree_node.name);
-        if (func.bit_base < bit_base) func.bit_base = bit_base;
-        if (func.reg_base < reg_base) func.reg_base = reg_base;
+        to_do.add(call_tree);
+        while (to_do.size() > 0)
+        {
+            CallTree tree_node = to_do.remove();
+            int idx = tree_node.name.indexOf('.');
+            String module_name = tree_node.name.substring(0, idx);
 
-        bit_base += func.bit_cnt;
-        reg_base += func.reg_cnt;
+            if (module_names.add(module_name))
+                modules_to_do.add(module_name);
 
-        if (tree_node.tree != null)
-            for (CallTree tree : tree_node.tree)
-                set_base_offsets(tree);
+            if (func_names.add(tree_node.name))
+            {
+                func = get_func(tree_node.name);
+                funcs_to_do.add(func);
 
-        bit_base -= func.bit_cnt;
-        reg_base -= func.reg_cnt;
+                if (tree_node.tree != null)
+                    for (CallTree tree : tree_node.tree)
+                        to_do.add(tree);
+            }
+        }
+    }
+
+    //---------------------------------------------------------------
+    // Every symbol that a func in the program refers to. Module
+    // symbols that no func uses get no register, bit, RAM or
+    // constant ROM. Found the same way the offsets are set, so a
+    // label always finds the symbol that was kept.
+    //---------------------------------------------------------------
+    private void find_used() throws MError
+    {
+        for (Func fn : funcs_to_do)
+            for (ICode icode : fn.icodes)
+                switch (icode.id)
+                {
+                    case REG:   case BIT:  case RAM:     case ROM:
+                    case IN:    case OUT:  case ADDRESS: case ARRAY:
+                        used.add(ctx.find_symbol(fn, (String)icode.parm));
+                        break;
+                }
+
+        if (ctx.debug)
+            for (String module_name : ctx.modules.keySet())
+            {
+                Module mod = ctx.modules.get(module_name);
+                for (String label : mod.symbols.keySet())
+                {
+                    Symbol sym = mod.symbols.get(label);
+                    if (used.contains(sym) || takes_space(sym) == false)
+                        continue;
+                    ctx.log.printf("    Unused %s.%s\n", module_name, label);
+                }
+            }
+    }
+
+    //---------------------------------------------------------------
+    // If a func's registers go past the last register, spill the
+    // coldest local of that func, or of a func below it that pushes
+    // it up, to RAM. Returns false if all funcs fit.
+    //---------------------------------------------------------------
+    private boolean spill_local() throws MError
+    {
+        Func over = null;
+        for (Func fn : funcs_to_do)
+            if (fn.reg_base + fn.reg_cnt > REG_COUNT)
+                over = fn;
+        if (over == null) return false;
+
+        Func spill_func = null;
+        String spill_label = null;
+        double cost = Double.MAX_VALUE;
+
+        for (Func top = over; top != null; top = below(top))
+        {
+            String label = asm_offsets.coldest_local(top);
+            if (label != null && asm_offsets.spill_cost < cost)
+            {
+                cost = asm_offsets.spill_cost;
+                spill_func = top;
+                spill_label = label;
+            }
+        }
+
+        if (spill_func == null)
+            throw new MError("Too many registers in " + over.label);
+
+        if (ctx.debug)
+            ctx.log.printf("    Spill %s in %s\n", spill_label, spill_func.label);
+
+        asm_offsets.spill_local(spill_func, spill_label);
+        return true;
+    }
+
+    //---------------------------------------------------------------
+    // The func whose registers end where this func's start, if any.
+    //---------------------------------------------------------------
+    private Func below(Func top)
+    {
+        for (Func fn : funcs_to_do)
+            if (fn != top && fn.reg_cnt > 0 &&
+                fn.reg_base + fn.reg_cnt == top.reg_base &&
+                frames.interfere(fn.label, top.label)) return fn;
+        return null;
+    }
+
+    //---------------------------------------------------------------
+    // Registers and bits used by each function, and the highest used
+    // by the program.
+    //---------------------------------------------------------------
+    private void dump_pressure()
+    {
+        int regs = reg_base, bits = bit_base;
+
+        ctx.log.println("    Function                  Regs  Bits");
+        for (Func fn : funcs_to_do)
+        {
+            ctx.log.printf("    %-24s  %4d  %4d\n",
+                fn.label, fn.reg_cnt, fn.bit_cnt);
+            regs = Math.max(regs, fn.reg_base + fn.reg_cnt);
+            bits = Math.max(bits, fn.bit_base + fn.bit_cnt);
+        }
+        ctx.log.printf("    Registers used %d, bits used %d\n", regs, bits);
+        frames.dump();
+    }
+
+    //---------------------------------------------------------------
+    // False for scalar constants, ports and pinned bits.
+    //---------------------------------------------------------------
+    private static boolean takes_space(Symbol sym)
+    {
+        switch (sym.store)
+        {
+            case REG: case RAM: return true;
+            case ROM:           return sym.count > 1;
+            case BIT:           return sym.offset <= 0;
+        }
+        return false;
     }
 
     //---------------------------------------------------------------
@@ -245,30 +397,37 @@ public class AsmGen18
     {
         int rom_offset = 0;
 
-        ofp.write(String.format("    CONFIG  %d %d %d\n",
-                  Module.rom_bits, Module.ram_bits, Module.con_bits));
+        write(String.format("    CONFIG  %d %d %d\n",
+              ctx.rom_bits, ctx.ram_bits, ctx.con_bits));
+        if (asm != null)
+            asm.put_config(ctx.rom_bits, ctx.ram_bits, ctx.con_bits);
 
-        ofp.write("    ORG     0\n");
-        for (String mkey : Module.modules.keySet())
+        emit_org(0);
+        for (String mkey : ctx.modules.keySet())
         {
-            Module mod = Module.modules.get(mkey);
+            Module mod = ctx.modules.get(mkey);
             for (String skey : mod.symbols.keySet())
             {
                 Symbol sym = mod.symbols.get(skey);
-                if (sym.store == StoreId.ROM && sym.count > 1)
+                if (sym.store == StoreId.ROM && sym.count > 1 &&
+                    used.contains(sym))
                 {
                     sym.offset = rom_offset;
                     rom_offset += sym.count;
-                    ofp.write("    DC      ");
+                    write("    DC      ");
                     for (Object value : sym.values)
-                        ofp.write(String.format("%d ", value));
-                    ofp.write('\n');
+                    {
+                        write(String.format("%d ", value));
+                        if (asm != null) asm.put_const((int)value);
+                    }
+                    write("\n");
                 }
             }
         }
-        ofp.write('\n');
+        write("\n");
+        ctx.const_size = rom_offset;
 
-        if (rom_offset > (1 << Module.con_bits))
+        if (rom_offset > (1 << ctx.con_bits))
             throw new MError("Constants ROM too small");
     }
 
@@ -283,14 +442,16 @@ public class AsmGen18
         float rval;
 
         func = fn;
+        code = new ArrayList<>();
 
-        ofp.write(";----------------------\n");
-        ofp.write("; " + func.label + '\n');
-        ofp.write(";----------------------\n");
+        write(";----------------------\n");
+        write("; " + func.label + '\n');
+        write(";----------------------\n");
 
         for (int idx = 0; idx < func.icodes.size(); idx++)
         {
             ICode icode = func.icodes.get(idx);
+            src = icode.src;
             switch (icode.id)
             {
                 case BCON:   // id > Value
@@ -311,19 +472,23 @@ public class AsmGen18
                     }
                     break;
 
+                case REG:    // id > Label
+                    if (AsmGen18Offsets.spilled(func, icode))
+                        spill_load_icode(idx, icode);
+                    break;
+
                 case RAM:    // id > Label
                 case ROM:    // id > Label
-                case REG:    // id > Label
                     break;
 
                 case IN:     // id > Label
-                    sym = Module.find_symbol(func, (String)icode.parm);
+                    sym = ctx.find_symbol(func, (String)icode.parm);
                     if (sym.type != TypeId.BOOL)
                         emit2("IN", icode.offset, sym.offset);
                     break;
 
                 case MARKER: // id > Marker
-                    ofp.write((String)icode.parm + '\n');
+                    emit_marker((String)icode.parm);
                     break;
 
                 case HALT:    emit0("HALT\n"); break;
@@ -359,25 +524,26 @@ public class AsmGen18
                     break;
 
                 case LEVEL:  // id > Value
-                    emit1("LEVEL", String.format("#%d\n", ((int)icode.parm)));
+                    emit1i("LEVEL", (int)icode.parm);
+                    write("\n");
                     break;
 
                 case RETURN: // id, Expr
                     if (icode.p1 >= 0)
                     {
                         ic1 = func.icodes.get(icode.p1);
-                        sym = Module.find_symbol(func, "return");
+                        sym = ctx.find_symbol(func, "return");
                         return_icode(icode, ic1, sym);
                     }
                     if (func.isr) emit0("RTI");
                     else          emit0("RTS");
-                    ofp.write('\n');
+                    write("\n");
                     break;
 
                 case TIMER: // id, Expr
                     ic1 = func.icodes.get(icode.p1);
                     if (ic1.id == ICodeId.ICON)
-                        emit1("TIMER", String.format("#%d", (int)ic1.parm));
+                        emit1i("TIMER", (int)ic1.parm);
                     else
                         emit1("TIMER", ic1.offset);
                     break;
@@ -406,7 +572,10 @@ public class AsmGen18
                     switch (ic1.id)
                     {
                         case REG:
-                            assign_label_icode(icode, ic1, ic2);
+                            if (AsmGen18Offsets.spilled(func, ic1))
+                                spill_assign_icode(icode, ic1, ic2);
+                            else
+                                assign_label_icode(icode, ic1, ic2);
                             break;
                         case ADDRESS:
                             assign_array_icode(icode, ic1, ic2);
@@ -448,10 +617,19 @@ public class AsmGen18
                 case NONE: break;
             }
         }
+
+        ArrayList<AsmGen18Peep.Inst> func_code = code;
+        code = null;
+
+        peep.run(func_code);
+        if (ctx.debug_map) put_func(func.label);
+        for (AsmGen18Peep.Inst inst : func_code)
+            put(inst);
     }
 
     //---------------------------------------------------------------
-    private void return_icode(ICode icode, ICode ic1, Symbol sym) throws IOException
+    private void return_icode(ICode icode, ICode ic1, Symbol sym)
+        throws IOException, MError
     {
         switch (ic1.id)
         {
@@ -474,19 +652,21 @@ public class AsmGen18
     }
 
     //---------------------------------------------------------------
-    private void compb_icode(ICode icode, ICode ic1, ICode ic2) throws IOException
+    private void compb_icode(ICode icode, ICode ic1, ICode ic2)
+        throws IOException, MError
     {
         emit2("BCMP", ic1.offset, ic2.offset);
 
         if (icode.offset > 0)
         {
             String str = 'S' + ((MathOp)icode.parm).toString();
-            emit1(str, String.format("%d", icode.offset));
+            emit1(str, icode.offset);
         }
     }
 
     //---------------------------------------------------------------
-    private void comp_icode(ICode icode, ICode ic1, ICode ic2) throws IOException
+    private void comp_icode(ICode icode, ICode ic1, ICode ic2)
+        throws IOException, MError
     {
         String str;
         int ival;
@@ -500,7 +680,7 @@ public class AsmGen18
         if (icode.offset > 0)
         {
             str = 'S' + ((MathOp)icode.parm).toString();
-            emit1(str, String.format("%d", icode.offset));
+            emit1(str, icode.offset);
         }
     }
 
@@ -509,7 +689,7 @@ public class AsmGen18
     {
         String label = (String)icode.parm;
         String [] parts = label.split("\\.");
-        Module mod = Module.modules.get(parts[0]);
+        Module mod = ctx.modules.get(parts[0]);
         Func func = mod.funcs.get(parts[0] + '.' + parts[1]);
         Symbol sym = func.symbols.get(parts[2]);
 
@@ -538,14 +718,17 @@ public class AsmGen18
                 break;
 
             default:
-                emit2("MOV", sym.offset, ic1.offset);
+                if (sym.type == TypeId.BOOL)
+                    emit2("BMOV", sym.offset, ic1.offset);
+                else
+                    emit2("MOV", sym.offset, ic1.offset);
                 break;
         }
     }
 
     //---------------------------------------------------------------
     private void jmpt_icode(ICode icode, ICode ic1, String marker)
-        throws IOException
+        throws IOException, MError
     {
         if (ic1.id == ICodeId.COMPB ||
             ic1.id == ICodeId.COMPI)
@@ -567,12 +750,12 @@ public class AsmGen18
             emit2("BNOT", 0, ic1.offset);
             emit1("JEQ", marker);
         }
-        ofp.write('\n');
+        write("\n");
     }
 
     //---------------------------------------------------------------
     private void jmpf_icode(ICode icode, ICode ic1, String marker)
-        throws IOException
+        throws IOException, MError
     {
         if (ic1.id == ICodeId.COMPB ||
             ic1.id == ICodeId.COMPI)
@@ -594,7 +777,7 @@ public class AsmGen18
             emit2("BNOT", 0, ic1.offset);
             emit1("JNE", marker);
         }
-        ofp.write('\n');
+        write("\n");
     }
 
     //---------------------------------------------------------------
@@ -604,7 +787,7 @@ public class AsmGen18
         String str;
         String label = (String)icode.parm;
 
-        Symbol sym = Module.find_symbol(func, label);
+        Symbol sym = ctx.find_symbol(func, label);
 
         if (ic1.id == ICodeId.REG)
             emit2("MOV", icode.offset, ic1.offset);
@@ -626,16 +809,16 @@ public class AsmGen18
 
         if (load)
         {
-            str = String.format("%d, (%d)", icode.offset, icode.offset);
             if (sym.type == TypeId.ROMP)
-                emit1("LDC", str);
+                emit_load("LDC", icode.offset, icode.offset);
             else
-                emit1("LDR", str);
+                emit_load("LDR", icode.offset, icode.offset);
         }
     }
 
     //---------------------------------------------------------------
-    private void assign_label_icode(ICode icode, ICode ic1, ICode ic2) throws IOException
+    private void assign_label_icode(ICode icode, ICode ic1, ICode ic2)
+        throws IOException, MError
     {
         int ival;
         String str, op;
@@ -659,12 +842,12 @@ public class AsmGen18
             case ARRAY:
             case COMPI:
             case CALL:
-                emit2(op, ic1.offset, ic2.offset);
+                if (mop != MathOp.PAS || ic1.offset != ic2.offset)
+                    emit2(op, ic1.offset, ic2.offset);
                 break;
 
             case ADDRESS:
-                str = String.format("%d, (%d)", ic1.offset, ic2.offset);
-                emit1(op, str);
+                emit_load(op, ic1.offset, ic2.offset);
                 break;
 
             case ICON:
@@ -672,11 +855,61 @@ public class AsmGen18
                 emit2i(op, ic1.offset, (int)ic2.parm);
                 break;
         }
-        ofp.write('\n');
+        write("\n");
+    }
+
+    //---------------------------------------------------------------
+    // Load a spilled local into its temp. Not needed if the local is
+    // only being set.
+    //---------------------------------------------------------------
+    private void spill_load_icode(int idx, ICode icode)
+        throws IOException, MError
+    {
+        if (idx + 1 < func.icodes.size())
+        {
+            ICode next = func.icodes.get(idx + 1);
+            if (next.id == ICodeId.ASSIGNI && next.p1 == idx &&
+                next.parm == MathOp.PAS) return;
+        }
+
+        Symbol sym = ctx.find_symbol(func, (String)icode.parm);
+        emit2i("MOV", icode.offset, sym.offset);
+        emit_load("LDR", icode.offset, icode.offset);
+    }
+
+    //---------------------------------------------------------------
+    // Set a spilled local. A move stores the value straight to RAM,
+    // with the local's temp holding the address. Other operations
+    // work on the loaded value in the temp, then store it.
+    //---------------------------------------------------------------
+    private void spill_assign_icode(ICode icode, ICode ic1, ICode ic2)
+        throws IOException, MError
+    {
+        Symbol sym = ctx.find_symbol(func, (String)ic1.parm);
+
+        if (icode.parm != MathOp.PAS)
+        {
+            assign_label_icode(icode, ic1, ic2);
+            emit2i("MOV", 1, sym.offset);
+            emit_store(1, ic1.offset);
+        }
+        else
+        {
+            int src = ic2.offset;
+            if (ic2.id == ICodeId.ICON || ic2.id == ICodeId.SCON)
+            {
+                emit2i("MOV", 1, (int)ic2.parm);
+                src = 1;
+            }
+            emit2i("MOV", ic1.offset, sym.offset);
+            emit_store(ic1.offset, src);
+        }
+        write("\n");
     }
 
     //---------------------------------------------------------------
-    private void assign_array_icode(ICode icode, ICode ic1, ICode ic2) throws IOException
+    private void assign_array_icode(ICode icode, ICode ic1, ICode ic2)
+        throws IOException, MError
     {
         int ival;
         String str, op;
@@ -703,16 +936,13 @@ public class AsmGen18
             case CALL:
                 if (mop == MathOp.PAS)
                 {
-                    str = String.format("(%d), %d", ic1.offset, ic2.offset);
-                    emit1("STR", str);
+                    emit_store(ic1.offset, ic2.offset);
                 }
                 else
                 {
-                    str = String.format("1, (%d)", ic1.offset);
-                    emit1("LDR", str);
+                    emit_load("LDR", 1, ic1.offset);
                     emit2(op, 1, ic2.offset);
-                    str = String.format("(%d), 1", ic1.offset);
-                    emit1("STR", str);
+                    emit_store(ic1.offset, 1);
                 }
                 break;
 
@@ -721,25 +951,22 @@ public class AsmGen18
                 if (mop == MathOp.PAS)
                 {
                     emit2i("MOV", 1, (int)ic2.parm);
-                    str = String.format("(%d), 1", ic1.offset);
-                    emit1("STR", str);
+                    emit_store(ic1.offset, 1);
                 }
                 else
                 {
-                    str = String.format("1, (%d)", ic1.offset);
-                    emit1("LDR", str);
+                    emit_load("LDR", 1, ic1.offset);
                     emit2i(op, 1, (int)ic2.parm);
-                    str = String.format("(%d), 1", ic1.offset);
-                    emit1("STR", str);
+                    emit_store(ic1.offset, 1);
                 }
                 break;
         }
-        ofp.write('\n');
+        write("\n");
     }
 
     //---------------------------------------------------------------
     private void assign_port_icode(ICode icode, ICode ic1, ICode ic2)
-        throws IOException
+        throws IOException, MError
     {
         int ival;
         String str, op = null;
@@ -788,11 +1015,12 @@ public class AsmGen18
                 }
                 break;
         }
-        ofp.write('\n');
+        write("\n");
     }
 
     //---------------------------------------------------------------
-    private void assign_bool_icode(ICode icode, ICode ic1, ICode ic2) throws IOException
+    private void assign_bool_icode(ICode icode, ICode ic1, ICode ic2)
+        throws IOException, MError
     {
         String op = "BMOV";
         MathOp mop = (MathOp)icode.parm;
@@ -817,11 +1045,12 @@ public class AsmGen18
                     emit2(op, ic1.offset, ic2.offset);
                 break;
         }
-        ofp.write('\n');
+        write("\n");
     }
 
     //---------------------------------------------------------------
-    private void mathb_icode(ICode icode, ICode ic1, ICode ic2) throws IOException
+    private void mathb_icode(ICode icode, ICode ic1, ICode ic2)
+        throws IOException, MError
     {
         String op;
         MathOp mop = (MathOp)icode.parm;
@@ -851,7 +1080,7 @@ public class AsmGen18
 
     //---------------------------------------------------------------
     private void mathi_icode(ICode icode, ICode ic1, ICode ic2)
-        throws IOException
+        throws IOException, MError
     {
         String op;
         MathOp mop = (MathOp)icode.parm;
@@ -902,52 +1131,191 @@ public class AsmGen18
     }
 
     //---------------------------------------------------------------
-    private void emit0(String op) throws IOException
+    // While a func is being generated, its code is held for the
+    // peephole optimizer, and written when it is done.
+    //---------------------------------------------------------------
+    private void write(String str) throws IOException
+    {
+        if (code != null)
+            code.add(new AsmGen18Peep.Inst(AsmGen18Peep.Form.TEXT, str));
+        else if (ofp != null)
+            ofp.write(str);
+    }
+
+    //---------------------------------------------------------------
+    private void emit(AsmGen18Peep.Inst inst) throws IOException, MError
+    {
+        if (code != null)
+        {
+            inst.src = src;
+            code.add(inst);
+        }
+        else
+            put(inst);
+    }
+
+    //---------------------------------------------------------------
+    private void emit_org(int adrs) throws IOException
+    {
+        write(String.format("    ORG     %d\n", adrs));
+        if (asm != null) asm.put_org(adrs);
+    }
+
+    //---------------------------------------------------------------
+    private void emit_marker(String label) throws IOException, MError
+    {
+        emit(new AsmGen18Peep.Inst(AsmGen18Peep.Form.MARKER, label));
+    }
+
+    //---------------------------------------------------------------
+    private void emit0(String op) throws IOException, MError
     {
-        String str = String.format("    %-6s\n", op);
-        ofp.write(str);
+        emit(new AsmGen18Peep.Inst(AsmGen18Peep.Form.OP0, op));
     }
 
     //---------------------------------------------------------------
-    private void emit1(String op, String p1) throws IOException
+    private void emit1(String op, String label) throws IOException, MError
     {
-        String str = String.format("    %-6s  %s\n", op, p1);
-        ofp.write(str);
+        emit(new AsmGen18Peep.Inst(op, label));
     }
 
     //---------------------------------------------------------------
-    private void emit1(String op, int p1) throws IOException
+    private void emit1(String op, int p1) throws IOException, MError
     {
-        String str = String.format("    %-6s  %d\n", op, p1);
-        ofp.write(str);
+        emit(new AsmGen18Peep.Inst(AsmGen18Peep.Form.OP1, op, p1, 0));
+    }
+
+    //---------------------------------------------------------------
+    private void emit1i(String op, int p1) throws IOException, MError
+    {
+        emit(new AsmGen18Peep.Inst(AsmGen18Peep.Form.OP1I, op, p1, 0));
     }
 
     // -------------------------------------------------------------------------
-    private void emit2(String op, String p1, String p2) throws IOException
+    private void emit2(String op, int p1, int p2) throws IOException, MError
     {
-        String str = String.format("    %-6s  %s, %s\n", op, p1, p2);
-        ofp.write(str);
+        emit(new AsmGen18Peep.Inst(AsmGen18Peep.Form.OP2, op, p1, p2));
     }
 
     // -------------------------------------------------------------------------
-    private void emit2(String op, int p1, int p2) throws IOException
+    private void emit2i(String op, int p1, int p2) throws IOException, MError
     {
-        String str = String.format("    %-6s  %d, %d\n", op, p1, p2);
-        ofp.write(str);
+        emit(new AsmGen18Peep.Inst(AsmGen18Peep.Form.OP2I, op, p1, p2));
     }
 
     // -------------------------------------------------------------------------
-    private void emit2i(String op, int p1, int p2) throws IOException
+    private void emit_load(String op, int p1, int p2)
+        throws IOException, MError
+    {
+        emit(new AsmGen18Peep.Inst(AsmGen18Peep.Form.LOAD, op, p1, p2));
+    }
+
+    // -------------------------------------------------------------------------
+    private void emit_store(int p1, int p2) throws IOException, MError
+    {
+        emit(new AsmGen18Peep.Inst(AsmGen18Peep.Form.STORE, "STR", p1, p2));
+    }
+
+    //---------------------------------------------------------------
+    // Write an instruction as asm text to ofp, and pass it to the
+    // assembler's encoder in asm.
+    //---------------------------------------------------------------
+    private void put(AsmGen18Peep.Inst inst) throws IOException, MError
+    {
+        String op = inst.op;
+        int p1 = inst.p1, p2 = inst.p2;
+        String str;
+
+        if (ctx.debug_map && inst.form != AsmGen18Peep.Form.TEXT &&
+            inst.form != AsmGen18Peep.Form.MARKER)
+            put_line(inst.src);
+
+        switch (inst.form)
+        {
+            case TEXT:
+                if (ofp != null) ofp.write(op);
+                return;
+
+            case MARKER:
+                str = op + '\n';
+                if (asm != null) asm.put_marker(op);
+                break;
+
+            case OP0:
+                str = String.format("    %-6s\n", op);
+                if (asm != null) asm.put_inst(op.trim());
+                break;
+
+            case LABEL:
+                str = String.format("    %-6s  %s\n", op, inst.label);
+                if (asm != null) asm.put_inst(op, inst.label);
+                break;
+
+            case OP1:
+                str = String.format("    %-6s  %d\n", op, p1);
+                if (asm != null) asm.put_inst(op, p1);
+                break;
+
+            case OP1I:
+                str = String.format("    %-6s  #%d\n", op, p1);
+                if (asm != null) asm.put_inst_imm(op, p1);
+                break;
+
+            case OP2:
+                str = String.format("    %-6s  %d, %d\n", op, p1, p2);
+                if (asm != null) asm.put_inst(op, p1, p2);
+                break;
+
+            case OP2I:
+                str = String.format("    %-6s  %d, #%d\n", op, p1, p2);
+                if (asm != null) asm.put_inst_imm(op, p1, p2);
+                break;
+
+            case LOAD:
+                str = String.format("    %-6s  %d, (%d)\n", op, p1, p2);
+                if (asm != null) asm.put_load(op, p1, p2);
+                break;
+
+            default:
+                str = String.format("    %-6s  (%d), %d\n", op, p1, p2);
+                if (asm != null) asm.put_store(p1, p2);
+                break;
+        }
+
+        if (ofp != null) ofp.write(str);
+    }
+
+    //---------------------------------------------------------------
+    // The debug map gives the func and source line of each address.
+    // In asm text these are comments the assembler reads. An inst made
+    // by a peephole rule has no src, and goes with the line before it.
+    //---------------------------------------------------------------
+    private void put_func(String label) throws IOException
+    {
+        if (ofp != null) ofp.write(";@func " + label + '\n');
+        if (asm != null) asm.put_func(label);
+        last_src = null;
+    }
+
+    //---------------------------------------------------------------
+    private void put_line(Src line_src) throws IOException
     {
-        String str = String.format("    %-6s  %d, #%d\n", op, p1, p2);
-        ofp.write(str);
+        if (line_src == null || (last_src != null &&
+            line_src.file == last_src.file && line_src.line == last_src.line))
+            return;
+
+        String file = ctx.file_names.get(line_src.file);
+        if (ofp != null)
+            ofp.write(";@line " + file + ' ' + line_src.line + '\n');
+        if (asm != null) asm.put_line(file, line_src.line);
+        last_src = line_src;
     }
 
     //---------------------------------------------------------------
     private Func get_func(String name)
     {
         String[] sa = name.split("\\.");
-        Module module = Module.modules.get(sa[0]);
+        Module module = ctx.modules.get(sa[0]);
         return module.funcs.get(name);
     }
 }
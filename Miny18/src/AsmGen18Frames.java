@@ -0,0 +1,218 @@
+//-----------------------------------------------------------------------------
+// Miny Asm Code Generator, Place Function Frames
+//
+// Gives each function's registers and bits a base offset for the whole
+// program. The main function and each ISR are roots of their own call
+// tree. Two functions may share the same registers unless they can be
+// live at the same time, either because one calls the other, directly
+// or not, or because they are in call trees that can preempt each other.
+//
+// An ISR can only preempt code running below its vector level. Main
+// starts at level 15, an ISR starts at its vector, or at the level set
+// by its first statement, and any level statement in a call tree can
+// lower it from there.
+//
+// History:
+// 1.0.0   10/18/2026   File Created
+// 1.1.0   10/18/2026   Place frames again after a spill
+//-----------------------------------------------------------------------------
+// Copyright 2020 Mike Christle
+//
+// Permission is hereby granted, free of charge, to any person
+// obtaining a copy of this software and associated documentation
+// files (the "Software"), to deal in the Software without
+// restriction, including without limitation the rights to use,
+// copy, modify, merge, publish, distribute, sublicense, and/or
+// sell copies of the Software, and to permit persons to whom the
+// Software is furnished to do so, subject to the following
+// conditions:
+//
+// The above copyright notice and this permission notice shall be
+// included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+// OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+// HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+// WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+// FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+// OTHER DEALINGS IN THE SOFTWARE.
+//-----------------------------------------------------------------------------
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.TreeSet;
+
+//-----------------------------------------------------------------------------
+public class AsmGen18Frames
+{
+    //-------------------------------------------------------------------------
+    private static class Root
+    {
+        public String name;
+        public int vector;      // Zero for main
+        public int level;       // Lowest level it can run at
+        public TreeSet<String> funcs = new TreeSet<>();
+    }
+
+    private ArrayList<Root> roots = new ArrayList<>();
+
+    // Funcs called by each func, directly and not
+    private HashMap<String, TreeSet<String>> calls = new HashMap<>();
+    private HashMap<String, TreeSet<String>> below = new HashMap<>();
+
+    private ArrayList<Func> order = new ArrayList<>();
+    private TreeSet<String> visited = new TreeSet<>();
+    private CompilationContext ctx;
+
+    //-------------------------------------------------------------------------
+    public AsmGen18Frames(CompilationContext _ctx)
+    {
+        ctx = _ctx;
+    }
+
+    //-------------------------------------------------------------------------
+    // Vector is zero for main.
+    //-------------------------------------------------------------------------
+    public void add_root(CallTree tree, int vector)
+    {
+        Root root = new Root();
+        root.name = tree.name;
+        root.vector = vector;
+        root.level = vector;
+        if (vector == 0 || starts_with_level(ctx.find_func(tree.name)))
+            root.level = 15;
+
+        add_calls(tree, root);
+
+        for (String name : root.funcs)
+            for (ICode icode : ctx.find_func(name).icodes)
+                if (icode.id == ICodeId.LEVEL)
+                    root.level = Math.min(root.level, (int)icode.parm);
+
+        roots.add(root);
+    }
+
+    //-------------------------------------------------------------------------
+    // Set reg_base and bit_base of every func. Callers are placed before
+    // the funcs they call, and each takes the lowest offset clear of the
+    // funcs already placed that it interferes with.
+    //-------------------------------------------------------------------------
+    public void run(int reg_base, int bit_base)
+    {
+        if (order.isEmpty())
+            for (int i = roots.size() - 1; i >= 0; i--)
+                post_order(roots.get(i).name);
+
+        for (int i = order.size() - 1; i >= 0; i--)
+        {
+            Func func = order.get(i);
+            ArrayList<int[]> regs = new ArrayList<>();
+            ArrayList<int[]> bits = new ArrayList<>();
+
+            for (int j = order.size() - 1; j > i; j--)
+            {
+                Func fn = order.get(j);
+                if (interfere(func.label, fn.label))
+                {
+                    regs.add(new int[] {fn.reg_base, fn.reg_base + fn.reg_cnt});
+                    bits.add(new int[] {fn.bit_base, fn.bit_base + fn.bit_cnt});
+                }
+            }
+
+            func.reg_base = place(regs, reg_base, func.reg_cnt);
+            func.bit_base = place(bits, bit_base, func.bit_cnt);
+        }
+    }
+
+    //-------------------------------------------------------------------------
+    public void dump()
+    {
+        for (Root root : roots)
+            ctx.log.printf("    %-24s  Vector %2d  Level %2d\n",
+                root.name, root.vector, root.level);
+    }
+
+    //-------------------------------------------------------------------------
+    private void add_calls(CallTree tree, Root root)
+    {
+        root.funcs.add(tree.name);
+        if (calls.containsKey(tree.name) == false)
+            calls.put(tree.name, new TreeSet<>());
+
+        if (tree.tree != null)
+            for (CallTree sub_tree : tree.tree)
+            {
+                calls.get(tree.name).add(sub_tree.name);
+                add_calls(sub_tree, root);
+            }
+    }
+
+    //-------------------------------------------------------------------------
+    private void post_order(String name)
+    {
+        if (visited.add(name) == false) return;
+
+        TreeSet<String> set = new TreeSet<>();
+        for (String call : calls.get(name))
+        {
+            post_order(call);
+            set.add(call);
+            set.addAll(below.get(call));
+        }
+
+        below.put(name, set);
+        order.add(ctx.find_func(name));
+    }
+
+    //-------------------------------------------------------------------------
+    public boolean interfere(String a, String b)
+    {
+        if (below.get(a).contains(b) || below.get(b).contains(a))
+            return true;
+
+        for (Root ra : roots)
+            for (Root rb : roots)
+            {
+                if (ra == rb) continue;
+                if (ra.funcs.contains(a) && rb.funcs.contains(b) &&
+                    (ra.vector > rb.level || rb.vector > ra.level))
+                    return true;
+            }
+
+        return false;
+    }
+
+    //-------------------------------------------------------------------------
+    private static int place(ArrayList<int[]> used, int base, int cnt)
+    {
+        boolean moved = cnt > 0;
+        while (moved)
+        {
+            moved = false;
+            for (int[] range : used)
+                if (base < range[1] && range[0] < base + cnt)
+                {
+                    base = range[1];
+                    moved = true;
+                }
+        }
+        return base;
+    }
+
+    //-------------------------------------------------------------------------
+    // If an ISR sets the level before anything else, no register of its
+    // is in use at its vector level.
+    //-------------------------------------------------------------------------
+    private static boolean starts_with_level(Func func)
+    {
+        for (ICode icode : func.icodes)
+        {
+            if (icode.id == ICodeId.LEVEL) return true;
+            if (icode.id != ICodeId.NONE && icode.id != ICodeId.MARKER)
+                return false;
+        }
+        return false;
+    }
+}
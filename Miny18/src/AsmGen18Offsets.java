@@ -7,6 +7,11 @@
 // 1.1.0   09/16/2020   Add NOP command
 //                      Change NOP ICodeId to NONE to support NOP command
 // 1.2.0   10/12/2020   Fix bug in boolean register allocation
+// 1.3.0   10/18/2026   Move static state to CompilationContext
+// 1.4.0   10/18/2026   Linear scan register allocation
+// 1.5.0   10/18/2026   Spill locals to RAM
+// 1.6.0   10/18/2026   Find loops from the flow graph
+// 1.7.0   10/18/2026   Only give used symbols an offset
 //-----------------------------------------------------------------------------
 // Copyright 2020 Mike Christle
 //
@@ -32,7 +37,11 @@
 // OTHER DEALINGS IN THE SOFTWARE.
 //-----------------------------------------------------------------------------
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Set;
+import java.util.TreeSet;
 
 //-----------------------------------------------------------------------------
 public class AsmGen18Offsets
@@ -43,11 +52,49 @@ public class AsmGen18Offsets
     public int ram_offset = 0;
     public int bit_offset = 1;
 
-    private HashMap<Integer, Integer> temp_regs = new HashMap<>();
-    private HashMap<Integer, Integer> temp_bits = new HashMap<>();
+    // Register and bit pools for one function. Entry k is the func offset
+    // -(k + 1), and holds the last ICode index that uses it.
+    private ArrayList<Integer> temp_regs = new ArrayList<>();
+    private ArrayList<Integer> temp_bits = new ArrayList<>();
+
+    // Live interval of each local, start and end ICode index
+    private LinkedHashMap<String, int[]> intervals = new LinkedHashMap<>();
+    private ArrayList<String> starts = new ArrayList<>();
+
+    // Last ICode that uses each ICode
+    private int[] last_use;
+
+    // What scan_func changes, so a func can be scanned again after a
+    // local is spilled.
+    private static class Saved
+    {
+        public ICodeId[] ids;
+        public int[] offsets, p1s;
+        public int reg_cnt, bit_cnt;
+        public HashMap<String, Integer> sym_offsets = new HashMap<>();
+    }
+
+    private HashMap<String, Saved> saved = new HashMap<>();
+    private CompilationContext ctx;
+
+    // Local of each func that is cheapest to spill, and its cost
+    private HashMap<String, String> coldest = new HashMap<>();
+    private HashMap<String, Double> coldest_cost = new HashMap<>();
+
+    // Cost of the local found by coldest_local
+    public double spill_cost;
 
     //-------------------------------------------------------------------------
-    public void scan_symbols(HashMap<String, Symbol> symbols) throws MError
+    public AsmGen18Offsets(CompilationContext _ctx)
+    {
+        ctx = _ctx;
+    }
+
+    //-------------------------------------------------------------------------
+    // Only the symbols in used get an offset.
+    //-------------------------------------------------------------------------
+    public void scan_symbols(HashMap<String, Symbol> symbols,
+                             Set<Symbol> used) throws MError
     {
         for (String skey : symbols.keySet())
         {
@@ -55,6 +102,7 @@ public class AsmGen18Offsets
 
             if (sym.type == TypeId.BOOL && sym.count > 1)
                 throw new MError("M32 does not support bool arrays");
+            if (used.contains(sym) == false) continue;
 
             if (sym.store == StoreId.RAM)
             {
@@ -74,6 +122,11 @@ public class AsmGen18Offsets
         }
     }
 
+    //-------------------------------------------------------------------------
+    // Linear scan allocation. Temps and locals share one pool of registers
+    // and one of bits, and each is held only over its live interval. A
+    // local whose first use is a move from a temp that ends there takes
+    // over the temp's register, so the move drops out.
     //-------------------------------------------------------------------------
     public void scan_func(Func func) throws MError
     {
@@ -81,29 +134,22 @@ public class AsmGen18Offsets
         Symbol symbol;
         ICode icode, ic1, ic2;
         int val, i;
+        int next_start = 0;
 
-        int last = func.icodes.size();
-        for (String skey : func.symbols.keySet())
+        save_func(func);
+        find_intervals(func);
+        find_last_use(func);
+        find_coldest(func);
+
+        for (i = 0; i < func.icodes.size(); i++)
         {
-            Symbol sym = func.symbols.get(skey);
-            switch (sym.type)
+            while (next_start < starts.size() &&
+                   intervals.get(starts.get(next_start))[0] == i)
             {
-                case INT:
-                case RAMP:
-                case ROMP:
-                    temp_regs.put(--reg_offset, last);
-                    sym.offset = reg_offset;
-                    break;
-
-                case BOOL:
-                    temp_bits.put(--bit_offset, last);
-                    sym.offset = bit_offset;
-                    break;
+                start_local(func, starts.get(next_start), i);
+                next_start++;
             }
-        }
 
-        for (i = 0; i < func.icodes.size(); i++)
-        {
             icode = func.icodes.get(i);
             switch (icode.id)
             {
@@ -133,7 +179,8 @@ public class AsmGen18Offsets
                     ic2 = func.icodes.get(icode.p2);
                     if (icode.parm == MathOp.PAS && 
                         ic2.id == ICodeId.IN &&
-                        ic1.id == ICodeId.REG)
+                        ic1.id == ICodeId.REG &&
+                        spilled(func, ic1) == false)
                     {
                         ic2.offset = ic1.offset;
                         ic1.id = ICodeId.NONE;
@@ -144,7 +191,7 @@ public class AsmGen18Offsets
                 case CALL:   // id > FuncLabel
                     if (func.isr)
                         throw new MError("ISR can't make calls", icode.src);
-                    Func call_func = Module.find_func((String)icode.parm);
+                    Func call_func = ctx.find_func((String)icode.parm);
                     if (call_func.type != TypeId.NONE)
                         icode.offset = -1;
                     break;
@@ -160,7 +207,10 @@ public class AsmGen18Offsets
                     break;
 
                 case COMPI:// id > MathOp, Op1, Op2
-                    icode.offset = temp_bit(i, icode.last_ref);
+                    if (feeds_jump(func, i))
+                        icode.offset = 0;
+                    else
+                        icode.offset = temp_bit(i, icode.last_ref);
                     ic1 = func.icodes.get(icode.p1);
                     switch (ic1.id)
                     {
@@ -173,7 +223,7 @@ public class AsmGen18Offsets
 
                 case BIT:    // id > Label
                     label = (String)icode.parm;
-                    symbol = Module.find_symbol(func, label);
+                    symbol = ctx.find_symbol(func, label);
                     if (symbol.offset == 0)
                         symbol.offset = temp_bit(i, icode.last_ref);
                     icode.offset = symbol.offset;
@@ -181,7 +231,13 @@ public class AsmGen18Offsets
 
                 case REG:  // id > Label
                     label = (String)icode.parm;
-                    symbol = Module.find_symbol(func, label);
+                    symbol = ctx.find_symbol(func, label);
+                    if (spilled(func, icode))
+                    {
+                        // Loaded from or stored to RAM through a temp
+                        icode.offset = temp_reg(i, last_use[i]);
+                        break;
+                    }
                     if (symbol.offset == 0)
                         symbol.offset = temp_reg(i, icode.last_ref);
                     icode.offset = symbol.offset;
@@ -190,20 +246,20 @@ public class AsmGen18Offsets
                 case RAM:  // id > Label
                 case ROM:  // id > Label
                     label = (String)icode.parm;
-                    symbol = Module.find_symbol(func, label);
+                    symbol = ctx.find_symbol(func, label);
                     icode.offset = symbol.offset;
                     break;
 
                 case IN:     // id > Label
                     label = (String)icode.parm;
-                    symbol = Module.find_symbol(func, label);
+                    symbol = ctx.find_symbol(func, label);
                     icode.offset = temp_reg(i, icode.last_ref);
                     icode.p1 = symbol.offset;
                     break;
 
                 case OUT:     // id > Label
                     label = (String)icode.parm;
-                    symbol = Module.find_symbol(func, label);
+                    symbol = ctx.find_symbol(func, label);
                     icode.offset = temp_reg(i, icode.last_ref);
                     icode.p1 = symbol.offset;
                     break;
@@ -211,7 +267,7 @@ public class AsmGen18Offsets
                 case RETURN: // id, Expr
                     if (icode.p1 >= 0)
                     {
-                        symbol = Module.find_symbol(func, "return");
+                        symbol = ctx.find_symbol(func, "return");
                         if (symbol.type == TypeId.BOOL)
                             icode.offset = temp_bit(i, icode.last_ref);
                         else
@@ -222,10 +278,10 @@ public class AsmGen18Offsets
 
                 case MATHB:   // id > MathOp, Op1, Op2
                     ic1 = func.icodes.get(icode.p1);
-                    if (ic1.offset > 0 && ic1.last_ref <= i)
+                    if (temp_bit_ends(ic1, i))
                     {
                         icode.offset = ic1.offset;
-                        temp_bits.put(icode.offset, icode.last_ref);
+                        temp_bits.set(-icode.offset - 1, icode.last_ref);
                     }
                     else
                         icode.offset = temp_bit(i, icode.last_ref);
@@ -233,10 +289,10 @@ public class AsmGen18Offsets
 
                 case MATHI:   // id > MathOp, Op1, Op2
                     ic1 = func.icodes.get(icode.p1);
-                    if (ic1.offset > 0 && ic1.last_ref <= i)
+                    if (temp_reg_ends(ic1, i))
                     {
                         icode.offset = ic1.offset;
-                        temp_regs.put(icode.offset, icode.last_ref);
+                        temp_regs.set(-icode.offset - 1, icode.last_ref);
                     }
                     else
                         icode.offset = temp_reg(i, icode.last_ref);
@@ -249,7 +305,7 @@ public class AsmGen18Offsets
                        (ic1.id == ICodeId.MATHI || ic1.id == ICodeId.ARRAY))
                        {
                             icode.offset = ic1.offset;
-                            temp_regs.put(icode.offset, icode.last_ref);
+                            temp_regs.set(-icode.offset - 1, icode.last_ref);
                        }
                     else
                         icode.offset = temp_reg(i, icode.last_ref);
@@ -267,35 +323,374 @@ public class AsmGen18Offsets
         temp_bits.clear();
     }
 
+    //-------------------------------------------------------------------------
+    // The live interval of a local runs from its first reference to the
+    // last ICode that uses it. Parameters are set by the caller, so they
+    // start at the entry. An interval that overlaps a loop is stretched
+    // over the whole loop, since the value may be carried around the back
+    // edge. Locals with no references get no register.
+    //-------------------------------------------------------------------------
+    private void find_intervals(Func func)
+    {
+        ICode icode;
+        String label;
+        int i;
+
+        intervals.clear();
+        starts.clear();
+
+        for (Node parm : func.parms)
+        {
+            label = (String)parm.value;
+            label = label.substring(label.lastIndexOf('.') + 1);
+            intervals.put(label, new int[] {0, 0});
+        }
+
+        for (i = 0; i < func.icodes.size(); i++)
+        {
+            icode = func.icodes.get(i);
+
+            label = local_label(func, icode);
+            if (label != null) add_use(label, i);
+
+            if (icode.p1 >= 0)
+            {
+                label = local_label(func, func.icodes.get(icode.p1));
+                if (label != null) add_use(label, i);
+            }
+            if (icode.p2 >= 0 && icode.id != ICodeId.JMP &&
+                icode.id != ICodeId.JMPT && icode.id != ICodeId.JMPF)
+            {
+                label = local_label(func, func.icodes.get(icode.p2));
+                if (label != null) add_use(label, i);
+            }
+        }
+
+        boolean changed = true;
+        while (changed)
+        {
+            changed = false;
+            for (FlowGraph.Loop loop : func.cfg.loops)
+            {
+                for (int[] range : intervals.values())
+                {
+                    if (range[0] <= loop.last && range[1] >= loop.first &&
+                       (range[0] > loop.first || range[1] < loop.last))
+                    {
+                        range[0] = Math.min(range[0], loop.first);
+                        range[1] = Math.max(range[1], loop.last);
+                        changed = true;
+                    }
+                }
+            }
+        }
+
+        starts.addAll(intervals.keySet());
+        starts.sort((a, b) -> intervals.get(a)[0] - intervals.get(b)[0]);
+    }
+
+    //-------------------------------------------------------------------------
+    private void add_use(String label, int idx)
+    {
+        int[] range = intervals.get(label);
+        if (range == null)
+            intervals.put(label, new int[] {idx, idx});
+        else
+            range[1] = Math.max(range[1], idx);
+    }
+
+    //-------------------------------------------------------------------------
+    // The label, if the ICode refers to a local or parameter.
+    //-------------------------------------------------------------------------
+    private String local_label(Func func, ICode icode)
+    {
+        switch (icode.id)
+        {
+            case REG:
+            case BIT:
+            case ADDRESS:
+            case ARRAY:
+                String label = (String)icode.parm;
+                if (label.equals("return")) return null;
+                if (func.symbols.containsKey(label) &&
+                    spilled(func, icode) == false) return label;
+                break;
+        }
+
+        return null;
+    }
+
+    //-------------------------------------------------------------------------
+    // Give the local a register or bit for its interval. If the first
+    // reference is the destination of a move from a temp that ends at the
+    // move, share the temp's register or bit.
+    //-------------------------------------------------------------------------
+    private void start_local(Func func, String label, int idx)
+        throws MError
+    {
+        Symbol sym = func.symbols.get(label);
+        int end = intervals.get(label)[1];
+        boolean bit = sym.type == TypeId.BOOL;
+
+        ICode icode = func.icodes.get(idx);
+        if (idx + 1 < func.icodes.size() &&
+            label.equals(local_label(func, icode)))
+        {
+            ICode move = func.icodes.get(idx + 1);
+            if ((move.id == ICodeId.ASSIGNI || move.id == ICodeId.ASSIGNB) &&
+                move.p1 == idx && move.parm == MathOp.PAS)
+            {
+                ICode ic2 = func.icodes.get(move.p2);
+                if (bit ? temp_bit_ends(ic2, idx + 1) :
+                          temp_reg_ends(ic2, idx + 1))
+                {
+                    sym.offset = ic2.offset;
+                    if (bit)
+                        temp_bits.set(-sym.offset - 1, end);
+                    else
+                        temp_regs.set(-sym.offset - 1, end);
+                    return;
+                }
+            }
+        }
+
+        if (bit)
+            sym.offset = temp_bit(idx, end);
+        else
+            sym.offset = temp_reg(idx, end);
+    }
+
+    //-------------------------------------------------------------------------
+    // The last ICode that reads each ICode. For the local of a REG ICode
+    // this is within the statement, unlike last_ref.
+    //-------------------------------------------------------------------------
+    private void find_last_use(Func func)
+    {
+        last_use = new int[func.icodes.size()];
+        for (int i = 0; i < last_use.length; i++)
+        {
+            ICode icode = func.icodes.get(i);
+            last_use[i] = i;
+            if (icode.p1 >= 0) last_use[icode.p1] = i;
+            if (icode.p2 >= 0 && icode.id != ICodeId.JMP &&
+                icode.id != ICodeId.JMPT && icode.id != ICodeId.JMPF)
+                last_use[icode.p2] = i;
+        }
+    }
+
+    //-------------------------------------------------------------------------
+    // True if the ICode refers to a local that has been spilled to RAM.
+    //-------------------------------------------------------------------------
+    public static boolean spilled(Func func, ICode icode)
+    {
+        if (icode.id != ICodeId.REG) return false;
+        Symbol sym = func.symbols.get((String)icode.parm);
+        return sym != null && sym.store == StoreId.RAM;
+    }
+
+    //-------------------------------------------------------------------------
+    // The local of the func that is cheapest to keep in RAM, or null if
+    // there is none. Its cost is left in spill_cost.
+    //-------------------------------------------------------------------------
+    public String coldest_local(Func func)
+    {
+        spill_cost = coldest_cost.getOrDefault(func.label, Double.MAX_VALUE);
+        return coldest.get(func.label);
+    }
+
+    //-------------------------------------------------------------------------
+    // Each use of a local is weighted by ten for each loop it is in, and
+    // the total is divided by the length of its interval, the registers
+    // it frees. Parameters are written by the caller, so they stay in
+    // registers.
+    //-------------------------------------------------------------------------
+    private void find_coldest(Func func)
+    {
+        HashMap<String, Double> weights = new HashMap<>();
+
+        for (int i = 0; i < func.icodes.size(); i++)
+        {
+            ICode icode = func.icodes.get(i);
+            if (icode.id != ICodeId.REG) continue;
+            String label = (String)icode.parm;
+            if (func.symbols.containsKey(label) == false) continue;
+            int depth = func.cfg.loop_depth(i);
+            weights.merge(label, Math.pow(10, Math.min(depth, 6)),
+                          Double::sum);
+        }
+
+        TreeSet<String> parms = new TreeSet<>();
+        for (Node parm : func.parms)
+        {
+            String label = (String)parm.value;
+            parms.add(label.substring(label.lastIndexOf('.') + 1));
+        }
+
+        String label_min = null;
+        double cost_min = Double.MAX_VALUE;
+        for (String label : intervals.keySet())
+        {
+            Symbol sym = func.symbols.get(label);
+            if (sym.type != TypeId.INT || sym.store != StoreId.REG ||
+                sym.count != 1 || parms.contains(label) ||
+                weights.containsKey(label) == false) continue;
+
+            int[] range = intervals.get(label);
+            double cost = weights.get(label) / (range[1] - range[0] + 1);
+            if (cost < cost_min)
+            {
+                cost_min = cost;
+                label_min = label;
+            }
+        }
+
+        coldest.put(func.label, label_min);
+        coldest_cost.put(func.label, cost_min);
+    }
+
+    //-------------------------------------------------------------------------
+    // Keep the local in the next free word of RAM, and assign the func
+    // offsets again.
+    //-------------------------------------------------------------------------
+    public void spill_local(Func func, String label) throws MError
+    {
+        if (ram_offset >= (1 << ctx.ram_bits))
+            throw new MError("RAM too small to spill " + label +
+                             " in " + func.label);
+
+        restore_func(func);
+
+        Symbol sym = func.symbols.get(label);
+        sym.store = StoreId.RAM;
+        sym.offset = ram_offset++;
+
+        scan_func(func);
+    }
+
+    //-------------------------------------------------------------------------
+    private void save_func(Func func)
+    {
+        if (saved.containsKey(func.label)) return;
+
+        Saved save = new Saved();
+        int size = func.icodes.size();
+        save.ids = new ICodeId[size];
+        save.offsets = new int[size];
+        save.p1s = new int[size];
+
+        for (int i = 0; i < size; i++)
+        {
+            ICode icode = func.icodes.get(i);
+            save.ids[i] = icode.id;
+            save.offsets[i] = icode.offset;
+            save.p1s[i] = icode.p1;
+        }
+
+        for (String label : func.symbols.keySet())
+            save.sym_offsets.put(label, func.symbols.get(label).offset);
+
+        save.reg_cnt = func.reg_cnt;
+        save.bit_cnt = func.bit_cnt;
+        saved.put(func.label, save);
+    }
+
+    //-------------------------------------------------------------------------
+    private void restore_func(Func func)
+    {
+        Saved save = saved.get(func.label);
+
+        for (int i = 0; i < save.ids.length; i++)
+        {
+            ICode icode = func.icodes.get(i);
+            icode.id = save.ids[i];
+            icode.offset = save.offsets[i];
+            icode.p1 = save.p1s[i];
+        }
+
+        for (String label : func.symbols.keySet())
+        {
+            Symbol sym = func.symbols.get(label);
+            if (sym.store != StoreId.RAM)
+                sym.offset = save.sym_offsets.get(label);
+        }
+
+        func.reg_cnt = save.reg_cnt;
+        func.bit_cnt = save.bit_cnt;
+    }
+
+    //-------------------------------------------------------------------------
+    // True if the ICode is a temp register whose last use is at idx.
+    //-------------------------------------------------------------------------
+    private boolean temp_reg_ends(ICode icode, int idx)
+    {
+        if (icode.offset >= 0 || icode.last_ref != idx) return false;
+
+        switch (icode.id)
+        {
+            case MATHI:
+            case ARRAY:
+            case IN:
+                return true;
+        }
+
+        return false;
+    }
+
+    //-------------------------------------------------------------------------
+    private boolean temp_bit_ends(ICode icode, int idx)
+    {
+        if (icode.offset >= 0 || icode.last_ref != idx) return false;
+        return icode.id == ICodeId.MATHB;
+    }
+
+    //-------------------------------------------------------------------------
+    // A compare that only feeds a jump leaves its result in the flags.
+    //-------------------------------------------------------------------------
+    private boolean feeds_jump(Func func, int idx)
+    {
+        ICode icode = func.icodes.get(idx);
+        if (icode.last_ref <= idx || icode.last_ref >= func.icodes.size())
+            return false;
+
+        ICode jump = func.icodes.get(icode.last_ref);
+        return (jump.id == ICodeId.JMPT || jump.id == ICodeId.JMPF) &&
+               jump.p1 == idx;
+    }
+
+    //-------------------------------------------------------------------------
+    // Lowest free bit. A bit is free once its last use is reached.
     //-------------------------------------------------------------------------
     private int temp_bit(int idx, int last_ref) throws MError
     {
-        for (int ikey : temp_bits.keySet())
+        for (int k = 0; k < temp_bits.size(); k++)
         {
-            if (temp_bits.get(ikey) <= idx)
+            if (temp_bits.get(k) <= idx)
             {
-                temp_bits.put(ikey, last_ref);
-                return ikey;
+                temp_bits.set(k, last_ref);
+                return -k - 1;
             }
         }
 
-        temp_bits.put(--bit_offset, last_ref);
-        return bit_offset;
+        temp_bits.add(last_ref);
+        return -temp_bits.size();
     }
 
+    //-------------------------------------------------------------------------
+    // Lowest free register. A register is free only after its last use, so
+    // a result is never written over an operand it still has to read.
     //-------------------------------------------------------------------------
     private int temp_reg(int idx, int last_ref) throws MError
     {
-        for (int ikey : temp_regs.keySet())
+        for (int k = 0; k < temp_regs.size(); k++)
         {
-            if (temp_regs.get(ikey) < idx)
+            if (temp_regs.get(k) < idx)
             {
-                temp_regs.put(ikey, last_ref);
-                return ikey;
+                temp_regs.set(k, last_ref);
+                return -k - 1;
             }
         }
 
-        temp_regs.put(--reg_offset, last_ref);
-        return reg_offset;
+        temp_regs.add(last_ref);
+        return -temp_regs.size();
     }
 }
@@ -0,0 +1,962 @@
+//-----------------------------------------------------------------------------
+// Miny Asm Code Generator, Peephole Optimizer
+//
+// Rewrites the Proc18 instructions of one function after AsmGen18 has
+// made them, and before they are written and encoded. Each rule in the
+// table looks at a short window starting at one instruction, checks that
+// the change is safe, and makes it. The rules run over the function until
+// none of them match.
+//
+// Every ALU, load and bit instruction sets the Z and F flags, and the
+// Jxx and Sxx instructions read them. A rule that drops or changes how
+// the flags are set needs them to be dead, that is set again before any
+// read. AsmGen18 sets the flags right before each read, so they are also
+// dead at a marker, jump, call or return. Bits at a fixed address can be
+// changed by the board, so moves of those are left alone.
+//
+// A call right before a return becomes a jump, and the callee returns
+// for the caller. Calls can not be recursive, so this never loops, and
+// the RAM stack is never deeper than CallTree found. Two paths that end
+// with the same instructions share one copy of them.
+//
+// An if that only sets a bool becomes an Sxx that sets the bit from the
+// flags. When one arm moves a bit or there is only one arm, the new code
+// keeps the Sxx result in bit zero, the scratch bit, for the next
+// instruction. An interrupt saves the flags but not the bits, and any ISR
+// may use bit zero, so those forms are only made when there is no ISR.
+//
+// Last, the markers no jump uses are dropped, and the rest are numbered
+// in order, so the asm is the same for a warm or a cold module cache.
+//
+// History:
+// 1.0.0   10/18/2026   File Created
+// 1.1.0   10/18/2026   Add if conversion
+// 1.2.0   10/18/2026   Add tail calls and shared tails
+// 1.3.0   10/18/2026   Number the markers in order
+// 1.4.0   10/18/2026   Keep the compare after a MOV that is an LDI
+// 1.5.0   10/18/2026   No if conversion through bit zero with an ISR
+//-----------------------------------------------------------------------------
+// Copyright 2020 Mike Christle
+//
+// Permission is hereby granted, free of charge, to any person
+// obtaining a copy of this software and associated documentation
+// files (the "Software"), to deal in the Software without
+// restriction, including without limitation the rights to use,
+// copy, modify, merge, publish, distribute, sublicense, and/or
+// sell copies of the Software, and to permit persons to whom the
+// Software is furnished to do so, subject to the following
+// conditions:
+//
+// The above copyright notice and this permission notice shall be
+// included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+// OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+// HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+// WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+// FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+// OTHER DEALINGS IN THE SOFTWARE.
+//-----------------------------------------------------------------------------
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.TreeSet;
+
+//-----------------------------------------------------------------------------
+public class AsmGen18Peep
+{
+    private static final int MASK = 0x3FFFF;
+    private static final int MAX_PASSES = 8;
+
+    // How an instruction was emitted, and so how it is written
+    public enum Form
+        {TEXT, MARKER, OP0, OP1, OP1I, LABEL, OP2, OP2I, LOAD, STORE};
+
+    //-------------------------------------------------------------------------
+    public static class Inst
+    {
+        public Form form;
+        public String op;       // Op name, or text and marker label
+        public String label;    // Target of a jump or call
+        public int p1, p2;
+        public Src src;         // Source line, null if made by a rule
+
+        public Inst(Form _form, String _op)
+        {
+            form = _form;
+            op = _op;
+        }
+
+        public Inst(Form _form, String _op, int _p1, int _p2)
+        {
+            form = _form;
+            op = _op;
+            p1 = _p1;
+            p2 = _p2;
+        }
+
+        public Inst(String _op, String _label)
+        {
+            form = Form.LABEL;
+            op = _op;
+            label = _label;
+        }
+    }
+
+    //-------------------------------------------------------------------------
+    private interface Match
+    {
+        boolean apply(int idx);
+    }
+
+    private static class Rule
+    {
+        public String name;
+        public Match match;
+        public int hits;
+
+        public Rule(String _name, Match _match)
+        {
+            name = _name;
+            match = _match;
+        }
+    }
+
+    private Rule[] rules =
+    {
+        new Rule("If convert, set or clear", this::if_diamond),
+        new Rule("If convert, one arm",     this::if_triangle),
+        new Rule("Invert jump over jump",   this::invert_jump),
+        new Rule("Jump to next",            this::jump_to_next),
+        new Rule("Jump to jump",            this::jump_to_jump),
+        new Rule("Jump to return",          this::jump_to_return),
+        new Rule("Tail call",               this::tail_call),
+        new Rule("Shared tail",             this::shared_tail),
+        new Rule("Unreachable",             this::unreachable),
+        new Rule("Move back",               this::move_back),
+        new Rule("Self move",               this::self_move),
+        new Rule("Fold constant",           this::fold_const),
+        new Rule("Merge immediates",        this::merge_imm),
+        new Rule("Identity op",             this::identity_op),
+        new Rule("Compare with zero",       this::compare_zero),
+    };
+
+    private TreeSet<Integer> fixed_bits = new TreeSet<>();
+    private boolean scratch = true;     // Bit zero may live past one inst
+    private ArrayList<Inst> code;
+    private int tails;
+    private CompilationContext ctx;
+
+    //-------------------------------------------------------------------------
+    // Call before the global symbols have their offsets, so the only bits
+    // with an offset are the ones at a fixed address.
+    //-------------------------------------------------------------------------
+    public AsmGen18Peep(CompilationContext _ctx)
+    {
+        ctx = _ctx;
+
+        for (Module mod : ctx.modules.values())
+            for (Symbol sym : mod.symbols.values())
+                if (sym.store == StoreId.BIT && sym.offset > 0)
+                    fixed_bits.add(sym.offset);
+
+        for (int i = 1; i < 16; i++)
+            if (ctx.isr_labels[i] != null) scratch = false;
+    }
+
+    //-------------------------------------------------------------------------
+    public void run(ArrayList<Inst> _code)
+    {
+        code = _code;
+
+        boolean changed = true;
+        for (int pass = 0; changed && pass < MAX_PASSES; pass++)
+        {
+            changed = false;
+            for (int i = next(-1); i < code.size(); i = next(i))
+                for (Rule rule : rules)
+                    if (i < code.size() && rule.match.apply(i))
+                    {
+                        rule.hits++;
+                        changed = true;
+                    }
+        }
+
+        number_markers();
+
+        // Removed code can leave blank lines together
+        for (int i = code.size() - 1; i > 0; i--)
+            if (is_blank(i) && is_blank(i - 1)) code.remove(i);
+    }
+
+    //-------------------------------------------------------------------------
+    public void dump()
+    {
+        for (Rule rule : rules)
+            ctx.log.printf("    %-24s  %5d\n", rule.name, rule.hits);
+    }
+
+    //-------------------------------------------------------------------------
+    // Jxx A; BSET x; JMP B; A: BCLR x; B:  ->  Syy x; A: B:
+    // Jxx A; BCLR x; JMP B; A: BMOV x, y; B:  ->  Sxx 0; BAND 0, y; BMOV x, 0
+    // Either arm may set or clear x, or move a bit to it, but not both
+    // move. The jump taken is the Jxx condition, the other arm is Jyy.
+    //-------------------------------------------------------------------------
+    private boolean if_diamond(int idx)
+    {
+        Inst jump = code.get(idx);
+        String not_taken = inverse(jump);
+        if (not_taken == null || only_ref(jump.label) == false) return false;
+
+        int a = next(idx);
+        int j = next(a);
+        if (is_bit_arm(a) == false) return false;
+        if (is_op(j, Form.LABEL, "JMP") == false) return false;
+        if (is_marker(next(j), jump.label) == false) return false;
+
+        // Nothing else may jump into the taken arm
+        int b = next(next(j));
+        if (is_bit_arm(b) == false) return false;
+        Inst fall = code.get(a);
+        Inst taken = code.get(b);
+        if (fall.p1 != taken.p1) return false;
+        if (falls_to(b, code.get(j).label) == false) return false;
+        if (flags_dead(b) == false) return false;
+
+        // The arm that moves is the one selected when the Sxx bit is set
+        String cond = jump.op;
+        if (fall.op.equals("BMOV"))
+        {
+            Inst tmp = fall;
+            fall = taken;
+            taken = tmp;
+            cond = not_taken;
+        }
+        if (fall.op.equals("BMOV")) return false;
+
+        ArrayList<Inst> insts = new ArrayList<>();
+        boolean clear = fall.op.equals("BCLR");
+        int x = fall.p1;
+
+        if (taken.op.equals("BMOV"))
+        {
+            if (scratch == false) return false;
+            if (clear == false) cond = inverse_cond(cond);
+            insts.add(new Inst(Form.OP1, set_op(cond), 0, 0));
+            insts.add(new Inst(Form.OP2, clear ? "BAND" : "BOR", 0, taken.p2));
+            insts.add(new Inst(Form.OP2, "BMOV", x, 0));
+        }
+        else if (taken.op.equals(fall.op) == false)
+        {
+            if (clear == false) cond = inverse_cond(cond);
+            insts.add(new Inst(Form.OP1, set_op(cond), x, 0));
+        }
+        else
+            return false;
+
+        String end = code.get(j).label;
+        code.remove(b);
+        code.remove(j);
+        code.remove(a);
+        code.remove(idx);
+        code.addAll(idx, insts);
+        drop_marker(jump.label);
+        drop_marker(end);
+        return true;
+    }
+
+    //-------------------------------------------------------------------------
+    // Jxx A; BSET x; A:  ->  Syy 0; BOR x, 0; A:
+    // Jxx A; BCLR x; A:  ->  Sxx 0; BAND x, 0; A:
+    // This writes x on both paths, so not for a bit the board uses.
+    //-------------------------------------------------------------------------
+    private boolean if_triangle(int idx)
+    {
+        if (scratch == false) return false;
+        Inst jump = code.get(idx);
+        String not_taken = inverse(jump);
+        if (not_taken == null || only_ref(jump.label) == false) return false;
+
+        int a = next(idx);
+        if (is_bit_arm(a) == false) return false;
+        Inst arm = code.get(a);
+        if (arm.form != Form.OP1 || fixed_bits.contains(arm.p1)) return false;
+        if (falls_to(a, jump.label) == false) return false;
+        if (flags_dead(a) == false) return false;
+
+        boolean clear = arm.op.equals("BCLR");
+        String cond = clear ? jump.op : not_taken;
+
+        code.remove(a);
+        code.set(idx, new Inst(Form.OP1, set_op(cond), 0, 0));
+        code.add(idx + 1,
+            new Inst(Form.OP2, clear ? "BAND" : "BOR", arm.p1, 0));
+        drop_marker(jump.label);
+        return true;
+    }
+
+    //-------------------------------------------------------------------------
+    // Jxx A; JMP B; A:  ->  Jyy B; A:
+    //-------------------------------------------------------------------------
+    private boolean invert_jump(int idx)
+    {
+        Inst inst = code.get(idx);
+        String op = inverse(inst);
+        if (op == null) return false;
+
+        int j = next(idx);
+        if (is_op(j, Form.LABEL, "JMP") == false) return false;
+        if (falls_to(j, inst.label) == false) return false;
+
+        inst.op = op;
+        inst.label = code.get(j).label;
+        code.remove(j);
+        return true;
+    }
+
+    //-------------------------------------------------------------------------
+    // Jxx A; A:  ->  A:
+    //-------------------------------------------------------------------------
+    private boolean jump_to_next(int idx)
+    {
+        Inst inst = code.get(idx);
+        if (is_jump(inst) == false) return false;
+        if (falls_to(idx, inst.label) == false) return false;
+
+        code.remove(idx);
+        return true;
+    }
+
+    //-------------------------------------------------------------------------
+    // Jxx A; ... A: JMP B  ->  Jxx B; ... A: JMP B
+    //-------------------------------------------------------------------------
+    private boolean jump_to_jump(int idx)
+    {
+        Inst inst = code.get(idx);
+        if (is_jump(inst) == false) return false;
+
+        int j = find_marker(inst.label);
+        if (j < 0) return false;
+        j = skip_markers(j);
+        if (is_op(j, Form.LABEL, "JMP") == false) return false;
+
+        String label = code.get(j).label;
+        if (label.equals(inst.label)) return false;
+
+        inst.label = label;
+        return true;
+    }
+
+    //-------------------------------------------------------------------------
+    // JMP A; ... A: RTS  ->  RTS; ... A: RTS
+    //-------------------------------------------------------------------------
+    private boolean jump_to_return(int idx)
+    {
+        if (is_op(idx, Form.LABEL, "JMP") == false) return false;
+
+        int j = find_marker(code.get(idx).label);
+        if (j < 0) return false;
+        j = skip_markers(j);
+        if (is_op(j, Form.OP0, "RTS") == false &&
+            is_op(j, Form.OP0, "RTI") == false) return false;
+
+        String label = code.get(idx).label;
+        code.set(idx, new Inst(Form.OP0, code.get(j).op));
+        drop_marker(label);
+        return true;
+    }
+
+    //-------------------------------------------------------------------------
+    // CALL f; RTS  ->  JMP f
+    // Not before an RTI, which also restores the flags and level.
+    //-------------------------------------------------------------------------
+    private boolean tail_call(int idx)
+    {
+        if (is_op(idx, Form.LABEL, "CALL") == false) return false;
+        if (is_op(skip_markers(idx), Form.OP0, "RTS") == false) return false;
+
+        code.get(idx).op = "JMP";
+        return true;
+    }
+
+    //-------------------------------------------------------------------------
+    // X; Y; RTS ... X; Y; RTS  ->  A: X; Y; RTS ... JMP A
+    // The later copy becomes a jump to the earlier one, where that saves
+    // at least a word. Either may end in a JMP to the same marker.
+    //-------------------------------------------------------------------------
+    private boolean shared_tail(int idx)
+    {
+        Inst end = code.get(idx);
+        if (is_op(idx, Form.OP0, "RTS") == false &&
+            is_op(idx, Form.LABEL, "JMP") == false) return false;
+
+        for (int j = prev(idx); j >= 0; j = prev(j))
+        {
+            if (same(code.get(j), end) == false) continue;
+
+            // Match back from both ends, up to a marker
+            int a = idx, b = j, words = 0;
+            while (true)
+            {
+                words += words(code.get(a));
+                int pa = prev(a), pb = prev(b);
+                if (pa <= j || pb < 0) break;
+                Inst ia = code.get(pa), ib = code.get(pb);
+                if (ia.form == Form.MARKER || same(ia, ib) == false) break;
+                a = pa;
+                b = pb;
+            }
+            if (words < 2) continue;
+
+            // A marker right before the earlier copy is used as is
+            String label;
+            int pb = prev(b);
+            if (pb >= 0 && code.get(pb).form == Form.MARKER)
+                label = code.get(pb).op;
+            else
+            {
+                label = new_marker();
+                code.add(b, new Inst(Form.MARKER, label));
+                a++;
+                idx++;
+            }
+
+            for (int i = idx; i >= a; i--)
+                if (code.get(i).form != Form.TEXT) code.remove(i);
+            code.add(a, new Inst("JMP", label));
+            return true;
+        }
+        return false;
+    }
+
+    //-------------------------------------------------------------------------
+    // Nothing after a jump or return is reached before the next marker.
+    //-------------------------------------------------------------------------
+    private boolean unreachable(int idx)
+    {
+        Inst inst = code.get(idx);
+        boolean end = is_op(idx, Form.LABEL, "JMP") ||
+                      is_op(idx, Form.OP0, "RTS") ||
+                      is_op(idx, Form.OP0, "RTI") ||
+                      is_op(idx, Form.OP0, "RESTART");
+        if (end == false) return false;
+
+        int j = next(idx);
+        if (j >= code.size() || code.get(j).form == Form.MARKER) return false;
+
+        code.remove(j);
+        return true;
+    }
+
+    //-------------------------------------------------------------------------
+    // MOV a, b; MOV b, a  ->  MOV a, b
+    // The second sets the flags from the same value as the first.
+    //-------------------------------------------------------------------------
+    private boolean move_back(int idx)
+    {
+        Inst inst = code.get(idx);
+        if (is_move(inst) == false) return false;
+
+        int j = next(idx);
+        if (is_op(j, Form.OP2, inst.op) == false) return false;
+
+        Inst back = code.get(j);
+        if (back.p1 != inst.p2 || back.p2 != inst.p1) return false;
+
+        code.remove(j);
+        return true;
+    }
+
+    //-------------------------------------------------------------------------
+    // MOV a, a  ->
+    //-------------------------------------------------------------------------
+    private boolean self_move(int idx)
+    {
+        Inst inst = code.get(idx);
+        if (is_move(inst) == false || inst.p1 != inst.p2) return false;
+        if (flags_dead(idx) == false) return false;
+
+        code.remove(idx);
+        return true;
+    }
+
+    //-------------------------------------------------------------------------
+    // MOV r, #a; ADD r, #b  ->  MOV r, #a+b
+    // A move of any value takes no more words than an op with an
+    // immediate, so this is never longer. The flags only differ after
+    // a shift.
+    //-------------------------------------------------------------------------
+    private boolean fold_const(int idx)
+    {
+        Inst inst = code.get(idx);
+        if (inst.form != Form.OP2I || inst.op.equals("MOV") == false)
+            return false;
+
+        int j = next(idx);
+        if (j >= code.size()) return false;
+        Inst op = code.get(j);
+        if (op.form != Form.OP2I || op.p1 != inst.p1) return false;
+
+        Integer value = compute(op.op, inst.p2, op.p2);
+        if (value == null) return false;
+        if ((op.op.equals("SHL") || op.op.equals("SHR")) &&
+            flags_dead(j) == false) return false;
+
+        inst.p2 = value;
+        code.remove(j);
+        return true;
+    }
+
+    //-------------------------------------------------------------------------
+    // ADD r, #a; ADD r, #b  ->  ADD r, #a+b
+    // Only if the new immediate takes no more words than the two did.
+    //-------------------------------------------------------------------------
+    private boolean merge_imm(int idx)
+    {
+        Inst inst = code.get(idx);
+        if (inst.form != Form.OP2I) return false;
+
+        String op = inst.op;
+        int a = inst.p2;
+        if (op.equals("SUB"))
+        {
+            op = "ADD";
+            a = -a;
+        }
+        if (op.equals("ADD") == false && op.equals("MUL") == false &&
+            op.equals("AND") == false && op.equals("OR") == false &&
+            op.equals("XOR") == false) return false;
+
+        int j = next(idx);
+        if (j >= code.size()) return false;
+        Inst next = code.get(j);
+        if (next.form != Form.OP2I || next.p1 != inst.p1) return false;
+
+        int b = next.p2;
+        String next_op = next.op;
+        if (next_op.equals("SUB"))
+        {
+            next_op = "ADD";
+            b = -b;
+        }
+        if (next_op.equals(op) == false) return false;
+
+        int value = compute(op, a, b);
+
+        // A negative sum is a subtract of a short immediate
+        String new_op = op;
+        if (op.equals("ADD") && value < 0 && inline(-value))
+        {
+            new_op = "SUB";
+            value = -value;
+        }
+
+        if (imm_words(value) > imm_words(inst.p2) + imm_words(next.p2))
+            return false;
+
+        inst.op = new_op;
+        inst.p2 = value;
+        code.remove(j);
+        return true;
+    }
+
+    //-------------------------------------------------------------------------
+    // ADD r, #0  ->
+    //-------------------------------------------------------------------------
+    private boolean identity_op(int idx)
+    {
+        Inst inst = code.get(idx);
+        if (inst.form != Form.OP2I || inst.p2 != 0) return false;
+
+        switch (inst.op)
+        {
+            case "ADD": case "SUB": case "OR":
+            case "XOR": case "SHL": case "SHR":
+                break;
+            default:
+                return false;
+        }
+        if (flags_dead(idx) == false) return false;
+
+        code.remove(idx);
+        return true;
+    }
+
+    //-------------------------------------------------------------------------
+    // ADD r, s; CMP r, #0  ->  ADD r, s
+    // Each of these ops sets the flags from its result, as a compare of
+    // the result with zero does. A MOV of an immediate outside 0 to 63
+    // assembles as LDI, which leaves the flags alone.
+    //-------------------------------------------------------------------------
+    private boolean compare_zero(int idx)
+    {
+        Inst inst = code.get(idx);
+        if (inst.form != Form.OP2 && inst.form != Form.OP2I) return false;
+        if (inst.op.equals("MOV") && inst.form == Form.OP2I &&
+            (inst.p2 < 0 || inst.p2 > 63)) return false;
+
+        switch (inst.op)
+        {
+            case "MOV": case "NEG": case "INV": case "ADD": case "SUB":
+            case "MUL": case "AND": case "OR":  case "XOR": case "IN":
+                break;
+            default:
+                return false;
+        }
+
+        int j = next(idx);
+        if (is_op(j, Form.OP2I, "CMP") == false) return false;
+        Inst cmp = code.get(j);
+        if (cmp.p1 != inst.p1 || cmp.p2 != 0) return false;
+
+        code.remove(j);
+        return true;
+    }
+
+    //-------------------------------------------------------------------------
+    // Index of the next instruction or marker after idx, skipping text.
+    //-------------------------------------------------------------------------
+    private int next(int idx)
+    {
+        idx++;
+        while (idx < code.size() && code.get(idx).form == Form.TEXT) idx++;
+        return idx;
+    }
+
+    //-------------------------------------------------------------------------
+    // Index of the instruction or marker before idx, -1 at the start.
+    //-------------------------------------------------------------------------
+    private int prev(int idx)
+    {
+        idx--;
+        while (idx >= 0 && code.get(idx).form == Form.TEXT) idx--;
+        return idx;
+    }
+
+    //-------------------------------------------------------------------------
+    private static boolean same(Inst a, Inst b)
+    {
+        if (a.form != b.form || a.op.equals(b.op) == false) return false;
+        if (a.form == Form.MARKER) return false;
+        if (a.form == Form.LABEL) return a.label.equals(b.label);
+        return a.p1 == b.p1 && a.p2 == b.p2;
+    }
+
+    //-------------------------------------------------------------------------
+    // A marker name not used in the func, after the func's own label.
+    //-------------------------------------------------------------------------
+    private String new_marker()
+    {
+        String label;
+        do label = func_label() + ".t" + (++tails);
+        while (find_marker(label) >= 0);
+        return label;
+    }
+
+    //-------------------------------------------------------------------------
+    // The func's own label is its first marker.
+    //-------------------------------------------------------------------------
+    private String func_label()
+    {
+        for (Inst inst : code)
+            if (inst.form == Form.MARKER) return inst.op;
+        return "";
+    }
+
+    //-------------------------------------------------------------------------
+    private boolean is_op(int idx, Form form, String op)
+    {
+        if (idx >= code.size()) return false;
+        Inst inst = code.get(idx);
+        return inst.form == form && inst.op.equals(op);
+    }
+
+    //-------------------------------------------------------------------------
+    private static boolean is_jump(Inst inst)
+    {
+        return inst.form == Form.LABEL && inst.op.charAt(0) == 'J';
+    }
+
+    //-------------------------------------------------------------------------
+    // A register move, or a move of bits the board does not drive.
+    //-------------------------------------------------------------------------
+    private boolean is_move(Inst inst)
+    {
+        if (inst.form != Form.OP2) return false;
+        if (inst.op.equals("MOV")) return true;
+        return inst.op.equals("BMOV") &&
+               fixed_bits.contains(inst.p1) == false &&
+               fixed_bits.contains(inst.p2) == false;
+    }
+
+    //-------------------------------------------------------------------------
+    // The jump with the opposite condition, null if not a conditional jump.
+    //-------------------------------------------------------------------------
+    private static String inverse(Inst inst)
+    {
+        if (inst.form != Form.LABEL) return null;
+        return inverse_cond(inst.op);
+    }
+
+    //-------------------------------------------------------------------------
+    private static String inverse_cond(String op)
+    {
+        switch (op)
+        {
+            case "JEQ": return "JNE";
+            case "JNE": return "JEQ";
+            case "JLT": return "JGE";
+            case "JGE": return "JLT";
+            case "JGT": return "JLE";
+            case "JLE": return "JGT";
+        }
+        return null;
+    }
+
+    //-------------------------------------------------------------------------
+    // The set bit op with the same condition as the jump.
+    //-------------------------------------------------------------------------
+    private static String set_op(String jump)
+    {
+        return 'S' + jump.substring(1);
+    }
+
+    //-------------------------------------------------------------------------
+    // BSET x, BCLR x or BMOV x, y of bits other than the scratch bit.
+    //-------------------------------------------------------------------------
+    private boolean is_bit_arm(int idx)
+    {
+        if (idx >= code.size()) return false;
+        Inst inst = code.get(idx);
+        if (inst.p1 == 0) return false;
+
+        if (inst.form == Form.OP1)
+            return inst.op.equals("BSET") || inst.op.equals("BCLR");
+        return inst.form == Form.OP2 && inst.op.equals("BMOV") &&
+               inst.p2 != 0;
+    }
+
+    //-------------------------------------------------------------------------
+    // True if just one jump goes to the marker.
+    //-------------------------------------------------------------------------
+    private boolean only_ref(String label)
+    {
+        int refs = 0;
+        for (Inst inst : code)
+            if (inst.form == Form.LABEL && inst.op.equals("CALL") == false &&
+                inst.label.equals(label)) refs++;
+        return refs == 1;
+    }
+
+    //-------------------------------------------------------------------------
+    // Remove a marker that no jump goes to any more.
+    //-------------------------------------------------------------------------
+    private void drop_marker(String label)
+    {
+        for (Inst inst : code)
+            if (inst.form == Form.LABEL && inst.label.equals(label)) return;
+
+        int idx = find_marker(label);
+        if (idx >= 0) code.remove(idx);
+    }
+
+    //-------------------------------------------------------------------------
+    // Drop the markers of the func that no jump uses, join markers that
+    // sit together, and number the rest in order. The names from ICodeGen
+    // and the Inliner depend on whether an inlined callee came from the
+    // module cache, these do not.
+    //-------------------------------------------------------------------------
+    private void number_markers()
+    {
+        String pre = func_label() + ".";
+        HashMap<String, String> names = new HashMap<>();
+        ArrayList<Inst> out = new ArrayList<>();
+        String last = null;
+        int count = 0;
+
+        for (Inst inst : code)
+            if (inst.form == Form.LABEL && inst.label.startsWith(pre))
+                names.put(inst.label, null);
+
+        for (Inst inst : code)
+        {
+            if (inst.form == Form.MARKER && inst.op.startsWith(pre))
+            {
+                if (names.containsKey(inst.op) == false) continue;
+                if (last != null)
+                {
+                    names.put(inst.op, last);
+                    continue;
+                }
+                names.put(inst.op, pre + (++count));
+                inst.op = last = names.get(inst.op);
+            }
+            else if (inst.form != Form.TEXT || inst.op.equals("\n") == false)
+                last = null;
+            out.add(inst);
+        }
+
+        for (Inst inst : out)
+            if (inst.form == Form.LABEL && names.containsKey(inst.label))
+                inst.label = names.get(inst.label);
+
+        code.clear();
+        code.addAll(out);
+    }
+
+    //-------------------------------------------------------------------------
+    // Index of the first instruction after the markers that follow idx.
+    //-------------------------------------------------------------------------
+    private int skip_markers(int idx)
+    {
+        int i = next(idx);
+        while (i < code.size() && code.get(i).form == Form.MARKER)
+            i = next(i);
+        return i;
+    }
+
+    //-------------------------------------------------------------------------
+    // True if one of the markers right after idx is the label.
+    //-------------------------------------------------------------------------
+    private boolean falls_to(int idx, String label)
+    {
+        for (int i = next(idx); i < code.size(); i = next(i))
+        {
+            Inst inst = code.get(i);
+            if (inst.form != Form.MARKER) return false;
+            if (inst.op.equals(label)) return true;
+        }
+        return false;
+    }
+
+    //-------------------------------------------------------------------------
+    private boolean is_blank(int idx)
+    {
+        Inst inst = code.get(idx);
+        return inst.form == Form.TEXT && inst.op.equals("\n");
+    }
+
+    //-------------------------------------------------------------------------
+    private boolean is_marker(int idx, String label)
+    {
+        if (idx >= code.size()) return false;
+        Inst inst = code.get(idx);
+        return inst.form == Form.MARKER && inst.op.equals(label);
+    }
+
+    //-------------------------------------------------------------------------
+    private int find_marker(String label)
+    {
+        for (int i = 0; i < code.size(); i++)
+        {
+            Inst inst = code.get(i);
+            if (inst.form == Form.MARKER && inst.op.equals(label)) return i;
+        }
+        return -1;
+    }
+
+    //-------------------------------------------------------------------------
+    // True if the flags set at idx are set again before they are read.
+    //-------------------------------------------------------------------------
+    private boolean flags_dead(int idx)
+    {
+        for (int i = next(idx); i < code.size(); i = next(i))
+        {
+            Inst inst = code.get(i);
+            switch (inst.form)
+            {
+                case OP0:
+                    if (inst.op.trim().equals("NOP")) break;
+                    return true;
+
+                case MARKER:
+                    return true;
+
+                case LABEL:
+                    return inverse(inst) == null;
+
+                case OP1I:  // TIMER and LEVEL
+                case STORE:
+                    break;
+
+                case OP1:   // Sxx read, BSET and BCLR set, TIMER neither
+                    if (inst.op.equals("TIMER")) break;
+                    return inst.op.charAt(0) == 'B';
+
+                case OP2:
+                    if (inst.op.equals("OUT")) break;
+                    return true;
+
+                default:
+                    return true;
+            }
+        }
+        return true;
+    }
+
+    //-------------------------------------------------------------------------
+    // The result of an op on two 18 bit values, as the ALU computes it,
+    // or null if the op has no immediate form.
+    //-------------------------------------------------------------------------
+    private static Integer compute(String op, int a, int b)
+    {
+        int d = a & MASK, s = b & MASK;
+        int r;
+
+        switch (op)
+        {
+            case "ADD": r = d + s; break;
+            case "SUB": r = d - s; break;
+            case "MUL": r = d * s; break;
+            case "AND": r = d & s; break;
+            case "OR":  r = d | s; break;
+            case "XOR": r = d ^ s; break;
+            case "SHR": r = d >>> (s & 31); break;
+            case "SHL": r = d << (s & 31); break;
+            default: return null;
+        }
+
+        // Keep in the range the assembler takes
+        r &= MASK;
+        if (r > 0x20000) r -= 0x40000;
+        return r;
+    }
+
+    //-------------------------------------------------------------------------
+    private static boolean inline(int value)
+    {
+        return value >= 0 && value < 64;
+    }
+
+    //-------------------------------------------------------------------------
+    // Words of an instruction. A move of a long immediate is an LDI and
+    // the value, other ops also need the op.
+    //-------------------------------------------------------------------------
+    private static int words(Inst inst)
+    {
+        switch (inst.form)
+        {
+            case TEXT:
+            case MARKER:
+                return 0;
+
+            case OP2I:
+                if (inst.op.equals("MOV"))
+                    return inline(inst.p2) ? 1 : 2;
+                return imm_words(inst.p2);
+
+            default:
+                return 1;
+        }
+    }
+
+    //-------------------------------------------------------------------------
+    // Words of an op with an immediate, which needs an LDI if not inline.
+    //-------------------------------------------------------------------------
+    private static int imm_words(int value)
+    {
+        return inline(value) ? 1 : 3;
+    }
+}
@@ -4,6 +4,7 @@
 // History: 
 // 0.1.0   07/27/2017   File Created
 // 1.0.0   09/01/2020   Initial release
+// 1.1.0   10/18/2026   Add serialVersionUID
 //-----------------------------------------------------------------------------
 // Copyright 2020 Mike Christle
 //
@@ -34,6 +35,8 @@ import java.util.LinkedList;
 //-----------------------------------------------------------------------------
 public class BlockNode extends Node
 {
+    private static final long serialVersionUID = 1L;
+
     public LinkedList<Node> nodes;
 
     //-------------------------------------------------------------------------
@@ -4,6 +4,7 @@
 // History: 
 // 0.1.0   07/27/2017   File Created
 // 1.0.0   09/01/2020   Initial release
+// 1.1.0   10/18/2026   Move static state to CompilationContext
 //-----------------------------------------------------------------------------
 // Copyright 2020 Mike Christle
 //
@@ -38,8 +39,6 @@ public class CallTree implements Comparator<CallTree>
     public TreeSet<CallTree> tree;
     public String name;
 
-    private static TreeSet<String> path = new TreeSet<>();
-
     //-------------------------------------------------------------------------
     public CallTree(String _name)
     {
@@ -61,31 +60,33 @@ public class CallTree implements Comparator<CallTree>
     } 
 
     //-------------------------------------------------------------------------
-    public static CallTree build(String name) throws MError
+    public static CallTree build(CompilationContext ctx, String name)
+        throws MError
     {
         int idx = name.indexOf('.');
         String mod_name = name.substring(0, idx);
-        if (Module.modules.containsKey(mod_name) == false)
+        if (ctx.modules.containsKey(mod_name) == false)
             throw new MError("Invalid module name: " + mod_name);
 
-        Module mod = Module.modules.get(mod_name);
+        Module mod = ctx.modules.get(mod_name);
         if (mod.funcs.containsKey(name) == false)
             throw new MError("Missing main function");
 
         CallTree root = new CallTree(name);
-        add_func(root);
+        add_func(ctx, root, new TreeSet<String>());
         return root;
     }
 
     //-------------------------------------------------------------------------
-    private static void add_func(CallTree tree) throws MError
+    private static void add_func(CompilationContext ctx, CallTree tree,
+                                 TreeSet<String> path) throws MError
     {
         if (path.contains(tree.name))
             throw new MError("Recursive function call: " + tree.name);
 
         int idx = tree.name.indexOf('.');
         String mod_name = tree.name.substring(0, idx);
-        Module mod = Module.modules.get(mod_name);
+        Module mod = ctx.modules.get(mod_name);
         Func func = mod.funcs.get(tree.name);
         path.add(tree.name);
 
@@ -94,19 +95,20 @@ public class CallTree implements Comparator<CallTree>
             {
                 CallTree sub_tree = new CallTree((String)icode.parm);
                 tree.add(sub_tree);
-                add_func(sub_tree);
+                add_func(ctx, sub_tree, path);
             }
 
         path.remove(tree.name);
     }
 
     //-------------------------------------------------------------------------
-    public static void dump_tree(CallTree tree, int indent)
+    public static void dump_tree(CompilationContext ctx, CallTree tree,
+                                 int indent)
     {
         for (int i = 0; i < indent; i++)
             System.out.print("   ");
 
-        Func func = Module.find_func(tree.name);
+        Func func = ctx.find_func(tree.name);
         String str = String.format("%s, %d %d, %d %d", tree.name,
             func.reg_base, func.reg_cnt,
             func.bit_base, func.bit_cnt);
@@ -114,6 +116,6 @@ public class CallTree implements Comparator<CallTree>
 
         if (tree.tree != null)
             for (CallTree t : tree.tree)
-                dump_tree(t, indent + 1);
+                dump_tree(ctx, t, indent + 1);
     }
 }
@@ -4,6 +4,8 @@
 // History: 
 // 0.1.0   07/27/2017   File Created
 // 1.0.0   09/01/2020   Initial release
+// 1.1.0   10/18/2026   Move static state to CompilationContext
+// 1.2.0   10/18/2026   Run each function in parallel
 //-----------------------------------------------------------------------------
 // Copyright 2020 Mike Christle
 //
@@ -34,28 +36,34 @@ public class Checker
     private HashMap<String, Symbol> func_syms;
     private HashMap<String, Symbol> mod_syms;
     private String module_name;
+    private CompilationContext ctx;
 
+    //-------------------------------------------------------------------------
+    public Checker(CompilationContext _ctx)
+    {
+        ctx = _ctx;
+    }
+
+    //-------------------------------------------------------------------------
+    // Each function is checked by its own Checker, in parallel.
     //-------------------------------------------------------------------------
     public void check() throws MError
     {
-        for (String mkey : Module.modules.keySet())
-        {
-            Module module = Module.modules.get(mkey);
-            mod_syms = module.symbols;
-            module_name = mkey;
+        ctx.for_each(ctx.func_list(), func -> new Checker(ctx).check(func));
+    }
 
-            for (String fkey : module.funcs.keySet())
-            {
-                Func func = module.funcs.get(fkey);
-                func_syms = func.symbols;
-
-                if (func.isr && func.parms.size() != 0)
-                    throw new MError("ISR can't have parameters", func.src);
-                
-                for (Node node : func.nodes)
-                    check_node(node);
-            }
-        }
+    //-------------------------------------------------------------------------
+    private void check(Func func) throws MError
+    {
+        mod_syms = func.mod_syms;
+        module_name = func.mod_name;
+        func_syms = func.symbols;
+
+        if (func.isr && func.parms.size() != 0)
+            throw new MError("ISR can't have parameters", func.src);
+
+        for (Node node : func.nodes)
+            check_node(node);
     }
 
     //-------------------------------------------------------------------------
@@ -143,16 +151,16 @@ public class Checker
         if (idx < 0)
         {
             label = module_name + '.' + label;
-            Module module = Module.modules.get(module_name);
+            Module module = ctx.modules.get(module_name);
             if (module.funcs.containsKey(label))
                 return module.funcs.get(label);
         }
         else
         {
             String mod_name = label.substring(0, idx);
-            if (Module.modules.containsKey(mod_name))
+            if (ctx.modules.containsKey(mod_name))
             {
-                Module module = Module.modules.get(mod_name);
+                Module module = ctx.modules.get(mod_name);
                 if (module.funcs.containsKey(label))
                     return module.funcs.get(label);
             }
@@ -340,9 +348,9 @@ public class Checker
         {
             String mod_name = label.substring(0, idx);
             label = label.substring(idx + 1, label.length());
-            if (Module.modules.containsKey(mod_name))
+            if (ctx.modules.containsKey(mod_name))
             {
-                Module module = Module.modules.get(mod_name);
+                Module module = ctx.modules.get(mod_name);
                 if (module.symbols.containsKey(label))
                     return module.symbols.get(label);
             }
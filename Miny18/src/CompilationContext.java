@@ -0,0 +1,198 @@
+//-----------------------------------------------------------------------------
+// Miny Compilation Context
+//
+// Holds all the state of one compile, so one JVM can compile any number of
+// programs, one after another or on separate threads. Sources are taken
+// from the sources map when present, otherwise they are read from dir,
+// through the cache if one is given.
+// Miny18Compiler runs the phases and fills in the asm, hex and list
+// outputs. The asm and list outputs are left null when listing is false.
+// With parallel set, the front end phases run each module or function as a
+// separate task on the fork-join pool, see for_each. With mod_cache set,
+// unchanged modules are loaded from the cache instead of compiled, and
+// mod_entries lists the modules to save to the cache after ICodeOpt.
+//
+// History:
+// 1.0.0   10/18/2026   File Created
+// 1.1.0   10/18/2026   Add source dir and cache
+// 1.2.0   10/18/2026   Add listing flag
+// 1.3.0   10/18/2026   Add parallel for_each
+// 1.4.0   10/18/2026   Add module cache
+// 1.5.0   10/18/2026   Add debug map flag and output
+// 1.6.0   10/18/2026   Add const and global size outputs
+//-----------------------------------------------------------------------------
+// Copyright 2020 Mike Christle
+//
+// Permission is hereby granted, free of charge, to any person obtaining a
+// copy of this software and associated documentation files (the "Software"),
+// to deal in the Software without restriction, including without limitation
+// the rights to use, copy, modify, merge, publish, distribute, sublicense,
+// and/or sell copies of the Software, and to permit persons to whom the
+// Software is furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be
+// included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+// THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+// FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+// DEALINGS IN THE SOFTWARE.
+//-----------------------------------------------------------------------------
+
+import java.io.File;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+//-----------------------------------------------------------------------------
+public class CompilationContext
+{
+    // Inputs
+    public String name;
+    public HashMap<String, String> sources = new HashMap<>();
+    public File dir = null;
+    public SourceCache cache = null;
+    public ModuleCache mod_cache = null;
+    public PrintStream log = System.out;
+    public boolean debug = false;
+    public boolean listing = true;
+    public boolean parallel = true;
+    public boolean debug_map = false;
+
+    // Compiler state
+    public HashMap<String, Module> modules = new HashMap<>();
+    public String[] isr_labels = new String[16];
+    public int rom_bits = 12;
+    public int ram_bits = 12;
+    public int con_bits = 12;
+    public LinkedList<String> file_names = new LinkedList<>();
+    public LinkedList<ModuleCache.Entry> mod_entries = new LinkedList<>();
+
+    // Outputs
+    public String asm;
+    public String code_hex;
+    public String const_hex;
+    public String list;
+    public String map;
+    public int const_size;          // Words of constant arrays
+    public int global_size;         // RAM, registers and bits of globals
+
+    //-------------------------------------------------------------------------
+    public interface Task<T>
+    {
+        void run(T item) throws MError;
+    }
+
+    //-------------------------------------------------------------------------
+    public CompilationContext(String _name)
+    {
+        name = _name;
+    }
+
+    //-------------------------------------------------------------------------
+    // Run task on each item, in parallel when enabled and there is more
+    // than one core. All tasks finish before returning, and the error
+    // thrown is from the first failing item in list order, so errors are
+    // the same as a serial run.
+    //-------------------------------------------------------------------------
+    public <T> void for_each(List<T> items, Task<T> task) throws MError
+    {
+        if (parallel == false || items.size() < 2 ||
+            ForkJoinPool.getCommonPoolParallelism() < 2)
+        {
+            for (T item : items) task.run(item);
+            return;
+        }
+
+        MError[] errors = new MError[items.size()];
+        ArrayList<ForkJoinTask<?>> tasks = new ArrayList<>();
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+
+        for (int i = 0; i < items.size(); i++)
+        {
+            int idx = i;
+            T item = items.get(i);
+            tasks.add(pool.submit(() ->
+            {
+                try { task.run(item); }
+                catch (MError e) { errors[idx] = e; }
+            }));
+        }
+
+        for (ForkJoinTask<?> t : tasks) t.join();
+
+        for (MError e : errors)
+            if (e != null) throw e;
+    }
+
+    //-------------------------------------------------------------------------
+    // All functions, in module then function order. Modules loaded from
+    // the module cache have already been through the front end, and are
+    // left out.
+    //-------------------------------------------------------------------------
+    public ArrayList<Func> func_list()
+    {
+        ArrayList<Func> funcs = new ArrayList<>();
+        for (Module module : modules.values())
+            if (module.cached == false)
+                funcs.addAll(module.funcs.values());
+        return funcs;
+    }
+
+    //-------------------------------------------------------------------------
+    public String error_message(MError e)
+    {
+        if (e.src == null) return e.msg;
+
+        String fmt = "\nError in file %s at line %d.\n%s\n";
+        return String.format(fmt,
+            file_names.get(e.src.file), e.src.line, e.msg);
+    }
+
+    //-------------------------------------------------------------------------
+    public Symbol find_symbol(Func func, String label) throws MError
+    {
+        int idx = label.indexOf('.');
+        if (idx < 0)
+        {
+            if (func.symbols.containsKey(label))
+                return func.symbols.get(label);
+
+            if (func.mod_syms.containsKey(label))
+                return func.mod_syms.get(label);
+        }
+        else
+        {
+            Module mod = modules.get(label.substring(0, idx));
+            label = label.substring(idx + 1, label.length());
+            if (mod.symbols.containsKey(label))
+                return mod.symbols.get(label);
+        }
+
+        throw new MError("Label not found: " + label);
+    }
+
+    //-------------------------------------------------------------------------
+    public Func find_func(String func_name)
+    {
+        int idx = func_name.indexOf('.');
+        Module mod = modules.get(func_name.substring(0, idx));
+        return mod.funcs.get(func_name);
+    }
+
+    //-------------------------------------------------------------------------
+    public synchronized void add_isr(int level, String label) throws MError
+    {
+        if (isr_labels[level] != null)
+            throw new MError(String.format("Duplicate ISR level: %d", level));
+
+        isr_labels[level] = label;
+    }
+}
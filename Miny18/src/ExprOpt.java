@@ -0,0 +1,915 @@
+//-----------------------------------------------------------------------------
+// Miny Expression Optimizer
+//
+// Strength reduction, loop invariant code motion and common subexpression
+// elimination. Runs after GlobalOpt, before ICodeOpt.
+//
+// An expression is a MATHI tree, or a read of a ROM array, whose leaves
+// are constants and INT locals. Two expressions with the same ops and
+// leaves have the same value number, written as a key string.
+//
+// An expression in a loop is invariant if no local it reads is assigned
+// in the loop. It is computed once into a new local just before the loop
+// marker, and the loop reads that local instead. Loops are done outer
+// first, so each expression moves out of as many loops as it can.
+//
+// Multiply, divide and modulo by constants become shifts and masks where
+// that is cheaper. In a loop, i * c, where i only changes by a constant
+// step, becomes a new local that steps along with i.
+//
+// An expression is common if the same key was computed earlier in the
+// same block, with no assignment to its locals between, or computed in a
+// block that dominates it, when each of its locals has only the one
+// assignment that dominates the first. The first is saved in a new local
+// and the others read it.
+//
+// History:
+// 1.0.0   10/18/2026   File Created
+// 1.1.0   10/18/2026   Add strength reduction
+// 1.2.0   10/18/2026   Reduce modulo by one and divides by negative constants
+// 1.3.0   10/18/2026   Only take a common expression that comes first by index
+//-----------------------------------------------------------------------------
+// Copyright 2020 Mike Christle
+//
+// Permission is hereby granted, free of charge, to any person obtaining a
+// copy of this software and associated documentation files (the "Software"),
+// to deal in the Software without restriction, including without limitation
+// the rights to use, copy, modify, merge, publish, distribute, sublicense,
+// and/or sell copies of the Software, and to permit persons to whom the
+// Software is furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be
+// included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+// THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+// FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+// DEALINGS IN THE SOFTWARE.
+//-----------------------------------------------------------------------------
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.TreeSet;
+
+//-----------------------------------------------------------------------------
+public class ExprOpt
+{
+    // An expression seen by the CSE walk
+    private static class Entry
+    {
+        public ICode icode;
+        public int idx;             // Index of icode
+        public FlowGraph.Block block;
+        public boolean global;      // Usable in the blocks it dominates
+        public TreeSet<String> locals = new TreeSet<>();
+    }
+
+    private static final int MASK = 0x3FFFF;
+    private static final int SIGN = 0x20000;
+
+    private ICodeList icodes;
+    private Func func;
+    private FlowGraph cfg;
+    private int[] user;             // ICode using each ICode, -1 if none
+    private int temp_idx = 0;
+
+    // CSE state
+    private TreeSet<String> parms = new TreeSet<>();
+    private HashMap<String, Integer> def_cnt = new HashMap<>();
+    private HashMap<String, Integer> def_idx = new HashMap<>();
+    private HashMap<String, ArrayList<Entry>> table = new HashMap<>();
+    private IdentityHashMap<ICode, ICode> common = new IdentityHashMap<>();
+
+    private CompilationContext ctx;
+
+    //-------------------------------------------------------------------------
+    public ExprOpt(CompilationContext _ctx)
+    {
+        ctx = _ctx;
+    }
+
+    //-------------------------------------------------------------------------
+    // Each function gets its own ExprOpt, and runs in parallel.
+    //-------------------------------------------------------------------------
+    public void run() throws MError
+    {
+        ctx.for_each(ctx.func_list(), f -> new ExprOpt(ctx).opt_func(f));
+    }
+
+    //-------------------------------------------------------------------------
+    private void opt_func(Func _func) throws MError
+    {
+        func = _func;
+        icodes = func.icodes;
+
+        for (Node parm : func.parms)
+        {
+            String label = (String)parm.value;
+            parms.add(label.substring(label.lastIndexOf('.') + 1));
+        }
+
+        reduce_ops();
+
+        cfg = new FlowGraph(icodes);
+        find_users();
+        while (hoist_loop())
+        {
+            cfg = new FlowGraph(icodes);
+            find_users();
+        }
+
+        while (reduce_loop())
+            cfg = new FlowGraph(icodes);
+        find_users();
+
+        find_defs();
+        for (FlowGraph.Block block : cfg.order)
+            cse_block(block);
+        save_common();
+    }
+
+    //-------------------------------------------------------------------------
+    private void find_users()
+    {
+        int size = icodes.size();
+        user = new int[size];
+        for (int i = 0; i < size; i++) user[i] = -1;
+
+        for (int i = 0; i < size; i++)
+        {
+            ICode icode = icodes.get(i);
+            if (icode.id == ICodeId.NONE) continue;
+            if (icode.p1 >= 0) user[icode.p1] = i;
+            if (icode.p2 >= 0 && is_jump(icode) == false) user[icode.p2] = i;
+        }
+    }
+
+    //-------------------------------------------------------------------------
+    // The value number of the expression, or null if it is not one. Each
+    // local it reads is added to locals.
+    //-------------------------------------------------------------------------
+    private String key(int i, TreeSet<String> locals) throws MError
+    {
+        ICode icode = icodes.get(i);
+        switch (icode.id)
+        {
+            case ICON:
+                return "#" + icode.parm;
+
+            case REG:
+            {
+                String label = (String)icode.parm;
+                Symbol sym = func.symbols.get(label);
+                if (sym == null || label.equals("return") ||
+                    sym.type != TypeId.INT || sym.count != 1) return null;
+                locals.add(label);
+                return label;
+            }
+
+            case ARRAY:
+            {
+                String label = (String)icode.parm;
+                if (func.symbols.containsKey(label)) return null;
+                if (ctx.find_symbol(func, label).store != StoreId.ROM)
+                    return null;
+                String k1 = key(icode.p1, locals);
+                if (k1 == null) return null;
+                return label + "[" + k1 + "]";
+            }
+
+            case MATHI:
+            {
+                MathOp op = (MathOp)icode.parm;
+                if (op == MathOp.DIV || op == MathOp.MOD || op == MathOp.ITOR)
+                    return null;
+                String k1 = key(icode.p1, locals);
+                if (k1 == null) return null;
+                if (icode.p2 < 0) return "(" + op + " " + k1 + ")";
+                String k2 = key(icode.p2, locals);
+                if (k2 == null) return null;
+                return "(" + op + " " + k1 + " " + k2 + ")";
+            }
+
+            default:
+                return null;
+        }
+    }
+
+    //-------------------------------------------------------------------------
+    private boolean is_expr(ICode icode)
+    {
+        return icode.id == ICodeId.MATHI || icode.id == ICodeId.ARRAY;
+    }
+
+    //-------------------------------------------------------------------------
+    // The local assigned by the ICode, or null.
+    //-------------------------------------------------------------------------
+    private String assigned(ICode icode)
+    {
+        if (icode.id != ICodeId.ASSIGNI && icode.id != ICodeId.ASSIGNB)
+            return null;
+        ICode dst = icodes.get(icode.p1);
+        if (dst.id != ICodeId.REG && dst.id != ICodeId.BIT) return null;
+        return (String)dst.parm;
+    }
+
+    //-------------------------------------------------------------------------
+    // The operands of the ICode, in the order they are computed.
+    //-------------------------------------------------------------------------
+    private int[] operands(ICode icode)
+    {
+        int p2 = is_jump(icode) ? -1 : icode.p2;
+        if (icode.p1 >= 0 && p2 >= 0)
+            return icode.p1 < p2 ? new int[] {icode.p1, p2} :
+                                   new int[] {p2, icode.p1};
+        if (icode.p1 >= 0) return new int[] {icode.p1};
+        if (p2 >= 0) return new int[] {p2};
+        return new int[0];
+    }
+
+    //-------------------------------------------------------------------------
+    // A new INT local for a saved expression.
+    //-------------------------------------------------------------------------
+    private String new_temp()
+    {
+        String label;
+        do label = "_t" + ++temp_idx;
+        while (func.symbols.containsKey(label));
+        func.symbols.put(label, new Symbol(TypeId.INT, StoreId.REG));
+        return label;
+    }
+
+    //-------------------------------------------------------------------------
+    // The ICode and every ICode below it, in index order.
+    //-------------------------------------------------------------------------
+    private void subtree(int i, ArrayList<Integer> list)
+    {
+        for (int op : operands(icodes.get(i)))
+            subtree(op, list);
+        list.add(i);
+    }
+
+    //-------------------------------------------------------------------------
+    // The expression becomes a read of the local, and the ICodes below it
+    // are dropped.
+    //-------------------------------------------------------------------------
+    private void replace(ICode icode, String label)
+    {
+        ArrayList<Integer> list = new ArrayList<>();
+        subtree(icodes.index_of(icode), list);
+        for (int i : list) icodes.get(i).id = ICodeId.NONE;
+
+        icode.id = ICodeId.REG;
+        icode.parm = label;
+        icode.p1 = icode.p2 = -1;
+        icode.last_ref = icodes.size();
+    }
+
+    //=========================================================================
+    // Loop invariant code motion
+    //=========================================================================
+
+    //-------------------------------------------------------------------------
+    // Move the invariant expressions out of the first loop that has any.
+    // Return false if no loop has any.
+    //-------------------------------------------------------------------------
+    private boolean hoist_loop() throws MError
+    {
+        for (FlowGraph.Loop loop : cfg.loops)
+        {
+            if (has_preheader(loop) == false) continue;
+
+            TreeSet<String> assigned = new TreeSet<>();
+            ArrayList<FlowGraph.Block> blocks = new ArrayList<>(loop.blocks);
+            blocks.sort((a, b) -> a.num - b.num);
+
+            for (FlowGraph.Block block : blocks)
+                for (int i = block.first; i <= block.last; i++)
+                {
+                    String label = assigned(icodes.get(i));
+                    if (label != null) assigned.add(label);
+                }
+
+            ArrayList<Integer> found = new ArrayList<>();
+            for (FlowGraph.Block block : blocks)
+                for (int i = block.first; i <= block.last; i++)
+                    if (user[i] < 0 && icodes.get(i).id != ICodeId.NONE)
+                        find_invariant(i, assigned, found);
+
+            if (found.isEmpty()) continue;
+
+            hoist(loop, found);
+            return true;
+        }
+
+        return false;
+    }
+
+    //-------------------------------------------------------------------------
+    // The loop is only entered by falling into its marker, so code put
+    // before the marker runs once before the loop.
+    //-------------------------------------------------------------------------
+    private boolean has_preheader(FlowGraph.Loop loop)
+    {
+        FlowGraph.Block header = loop.header;
+        if (header.first == 0 ||
+            icodes.get(header.first).id != ICodeId.MARKER) return false;
+
+        boolean entered = false;
+        for (FlowGraph.Block pred : header.preds)
+        {
+            if (loop.blocks.contains(pred)) continue;
+            if (pred.num != header.num - 1 || pred.jump == header)
+                return false;
+            entered = true;
+        }
+        return entered;
+    }
+
+    //-------------------------------------------------------------------------
+    // Find the largest invariant expressions at or below the ICode.
+    //-------------------------------------------------------------------------
+    private void find_invariant(int i, TreeSet<String> assigned,
+                                ArrayList<Integer> found) throws MError
+    {
+        ICode icode = icodes.get(i);
+        if (is_expr(icode))
+        {
+            TreeSet<String> locals = new TreeSet<>();
+            if (key(i, locals) != null)
+            {
+                boolean invariant = true;
+                for (String label : locals)
+                    if (assigned.contains(label)) invariant = false;
+                if (invariant)
+                {
+                    found.add(i);
+                    return;
+                }
+            }
+        }
+
+        for (int op : operands(icode))
+            find_invariant(op, assigned, found);
+    }
+
+    //-------------------------------------------------------------------------
+    // Copy each expression before the loop marker, save it in a new local,
+    // and read that local in the loop. The same key uses the same local.
+    //-------------------------------------------------------------------------
+    private void hoist(FlowGraph.Loop loop, ArrayList<Integer> found)
+        throws MError
+    {
+        ICode marker = icodes.get(loop.header.first);
+        HashMap<String, String> temps = new HashMap<>();
+        ArrayList<ICode> exprs = new ArrayList<>();
+        ArrayList<String> keys = new ArrayList<>();
+
+        // Inserts move the indexes, so keep the ICodes
+        for (int i : found)
+        {
+            exprs.add(icodes.get(i));
+            keys.add(key(i, new TreeSet<>()));
+        }
+
+        for (int j = 0; j < exprs.size(); j++)
+        {
+            String label = temps.get(keys.get(j));
+            if (label == null)
+            {
+                label = new_temp();
+                temps.put(keys.get(j), label);
+                copy_expr(icodes.index_of(exprs.get(j)), label,
+                          icodes.index_of(marker));
+            }
+            replace(exprs.get(j), label);
+        }
+    }
+
+    //-------------------------------------------------------------------------
+    // Insert a copy of the expression at idx, and a move of it into the
+    // local.
+    //-------------------------------------------------------------------------
+    private void copy_expr(int i, String label, int idx)
+    {
+        ArrayList<Integer> list = new ArrayList<>();
+        subtree(i, list);
+
+        HashMap<Integer, Integer> map = new HashMap<>();
+        ArrayList<ICode> copies = new ArrayList<>();
+        for (int k = 0; k < list.size(); k++)
+        {
+            ICode icode = icodes.get(list.get(k));
+            ICode copy = new ICode(icode.id, icode.src, icode.parm);
+            if (icode.p1 >= 0) copy.p1 = map.get(icode.p1);
+            if (icode.p2 >= 0) copy.p2 = map.get(icode.p2);
+            map.put(list.get(k), idx + k);
+            copies.add(copy);
+        }
+
+        // Inserting before the loop moves the loop, not the copies
+        for (int k = 0; k < copies.size(); k++)
+            icodes.insert(idx + k, copies.get(k));
+
+        int root = idx + copies.size() - 1;
+        ICode dst = new ICode(ICodeId.REG, icodes.get(root).src, label);
+        ICode move = new ICode(ICodeId.ASSIGNI, icodes.get(root).src,
+                               MathOp.PAS);
+        icodes.insert(root + 1, dst);
+        icodes.insert(root + 2, move);
+        move.p1 = root + 1;
+        move.p2 = root;
+
+        set_last_refs(idx, root + 2);
+    }
+
+    //-------------------------------------------------------------------------
+    // Set last_ref of the new ICodes from first to last, the way ICodeGen
+    // does.
+    //-------------------------------------------------------------------------
+    private void set_last_refs(int first, int last)
+    {
+        for (int i = first; i <= last; i++)
+        {
+            for (int op : operands(icodes.get(i)))
+            {
+                ICode ic = icodes.get(op);
+                ic.last_ref = (ic.id == ICodeId.REG) ? icodes.size() : i;
+            }
+        }
+    }
+
+    //=========================================================================
+    // Strength reduction
+    //=========================================================================
+
+    //-------------------------------------------------------------------------
+    // Proc18 has a one cycle MUL, but no divide, so only a multiply by a
+    // constant too large for the instruction becomes a shift. A divide or
+    // modulo by a power of two becomes shifts and masks.
+    //-------------------------------------------------------------------------
+    private void reduce_ops()
+    {
+        ArrayList<ICode> list = new ArrayList<>();
+        for (ICode icode : icodes)
+        {
+            if (icode.id != ICodeId.MATHI) continue;
+            MathOp op = (MathOp)icode.parm;
+            if (op == MathOp.MUL || op == MathOp.DIV || op == MathOp.MOD)
+                list.add(icode);
+        }
+
+        for (ICode icode : list)
+            reduce_op(icode);
+    }
+
+    //-------------------------------------------------------------------------
+    private void reduce_op(ICode icode)
+    {
+        int i = icodes.index_of(icode);
+        MathOp op = (MathOp)icode.parm;
+
+        if (op == MathOp.MUL && icodes.get(icode.p1).id == ICodeId.ICON &&
+            icodes.get(icode.p2).id != ICodeId.ICON)
+        {
+            int p = icode.p1;
+            icode.p1 = icode.p2;
+            icode.p2 = p;
+        }
+
+        ICode ic2 = icodes.get(icode.p2);
+        if (ic2.id != ICodeId.ICON) return;
+        int c = (int)ic2.parm;
+        int m = Math.abs(c);
+        int k = (m > 0 && (m & (m - 1)) == 0) ?
+                Integer.numberOfTrailingZeros(m) : -1;
+
+        // x % 1 and x % -1 are zero, but x is still evaluated
+        if (op == MathOp.MOD && m == 1)
+        {
+            icode.parm = MathOp.BW_AND;
+            ic2.parm = 0;
+        }
+        else if (c == 1)
+            bypass(i);
+        else if (c == -1)
+        {
+            icode.parm = MathOp.NEG;
+            icode.p2 = -1;
+            ic2.id = ICodeId.NONE;
+        }
+        else if (op == MathOp.MUL && c > 0 && k >= 6)
+        {
+            icode.parm = MathOp.SHL;
+            ic2.parm = k;
+        }
+        else if (op != MathOp.MUL && k >= 1 && k <= 16)
+            divide(i, k, op == MathOp.DIV && c < 0);
+    }
+
+    //-------------------------------------------------------------------------
+    // The user of the ICode reads its first operand instead.
+    //-------------------------------------------------------------------------
+    private void bypass(int i)
+    {
+        int u = user_of(i);
+        if (u < 0) return;
+
+        ICode icode = icodes.get(i);
+        ICode ucode = icodes.get(u);
+        if (ucode.p1 == i) ucode.p1 = icode.p1;
+        else ucode.p2 = icode.p1;
+
+        ICode ic1 = icodes.get(icode.p1);
+        if (ic1.last_ref == i) ic1.last_ref = u;
+        icodes.get(icode.p2).id = ICodeId.NONE;
+        icode.id = ICodeId.NONE;
+    }
+
+    //-------------------------------------------------------------------------
+    // Signed divide or modulo of x by 2^k, truncated toward zero the same
+    // as FoldConst. A negative x gets a bias of 2^k - 1 first:
+    //   bias = (-(x >> 17)) >> (18 - k)
+    //   x / 2^k = sign extend of (x + bias) >> k
+    //   x % 2^k = x - ((x + bias) & -2^k)
+    // Shifts are logical. The x operand is read three times, so it is
+    // saved in a new local unless it already is a local. A divide by -2^k
+    // swaps the operands of the last SUB to negate the quotient, a modulo
+    // by -2^k is the same as by 2^k.
+    //-------------------------------------------------------------------------
+    private void divide(int i, int k, boolean negate)
+    {
+        ICode icode = icodes.get(i);
+        ICode ic1 = icodes.get(icode.p1);
+        String x = null;
+
+        if (ic1.id == ICodeId.REG)
+        {
+            x = (String)ic1.parm;
+            Symbol sym = func.symbols.get(x);
+            if (sym == null || x.equals("return") ||
+                sym.type != TypeId.INT || sym.count != 1) x = null;
+        }
+
+        if (x == null)
+        {
+            x = new_temp();
+            int m = icode.p1;
+            ICode dst = new ICode(ICodeId.REG, ic1.src, x);
+            ICode move = new ICode(ICodeId.ASSIGNI, ic1.src, MathOp.PAS);
+            icodes.insert(m + 1, dst);
+            icodes.insert(m + 2, move);
+            move.p1 = m + 1;
+            move.p2 = m;
+            ic1.last_ref = m + 2;
+            dst.last_ref = icodes.size();
+            i = icodes.index_of(icode);
+        }
+        else
+            ic1.id = ICodeId.NONE;
+
+        icodes.get(icode.p2).id = ICodeId.NONE;
+
+        ArrayList<ICode> nodes = new ArrayList<>();
+        int xr = add_node(nodes, ICodeId.REG, x, -1, -1);
+        int sign = add_math(nodes, MathOp.SHR, xr, add_icon(nodes, 17));
+        int neg = add_node(nodes, ICodeId.MATHI, MathOp.NEG, sign, -1);
+        int bias = add_math(nodes, MathOp.SHR, neg, add_icon(nodes, 18 - k));
+        xr = add_node(nodes, ICodeId.REG, x, -1, -1);
+        int t = add_math(nodes, MathOp.ADD, xr, bias);
+
+        int p1, p2;
+        if (icode.parm == MathOp.DIV)
+        {
+            int s = 1 << (17 - k);
+            int q = add_math(nodes, MathOp.SHR, t, add_icon(nodes, k));
+            p1 = add_math(nodes, MathOp.BW_XOR, q, add_icon(nodes, s));
+            p2 = add_icon(nodes, s);
+        }
+        else
+        {
+            p2 = add_math(nodes, MathOp.BW_AND, t, add_icon(nodes, -(1 << k)));
+            p1 = add_node(nodes, ICodeId.REG, x, -1, -1);
+        }
+
+        insert_nodes(i, nodes, icode.src);
+        icode.parm = MathOp.SUB;
+        icode.p1 = i + (negate ? p2 : p1);
+        icode.p2 = i + (negate ? p1 : p2);
+        set_last_refs(i + nodes.size(), i + nodes.size());
+    }
+
+    //-------------------------------------------------------------------------
+    // Build a list of new ICodes, whose p1 and p2 index the list.
+    //-------------------------------------------------------------------------
+    private static int add_node(ArrayList<ICode> nodes, ICodeId id,
+                                Object parm, int p1, int p2)
+    {
+        ICode icode = new ICode(id, null, parm);
+        icode.p1 = p1;
+        icode.p2 = p2;
+        nodes.add(icode);
+        return nodes.size() - 1;
+    }
+
+    //-------------------------------------------------------------------------
+    private static int add_math(ArrayList<ICode> nodes, MathOp op,
+                                int p1, int p2)
+    {
+        return add_node(nodes, ICodeId.MATHI, op, p1, p2);
+    }
+
+    //-------------------------------------------------------------------------
+    private static int add_icon(ArrayList<ICode> nodes, int value)
+    {
+        return add_node(nodes, ICodeId.ICON, value, -1, -1);
+    }
+
+    //-------------------------------------------------------------------------
+    // Insert the list at idx.
+    //-------------------------------------------------------------------------
+    private void insert_nodes(int idx, ArrayList<ICode> nodes, Src src)
+    {
+        for (int k = 0; k < nodes.size(); k++)
+        {
+            ICode icode = nodes.get(k);
+            icode.src = src;
+            if (icode.p1 >= 0) icode.p1 += idx;
+            if (icode.p2 >= 0) icode.p2 += idx;
+            icodes.insert(idx + k, icode);
+        }
+        set_last_refs(idx, idx + nodes.size() - 1);
+    }
+
+    //-------------------------------------------------------------------------
+    // Replace i * c in a loop, where i only changes by i += n in the loop,
+    // with a new local set to i * c before the loop, that changes by n * c
+    // right after i. Return false if no loop has any.
+    //-------------------------------------------------------------------------
+    private boolean reduce_loop()
+    {
+        for (FlowGraph.Loop loop : cfg.loops)
+        {
+            if (has_preheader(loop) == false) continue;
+
+            ArrayList<FlowGraph.Block> blocks = new ArrayList<>(loop.blocks);
+            blocks.sort((a, b) -> a.num - b.num);
+
+            HashMap<String, Integer> defs = new HashMap<>();
+            HashMap<String, ICode> steps = new HashMap<>();
+            for (FlowGraph.Block block : blocks)
+                for (int i = block.first; i <= block.last; i++)
+                {
+                    ICode icode = icodes.get(i);
+                    String label = assigned(icode);
+                    if (label == null) continue;
+                    defs.merge(label, 1, Integer::sum);
+                    if (icode.id == ICodeId.ASSIGNI &&
+                        (icode.parm == MathOp.ADD || icode.parm == MathOp.SUB) &&
+                        icodes.get(icode.p2).id == ICodeId.ICON)
+                        steps.put(label, icode);
+                }
+
+            // Key is label op value, the same key uses the same local
+            HashMap<String, ArrayList<ICode>> found = new HashMap<>();
+            for (FlowGraph.Block block : blocks)
+                for (int i = block.first; i <= block.last; i++)
+                {
+                    ICode icode = icodes.get(i);
+                    if (icode.id != ICodeId.MATHI ||
+                        (icode.parm != MathOp.MUL && icode.parm != MathOp.SHL))
+                        continue;
+                    ICode ic1 = icodes.get(icode.p1);
+                    ICode ic2 = icodes.get(icode.p2);
+                    if (ic1.id != ICodeId.REG || ic2.id != ICodeId.ICON)
+                        continue;
+                    String label = (String)ic1.parm;
+                    if (func.symbols.containsKey(label) == false ||
+                        steps.containsKey(label) == false ||
+                        defs.get(label) != 1) continue;
+                    String key = label + " " + icode.parm + " " + ic2.parm;
+                    found.computeIfAbsent(key, x -> new ArrayList<>()).add(icode);
+                }
+
+            if (found.isEmpty()) continue;
+
+            ICode marker = icodes.get(loop.header.first);
+            for (ArrayList<ICode> list : found.values())
+            {
+                ICode first = list.get(0);
+                ICode ic1 = icodes.get(first.p1);
+                MathOp op = (MathOp)first.parm;
+                int c = (int)icodes.get(first.p2).parm;
+                String iv = (String)ic1.parm;
+                String label = new_temp();
+
+                ArrayList<ICode> nodes = new ArrayList<>();
+                int xr = add_node(nodes, ICodeId.REG, iv, -1, -1);
+                int e = add_math(nodes, op, xr, add_icon(nodes, c));
+                int dst = add_node(nodes, ICodeId.REG, label, -1, -1);
+                add_node(nodes, ICodeId.ASSIGNI, MathOp.PAS, dst, e);
+                insert_nodes(icodes.index_of(marker), nodes, marker.src);
+
+                ICode step = steps.get(iv);
+                int n = (int)icodes.get(step.p2).parm;
+                int inc = (op == MathOp.MUL) ? n * c : n << c;
+                inc &= MASK;
+                if (inc > SIGN) inc -= MASK + 1;
+
+                nodes = new ArrayList<>();
+                int icon = add_icon(nodes, inc);
+                dst = add_node(nodes, ICodeId.REG, label, -1, -1);
+                add_node(nodes, ICodeId.ASSIGNI, step.parm, dst, icon);
+                insert_nodes(icodes.index_of(step) + 1, nodes, step.src);
+
+                for (ICode icode : list)
+                    replace(icode, label);
+            }
+            return true;
+        }
+
+        return false;
+    }
+
+    //=========================================================================
+    // Common subexpression elimination
+    //=========================================================================
+
+    //-------------------------------------------------------------------------
+    // Count the assignments to each local, and keep the index of the last.
+    //-------------------------------------------------------------------------
+    private void find_defs()
+    {
+        for (int i = 0; i < icodes.size(); i++)
+        {
+            String label = assigned(icodes.get(i));
+            if (label == null) continue;
+            def_cnt.merge(label, 1, Integer::sum);
+            def_idx.put(label, i);
+        }
+    }
+
+    //-------------------------------------------------------------------------
+    // True if the local is only assigned once before idx, and keeps that
+    // value everywhere idx dominates.
+    //-------------------------------------------------------------------------
+    private boolean single_def(String label, int idx)
+    {
+        int cnt = def_cnt.getOrDefault(label, 0);
+        if (parms.contains(label)) return cnt == 0;
+        if (cnt != 1) return false;
+
+        int def = def_idx.get(label);
+        FlowGraph.Block a = cfg.block_of[def], b = cfg.block_of[idx];
+        return a == b ? def < idx : cfg.dominates(a, b);
+    }
+
+    //-------------------------------------------------------------------------
+    private void cse_block(FlowGraph.Block block) throws MError
+    {
+        for (int i = block.first; i <= block.last; i++)
+        {
+            ICode icode = icodes.get(i);
+            if (user[i] >= 0 || icode.id == ICodeId.NONE) continue;
+
+            for (int op : operands(icode))
+                find_common(op, block);
+
+            String label = assigned(icode);
+            if (label != null)
+                for (ArrayList<Entry> list : table.values())
+                    list.removeIf(e -> e.block == block &&
+                                       e.locals.contains(label));
+        }
+
+        // Only global entries outlive their block
+        for (ArrayList<Entry> list : table.values())
+            list.removeIf(e -> e.block == block && e.global == false);
+    }
+
+    //-------------------------------------------------------------------------
+    // Top down, so the largest common expression is found. The roots are
+    // walked in order, but the tree of a root can start before the roots
+    // ahead of it, such as the statements of an inlined call. So in the
+    // same block, the entry must also come first by index, with no
+    // assignment to its locals between the two.
+    //-------------------------------------------------------------------------
+    private void find_common(int i, FlowGraph.Block block) throws MError
+    {
+        ICode icode = icodes.get(i);
+        if (is_expr(icode))
+        {
+            Entry entry = new Entry();
+            String key = key(i, entry.locals);
+            if (key != null)
+            {
+                ArrayList<Entry> list = table.get(key);
+                if (list == null)
+                {
+                    list = new ArrayList<>();
+                    table.put(key, list);
+                }
+
+                for (Entry e : list)
+                {
+                    if (e.block == block)
+                    {
+                        if (e.idx > i || assigns(e.idx, i, e.locals))
+                            continue;
+                    }
+                    else if (cfg.dominates(e.block, block) == false)
+                        continue;
+
+                    common.put(icode, e.icode);
+                    return;
+                }
+
+                entry.icode = icode;
+                entry.idx = i;
+                entry.block = block;
+                entry.global = true;
+                for (String label : entry.locals)
+                    if (single_def(label, i) == false) entry.global = false;
+                list.add(entry);
+            }
+        }
+
+        for (int op : operands(icode))
+            find_common(op, block);
+    }
+
+    //-------------------------------------------------------------------------
+    // True if an ICode between first and last assigns one of the locals.
+    //-------------------------------------------------------------------------
+    private boolean assigns(int first, int last, TreeSet<String> locals)
+    {
+        for (int i = first + 1; i < last; i++)
+        {
+            String label = assigned(icodes.get(i));
+            if (label != null && locals.contains(label)) return true;
+        }
+        return false;
+    }
+
+    //-------------------------------------------------------------------------
+    // Save the first of each common expression in a new local, just before
+    // its user, and read that local in its place and in the others.
+    //-------------------------------------------------------------------------
+    private void save_common()
+    {
+        IdentityHashMap<ICode, String> temps = new IdentityHashMap<>();
+
+        for (ICode first : common.values())
+        {
+            if (temps.containsKey(first)) continue;
+            String label = new_temp();
+            temps.put(first, label);
+
+            int m = icodes.index_of(first);
+            ICode ucode = icodes.get(user_of(m));
+
+            ICode dst = new ICode(ICodeId.REG, first.src, label);
+            ICode move = new ICode(ICodeId.ASSIGNI, first.src, MathOp.PAS);
+            ICode read = new ICode(ICodeId.REG, first.src, label);
+            icodes.insert(m + 1, dst);
+            icodes.insert(m + 2, move);
+            icodes.insert(m + 3, read);
+            move.p1 = m + 1;
+            move.p2 = m;
+
+            if (ucode.p1 == m) ucode.p1 = m + 3;
+            else ucode.p2 = m + 3;
+
+            first.last_ref = m + 2;
+            dst.last_ref = read.last_ref = icodes.size();
+        }
+
+        for (ICode icode : common.keySet())
+            replace(icode, temps.get(common.get(icode)));
+    }
+
+    //-------------------------------------------------------------------------
+    private int user_of(int m)
+    {
+        for (int i = m + 1; i < icodes.size(); i++)
+        {
+            ICode icode = icodes.get(i);
+            if (icode.id == ICodeId.NONE) continue;
+            if (icode.p1 == m || icode.p2 == m && is_jump(icode) == false)
+                return i;
+        }
+        return -1;
+    }
+
+    //-------------------------------------------------------------------------
+    private static boolean is_jump(ICode icode)
+    {
+        return icode.id == ICodeId.JMP ||
+               icode.id == ICodeId.JMPT ||
+               icode.id == ICodeId.JMPF;
+    }
+}
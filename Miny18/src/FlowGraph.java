@@ -0,0 +1,399 @@
+//-----------------------------------------------------------------------------
+// Miny Control Flow Graph
+//
+// Basic blocks of a function's ICodes, with their predecessor and successor
+// edges, the dominator tree and the loop nesting forest. Built after
+// ICodeOpt, and again by any pass that changes the jumps. A block starts at
+// the first ICode, at each marker and after each jump or return. Jumps may
+// refer to their marker by index in p2, or by name only, as ICodeGen
+// leaves them.
+//
+// History:
+// 1.0.0   10/18/2026   File Created
+// 1.1.0   10/18/2026   Keep the jump target and fall through of each block
+// 1.2.0   10/18/2026   Add serialVersionUID
+//-----------------------------------------------------------------------------
+// Copyright 2020 Mike Christle
+//
+// Permission is hereby granted, free of charge, to any person obtaining a
+// copy of this software and associated documentation files (the "Software"),
+// to deal in the Software without restriction, including without limitation
+// the rights to use, copy, modify, merge, publish, distribute, sublicense,
+// and/or sell copies of the Software, and to permit persons to whom the
+// Software is furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be
+// included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+// THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+// FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+// DEALINGS IN THE SOFTWARE.
+//-----------------------------------------------------------------------------
+
+import java.io.PrintStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+//-----------------------------------------------------------------------------
+public class FlowGraph implements Serializable
+{
+    private static final long serialVersionUID = 1L;
+
+    //-------------------------------------------------------------------------
+    public static class Block implements Serializable
+    {
+        private static final long serialVersionUID = 1L;
+
+        public int num;             // Index in blocks
+        public int first, last;     // ICode index range
+        public ArrayList<Block> preds = new ArrayList<>();
+        public ArrayList<Block> succs = new ArrayList<>();
+        public int rpo = -1;        // Reverse post order, -1 if unreachable
+        public Block idom;          // Null for the entry and unreachable
+        public ArrayList<Block> doms = new ArrayList<>();
+        public Loop loop;           // Innermost loop, null if none
+        public Block jump, fall;    // Jump target and fall through
+    }
+
+    //-------------------------------------------------------------------------
+    public static class Loop implements Serializable
+    {
+        private static final long serialVersionUID = 1L;
+
+        public Block header;
+        public Loop parent;
+        public ArrayList<Loop> loops = new ArrayList<>();
+        public ArrayList<Block> blocks = new ArrayList<>();
+        public int depth;           // One for an outer loop
+        public int first, last;     // ICode index range of the blocks
+    }
+
+    public ArrayList<Block> blocks = new ArrayList<>();
+    public ArrayList<Block> order = new ArrayList<>();  // Reverse post order
+    public ArrayList<Loop> loops = new ArrayList<>();   // Outer loops first
+    public Block[] block_of;                            // Block of each ICode
+
+    //-------------------------------------------------------------------------
+    public FlowGraph(ICodeList icodes)
+    {
+        find_blocks(icodes);
+        find_edges(icodes);
+        find_order();
+        find_dominators();
+        find_loops();
+    }
+
+    //-------------------------------------------------------------------------
+    public Block entry()
+    {
+        return blocks.get(0);
+    }
+
+    //-------------------------------------------------------------------------
+    // True if every path from the entry to b goes through a.
+    //-------------------------------------------------------------------------
+    public boolean dominates(Block a, Block b)
+    {
+        if (a.rpo < 0 || b.rpo < 0) return false;
+        while (b != null && b.rpo > a.rpo) b = b.idom;
+        return b == a;
+    }
+
+    //-------------------------------------------------------------------------
+    // Number of loops around the ICode.
+    //-------------------------------------------------------------------------
+    public int loop_depth(int idx)
+    {
+        Loop loop = block_of[idx].loop;
+        return loop == null ? 0 : loop.depth;
+    }
+
+    //-------------------------------------------------------------------------
+    public void dump(PrintStream ofp)
+    {
+        for (Block block : blocks)
+        {
+            ofp.printf("    B%-3d %4d-%-4d", block.num, block.first, block.last);
+            ofp.print("  preds");
+            for (Block b : block.preds) ofp.printf(" B%d", b.num);
+            ofp.print("  succs");
+            for (Block b : block.succs) ofp.printf(" B%d", b.num);
+            if (block.idom != null) ofp.printf("  idom B%d", block.idom.num);
+            if (block.loop != null)
+                ofp.printf("  loop B%d depth %d",
+                    block.loop.header.num, block.loop.depth);
+            ofp.println();
+        }
+    }
+
+    //-------------------------------------------------------------------------
+    private static boolean is_jump(ICode icode)
+    {
+        return icode.id == ICodeId.JMP ||
+               icode.id == ICodeId.JMPT ||
+               icode.id == ICodeId.JMPF;
+    }
+
+    //-------------------------------------------------------------------------
+    private static boolean ends_block(ICode icode)
+    {
+        return is_jump(icode) ||
+               icode.id == ICodeId.RETURN ||
+               icode.id == ICodeId.RESTART;
+    }
+
+    //-------------------------------------------------------------------------
+    private void find_blocks(ICodeList icodes)
+    {
+        int size = icodes.size();
+        block_of = new Block[size];
+        Block block = null;
+
+        for (int i = 0; i < size; i++)
+        {
+            ICode icode = icodes.get(i);
+            if (block == null || icode.id == ICodeId.MARKER &&
+                block.first < i)
+            {
+                block = new Block();
+                block.num = blocks.size();
+                block.first = i;
+                blocks.add(block);
+            }
+
+            block.last = i;
+            block_of[i] = block;
+            if (ends_block(icode)) block = null;
+        }
+    }
+
+    //-------------------------------------------------------------------------
+    private void find_edges(ICodeList icodes)
+    {
+        HashMap<String, Integer> markers = new HashMap<>();
+        for (int i = 0; i < icodes.size(); i++)
+        {
+            ICode icode = icodes.get(i);
+            if (icode.id == ICodeId.MARKER)
+                markers.putIfAbsent((String)icode.parm, i);
+        }
+
+        for (Block block : blocks)
+        {
+            ICode icode = icodes.get(block.last);
+            boolean fall = true;
+
+            if (is_jump(icode))
+            {
+                int target = icode.p2;
+                if (target < 0)
+                    target = markers.getOrDefault((String)icode.parm, -1);
+                if (target >= 0)
+                {
+                    block.jump = block_of[target];
+                    add_edge(block, block.jump);
+                }
+                fall = icode.id != ICodeId.JMP;
+            }
+            else if (icode.id == ICodeId.RETURN ||
+                     icode.id == ICodeId.RESTART)
+                fall = false;
+
+            if (fall && block.num + 1 < blocks.size())
+            {
+                block.fall = blocks.get(block.num + 1);
+                add_edge(block, block.fall);
+            }
+        }
+    }
+
+    //-------------------------------------------------------------------------
+    private static void add_edge(Block from, Block to)
+    {
+        if (from.succs.contains(to)) return;
+        from.succs.add(to);
+        to.preds.add(from);
+    }
+
+    //-------------------------------------------------------------------------
+    // Depth first from the entry, without recursion, since a function can
+    // have many blocks.
+    //-------------------------------------------------------------------------
+    private void find_order()
+    {
+        if (blocks.isEmpty()) return;
+
+        ArrayList<Block> post = new ArrayList<>();
+        boolean[] seen = new boolean[blocks.size()];
+        ArrayList<Block> stack = new ArrayList<>();
+        ArrayList<Integer> next = new ArrayList<>();
+
+        stack.add(entry());
+        next.add(0);
+        seen[0] = true;
+
+        while (stack.isEmpty() == false)
+        {
+            int top = stack.size() - 1;
+            Block block = stack.get(top);
+            int k = next.get(top);
+
+            if (k < block.succs.size())
+            {
+                next.set(top, k + 1);
+                Block succ = block.succs.get(k);
+                if (seen[succ.num] == false)
+                {
+                    seen[succ.num] = true;
+                    stack.add(succ);
+                    next.add(0);
+                }
+            }
+            else
+            {
+                post.add(block);
+                stack.remove(top);
+                next.remove(top);
+            }
+        }
+
+        for (int i = post.size() - 1; i >= 0; i--)
+        {
+            Block block = post.get(i);
+            block.rpo = order.size();
+            order.add(block);
+        }
+    }
+
+    //-------------------------------------------------------------------------
+    // Cooper, Harvey and Kennedy. Visit the blocks in reverse post order,
+    // and meet the dominators of the processed predecessors, until nothing
+    // changes. One pass is enough unless there are loops.
+    //-------------------------------------------------------------------------
+    private void find_dominators()
+    {
+        if (order.isEmpty()) return;
+
+        Block start = entry();
+        start.idom = start;
+
+        boolean changed = true;
+        while (changed)
+        {
+            changed = false;
+            for (int i = 1; i < order.size(); i++)
+            {
+                Block block = order.get(i);
+                Block idom = null;
+
+                for (Block pred : block.preds)
+                {
+                    if (pred.idom == null) continue;
+                    idom = (idom == null) ? pred : intersect(pred, idom);
+                }
+
+                if (idom != block.idom)
+                {
+                    block.idom = idom;
+                    changed = true;
+                }
+            }
+        }
+
+        start.idom = null;
+        for (Block block : order)
+            if (block.idom != null) block.idom.doms.add(block);
+    }
+
+    //-------------------------------------------------------------------------
+    private static Block intersect(Block a, Block b)
+    {
+        while (a != b)
+        {
+            while (a.rpo > b.rpo) a = a.idom;
+            while (b.rpo > a.rpo) b = b.idom;
+        }
+        return a;
+    }
+
+    //-------------------------------------------------------------------------
+    // A back edge goes to a block that dominates its source. The loop is
+    // the header and every block that reaches the source without going
+    // through the header. Back edges to the same header make one loop.
+    //-------------------------------------------------------------------------
+    private void find_loops()
+    {
+        HashMap<Block, Loop> headers = new HashMap<>();
+        HashMap<Loop, boolean[]> in_loop = new HashMap<>();
+
+        for (Block block : order)
+        {
+            for (Block succ : block.succs)
+            {
+                if (dominates(succ, block) == false) continue;
+
+                Loop loop = headers.get(succ);
+                if (loop == null)
+                {
+                    loop = new Loop();
+                    loop.header = succ;
+                    loop.blocks.add(succ);
+                    headers.put(succ, loop);
+                    in_loop.put(loop, new boolean[blocks.size()]);
+                    in_loop.get(loop)[succ.num] = true;
+                }
+
+                boolean[] in = in_loop.get(loop);
+
+                ArrayList<Block> work = new ArrayList<>();
+                work.add(block);
+                while (work.isEmpty() == false)
+                {
+                    Block b = work.remove(work.size() - 1);
+                    if (in[b.num]) continue;
+                    in[b.num] = true;
+                    loop.blocks.add(b);
+                    for (Block pred : b.preds)
+                        if (pred.rpo >= 0) work.add(pred);
+                }
+            }
+        }
+
+        // Outer loops have more blocks, so sort them first. The parent of
+        // a loop is the smallest loop before it that holds its header.
+        loops.addAll(headers.values());
+        loops.sort((a, b) -> a.blocks.size() != b.blocks.size() ?
+                             b.blocks.size() - a.blocks.size() :
+                             a.header.num - b.header.num);
+
+        for (int i = 0; i < loops.size(); i++)
+        {
+            Loop loop = loops.get(i);
+            for (int j = i - 1; j >= 0; j--)
+            {
+                Loop outer = loops.get(j);
+                if (in_loop.get(outer)[loop.header.num])
+                {
+                    loop.parent = outer;
+                    outer.loops.add(loop);
+                    break;
+                }
+            }
+
+            loop.depth = (loop.parent == null) ? 1 : loop.parent.depth + 1;
+            loop.first = Integer.MAX_VALUE;
+            loop.last = -1;
+            for (Block block : loop.blocks)
+            {
+                block.loop = loop;
+                loop.first = Math.min(loop.first, block.first);
+                loop.last = Math.max(loop.last, block.last);
+            }
+        }
+    }
+}
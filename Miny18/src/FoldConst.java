@@ -4,6 +4,9 @@
 // History: 
 // 0.1.0   07/27/2017   File Created
 // 1.0.0   09/01/2020   Initial release
+// 1.1.0   10/18/2026   Move static state to CompilationContext
+// 1.2.0   10/18/2026   Run each function in parallel
+// 1.3.0   10/18/2026   Skip cached modules
 //-----------------------------------------------------------------------------
 // Copyright 2020 Mike Christle
 //
@@ -26,6 +29,7 @@
 // DEALINGS IN THE SOFTWARE.
 //-----------------------------------------------------------------------------
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.TreeMap;
@@ -37,10 +41,12 @@ public class FoldConst
     private HashMap<String, Symbol> func_syms;
     private HashMap<String, Symbol> mod_syms;
     private TreeMap<Character, Character> escapes = new TreeMap<>();
+    private CompilationContext ctx;
 
     //-------------------------------------------------------------------------
-    public FoldConst()
+    public FoldConst(CompilationContext _ctx)
     {
+        ctx = _ctx;
         escapes.put('n', '\n'); // Newline
         escapes.put('r', '\r'); // Carriage return
         escapes.put('t', '\t'); // Tab
@@ -48,13 +54,19 @@ public class FoldConst
         escapes.put('b', '\\'); // Backslash
     }
 
+    //-------------------------------------------------------------------------
+    // The module level declarations are folded first, one module at a
+    // time, since constants may refer to constants in other modules. Then
+    // the functions, which only read the constants, are folded in parallel.
     //-------------------------------------------------------------------------
     public void fold() throws MError
     {
-        for (String mkey : Module.modules.keySet())
+        ArrayList<Func> funcs = new ArrayList<>();
+
+        for (String mkey : ctx.modules.keySet())
         {
-            Module module = Module.modules.get(mkey);
-            mod_syms = module.symbols;
+            Module module = ctx.modules.get(mkey);
+            if (module.cached) continue;
 
             Object[] keys = module.funcs.keySet().toArray();
             Arrays.sort(keys);
@@ -62,14 +74,27 @@ public class FoldConst
             for (Object fkey : keys)
             {
                 Func func = module.funcs.get(fkey);
-                func_syms = func.symbols;
-
-                for (Node node : func.nodes)
-                    fold_node(node);
+                if (mkey.equals(fkey))
+                    fold(func);
+                else
+                    funcs.add(func);
             }
-
-            module.funcs.remove(mkey);
         }
+
+        ctx.for_each(funcs, func -> new FoldConst(ctx).fold(func));
+
+        for (String mkey : ctx.modules.keySet())
+            ctx.modules.get(mkey).funcs.remove(mkey);
+    }
+
+    //-------------------------------------------------------------------------
+    private void fold(Func func) throws MError
+    {
+        mod_syms = func.mod_syms;
+        func_syms = func.symbols;
+
+        for (Node node : func.nodes)
+            fold_node(node);
     }
 
     //-------------------------------------------------------------------------
@@ -455,9 +480,9 @@ public class FoldConst
         {
             String mod_name = label.substring(0, idx);
             label = label.substring(idx + 1, label.length());
-            if (Module.modules.containsKey(mod_name))
+            if (ctx.modules.containsKey(mod_name))
             {
-                Module module = Module.modules.get(mod_name);
+                Module module = ctx.modules.get(mod_name);
                 if (module.symbols.containsKey(label))
                     return module.symbols.get(label);
             }
@@ -4,6 +4,11 @@
 // History: 
 // 0.1.0   07/27/2017   File Created
 // 1.0.0   09/01/2020   Initial release
+// 1.1.0   10/18/2026   Use ICodeList for icodes
+// 1.2.0   10/18/2026   Add mod_name
+// 1.3.0   10/18/2026   Serializable for the module cache
+// 1.4.0   10/18/2026   Add cfg
+// 1.5.0   10/18/2026   Add serialVersionUID
 //-----------------------------------------------------------------------------
 // Copyright 2020 Mike Christle
 //
@@ -26,21 +31,26 @@
 // DEALINGS IN THE SOFTWARE.
 //-----------------------------------------------------------------------------
 
+import java.io.Serializable;
 import java.util.LinkedList;
 import java.util.HashMap;
 
 //-----------------------------------------------------------------------------
-public class Func
+public class Func implements Serializable
 {
+    private static final long serialVersionUID = 1L;
+
     public String label;
     public Src src;
     public boolean isr;
     public TypeId type;
-    public LinkedList<ICode> icodes = new LinkedList<ICode>();
+    public ICodeList icodes = new ICodeList();
     public LinkedList<Node> parms = new LinkedList<Node>();
     public LinkedList<Node> nodes = new LinkedList<Node>();
     public HashMap<String, Symbol> symbols = new HashMap<String, Symbol>();
     public HashMap<String, Symbol> mod_syms;
+    public String mod_name;
+    public FlowGraph cfg;
     public int bit_cnt, bit_base;
     public int reg_cnt, reg_base;
 
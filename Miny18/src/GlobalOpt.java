@@ -0,0 +1,753 @@
+//-----------------------------------------------------------------------------
+// Miny Global Optimizer
+//
+// Constant and copy propagation, and dead code removal, across the whole
+// function. Runs on the ICodes from ICodeGen, before ICodeOpt cleans up
+// the jumps and markers.
+//
+// Propagation is sparse conditional, as done on SSA form, but the SSA
+// names are never built. Each REG or BIT ICode reads one definition of its
+// local, so the value of each local is kept per block over the flow graph,
+// and a block is only visited once an edge into it is found executable. A
+// jump on a constant only makes its taken edge executable. A local is
+// unknown (TOP), a constant, a copy of another local or many values
+// (BOTTOM). Only INT and BOOL locals and parameters are tracked, since
+// globals can change in an ISR.
+//
+// The results are used to:
+//   Replace reads of constant locals with constants, where AsmGen18
+//   takes a constant in that position.
+//   Replace reads of copies with the local copied.
+//   Fold math and compares on constants.
+//   Turn jumps on constants into JMP or nothing.
+//   Remove blocks that are never reached.
+// Then stores to locals that are never read again, and expressions whose
+// value is never used, are removed. Calls and port reads are kept.
+//
+// History:
+// 1.0.0   10/18/2026   File Created
+//-----------------------------------------------------------------------------
+// Copyright 2020 Mike Christle
+//
+// Permission is hereby granted, free of charge, to any person obtaining a
+// copy of this software and associated documentation files (the "Software"),
+// to deal in the Software without restriction, including without limitation
+// the rights to use, copy, modify, merge, publish, distribute, sublicense,
+// and/or sell copies of the Software, and to permit persons to whom the
+// Software is furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be
+// included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+// THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+// FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+// DEALINGS IN THE SOFTWARE.
+//-----------------------------------------------------------------------------
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+//-----------------------------------------------------------------------------
+public class GlobalOpt
+{
+    private static final int TOP = 0;
+    private static final int CONST = 1;
+    private static final int COPY = 2;
+    private static final int BOTTOM = 3;
+
+    private static final int MASK = 0x3FFFF;
+    private static final int SIGN = 0x20000;
+
+    // Value of each tracked local, kind and constant or local copied
+    private static class State
+    {
+        public int[] kind, value;
+
+        public State(int size)
+        {
+            kind = new int[size];
+            value = new int[size];
+        }
+
+        public State copy()
+        {
+            State s = new State(kind.length);
+            System.arraycopy(kind, 0, s.kind, 0, kind.length);
+            System.arraycopy(value, 0, s.value, 0, value.length);
+            return s;
+        }
+    }
+
+    private HashMap<String, Integer> vars = new HashMap<>();
+    private ArrayList<String> names = new ArrayList<>();
+    private ICodeList icodes;
+    private FlowGraph cfg;
+    private State[] in;
+    private boolean[] exec;
+    private int[] kind, value;      // Value of each ICode
+    private int[] user;             // ICode using each ICode, -1 if none
+    private boolean[] is_dst;       // Dst of an assignment
+    private CompilationContext ctx;
+
+    //-------------------------------------------------------------------------
+    public GlobalOpt(CompilationContext _ctx)
+    {
+        ctx = _ctx;
+    }
+
+    //-------------------------------------------------------------------------
+    // Each function gets its own GlobalOpt, and runs in parallel.
+    //-------------------------------------------------------------------------
+    public void run() throws MError
+    {
+        ctx.for_each(ctx.func_list(), f -> new GlobalOpt(ctx).opt_func(f));
+    }
+
+    //-------------------------------------------------------------------------
+    private void opt_func(Func func)
+    {
+        icodes = func.icodes;
+        cfg = new FlowGraph(icodes);
+
+        for (String label : func.symbols.keySet())
+        {
+            Symbol sym = func.symbols.get(label);
+            if (label.equals("return") || sym.count != 1) continue;
+            if (sym.type != TypeId.INT && sym.type != TypeId.BOOL) continue;
+            if (sym.store != StoreId.REG && sym.store != StoreId.BIT) continue;
+            vars.put(label, names.size());
+            names.add(label);
+        }
+
+        int size = icodes.size();
+        kind = new int[size];
+        value = new int[size];
+        find_users();
+
+        propagate();
+        rewrite();
+        while (remove_dead_code()) find_users();
+    }
+
+    //-------------------------------------------------------------------------
+    private void find_users()
+    {
+        int size = icodes.size();
+        user = new int[size];
+        is_dst = new boolean[size];
+        for (int i = 0; i < size; i++) user[i] = -1;
+
+        for (int i = 0; i < size; i++)
+        {
+            ICode icode = icodes.get(i);
+            if (icode.id == ICodeId.NONE) continue;
+            if (icode.p1 >= 0) user[icode.p1] = i;
+            if (icode.p2 >= 0 && is_jump(icode) == false) user[icode.p2] = i;
+            if (icode.id == ICodeId.ASSIGNI || icode.id == ICodeId.ASSIGNB)
+                is_dst[icode.p1] = true;
+        }
+    }
+
+    //-------------------------------------------------------------------------
+    // Visit the executable blocks until the values at the start of every
+    // block stop changing. Each value can only move down from TOP to
+    // BOTTOM, so this ends.
+    //-------------------------------------------------------------------------
+    private void propagate()
+    {
+        int count = cfg.blocks.size();
+        in = new State[count];
+        exec = new boolean[count];
+        if (count == 0) return;
+
+        State start = new State(names.size());
+        for (int v = 0; v < names.size(); v++) start.kind[v] = BOTTOM;
+
+        ArrayList<FlowGraph.Block> work = new ArrayList<>();
+        FlowGraph.Block entry = cfg.entry();
+        exec[entry.num] = true;
+        in[entry.num] = start;
+        work.add(entry);
+
+        while (work.isEmpty() == false)
+        {
+            FlowGraph.Block block = work.remove(work.size() - 1);
+            State state = in[block.num].copy();
+            eval_block(block, state);
+
+            for (FlowGraph.Block succ : exec_succs(block))
+            {
+                if (exec[succ.num] == false)
+                {
+                    exec[succ.num] = true;
+                    in[succ.num] = state.copy();
+                    work.add(succ);
+                }
+                else if (meet(in[succ.num], state))
+                {
+                    if (work.contains(succ) == false) work.add(succ);
+                }
+            }
+        }
+    }
+
+    //-------------------------------------------------------------------------
+    // Meet s into t, return true if t changed.
+    //-------------------------------------------------------------------------
+    private static boolean meet(State t, State s)
+    {
+        boolean changed = false;
+        for (int v = 0; v < t.kind.length; v++)
+        {
+            int k = t.kind[v];
+            if (k == BOTTOM || s.kind[v] == TOP) continue;
+            if (k == TOP)
+            {
+                t.kind[v] = s.kind[v];
+                t.value[v] = s.value[v];
+                changed = true;
+            }
+            else if (k != s.kind[v] || t.value[v] != s.value[v])
+            {
+                t.kind[v] = BOTTOM;
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    //-------------------------------------------------------------------------
+    private ArrayList<FlowGraph.Block> exec_succs(FlowGraph.Block block)
+    {
+        ArrayList<FlowGraph.Block> list = new ArrayList<>();
+        ICode icode = icodes.get(block.last);
+
+        if (icode.id == ICodeId.JMPT || icode.id == ICodeId.JMPF)
+        {
+            int k = kind[icode.p1];
+            if (k == TOP) return list;
+            if (k == CONST)
+            {
+                boolean taken = (value[icode.p1] != 0) ==
+                                (icode.id == ICodeId.JMPT);
+                FlowGraph.Block next = taken ? block.jump : block.fall;
+                if (next != null) list.add(next);
+                return list;
+            }
+        }
+
+        list.addAll(block.succs);
+        return list;
+    }
+
+    //-------------------------------------------------------------------------
+    // Find the value of each ICode in the block, and update the state of
+    // the locals it assigns.
+    //-------------------------------------------------------------------------
+    private void eval_block(FlowGraph.Block block, State state)
+    {
+        for (int i = block.first; i <= block.last; i++)
+        {
+            ICode icode = icodes.get(i);
+            kind[i] = BOTTOM;
+
+            switch (icode.id)
+            {
+                case ICON:
+                    kind[i] = CONST;
+                    value[i] = (int)icode.parm;
+                    break;
+
+                case BCON:
+                    kind[i] = CONST;
+                    value[i] = (boolean)icode.parm ? 1 : 0;
+                    break;
+
+                case REG:
+                case BIT:
+                {
+                    Integer v = vars.get((String)icode.parm);
+                    if (v == null) break;
+                    kind[i] = state.kind[v];
+                    value[i] = state.value[v];
+                    if (kind[i] == BOTTOM)
+                    {
+                        kind[i] = COPY;
+                        value[i] = v;
+                    }
+                    break;
+                }
+
+                case MATHI:
+                case MATHB:
+                case COMPI:
+                case COMPB:
+                    eval_op(i, icode);
+                    break;
+
+                case ASSIGNI:
+                case ASSIGNB:
+                    eval_assign(i, icode, state);
+                    break;
+
+                default:
+                    break;
+            }
+        }
+    }
+
+    //-------------------------------------------------------------------------
+    private void eval_op(int i, ICode icode)
+    {
+        int p2 = (icode.p2 < 0) ? icode.p1 : icode.p2;
+        int k1 = kind[icode.p1], k2 = kind[p2];
+
+        if (k1 == TOP || k2 == TOP)
+        {
+            kind[i] = TOP;
+            return;
+        }
+        if (k1 != CONST || k2 != CONST) return;
+
+        Integer r = fold(icode.id, (MathOp)icode.parm,
+                         value[icode.p1], value[p2]);
+        if (r != null)
+        {
+            kind[i] = CONST;
+            value[i] = r;
+        }
+    }
+
+    //-------------------------------------------------------------------------
+    // Only assignments to tracked locals change the state. Any local
+    // holding a copy of the old value no longer does.
+    //-------------------------------------------------------------------------
+    private void eval_assign(int i, ICode icode, State state)
+    {
+        ICode dst = icodes.get(icode.p1);
+        if (dst.id != ICodeId.REG && dst.id != ICodeId.BIT) return;
+        Integer x = vars.get((String)dst.parm);
+        if (x == null) return;
+
+        MathOp op = (MathOp)icode.parm;
+        int k = kind[icode.p2], val = value[icode.p2];
+
+        if (op != MathOp.PAS)
+        {
+            int old = state.kind[x];
+            if (old == TOP || k == TOP)
+                k = TOP;
+            else if (old == CONST && k == CONST)
+            {
+                ICodeId id = (icode.id == ICodeId.ASSIGNI) ?
+                             ICodeId.MATHI : ICodeId.MATHB;
+                Integer r = fold(id, op, state.value[x], val);
+                k = (r == null) ? BOTTOM : CONST;
+                if (r != null) val = r;
+            }
+            else
+                k = BOTTOM;
+        }
+
+        kind[i] = k;
+        value[i] = val;
+        if (k == COPY && val == x) return;
+
+        for (int v = 0; v < names.size(); v++)
+            if (state.kind[v] == COPY && state.value[v] == x)
+                state.kind[v] = BOTTOM;
+
+        state.kind[x] = k;
+        state.value[x] = val;
+    }
+
+    //-------------------------------------------------------------------------
+    // Same results as the Proc18 ALU, masked to 18 bits. For compares, the
+    // flags of d - s are tested the same way as the branch instructions.
+    // Null if the op has no instruction.
+    //-------------------------------------------------------------------------
+    private static Integer fold(ICodeId id, MathOp op, int d, int s)
+    {
+        if (id == ICodeId.MATHB)
+        {
+            switch (op)
+            {
+                case PAS:    return s;
+                case LG_AND: return d & s;
+                case LG_OR:  return d | s;
+                case LG_NOT: return s ^ 1;
+                default:     return null;
+            }
+        }
+
+        if (id == ICodeId.COMPB)
+        {
+            switch (op)
+            {
+                case EQ: return (d == s) ? 1 : 0;
+                case NE: return (d != s) ? 1 : 0;
+                default: return null;
+            }
+        }
+
+        if (id == ICodeId.COMPI)
+        {
+            int r = (d - s) & MASK;
+            boolean z = r == 0, f = (r & SIGN) != 0;
+            boolean b;
+            switch (op)
+            {
+                case EQ: b = z; break;
+                case NE: b = !z; break;
+                case LT: b = !z && f; break;
+                case GT: b = !z && !f; break;
+                case LE: b = z || f; break;
+                case GE: b = z || !f; break;
+                default: return null;
+            }
+            return b ? 1 : 0;
+        }
+
+        int r;
+        switch (op)
+        {
+            case PAS:    r = s; break;
+            case ADD:    r = d + s; break;
+            case SUB:    r = d - s; break;
+            case MUL:    r = d * s; break;
+            case SHR:    r = (d & MASK) >>> (s & 31); break;
+            case SHL:    r = d << (s & 31); break;
+            case NEG:    r = -s; break;
+            case BW_AND: r = d & s; break;
+            case BW_OR:  r = d | s; break;
+            case BW_XOR: r = d ^ s; break;
+            case BW_NOT: r = ~s; break;
+            default:     return null;
+        }
+
+        // Keep small negative numbers negative, so the constant still
+        // reads the same in the asm file.
+        r &= MASK;
+        if (r > SIGN) r -= MASK + 1;
+        return r;
+    }
+
+    //-------------------------------------------------------------------------
+    // Visit each executable block again with its final state, and apply
+    // the values found. Blocks never reached are removed, but the return
+    // at the end stays, since ICodeOpt expects one there.
+    //-------------------------------------------------------------------------
+    private void rewrite()
+    {
+        for (FlowGraph.Block block : cfg.blocks)
+        {
+            if (exec[block.num] == false)
+            {
+                for (int i = block.first; i <= block.last; i++)
+                    icodes.get(i).id = ICodeId.NONE;
+
+                ICode last = icodes.last();
+                if (last.id == ICodeId.NONE)
+                {
+                    last.id = ICodeId.RETURN;
+                    last.p1 = -1;
+                }
+                continue;
+            }
+
+            eval_block(block, in[block.num].copy());
+
+            for (int i = block.first; i <= block.last; i++)
+            {
+                ICode icode = icodes.get(i);
+                switch (icode.id)
+                {
+                    case REG:
+                    case BIT:
+                        if (is_dst[i] || vars.containsKey(icode.parm) == false)
+                            break;
+                        if (kind[i] == CONST)
+                            to_const(i);
+                        else if (kind[i] == COPY)
+                            icode.parm = names.get(value[i]);
+                        break;
+
+                    case MATHI:
+                    case MATHB:
+                    case COMPI:
+                    case COMPB:
+                        if (kind[i] == CONST) to_const(i);
+                        break;
+
+                    case ASSIGNI:
+                    case ASSIGNB:
+                        fold_assign(i, icode);
+                        break;
+
+                    case JMPT:
+                    case JMPF:
+                        if (kind[icode.p1] != CONST) break;
+                        if ((value[icode.p1] != 0) == (icode.id == ICodeId.JMPT))
+                        {
+                            icode.id = ICodeId.JMP;
+                            icode.p1 = -1;
+                        }
+                        else
+                            icode.id = ICodeId.NONE;
+                        break;
+
+                    default:
+                        break;
+                }
+            }
+        }
+    }
+
+    //-------------------------------------------------------------------------
+    // Replace the ICode with its constant value, if its user takes one.
+    // An INT constant as the first operand of a compare swaps the operands.
+    //-------------------------------------------------------------------------
+    private void to_const(int i)
+    {
+        ICode icode = icodes.get(i);
+        boolean bool = icode.id == ICodeId.BIT || icode.id == ICodeId.MATHB ||
+                       icode.id == ICodeId.COMPI || icode.id == ICodeId.COMPB;
+        int u = user[i];
+        if (u < 0) return;
+        ICode ucode = icodes.get(u);
+
+        if (bool)
+        {
+            switch (ucode.id)
+            {
+                case ASSIGNB:
+                    if (ucode.p2 != i || ucode.parm != MathOp.PAS) return;
+                    break;
+                case PARM:
+                    break;
+                default:
+                    return;
+            }
+        }
+        else
+        {
+            switch (ucode.id)
+            {
+                case MATHI:
+                case RETURN:
+                case PARM:
+                case ADDRESS:
+                case ARRAY:
+                    break;
+                case ASSIGNI:
+                    if (ucode.p2 != i) return;
+                    break;
+                case TIMER:
+                    if (value[i] < 0 || value[i] > 4095) return;
+                    break;
+                case COMPI:
+                    if (ucode.p1 == i)
+                    {
+                        if (kind[ucode.p2] == CONST) return;
+                        ucode.p1 = ucode.p2;
+                        ucode.p2 = i;
+                        ucode.parm = mirror((MathOp)ucode.parm);
+                    }
+                    break;
+                default:
+                    return;
+            }
+        }
+
+        icode.id = bool ? ICodeId.BCON : ICodeId.ICON;
+        icode.parm = bool ? (Object)(value[i] != 0) : (Object)value[i];
+        icode.p1 = icode.p2 = -1;
+        icode.last_ref = u;
+    }
+
+    //-------------------------------------------------------------------------
+    private static MathOp mirror(MathOp op)
+    {
+        switch (op)
+        {
+            case GT: return MathOp.LT;
+            case LT: return MathOp.GT;
+            case GE: return MathOp.LE;
+            case LE: return MathOp.GE;
+            default: return op;
+        }
+    }
+
+    //-------------------------------------------------------------------------
+    // A compound assignment with a constant result becomes a plain one,
+    // when its source is a single ICode that can hold the result.
+    //-------------------------------------------------------------------------
+    private void fold_assign(int i, ICode icode)
+    {
+        if (kind[i] != CONST || icode.parm == MathOp.PAS) return;
+
+        ICode src = icodes.get(icode.p2);
+        switch (src.id)
+        {
+            case ICON:
+            case BCON:
+            case REG:
+            case BIT:
+                break;
+            default:
+                return;
+        }
+
+        boolean bool = icode.id == ICodeId.ASSIGNB;
+        src.id = bool ? ICodeId.BCON : ICodeId.ICON;
+        src.parm = bool ? (Object)(value[i] != 0) : (Object)value[i];
+        icode.parm = MathOp.PAS;
+    }
+
+    //-------------------------------------------------------------------------
+    // Remove expressions that are not used, and plain stores to locals that
+    // are not read again. Return true if anything was removed.
+    //-------------------------------------------------------------------------
+    private boolean remove_dead_code()
+    {
+        boolean removed = false;
+
+        for (int i = icodes.size() - 1; i >= 0; i--)
+        {
+            ICode icode = icodes.get(i);
+            if (user[i] < 0 && is_pure(icode))
+            {
+                icode.id = ICodeId.NONE;
+                removed = true;
+            }
+        }
+
+        boolean[][] live_out = find_live_out();
+        for (FlowGraph.Block block : cfg.blocks)
+        {
+            boolean[] live = live_out[block.num].clone();
+            for (int i = block.last; i >= block.first; i--)
+            {
+                ICode icode = icodes.get(i);
+                Integer x = assigned_var(icode);
+                if (x != null && icode.parm == MathOp.PAS)
+                {
+                    if (live[x] == false &&
+                        icodes.get(icode.p2).id != ICodeId.IN)
+                    {
+                        icodes.get(icode.p1).id = ICodeId.NONE;
+                        icode.id = ICodeId.NONE;
+                        removed = true;
+                    }
+                    live[x] = false;
+                }
+                else
+                {
+                    Integer v = read_var(i, icode);
+                    if (v != null) live[v] = true;
+                }
+            }
+        }
+
+        return removed;
+    }
+
+    //-------------------------------------------------------------------------
+    private boolean[][] find_live_out()
+    {
+        int count = cfg.blocks.size();
+        boolean[][] live_in = new boolean[count][names.size()];
+        boolean[][] live_out = new boolean[count][names.size()];
+
+        boolean changed = true;
+        while (changed)
+        {
+            changed = false;
+            for (int b = count - 1; b >= 0; b--)
+            {
+                FlowGraph.Block block = cfg.blocks.get(b);
+                boolean[] live = live_out[b];
+                for (FlowGraph.Block succ : block.succs)
+                    for (int v = 0; v < live.length; v++)
+                        live[v] |= live_in[succ.num][v];
+
+                live = live.clone();
+                for (int i = block.last; i >= block.first; i--)
+                {
+                    ICode icode = icodes.get(i);
+                    Integer x = assigned_var(icode);
+                    if (x != null && icode.parm == MathOp.PAS)
+                        live[x] = false;
+                    else
+                    {
+                        Integer v = read_var(i, icode);
+                        if (v != null) live[v] = true;
+                    }
+                }
+
+                for (int v = 0; v < live.length; v++)
+                    if (live[v] && live_in[b][v] == false)
+                    {
+                        live_in[b][v] = true;
+                        changed = true;
+                    }
+            }
+        }
+        return live_out;
+    }
+
+    //-------------------------------------------------------------------------
+    private Integer assigned_var(ICode icode)
+    {
+        if (icode.id != ICodeId.ASSIGNI && icode.id != ICodeId.ASSIGNB)
+            return null;
+        ICode dst = icodes.get(icode.p1);
+        if (dst.id != ICodeId.REG && dst.id != ICodeId.BIT) return null;
+        return vars.get((String)dst.parm);
+    }
+
+    //-------------------------------------------------------------------------
+    // A REG or BIT is a read unless it is the dst of a plain assignment.
+    //-------------------------------------------------------------------------
+    private Integer read_var(int i, ICode icode)
+    {
+        if (icode.id != ICodeId.REG && icode.id != ICodeId.BIT) return null;
+        if (is_dst[i] && icodes.get(user[i]).parm == MathOp.PAS) return null;
+        return vars.get((String)icode.parm);
+    }
+
+    //-------------------------------------------------------------------------
+    private static boolean is_pure(ICode icode)
+    {
+        switch (icode.id)
+        {
+            case ICON:
+            case BCON:
+            case SCON:
+            case REG:
+            case BIT:
+            case RAM:
+            case ROM:
+            case ARRAY:
+            case MATHI:
+            case MATHB:
+            case COMPI:
+            case COMPB:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    //-------------------------------------------------------------------------
+    private static boolean is_jump(ICode icode)
+    {
+        return icode.id == ICodeId.JMP ||
+               icode.id == ICodeId.JMPT ||
+               icode.id == ICodeId.JMPF;
+    }
+}
@@ -6,6 +6,8 @@
 // 1.0.0   09/01/2020   Initial release
 // 1.1.0   09/16/2020   Add NOP command
 //                      Change NOP ICodeId to NONE to support NOP command
+// 1.2.0   10/18/2026   Serializable for the module cache
+// 1.3.0   10/18/2026   Add serialVersionUID
 //-----------------------------------------------------------------------------
 // Copyright 2020 Mike Christle
 //
@@ -28,6 +30,8 @@
 // DEALINGS IN THE SOFTWARE.
 //-----------------------------------------------------------------------------
 
+import java.io.Serializable;
+
 //-----------------------------------------------------------------------------
 enum ICodeId
 {
@@ -67,8 +71,10 @@ enum ICodeId
 }
 
 //-----------------------------------------------------------------------------
-public class ICode
+public class ICode implements Serializable
 {
+    private static final long serialVersionUID = 1L;
+
     public ICodeId id;
     public Object parm;
     public int p1, p2;
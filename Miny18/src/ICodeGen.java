@@ -4,6 +4,10 @@
 // History: 
 // 0.1.0   07/27/2017   File Created
 // 1.0.0   09/01/2020   Initial release
+// 1.1.0   10/18/2026   Use ICodeList for icodes
+// 1.2.0   10/18/2026   Move static state to CompilationContext
+// 1.3.0   10/18/2026   Run each function in parallel
+// 1.4.0   10/18/2026   Move the last_ref pass to set_last_refs
 //-----------------------------------------------------------------------------
 // Copyright 2020 Mike Christle
 //
@@ -27,72 +31,92 @@
 //-----------------------------------------------------------------------------
 
 import java.util.Stack;
-import java.util.LinkedList;
 
 //-----------------------------------------------------------------------------
 public class ICodeGen
 {
-    private LinkedList<ICode> icodes;
+    private ICodeList icodes;
     private Stack<String> top_markers = new Stack<>();
     private Stack<String> bot_markers = new Stack<>();
     private String func_name;
     private int temp_idx;
-    private Module module;
     private Func func;
+    private CompilationContext ctx;
 
+    //-------------------------------------------------------------------------
+    public ICodeGen(CompilationContext _ctx)
+    {
+        ctx = _ctx;
+    }
+
+    //-------------------------------------------------------------------------
+    // Each function gets its own ICodeGen, and runs in parallel.
     //-------------------------------------------------------------------------
     public void run() throws MError
     {
-        for (String mkey : Module.modules.keySet())
-        {
-            module = Module.modules.get(mkey);
+        ctx.for_each(ctx.func_list(), f -> new ICodeGen(ctx).gen_func(f));
+    }
 
-            for (String fkey : module.funcs.keySet())
-            {
-                func = module.funcs.get(fkey);
-                func_name = fkey;
-                icodes = func.icodes;
-                icodes.add(new ICode(ICodeId.MARKER, func.src, fkey));
-                temp_idx = 0;
+    //-------------------------------------------------------------------------
+    private void gen_func(Func _func) throws MError
+    {
+        func = _func;
+        func_name = func.label;
+        icodes = func.icodes;
+        icodes.add(new ICode(ICodeId.MARKER, func.src, func_name));
+        temp_idx = 0;
 
-                for (Node node : func.nodes)
-                    gen_icode(node);
+        for (Node node : func.nodes)
+            gen_icode(node);
 
-                if (icodes.getLast().id != ICodeId.RETURN)
-                    icodes.add(new ICode(ICodeId.RETURN, func.src));
+        if (icodes.last().id != ICodeId.RETURN)
+            icodes.add(new ICode(ICodeId.RETURN, func.src));
 
-                top_markers.clear();
-                bot_markers.clear();
+        set_last_refs(icodes);
+    }
 
-                int size = func.icodes.size();
-                for (int i = 0; i < func.icodes.size(); i++)
-                {
-                    ICode icode = func.icodes.get(i);
-                    if (icode.p1 >= 0)
-                    {
-                        ICode ic1 = func.icodes.get(icode.p1);
-                        if (ic1.id == ICodeId.REG || ic1.id == ICodeId.ROM ||
-                            ic1.id == ICodeId.RAM || ic1.id == ICodeId.BIT ||
-                            ic1.id == ICodeId.OUT || ic1.id == ICodeId.IN)
-                            ic1.last_ref = size;
-                        else
-                            ic1.last_ref = i;
-                    }
-                    if (icode.p2 >= 0)
-                    {
-                        ICode ic2 = func.icodes.get(icode.p2);
-                        if (ic2.id == ICodeId.REG || ic2.id == ICodeId.ROM ||
-                            ic2.id == ICodeId.RAM || ic2.id == ICodeId.BIT ||
-                            ic2.id == ICodeId.OUT || ic2.id == ICodeId.IN)
-                            ic2.last_ref = size;
-                        else
-                            ic2.last_ref = i;
-                    }
-                }
+    //-------------------------------------------------------------------------
+    // Labels are referenced to the end of the function, other ICodes up to
+    // the ICode that uses them. Jumps are left out, since their p2 is the
+    // marker.
+    //-------------------------------------------------------------------------
+    public static void set_last_refs(ICodeList icodes)
+    {
+        int size = icodes.size();
+        for (int i = 0; i < size; i++)
+        {
+            ICode icode = icodes.get(i);
+            if (icode.p1 >= 0)
+            {
+                ICode ic1 = icodes.get(icode.p1);
+                if (ic1.id == ICodeId.REG || ic1.id == ICodeId.ROM ||
+                    ic1.id == ICodeId.RAM || ic1.id == ICodeId.BIT ||
+                    ic1.id == ICodeId.OUT || ic1.id == ICodeId.IN)
+                    ic1.last_ref = size;
+                else
+                    ic1.last_ref = i;
+            }
+            if (icode.p2 >= 0 && is_jump(icode) == false)
+            {
+                ICode ic2 = icodes.get(icode.p2);
+                if (ic2.id == ICodeId.REG || ic2.id == ICodeId.ROM ||
+                    ic2.id == ICodeId.RAM || ic2.id == ICodeId.BIT ||
+                    ic2.id == ICodeId.OUT || ic2.id == ICodeId.IN)
+                    ic2.last_ref = size;
+                else
+                    ic2.last_ref = i;
             }
         }
     }
 
+    //-------------------------------------------------------------------------
+    private static boolean is_jump(ICode icode)
+    {
+        return icode.id == ICodeId.JMP ||
+               icode.id == ICodeId.JMPT ||
+               icode.id == ICodeId.JMPF;
+    }
+
     //-------------------------------------------------------------------------
     private int gen_icode(Node node) throws MError
     {
@@ -165,7 +189,7 @@ public class ICodeGen
     {
         BlockNode bnode = (BlockNode)node;
         String func_name = (String)bnode.value;
-        Func func = Module.find_func(func_name);
+        Func func = ctx.find_func(func_name);
 
         for (int i = 0; i < bnode.nodes.size(); i++)
         {
@@ -352,7 +376,7 @@ public class ICodeGen
     {
         String label = (String)node.value;
         Object value = node.value;
-        Symbol sym = Module.find_symbol(func, label);
+        Symbol sym = ctx.find_symbol(func, label);
 
         ICodeId id; // = ICodeId.REG;
         switch (sym.store)
@@ -0,0 +1,146 @@
+//-----------------------------------------------------------------------------
+// Miny ICode List
+//
+// History:
+// 1.0.0   10/18/2026   File Created
+// 1.1.0   10/18/2026   Serializable for the module cache
+// 1.2.0   10/18/2026   Add insert and index_of
+// 1.3.0   10/18/2026   Add serialVersionUID
+//-----------------------------------------------------------------------------
+// Copyright 2020 Mike Christle
+//
+// Permission is hereby granted, free of charge, to any person obtaining a
+// copy of this software and associated documentation files (the "Software"),
+// to deal in the Software without restriction, including without limitation
+// the rights to use, copy, modify, merge, publish, distribute, sublicense,
+// and/or sell copies of the Software, and to permit persons to whom the
+// Software is furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be
+// included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+// THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+// FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+// DEALINGS IN THE SOFTWARE.
+//-----------------------------------------------------------------------------
+
+import java.io.Serializable;
+import java.util.Iterator;
+
+//-----------------------------------------------------------------------------
+public class ICodeList implements Iterable<ICode>, Serializable
+{
+    private static final long serialVersionUID = 1L;
+
+    private ICode[] icodes = new ICode[64];
+    private int size = 0;
+
+    //-------------------------------------------------------------------------
+    public void add(ICode icode)
+    {
+        if (size == icodes.length)
+        {
+            ICode[] temp = new ICode[size * 2];
+            System.arraycopy(icodes, 0, temp, 0, size);
+            icodes = temp;
+        }
+
+        icodes[size++] = icode;
+    }
+
+    //-------------------------------------------------------------------------
+    // Insert the ICode at idx, and renumber the p1, p2 and last_ref indexes
+    // at or after idx.
+    //-------------------------------------------------------------------------
+    public void insert(int idx, ICode icode)
+    {
+        add(icode);
+        System.arraycopy(icodes, idx, icodes, idx + 1, size - idx - 1);
+        icodes[idx] = icode;
+
+        for (int i = 0; i < size; i++)
+        {
+            ICode ic = icodes[i];
+            if (ic == icode) continue;
+            if (ic.p1 >= idx) ic.p1++;
+            if (ic.p2 >= idx) ic.p2++;
+            if (ic.last_ref >= idx) ic.last_ref++;
+        }
+    }
+
+    //-------------------------------------------------------------------------
+    public int index_of(ICode icode)
+    {
+        for (int i = 0; i < size; i++)
+            if (icodes[i] == icode) return i;
+        return -1;
+    }
+
+    //-------------------------------------------------------------------------
+    public ICode get(int idx)
+    {
+        if (idx >= size) throw new IndexOutOfBoundsException();
+        return icodes[idx];
+    }
+
+    //-------------------------------------------------------------------------
+    public ICode last()
+    {
+        return icodes[size - 1];
+    }
+
+    //-------------------------------------------------------------------------
+    public int size()
+    {
+        return size;
+    }
+
+    //-------------------------------------------------------------------------
+    // Drop all NONE entries and renumber the p1, p2 and last_ref indexes.
+    // An index to a dropped entry moves to the next entry kept. Must run
+    // before AsmGen18Offsets reuses p1 for port offsets.
+    //-------------------------------------------------------------------------
+    public void compact()
+    {
+        int[] map = new int[size + 1];
+        int count = 0;
+
+        for (int i = 0; i < size; i++)
+        {
+            map[i] = count;
+            if (icodes[i].id != ICodeId.NONE) count++;
+        }
+        map[size] = count;
+
+        int idx = 0;
+        for (int i = 0; i < size; i++)
+        {
+            ICode icode = icodes[i];
+            if (icode.id == ICodeId.NONE) continue;
+
+            if (icode.p1 >= 0) icode.p1 = map[icode.p1];
+            if (icode.p2 >= 0) icode.p2 = map[icode.p2];
+            if (icode.last_ref >= 0) icode.last_ref = map[icode.last_ref];
+            icodes[idx++] = icode;
+        }
+
+        for (int i = idx; i < size; i++) icodes[i] = null;
+        size = idx;
+    }
+
+    //-------------------------------------------------------------------------
+    public Iterator<ICode> iterator()
+    {
+        return new Iterator<ICode>()
+        {
+            private int idx = 0;
+
+            public boolean hasNext() { return idx < size; }
+            public ICode next() { return icodes[idx++]; }
+        };
+    }
+}
@@ -6,6 +6,10 @@
 // 1.0.0   09/01/2020   Initial release
 // 1.1.0   09/16/2020   Add NOP command
 //                      Change NOP ICodeId to NONE to support NOP command
+// 1.2.0   10/18/2026   Compact icodes after optimizing
+// 1.3.0   10/18/2026   Move static state to CompilationContext
+// 1.4.0   10/18/2026   Run each function in parallel
+// 1.5.0   10/18/2026   Build the flow graph
 //-----------------------------------------------------------------------------
 // Copyright 2020 Mike Christle
 //
@@ -29,28 +33,36 @@
 //-----------------------------------------------------------------------------
 
 import java.util.TreeMap;
-import java.util.LinkedList;
 
 //-----------------------------------------------------------------------------
 public class ICodeOpt
 {
     private TreeMap<String, Integer> markers = new TreeMap<>();
-    private LinkedList<ICode> icodes;
+    private ICodeList icodes;
+    private CompilationContext ctx;
 
     //-------------------------------------------------------------------------
-    public void run()
+    public ICodeOpt(CompilationContext _ctx)
     {
-        for (String mkey : Module.modules.keySet())
-        {
-            Module module = Module.modules.get(mkey);
-            for (String fkey : module.funcs.keySet())
-            {
-                Func func = module.funcs.get(fkey);
-                icodes = func.icodes;
-                index_markers();
-                opt_markers();
-            }
-        }
+        ctx = _ctx;
+    }
+
+    //-------------------------------------------------------------------------
+    // Each function gets its own ICodeOpt, and runs in parallel.
+    //-------------------------------------------------------------------------
+    public void run() throws MError
+    {
+        ctx.for_each(ctx.func_list(), f -> new ICodeOpt(ctx).opt_func(f));
+    }
+
+    //-------------------------------------------------------------------------
+    private void opt_func(Func func)
+    {
+        icodes = func.icodes;
+        index_markers();
+        opt_markers();
+        icodes.compact();
+        func.cfg = new FlowGraph(icodes);
     }
 
     //-------------------------------------------------------------------------
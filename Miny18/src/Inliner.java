@@ -0,0 +1,519 @@
+//-----------------------------------------------------------------------------
+// Miny Function Inliner
+//
+// Replaces calls to small functions, and to functions with one call in
+// the program, by a copy of the function's ICodes. Runs on the ICodes
+// from ICodeGen, before GlobalOpt, so the arguments can be propagated
+// into the copy. Callees are done before their callers, so a function
+// is copied with its own calls already inlined.
+//
+// Each parameter and local of the callee becomes a new local of the
+// caller, named _iN_label, where N counts the calls inlined into that
+// caller. Each PARM becomes an assignment to the new parameter local. A
+// return becomes an assignment to the new return local and a jump to a
+// marker after the copy, and the CALL becomes a read of that local.
+// Labels of the callee's module are qualified with the module name.
+//
+// The call overhead is the CALL, the RTS, a move per parameter and the
+// move of the return value. A callee whose body is no more than a few
+// words over that is inlined at every call, while the calling module
+// grows by less than a sixteenth of the ROM. A callee in the same module
+// with one call is always inlined, since its body is then likely no
+// longer needed. A callee in another module may have calls from modules
+// the caller can not see, so it is only inlined if it is small.
+//
+// A module's ICodes are saved in the module cache, keyed by its source
+// and the modules it imports, so what it inlines may only depend on
+// those. Calls are counted in the module and the modules it calls,
+// directly or not, each module has its own budget, and the modules it
+// calls are done first, so a build gives the same code whichever other
+// modules it has, or which of them come from the cache.
+//
+// Calls are only inlined where their value is assigned, returned, tested
+// by an if, passed to another call or not used, so no other value is
+// held across the copy. Callees with a LEVEL statement, with array
+// parameters or locals, and ISRs are not inlined.
+//
+// History:
+// 1.0.0   10/18/2026   File Created
+// 1.1.0   10/18/2026   Inline from the module and the modules it calls only
+//-----------------------------------------------------------------------------
+// Copyright 2020 Mike Christle
+//
+// Permission is hereby granted, free of charge, to any person obtaining a
+// copy of this software and associated documentation files (the "Software"),
+// to deal in the Software without restriction, including without limitation
+// the rights to use, copy, modify, merge, publish, distribute, sublicense,
+// and/or sell copies of the Software, and to permit persons to whom the
+// Software is furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be
+// included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+// THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+// FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+// DEALINGS IN THE SOFTWARE.
+//-----------------------------------------------------------------------------
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.TreeSet;
+
+//-----------------------------------------------------------------------------
+public class Inliner
+{
+    private static final int SMALL_BODY = 4;    // Words over the overhead
+
+    private HashMap<String, Integer> calls;
+    private TreeSet<String> done = new TreeSet<>();
+    private TreeSet<String> mods_done = new TreeSet<>();
+    private int budget;
+    private CompilationContext ctx;
+
+    //-------------------------------------------------------------------------
+    public Inliner(CompilationContext _ctx)
+    {
+        ctx = _ctx;
+    }
+
+    //-------------------------------------------------------------------------
+    // Not in parallel, since each caller reads the ICodes of its callees.
+    //-------------------------------------------------------------------------
+    public void run() throws MError
+    {
+        // Before any are inlined. A cached module has the counts from then.
+        for (Module mod : ctx.modules.values())
+        {
+            if (mod.cached) continue;
+            mod.calls.clear();
+            for (Func func : mod.funcs.values())
+                for (ICode icode : func.icodes)
+                    if (icode.id == ICodeId.CALL)
+                        mod.calls.merge((String)icode.parm, 1, Integer::sum);
+        }
+
+        for (String name : new TreeSet<>(ctx.modules.keySet()))
+            inline_module(name);
+    }
+
+    //-------------------------------------------------------------------------
+    // The modules it calls first, then its funcs in order of their labels.
+    //-------------------------------------------------------------------------
+    private void inline_module(String name) throws MError
+    {
+        if (mods_done.add(name) == false) return;
+        Module mod = ctx.modules.get(name);
+        if (mod.cached) return;
+
+        for (String label : new TreeSet<>(mod.calls.keySet()))
+            inline_module(module_of(label));
+
+        calls = count_calls(name);
+        budget = (1 << ctx.rom_bits) / 16;
+        for (String label : new TreeSet<>(mod.funcs.keySet()))
+            inline_func(mod.funcs.get(label));
+    }
+
+    //-------------------------------------------------------------------------
+    // Calls to each func from the module and the modules it calls,
+    // directly or not.
+    //-------------------------------------------------------------------------
+    private HashMap<String, Integer> count_calls(String name)
+    {
+        HashMap<String, Integer> counts = new HashMap<>();
+        TreeSet<String> seen = new TreeSet<>();
+        ArrayList<String> todo = new ArrayList<>();
+        todo.add(name);
+
+        while (todo.isEmpty() == false)
+        {
+            String mod_name = todo.remove(todo.size() - 1);
+            if (seen.add(mod_name) == false) continue;
+
+            HashMap<String, Integer> mod_calls =
+                ctx.modules.get(mod_name).calls;
+            for (String label : mod_calls.keySet())
+            {
+                counts.merge(label, mod_calls.get(label), Integer::sum);
+                todo.add(module_of(label));
+            }
+        }
+        return counts;
+    }
+
+    //-------------------------------------------------------------------------
+    private static String module_of(String label)
+    {
+        return label.substring(0, label.indexOf('.'));
+    }
+
+    //-------------------------------------------------------------------------
+    private void inline_func(Func func) throws MError
+    {
+        if (done.add(func.label) == false) return;
+
+        Module mod = ctx.modules.get(func.mod_name);
+        if (mod.cached) return;
+
+        // Callees first
+        for (ICode icode : func.icodes)
+            if (icode.id == ICodeId.CALL)
+                inline_func(ctx.find_func((String)icode.parm));
+
+        ICodeList icodes = func.icodes;
+        boolean[] inline = new boolean[icodes.size()];
+        boolean any = false;
+
+        for (int i = 0; i < icodes.size(); i++)
+        {
+            ICode icode = icodes.get(i);
+            if (icode.id != ICodeId.CALL) continue;
+
+            Func callee = ctx.find_func((String)icode.parm);
+            if (callee == func || can_inline(callee) == false) continue;
+            if (use_ok(icodes, i) == false) continue;
+            if (worth_it(func, callee) == false) continue;
+
+            inline[i] = true;
+            any = true;
+            if (ctx.debug)
+                ctx.log.printf("    Inline %s in %s\n",
+                               callee.label, func.label);
+        }
+
+        if (any) rebuild(func, inline);
+    }
+
+    //-------------------------------------------------------------------------
+    private boolean can_inline(Func callee)
+    {
+        if (callee.isr) return false;
+        for (String label : ctx.isr_labels)
+            if (callee.label.equals(label)) return false;
+
+        if (callee.type != TypeId.NONE && callee.type != TypeId.INT &&
+            callee.type != TypeId.BOOL) return false;
+
+        for (String label : callee.symbols.keySet())
+        {
+            Symbol sym = callee.symbols.get(label);
+            if (sym.count != 1) return false;
+            if (sym.type != TypeId.INT && sym.type != TypeId.BOOL)
+                return false;
+            if (sym.store != StoreId.REG && sym.store != StoreId.BIT)
+                return false;
+        }
+
+        for (ICode icode : callee.icodes)
+            if (icode.id == ICodeId.LEVEL) return false;
+
+        return true;
+    }
+
+    //-------------------------------------------------------------------------
+    // The value of the call is not used, or used by an ICode that only
+    // reads it after the copy.
+    //-------------------------------------------------------------------------
+    private static boolean use_ok(ICodeList icodes, int idx)
+    {
+        for (int i = idx + 1; i < icodes.size(); i++)
+        {
+            ICode icode = icodes.get(i);
+            if (icode.p1 != idx && icode.p2 != idx) continue;
+
+            switch (icode.id)
+            {
+                case ASSIGNI:
+                case ASSIGNB:
+                    return icode.p2 == idx;
+
+                case RETURN:
+                case JMPT:
+                case JMPF:
+                case PARM:
+                    return true;
+
+                default:
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    //-------------------------------------------------------------------------
+    private boolean worth_it(Func func, Func callee)
+    {
+        if (callee.mod_name.equals(func.mod_name) &&
+            calls.get(callee.label) == 1) return true;
+
+        int grow = body_size(callee) - overhead(callee);
+        if (grow > SMALL_BODY || grow > budget) return false;
+
+        budget -= Math.max(grow, 0);
+        return true;
+    }
+
+    //-------------------------------------------------------------------------
+    // Roughly the words of code, one per ICode that makes an instruction.
+    //-------------------------------------------------------------------------
+    private static int body_size(Func func)
+    {
+        int size = 0;
+        for (ICode icode : func.icodes)
+        {
+            switch (icode.id)
+            {
+                case NONE:   case MARKER:
+                case REG:    case BIT:    case RAM:    case ROM:
+                case ICON:   case BCON:   case SCON:
+                    break;
+
+                default:
+                    size++;
+                    break;
+            }
+        }
+        return size;
+    }
+
+    //-------------------------------------------------------------------------
+    private static int overhead(Func func)
+    {
+        int size = func.parms.size() + 2;
+        if (func.type != TypeId.NONE) size++;
+        return size;
+    }
+
+    //-------------------------------------------------------------------------
+    // Copy the caller's ICodes to a new list, with the marked calls and
+    // their PARMs replaced.
+    //-------------------------------------------------------------------------
+    private void rebuild(Func func, boolean[] inline) throws MError
+    {
+        ICodeList icodes = func.icodes;
+        ICodeList out = new ICodeList();
+        int[] map = new int[icodes.size()];
+        int count = 0;
+
+        // The PARMs of each call are the last ones before it, once the
+        // PARMs of calls in its arguments are taken.
+        ArrayList<Integer> parms = new ArrayList<>();
+        String[] prefix = new String[icodes.size()];
+        for (int i = 0; i < icodes.size(); i++)
+        {
+            ICode icode = icodes.get(i);
+            if (icode.id == ICodeId.PARM) parms.add(i);
+            else if (icode.id == ICodeId.CALL)
+            {
+                Func callee = ctx.find_func((String)icode.parm);
+                for (int j = 0; j < callee.parms.size(); j++)
+                {
+                    int p = parms.remove(parms.size() - 1);
+                    if (inline[i]) prefix[p] = "_i" + (count + 1) + "_";
+                }
+                if (inline[i]) count++;
+            }
+        }
+
+        int marker = last_marker(func);
+        count = 0;
+
+        for (int i = 0; i < icodes.size(); i++)
+        {
+            ICode icode = icodes.get(i);
+
+            if (icode.id == ICodeId.PARM && prefix[i] != null)
+            {
+                String label = (String)icode.parm;
+                label = label.substring(label.lastIndexOf('.') + 1);
+                Symbol sym = ctx.find_func(callee_of(label, icode))
+                                .symbols.get(label);
+                map[i] = assign(out, func, prefix[i] + label, sym.type,
+                                map[icode.p1], icode.src);
+            }
+            else if (icode.id == ICodeId.CALL && inline[i])
+            {
+                Func callee = ctx.find_func((String)icode.parm);
+                String pre = "_i" + (++count) + "_";
+                String exit = func.label + "." + (++marker);
+
+                for (String label : callee.symbols.keySet())
+                {
+                    Symbol sym = callee.symbols.get(label);
+                    if (label.equals("return") == false)
+                        add_local(func, pre + label, sym.type);
+                }
+                if (callee.type != TypeId.NONE)
+                    add_local(func, pre + "return", callee.type);
+
+                marker = copy_body(out, func, callee, pre, exit, marker);
+                out.add(new ICode(ICodeId.MARKER, icode.src, exit));
+
+                if (callee.type != TypeId.NONE)
+                    out.add(new ICode(label_id(callee.type), icode.src,
+                                      pre + "return"));
+                map[i] = out.size() - 1;
+            }
+            else
+            {
+                if (icode.p1 >= 0) icode.p1 = map[icode.p1];
+                if (icode.p2 >= 0 && is_jump(icode) == false)
+                    icode.p2 = map[icode.p2];
+                out.add(icode);
+                map[i] = out.size() - 1;
+            }
+        }
+
+        func.icodes = out;
+        ICodeGen.set_last_refs(out);
+    }
+
+    //-------------------------------------------------------------------------
+    // The PARM label is Module.func.parm.
+    //-------------------------------------------------------------------------
+    private static String callee_of(String label, ICode icode)
+    {
+        String parm = (String)icode.parm;
+        return parm.substring(0, parm.length() - label.length() - 1);
+    }
+
+    //-------------------------------------------------------------------------
+    // Copy the callee's ICodes after its entry marker. Returns the last
+    // marker number used.
+    //-------------------------------------------------------------------------
+    private int copy_body(ICodeList out, Func func, Func callee, String pre,
+                          String exit, int marker) throws MError
+    {
+        ICodeList body = callee.icodes;
+        int[] map = new int[body.size()];
+        HashMap<String, String> markers = new HashMap<>();
+
+        for (int i = 1; i < body.size(); i++)
+        {
+            ICode icode = body.get(i);
+            if (icode.id == ICodeId.MARKER)
+                markers.put((String)icode.parm, func.label + "." + (++marker));
+        }
+
+        int last = body.size() - 1;
+        while (last > 0 && body.get(last).id == ICodeId.NONE) last--;
+
+        for (int i = 1; i < body.size(); i++)
+        {
+            ICode icode = body.get(i);
+
+            if (icode.id == ICodeId.RETURN)
+            {
+                if (icode.p1 >= 0 && callee.type != TypeId.NONE)
+                    assign(out, func, pre + "return", callee.type,
+                           map[icode.p1], icode.src);
+                if (i != last)
+                    out.add(new ICode(ICodeId.JMP, icode.src, exit));
+                map[i] = out.size() - 1;
+                continue;
+            }
+
+            ICode copy = new ICode(icode.id, icode.src, icode.parm);
+            if (icode.p1 >= 0) copy.p1 = map[icode.p1];
+            if (icode.p2 >= 0) copy.p2 = map[icode.p2];
+
+            switch (icode.id)
+            {
+                case MARKER:
+                    copy.parm = markers.get((String)icode.parm);
+                    break;
+
+                case JMP:
+                case JMPT:
+                case JMPF:
+                    copy.parm = markers.get((String)icode.parm);
+                    copy.p2 = -1;
+                    break;
+
+                case REG: case BIT: case RAM: case ROM:
+                case IN:  case OUT: case ARRAY: case ADDRESS:
+                    copy.parm = rename(callee, pre, (String)icode.parm);
+                    break;
+            }
+
+            out.add(copy);
+            map[i] = out.size() - 1;
+        }
+
+        return marker;
+    }
+
+    //-------------------------------------------------------------------------
+    // Locals get the prefix, and module labels their module name.
+    //-------------------------------------------------------------------------
+    private static String rename(Func callee, String pre, String label)
+    {
+        if (label.indexOf('.') >= 0) return label;
+        if (callee.symbols.containsKey(label)) return pre + label;
+        return callee.mod_name + "." + label;
+    }
+
+    //-------------------------------------------------------------------------
+    // Add Dst = Src to out, and return the index of the assignment.
+    //-------------------------------------------------------------------------
+    private static int assign(ICodeList out, Func func, String label,
+                              TypeId type, int src, Src pos)
+    {
+        out.add(new ICode(label_id(type), pos, label));
+
+        ICodeId id = type == TypeId.BOOL ? ICodeId.ASSIGNB : ICodeId.ASSIGNI;
+        ICode icode = new ICode(id, pos, MathOp.PAS);
+        icode.p1 = out.size() - 1;
+        icode.p2 = src;
+        out.add(icode);
+        return out.size() - 1;
+    }
+
+    //-------------------------------------------------------------------------
+    private static void add_local(Func func, String label, TypeId type)
+    {
+        StoreId store = type == TypeId.BOOL ? StoreId.BIT : StoreId.REG;
+        func.symbols.put(label, new Symbol(type, store));
+    }
+
+    //-------------------------------------------------------------------------
+    private static ICodeId label_id(TypeId type)
+    {
+        return type == TypeId.BOOL ? ICodeId.BIT : ICodeId.REG;
+    }
+
+    //-------------------------------------------------------------------------
+    private static boolean is_jump(ICode icode)
+    {
+        return icode.id == ICodeId.JMP ||
+               icode.id == ICodeId.JMPT ||
+               icode.id == ICodeId.JMPF;
+    }
+
+    //-------------------------------------------------------------------------
+    // The highest number of the func's markers, named func.N by ICodeGen.
+    //-------------------------------------------------------------------------
+    private static int last_marker(Func func)
+    {
+        int last = 0;
+        String pre = func.label + ".";
+
+        for (ICode icode : func.icodes)
+        {
+            if (icode.id != ICodeId.MARKER) continue;
+            String name = (String)icode.parm;
+            if (name.startsWith(pre) == false) continue;
+            try
+            {
+                last = Math.max(last,
+                    Integer.parseInt(name.substring(pre.length())));
+            }
+            catch (NumberFormatException e) { }
+        }
+        return last;
+    }
+}
@@ -4,6 +4,10 @@
 // History: 
 // 0.1.0   07/27/2017   File Created
 // 1.0.0   09/01/2020   Initial release
+// 1.1.0   10/18/2026   Move static state to CompilationContext
+// 1.2.0   10/18/2026   Add -x option
+// 1.3.0   10/18/2026   Add -c option
+// 1.4.0   10/18/2026   Add -g option
 //-----------------------------------------------------------------------------
 // Copyright 2020 Mike Christle
 //
@@ -27,6 +31,8 @@
 //-----------------------------------------------------------------------------
 
 import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
 
 //-----------------------------------------------------------------------------
 public class Miny18
@@ -39,10 +45,14 @@ public class Miny18
         boolean dump_parse_tree = false;
         boolean dump_icodes = false;
         boolean asm_gen_flag = false;
+        boolean hex_gen_flag = false;
+        boolean map_flag = false;
         String file_name = null;
+        String cache_dir = null;
 
-        for (String s : args)
+        for (int i = 0; i < args.length; i++)
         {
+            String s = args[i];
             switch (s)
             {
                 case "-d": debug_flag = true; break;
@@ -50,6 +60,11 @@ public class Miny18
                 case "-t": dump_parse_tree = true; break;
                 case "-i": dump_icodes = true; break;
                 case "-a": asm_gen_flag = true; break;
+                case "-x": hex_gen_flag = true; break;
+                case "-g": map_flag = true; break;
+                case "-c":
+                    if (i + 1 < args.length) cache_dir = args[++i];
+                    break;
                 default: file_name = s; break;
             }
         }
@@ -59,6 +74,9 @@ public class Miny18
         {
             System.out.println("Usage: java Miny18 <file_name> [Options]");
             System.out.println("   -a    Output Asm Code");
+            System.out.println("   -x    Assemble, output hex files");
+            System.out.println("   -g    Debug map, in the asm or as .map");
+            System.out.println("   -c D  Keep a module cache in directory D");
             System.out.println("   -s    Dump Symbol Table");
             System.out.println("   -t    Dump Parse Tree");
             System.out.println("   -i    Dump ICodes");
@@ -66,59 +84,66 @@ public class Miny18
             System.exit(-1);
         }
 
-        Scanner scanner = new Scanner();
-        Parser parser = new Parser(scanner, file_name);
-        Checker checker = new Checker();
-        FoldConst fold_const = new FoldConst();
-        ICodeGen icode_gen = new ICodeGen();
-        ICodeOpt icode_opt = new ICodeOpt();
-        AsmGen18 asm_gen = new AsmGen18();
+        CompilationContext ctx = new CompilationContext(file_name);
+        ctx.debug = debug_flag;
+        ctx.debug_map = map_flag;
+        if (cache_dir != null)
+            ctx.mod_cache = new ModuleCache(new File(cache_dir));
 
         try
         {
-            Module.add_isr(0, file_name + ".main");
+            Miny18Compiler.compile(ctx);
 
-            if (debug_flag) System.out.println("---- Parser -----");
-            parser.start();
-
-            if (debug_flag) System.out.println("---- Checker ----");
-            checker.check();
-
-            if (debug_flag) System.out.println("---- FoldConst ----");
-            fold_const.fold();
-
-            if (debug_flag) System.out.println("---- ICodeGen ----");
-            icode_gen.run();
-
-            if (debug_flag) System.out.println("---- ICodeOpt ----");
-            icode_opt.run();
+            if (hex_gen_flag && asm_gen_flag)
+            {
+                Miny18Compiler.gen_asm(ctx);
+                Miny18Compiler.assemble(ctx);
+                write_file(file_name + ".asm", ctx.asm);
+                write_file(file_name + ".lst", ctx.list);
+            }
+            else if (hex_gen_flag)
+            {
+                Miny18Compiler.gen_hex(ctx);
+            }
+            else if (asm_gen_flag)
+            {
+                Miny18Compiler.gen_asm(ctx);
+                write_file(file_name + ".asm", ctx.asm);
+            }
 
-            if (asm_gen_flag)
+            if (hex_gen_flag)
             {
-                if (debug_flag) System.out.println("---- Miny18 ----");
-                asm_gen.run(file_name);
+                write_file("code.hex", ctx.code_hex);
+                if (ctx.const_hex.length() > 0)
+                    write_file("const.hex", ctx.const_hex);
+                if (ctx.map != null)
+                    write_file(file_name + ".map", ctx.map);
             }
 
             System.out.println("---- Success ----");
 
-            if (dump_symbol_table) Util.dump_symbols();
-            if (dump_parse_tree) Util.dump_parse_tree();
-            if (dump_icodes) Util.dump_icodes();
+            if (dump_symbol_table) Util.dump_symbols(ctx);
+            if (dump_parse_tree) Util.dump_parse_tree(ctx);
+            if (dump_icodes) Util.dump_icodes(ctx);
         }
         catch (MError e)
         {
-            if (e.src != null)
-            {
-                String fmt = "\nError in file %s at line %d.\n%s\n";
-                String msg = String.format(fmt,
-                    scanner.file_names.get(e.src.file), e.src.line, e.msg);
-                System.out.println(msg);
-            }
-            else
-            {
-                System.out.println(e.msg);
-            }
+            System.out.println(ctx.error_message(e));
+            System.exit(-2);
+        }
+        catch (IOException e)
+        {
+            System.out.println("Error writing output file");
             System.exit(-2);
         }
     }
-}
\ No newline at end of file
+
+    //-------------------------------------------------------------------------
+    private static void write_file(String file_name, String text)
+        throws IOException
+    {
+        FileWriter ofp = new FileWriter(file_name);
+        ofp.write(text);
+        ofp.close();
+    }
+}
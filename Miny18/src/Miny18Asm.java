@@ -5,6 +5,11 @@
 // 0.1.0   07/27/2017   File Created
 // 1.0.0   09/01/2020   Initial release
 // 1.1.0   09/13/2020   Add hardware config directive
+// 1.2.0   10/18/2026   Make fill_adrs public for Miny18Bench
+//                      Use ArrayList for indexed insts and consts
+// 1.3.0   10/18/2026   Add Reader and Writer versions of input and output
+// 1.4.0   10/18/2026   Encode instructions without parsing asm text
+// 1.5.0   10/18/2026   Read and write the debug map
 //-----------------------------------------------------------------------------
 // Copyright 2020 Mike Christle
 //
@@ -29,12 +34,96 @@
 
 import java.io.*;
 import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.TreeMap;
 
 //-----------------------------------------------------------------------------
 public class Miny18Asm
 {
     private enum InstT {INST, VALUE, ADRS};
+    private enum OpT {SIMPLE, LEVEL, TIMER, ADRS, LDR, STR, REG2,
+                      BIT1, BIT2, MOV, MATH2, ORG, DC, CONFIG};
+
+    private static class Op
+    {
+        public Op(OpT t, int c)
+        {
+            type = t;
+            code = c;
+        }
+
+        public OpT type;
+        public int code;
+    }
+
+    private static final HashMap<String, Op> ops = new HashMap<>();
+    static
+    {
+        ops.put("NOP",     new Op(OpT.SIMPLE, 0000000));
+        ops.put("HALT",    new Op(OpT.SIMPLE, 0000100));
+        ops.put("PAUSE",   new Op(OpT.SIMPLE, 0000200));
+        ops.put("RTS",     new Op(OpT.SIMPLE, 0000300));
+        ops.put("RTI",     new Op(OpT.SIMPLE, 0000400));
+        ops.put("RESET",   new Op(OpT.SIMPLE, 0000600));
+        ops.put("RESTART", new Op(OpT.SIMPLE, 0200000));
+
+        ops.put("LEVEL", new Op(OpT.LEVEL, 0000500));
+        ops.put("TIMER", new Op(OpT.TIMER, 0050000));
+
+        ops.put("CALL",  new Op(OpT.ADRS, 0010000));
+        ops.put("LDR",   new Op(OpT.LDR,  0020000));
+        ops.put("STR",   new Op(OpT.STR,  0030000));
+        ops.put("LDC",   new Op(OpT.LDR,  0040000));
+        ops.put("IN",    new Op(OpT.REG2, 0060000));
+        ops.put("OUT",   new Op(OpT.REG2, 0070000));
+
+        ops.put("SEQ",   new Op(OpT.BIT1, 0120000));
+        ops.put("SBS",   new Op(OpT.BIT1, 0120000));
+        ops.put("SNE",   new Op(OpT.BIT1, 0130000));
+        ops.put("SBC",   new Op(OpT.BIT1, 0130000));
+        ops.put("SLT",   new Op(OpT.BIT1, 0140000));
+        ops.put("SGT",   new Op(OpT.BIT1, 0150000));
+        ops.put("SLE",   new Op(OpT.BIT1, 0160000));
+        ops.put("SGE",   new Op(OpT.BIT1, 0170000));
+
+        ops.put("JMP",   new Op(OpT.ADRS, 0200000));
+        ops.put("JEQ",   new Op(OpT.ADRS, 0220000));
+        ops.put("JBS",   new Op(OpT.ADRS, 0220000));
+        ops.put("JNE",   new Op(OpT.ADRS, 0230000));
+        ops.put("JBC",   new Op(OpT.ADRS, 0230000));
+        ops.put("JLT",   new Op(OpT.ADRS, 0240000));
+        ops.put("JGT",   new Op(OpT.ADRS, 0250000));
+        ops.put("JLE",   new Op(OpT.ADRS, 0260000));
+        ops.put("JGE",   new Op(OpT.ADRS, 0270000));
+
+        ops.put("MOV",   new Op(OpT.MOV, 0410000));
+
+        ops.put("CMP",   new Op(OpT.MATH2, 0000000));
+        ops.put("NEG",   new Op(OpT.MATH2, 0020000));
+        ops.put("INV",   new Op(OpT.MATH2, 0030000));
+        ops.put("SHR",   new Op(OpT.MATH2, 0040000));
+        ops.put("SHL",   new Op(OpT.MATH2, 0050000));
+        ops.put("ADD",   new Op(OpT.MATH2, 0110000));
+        ops.put("SUB",   new Op(OpT.MATH2, 0120000));
+        ops.put("MUL",   new Op(OpT.MATH2, 0130000));
+        ops.put("AND",   new Op(OpT.MATH2, 0140000));
+        ops.put("OR",    new Op(OpT.MATH2, 0150000));
+        ops.put("XOR",   new Op(OpT.MATH2, 0160000));
+
+        ops.put("BCMP",  new Op(OpT.BIT2, 0300000));
+        ops.put("BMOV",  new Op(OpT.BIT2, 0310000));
+        ops.put("BNOT",  new Op(OpT.BIT2, 0320000));
+        ops.put("BCLR",  new Op(OpT.BIT1, 0330000));
+        ops.put("BSET",  new Op(OpT.BIT1, 0340000));
+        ops.put("BAND",  new Op(OpT.BIT2, 0350000));
+        ops.put("BOR",   new Op(OpT.BIT2, 0360000));
+        ops.put("BXOR",  new Op(OpT.BIT2, 0370000));
+
+        ops.put("ORG",    new Op(OpT.ORG, 0));
+        ops.put("DC",     new Op(OpT.DC, 0));
+        ops.put("CONFIG", new Op(OpT.CONFIG, 0));
+    }
     private class Inst
     {
         public Inst(InstT t, int op, int ln)
@@ -59,8 +148,10 @@ public class Miny18Asm
 
     private String marker, opcode, p1, p2;
     private HashMap<String, Integer> markers = new HashMap<>();
-    private LinkedList<Inst> insts = new LinkedList<>();
-    private LinkedList<Integer> consts = new LinkedList<>();
+    private ArrayList<Inst> insts = new ArrayList<>();
+    private ArrayList<Integer> consts = new ArrayList<>();
+    private TreeMap<Integer, String> map_funcs = new TreeMap<>();
+    private TreeMap<Integer, String> map_lines = new TreeMap<>();
     private int line_no = 0;
     private int prog_cntr = 0;
     private int idx;
@@ -88,6 +179,7 @@ public class Miny18Asm
             asm.fill_adrs();
             asm.write_output(file_name);
             asm.write_list_file(file_name);
+            if (asm.has_map()) asm.write_map_file(file_name);
 
             System.out.println("---- Success ----\n");
         }
@@ -101,16 +193,35 @@ public class Miny18Asm
     //-------------------------------------------------------------------------
     public void write_list_file(String file_name) throws MError
     {
-        String fmt0 = "            %s\n";
-        String fmt1 = "%04o %06o %s\n";
-        String str;
-
         try
         {
             FileReader file = new FileReader(file_name + ".asm");
             BufferedReader ifp = new BufferedReader(file);
             FileWriter ofp = new FileWriter(file_name + ".lst");
+            write_list(ifp, ofp);
+            ifp.close();
+            ofp.close();
+        }
+        catch (IOException e)
+        {
+            throw new MError("Error writing file: " + file_name);
+        }
+
+        System.out.println(String.format("CODE  %d", insts.size()));
+        System.out.println(String.format("CONST %d", consts.size()));
+        System.out.println(String.format("REG   %d", regs));
+        System.out.println(String.format("BIT   %d", bits));
+    }
 
+    //-------------------------------------------------------------------------
+    public void write_list(BufferedReader ifp, Writer ofp) throws MError
+    {
+        String fmt0 = "            %s\n";
+        String fmt1 = "%04o %06o %s\n";
+        String str;
+
+        try
+        {
             int ln = 0;
             int pc = 0;
             Inst inst = insts.get(pc);
@@ -139,23 +250,35 @@ public class Miny18Asm
                     ofp.write(str);
                 }
             }
-
-            ifp.close();
-            ofp.close();
         }
         catch (IOException e)
         {
-            throw new MError("Error writing file: " + file_name);
+            throw new MError("Error writing list file");
         }
-
-        System.out.println(String.format("CODE  %d", insts.size()));
-        System.out.println(String.format("CONST %d", consts.size()));
-        System.out.println(String.format("REG   %d", regs));
-        System.out.println(String.format("BIT   %d", bits));
     }
 
     //-------------------------------------------------------------------------
     public void write_output(String file_name) throws MError
+    {
+        try
+        {
+            FileWriter code = new FileWriter("code.hex");
+            FileWriter cons = null;
+            if (con_size > 0) cons = new FileWriter("const.hex");
+            write_hex(code, cons);
+            code.close();
+            if (cons != null) cons.close();
+        }
+        catch (IOException e)
+        {
+            throw new MError("Error writing file: " + file_name + ".hex");
+        }
+    }
+
+    //-------------------------------------------------------------------------
+    // The constants file is only written if the constants ROM is configured.
+    //-------------------------------------------------------------------------
+    public void write_hex(Writer code, Writer cons) throws MError
     {
         int [] ta = new int[(rom_size > con_size) ? rom_size : con_size];
         int i;
@@ -168,48 +291,57 @@ public class Miny18Asm
 
         try
         {
-            FileWriter ofp = new FileWriter("code.hex");
             for (i = 0; i < insts.size(); i++)
                 ta[i] = insts.get(i).opcode;
             for (i = 0; i < rom_size; i++)
             {
                 String str = String.format("%05X ", ta[i]);
-                ofp.write(str);
-                if ((i % 16) == 15) ofp.write('\n');
+                code.write(str);
+                if ((i % 16) == 15) code.write('\n');
             }
-            ofp.close();
 
             if (con_size > 0)
             {
-                ofp = new FileWriter("const.hex");
                 for (i = 0; i < consts.size(); i++)
                     ta[i] = consts.get(i);
                 for (; i < con_size; i++) ta[i] = 0;
                 for (i = 0; i < con_size; i++)
                 {
                     String str = String.format("%05X ", ta[i]);
-                    ofp.write(str);
-                    if ((i % 16) == 15) ofp.write('\n');
+                    cons.write(str);
+                    if ((i % 16) == 15) cons.write('\n');
                 }
-                ofp.close();
             }
         }
         catch (IOException e)
         {
-            throw new MError("Error writing file: " + file_name + ".hex");
+            throw new MError("Error writing hex file");
         }
     }
 
     //-------------------------------------------------------------------------
     public void read_input(String file_name) throws MError
     {
-        regs = bits = 0;
-
         try
         {
             FileReader file = new FileReader(file_name + ".asm");
             BufferedReader ifp = new BufferedReader(file);
+            read_input(ifp);
+            ifp.close();
+        }
+        catch (IOException e)
+        {
+            throw new MError("File not found: " + file_name + ".asm");
+        }
+    }
+
+    //-------------------------------------------------------------------------
+    public void read_input(BufferedReader ifp) throws MError
+    {
+        regs = bits = 0;
 
+        try
+        {
             while (true)
             {
                 sline = ifp.readLine();
@@ -217,18 +349,18 @@ public class Miny18Asm
                 line_no++;
                 process_line();
             }
-
-            ifp.close();
         }
         catch (IOException e)
         {
-            throw new MError("File not found: " + file_name + ".asm");
+            throw new MError("Error reading asm input");
         }
     }
 
     //-------------------------------------------------------------------------
     private void process_line() throws MError
     {
+        if (sline.startsWith(";@")) map_line();
+
         int idx = sline.indexOf(';');
         if (idx >= 0) sline = sline.substring(0, idx);
         sline = sline.replaceAll("\\s+$","");
@@ -236,78 +368,28 @@ public class Miny18Asm
         parse_line();
 
         if (marker != null) markers.put(marker, prog_cntr);
+        if (opcode.equals("")) return;
+
+        Op op = find_op(opcode);
 
         try
         {
-            switch (opcode)
+            switch (op.type)
             {
-                case "NOP":     simple_opcode(0000000); break;
-                case "HALT":    simple_opcode(0000100); break;
-                case "PAUSE":   simple_opcode(0000200); break;
-                case "RTS":     simple_opcode(0000300); break;
-                case "RTI":     simple_opcode(0000400); break;
-                case "RESET":   simple_opcode(0000600); break;
-                case "RESTART": simple_opcode(0200000); break;
-
-                case "LEVEL": level_opcode(); break;
-                case "TIMER": timer_opcode(); break;
-
-                case "CALL":  adrs_opcode(0010000); break;
-                case "LDR":   ldr_opcode(0020000); break;
-                case "STR":   str_opcode(0030000); break;
-                case "LDC":   ldr_opcode(0040000); break;
-                case "IN":    reg2_opcode(0060000); break;
-                case "OUT":   reg2_opcode(0070000); break;
-
-                case "SEQ":   bit1_opcode(0120000); break;
-                case "SBS":   bit1_opcode(0120000); break;
-                case "SNE":   bit1_opcode(0130000); break;
-                case "SBC":   bit1_opcode(0130000); break;
-                case "SLT":   bit1_opcode(0140000); break;
-                case "SGT":   bit1_opcode(0150000); break;
-                case "SLE":   bit1_opcode(0160000); break;
-                case "SGE":   bit1_opcode(0170000); break;
-
-                case "JMP":   adrs_opcode(0200000); break;
-                case "JEQ":   adrs_opcode(0220000); break;
-                case "JBS":   adrs_opcode(0220000); break;
-                case "JNE":   adrs_opcode(0230000); break;
-                case "JBC":   adrs_opcode(0230000); break;
-                case "JLT":   adrs_opcode(0240000); break;
-                case "JGT":   adrs_opcode(0250000); break;
-                case "JLE":   adrs_opcode(0260000); break;
-                case "JGE":   adrs_opcode(0270000); break;
-
-                case "MOV": mov_opcode(); break;
-
-                case "CMP": math2_opcode(0000000); break;
-                case "NEG": math2_opcode(0020000); break;
-                case "INV": math2_opcode(0030000); break;
-                case "SHR": math2_opcode(0040000); break;
-                case "SHL": math2_opcode(0050000); break;
-                case "ADD": math2_opcode(0110000); break;
-                case "SUB": math2_opcode(0120000); break;
-                case "MUL": math2_opcode(0130000); break;
-                case "AND": math2_opcode(0140000); break;
-                case "OR":  math2_opcode(0150000); break;
-                case "XOR": math2_opcode(0160000); break;
-
-                case "BCMP": bit2_opcode(0300000); break;
-                case "BMOV": bit2_opcode(0310000); break;
-                case "BNOT": bit2_opcode(0320000); break;
-                case "BCLR": bit1_opcode(0330000); break;
-                case "BSET": bit1_opcode(0340000); break;
-                case "BAND": bit2_opcode(0350000); break;
-                case "BOR":  bit2_opcode(0360000); break;
-                case "BXOR": bit2_opcode(0370000); break;
-
-                case "ORG":  org_opcode(); break;
-                case "DC":   define_int_const(); break;
-                case "CONFIG": config(); break;
-                case "": break;
-
-                default:
-                    throw new MError("Invalid opcode: " + opcode);
+                case SIMPLE: simple_opcode(op.code); break;
+                case LEVEL:  level_opcode(); break;
+                case TIMER:  timer_opcode(); break;
+                case ADRS:   adrs_opcode(op.code); break;
+                case LDR:    ldr_opcode(op.code); break;
+                case STR:    str_opcode(op.code); break;
+                case REG2:   reg2_opcode(op.code); break;
+                case BIT1:   bit1_opcode(op.code); break;
+                case BIT2:   bit2_opcode(op.code); break;
+                case MOV:    mov_opcode(); break;
+                case MATH2:  math2_opcode(op.code); break;
+                case ORG:    org_opcode(); break;
+                case DC:     define_int_const(); break;
+                case CONFIG: config(); break;
             }
         } 
         catch (NumberFormatException e)
@@ -316,6 +398,247 @@ public class Miny18Asm
         }
     }
 
+    //-------------------------------------------------------------------------
+    // Debug map comments from AsmGen18, ";@func Label" at the start of
+    // each func, and ";@line File.m N" before the code of a source line.
+    //-------------------------------------------------------------------------
+    private void map_line() throws MError
+    {
+        String[] sa = sline.trim().split("\\s+");
+
+        if (sa[0].equals(";@func") && sa.length == 2)
+            put_func(sa[1]);
+        else if (sa[0].equals(";@line") && sa.length == 3)
+        {
+            try
+            {
+                put_line(sa[1], Integer.parseInt(sa[2]));
+            }
+            catch (NumberFormatException e)
+            {
+                throw new MError("Number format error, at line " + line_no);
+            }
+        }
+    }
+
+    //-------------------------------------------------------------------------
+    private Op find_op(String name) throws MError
+    {
+        Op op = ops.get(name);
+        if (op == null)
+            throw new MError("Invalid opcode: " + name);
+        return op;
+    }
+
+    //-------------------------------------------------------------------------
+    // Direct entry points, used by AsmGen18 to assemble without going
+    // through asm text. Each matches one of the asm line forms.
+    //-------------------------------------------------------------------------
+    public void put_config(int romi, int rami, int coni) throws MError
+    {
+        set_config(romi, rami, coni);
+    }
+
+    //-------------------------------------------------------------------------
+    public void put_org(int adrs)
+    {
+        prog_cntr = adrs;
+    }
+
+    //-------------------------------------------------------------------------
+    public void put_func(String label)
+    {
+        map_funcs.put(prog_cntr, label);
+    }
+
+    //-------------------------------------------------------------------------
+    // A line with no code of its own is replaced by the next one.
+    //-------------------------------------------------------------------------
+    public void put_line(String file, int line)
+    {
+        map_lines.put(prog_cntr, file + ' ' + line);
+    }
+
+    //-------------------------------------------------------------------------
+    public boolean has_map()
+    {
+        return map_funcs.size() > 0;
+    }
+
+    //-------------------------------------------------------------------------
+    public void write_map_file(String file_name) throws MError
+    {
+        try
+        {
+            FileWriter ofp = new FileWriter(file_name + ".map");
+            write_map(ofp);
+            ofp.close();
+        }
+        catch (IOException e)
+        {
+            throw new MError("Error writing file: " + file_name + ".map");
+        }
+    }
+
+    //-------------------------------------------------------------------------
+    // The debug map, used by Proc18Prof. Addresses are hex. A FUNC line
+    // gives the first and last address of a func, and a LINE line gives
+    // the source of the code from its address up to the next LINE.
+    //-------------------------------------------------------------------------
+    public void write_map(Writer ofp) throws MError
+    {
+        try
+        {
+            for (Map.Entry<Integer, String> entry : map_funcs.entrySet())
+            {
+                Integer next = map_funcs.higherKey(entry.getKey());
+                int last = (next == null) ? insts.size() - 1 : next - 1;
+                ofp.write(String.format("FUNC %04X %04X %s\n",
+                    entry.getKey(), last, entry.getValue()));
+            }
+
+            for (Map.Entry<Integer, String> entry : map_lines.entrySet())
+                ofp.write(String.format("LINE %04X %s\n",
+                    entry.getKey(), entry.getValue()));
+        }
+        catch (IOException e)
+        {
+            throw new MError("Error writing map file");
+        }
+    }
+
+    //-------------------------------------------------------------------------
+    public void put_const(int value) throws MError
+    {
+        add_const(value);
+    }
+
+    //-------------------------------------------------------------------------
+    public void put_marker(String label)
+    {
+        markers.put(label, prog_cntr);
+    }
+
+    //-------------------------------------------------------------------------
+    // OP
+    //-------------------------------------------------------------------------
+    public void put_inst(String name) throws MError
+    {
+        Op op = find_op(name);
+        if (op.type != OpT.SIMPLE)
+            throw new MError("Missing parameter: " + name);
+        add_inst(op.code);
+    }
+
+    //-------------------------------------------------------------------------
+    // OP Label
+    //-------------------------------------------------------------------------
+    public void put_inst(String name, String label) throws MError
+    {
+        Op op = find_op(name);
+        if (op.type != OpT.ADRS)
+            throw new MError("Invalid parameter: " + name + " " + label);
+        add_adrs(op.code, label);
+    }
+
+    //-------------------------------------------------------------------------
+    // OP Bit
+    //-------------------------------------------------------------------------
+    public void put_inst(String name, int p1) throws MError
+    {
+        Op op = find_op(name);
+        switch (op.type)
+        {
+            case BIT1:
+                add_inst(op.code | check_bit(p1));
+                break;
+
+            case TIMER:
+                throw new MError("Timer requires immediate value");
+
+            default:
+                throw new MError("Invalid parameter: " + name + " " + p1);
+        }
+    }
+
+    //-------------------------------------------------------------------------
+    // OP #Value
+    //-------------------------------------------------------------------------
+    public void put_inst_imm(String name, int value) throws MError
+    {
+        Op op = find_op(name);
+        switch (op.type)
+        {
+            case TIMER: add_timer(value); break;
+            case LEVEL: add_level(value); break;
+            default:
+                throw new MError("Invalid parameter: " + name + " #" + value);
+        }
+    }
+
+    //-------------------------------------------------------------------------
+    // OP Dst, Src
+    //-------------------------------------------------------------------------
+    public void put_inst(String name, int p1, int p2) throws MError
+    {
+        Op op = find_op(name);
+        switch (op.type)
+        {
+            case REG2:
+                add_reg2(op.code, check_reg(p1), check_reg(p2));
+                break;
+
+            case MATH2:
+                add_reg2(op.code | 0400000, check_reg(p1), check_reg(p2));
+                break;
+
+            case MOV:
+                add_reg2(0410000, check_reg(p1), check_reg(p2));
+                break;
+
+            case BIT2:
+                add_reg2(op.code, check_bit(p1), check_bit(p2));
+                break;
+
+            default:
+                throw new MError("Invalid parameter: " + name);
+        }
+    }
+
+    //-------------------------------------------------------------------------
+    // OP Dst, #Value
+    //-------------------------------------------------------------------------
+    public void put_inst_imm(String name, int p1, int value) throws MError
+    {
+        Op op = find_op(name);
+        switch (op.type)
+        {
+            case MOV:   add_mov_imm(check_reg(p1), value); break;
+            case MATH2: add_math2_imm(op.code, check_reg(p1), value); break;
+            default:
+                throw new MError("Invalid parameter: " + name);
+        }
+    }
+
+    //-------------------------------------------------------------------------
+    // LDR Dst, (Src) and LDC Dst, (Src)
+    //-------------------------------------------------------------------------
+    public void put_load(String name, int dreg, int sreg) throws MError
+    {
+        Op op = find_op(name);
+        if (op.type != OpT.LDR)
+            throw new MError("Invalid parameter: " + name);
+        add_reg2(op.code, check_reg(dreg), check_reg(sreg));
+    }
+
+    //-------------------------------------------------------------------------
+    // STR (Dst), Src
+    //-------------------------------------------------------------------------
+    public void put_store(int dreg, int sreg) throws MError
+    {
+        add_reg2(0030000, check_reg(dreg), check_reg(sreg));
+    }
+
     //-------------------------------------------------------------------------
     private void org_opcode() throws MError
     {
@@ -348,6 +671,12 @@ public class Miny18Asm
             throw new MError("Invalid config statement");
         }
 
+        set_config(romi, rami, coni);
+    }
+
+    //-------------------------------------------------------------------------
+    private void set_config(int romi, int rami, int coni) throws MError
+    {
         if (romi < 1 || romi > 12)
             throw new MError("Invalid ROM config statement");
 
@@ -372,10 +701,16 @@ public class Miny18Asm
             // Parse the value
             p1 = get_str();
             if (p1 == "") break;
-            consts.add(Integer.parseInt(p1));
-            prog_cntr++;
+            add_const(Integer.parseInt(p1));
             skip_whitespace();
         }
+    }
+
+    //-------------------------------------------------------------------------
+    private void add_const(int value) throws MError
+    {
+        consts.add(value);
+        prog_cntr++;
 
         if (consts.size() > 4095)
             throw new MError("Exceeded constants space");
@@ -389,9 +724,7 @@ public class Miny18Asm
         int dreg = get_reg(p1);
         int sreg = get_reg(p2);
 
-        opcode |= (sreg << 6) | dreg;
-        insts.add(new Inst(InstT.INST, opcode, line_no));
-        prog_cntr++;
+        add_reg2(opcode, dreg, sreg);
     }
 
     //-------------------------------------------------------------------------
@@ -406,9 +739,7 @@ public class Miny18Asm
         int dreg = get_reg(p1);
         int sreg = get_reg(p2);
 
-        opcode |= (sreg << 6) | dreg;
-        insts.add(new Inst(InstT.INST, opcode, line_no));
-        prog_cntr++;
+        add_reg2(opcode, dreg, sreg);
     }
 
     //-------------------------------------------------------------------------
@@ -427,9 +758,7 @@ public class Miny18Asm
         p2 = p2.substring(1, p2.length() - 1);
         int sreg = get_reg(p2);
 
-        opcode |= (sreg << 6) | dreg;
-        insts.add(new Inst(InstT.INST, opcode, line_no));
-        prog_cntr++;
+        add_reg2(opcode, dreg, sreg);
     }
 
     //-------------------------------------------------------------------------
@@ -453,9 +782,7 @@ public class Miny18Asm
         int dreg = get_bit(p1);
         int sreg = get_bit(p2);
 
-        opcode |= (sreg << 6) | dreg;
-        insts.add(new Inst(InstT.INST, opcode, line_no));
-        prog_cntr++;
+        add_reg2(opcode, dreg, sreg);
     }
 
     //-------------------------------------------------------------------------
@@ -469,30 +796,25 @@ public class Miny18Asm
             throw new MError("Invalid parameter, at line " + line_no);
 
         if (p2.charAt(0) == '#')
-        {
-            int value = imm_value(p2);
-            if (value > 0x3FFFF || value < -131071)
-                throw new MError("Value out of range, at line " + line_no);
+            add_mov_imm(dreg, imm_value(p2));
+        else
+            add_reg2(0410000, dreg, get_reg(p2));
+    }
 
-            if (value >= 0 && value < 64)
-            {
-                int opcode = 0610000 | (value << 6) | dreg;
-                insts.add(new Inst(InstT.INST, opcode, line_no));
-                prog_cntr++;
-            }
-            else
-            {
-                int opcode = 0000700 | dreg;
-                insts.add(new Inst(InstT.INST, opcode, line_no));
-                insts.add(new Inst(InstT.VALUE, value & 0x3FFFF, line_no));
-                prog_cntr += 2;
-            }
+    //-------------------------------------------------------------------------
+    private void add_mov_imm(int dreg, int value) throws MError
+    {
+        if (value > 0x3FFFF || value < -131071)
+            throw new MError("Value out of range, at line " + line_no);
+
+        if (value >= 0 && value < 64)
+        {
+            add_inst(0610000 | (value << 6) | dreg);
         }
         else
         {
-            int sreg = get_reg(p2);
-            int opcode = 0410000 | (sreg << 6) | dreg;
-            insts.add(new Inst(InstT.INST, opcode, line_no));
+            add_inst(0000700 | dreg);
+            insts.add(new Inst(InstT.VALUE, value & 0x3FFFF, line_no));
             prog_cntr++;
         }
     }
@@ -508,32 +830,27 @@ public class Miny18Asm
             throw new MError("Invalid parameter, at line " + line_no);
 
         if (p2.charAt(0) == '#')
-        {
-            int value = imm_value(p2);
-            if (value > 0x3FFFF || value < -131071)
-                throw new MError("Value out of range, at line " + line_no);
+            add_math2_imm(opcode, dreg, imm_value(p2));
+        else
+            add_reg2(opcode | 0400000, dreg, get_reg(p2));
+    }
 
-            if (value >= 0 && value < 64)
-            {
-                opcode |= (value << 6) | dreg | 0600000;
-                insts.add(new Inst(InstT.INST, opcode, line_no));
-                prog_cntr++;
-            }
-            else
-            {
-                opcode |= dreg | 0400000;
-                insts.add(new Inst(InstT.INST, 0000700, line_no));
-                insts.add(new Inst(InstT.VALUE, value & 0x3FFFF, line_no));
-                insts.add(new Inst(InstT.INST, opcode, line_no));
-                prog_cntr += 3;
-            }
+    //-------------------------------------------------------------------------
+    private void add_math2_imm(int opcode, int dreg, int value) throws MError
+    {
+        if (value > 0x3FFFF || value < -131071)
+            throw new MError("Value out of range, at line " + line_no);
+
+        if (value >= 0 && value < 64)
+        {
+            add_inst(opcode | (value << 6) | dreg | 0600000);
         }
         else
         {
-            int sreg = get_reg(p2);
-            opcode |= 0400000 | (sreg << 6) | dreg;
-            insts.add(new Inst(InstT.INST, opcode, line_no));
+            add_inst(0000700);
+            insts.add(new Inst(InstT.VALUE, value & 0x3FFFF, line_no));
             prog_cntr++;
+            add_inst(opcode | dreg | 0400000);
         }
     }
 
@@ -543,8 +860,7 @@ public class Miny18Asm
         parse_parms(1);
 
         int offset = get_bit(p1);
-        insts.add(new Inst(InstT.INST, opcode | offset, line_no));
-        prog_cntr++;
+        add_inst(opcode | offset);
     }
 
     //-------------------------------------------------------------------------
@@ -566,12 +882,16 @@ public class Miny18Asm
             throw new MError("Timer requires immediate value, at line " +
                              line_no);
 
-        int value = Integer.parseInt(p1.substring(1));
+        add_timer(Integer.parseInt(p1.substring(1)));
+    }
+
+    //-------------------------------------------------------------------------
+    private void add_timer(int value) throws MError
+    {
         if (value > 4095 || value < 0)
             throw new MError("Value out of range, at line " + line_no);
 
-        insts.add(new Inst(InstT.INST, 0050000 | value, line_no));
-        prog_cntr++;
+        add_inst(0050000 | value);
     }
 
     //-------------------------------------------------------------------------
@@ -582,33 +902,55 @@ public class Miny18Asm
         if (p1.charAt(0) != '#')
             throw new MError("Syntax error, at line " + line_no);
 
-        int value = Integer.parseInt(p1.substring(1));
+        add_level(Integer.parseInt(p1.substring(1)));
+    }
+
+    //-------------------------------------------------------------------------
+    private void add_level(int value) throws MError
+    {
         if (value > 63 || value < 0)
             throw new MError("Level out of range, at line " + line_no);
 
-        insts.add(new Inst(InstT.INST, 0000500 | value, line_no));
-        prog_cntr++;
+        add_inst(0000500 | value);
     }
 
     //-------------------------------------------------------------------------
     private void adrs_opcode(int opcode) throws MError
     {
         parse_parms(1);
+        add_adrs(opcode, p1);
+    }
+
+    //-------------------------------------------------------------------------
+    private void add_adrs(int opcode, String label)
+    {
         Inst inst = new Inst(InstT.ADRS, opcode, line_no);
-        inst.marker = p1;
+        inst.marker = label;
         insts.add(inst);
         prog_cntr++;
     }
 
     //-------------------------------------------------------------------------
     private void simple_opcode(int opcode) throws MError
+    {
+        add_inst(opcode);
+    }
+
+    //-------------------------------------------------------------------------
+    private void add_reg2(int opcode, int dreg, int sreg)
+    {
+        add_inst(opcode | (sreg << 6) | dreg);
+    }
+
+    //-------------------------------------------------------------------------
+    private void add_inst(int opcode)
     {
         insts.add(new Inst(InstT.INST, opcode, line_no));
         prog_cntr++;
     }
 
     //-------------------------------------------------------------------------
-    private void fill_adrs() throws MError
+    public void fill_adrs() throws MError
     {
         for (Inst inst : insts)
             if (inst.type == InstT.ADRS)
@@ -720,7 +1062,12 @@ public class Miny18Asm
     //-------------------------------------------------------------------------
     private int get_reg(String str) throws MError
     {
-        int reg = Integer.parseInt(str);
+        return check_reg(Integer.parseInt(str));
+    }
+
+    //-------------------------------------------------------------------------
+    private int check_reg(int reg) throws MError
+    {
         if (reg > 63 || reg < 0)
             throw new MError("Register offset out of range, at line " +
                              line_no);
@@ -732,7 +1079,12 @@ public class Miny18Asm
     //-------------------------------------------------------------------------
     private int get_bit(String str) throws MError
     {
-        int bit = Integer.parseInt(str);
+        return check_bit(Integer.parseInt(str));
+    }
+
+    //-------------------------------------------------------------------------
+    private int check_bit(int bit) throws MError
+    {
         if (bit > 63 || bit < 0)
             throw new MError("Bit offset out of range, at line " + line_no);
 
@@ -0,0 +1,299 @@
+//-----------------------------------------------------------------------------
+// Miny18 Compiler Benchmark
+//
+// Times each phase run by Miny18.main, plus the Miny18Asm pass, over a list
+// of programs. With no program names, TestAll and two synthetic programs
+// of 10k and 100k lines are used. The synthetic programs are written to the
+// current directory as Bench10k.m and Bench100k.m. With -x, AsmGen18
+// feeds the assembler directly, and the Miny18Asm time is only fill_adrs.
+//
+// History:
+// 1.0.0   10/18/2026   File Created
+// 1.1.0   10/18/2026   Use CompilationContext, assemble in memory
+// 1.2.0   10/18/2026   Add -x fused assemble option
+// 1.3.0   10/18/2026   Add -s serial front end option
+//-----------------------------------------------------------------------------
+// Copyright 2020 Mike Christle
+//
+// Permission is hereby granted, free of charge, to any person obtaining a
+// copy of this software and associated documentation files (the "Software"),
+// to deal in the Software without restriction, including without limitation
+// the rights to use, copy, modify, merge, publish, distribute, sublicense,
+// and/or sell copies of the Software, and to permit persons to whom the
+// Software is furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be
+// included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+// THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+// FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+// DEALINGS IN THE SOFTWARE.
+//-----------------------------------------------------------------------------
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.LinkedList;
+
+//-----------------------------------------------------------------------------
+public class Miny18Bench
+{
+    private static final String[] PHASES = {"Parser", "Checker",
+        "FoldConst", "ICodeGen", "ICodeOpt", "AsmGen18", "Miny18Asm"};
+
+    private static final PrintStream null_out =
+        new PrintStream(OutputStream.nullOutputStream());
+
+    private long[] times = new long[PHASES.length];
+    private long[] total = new long[PHASES.length];
+    private long[] best = new long[PHASES.length];
+    private int lines;
+    private boolean fused = false;
+    private boolean serial = false;
+
+    //-------------------------------------------------------------------------
+    public static void main(String []args)
+    {
+        int warmup = 3;
+        int count = 10;
+        boolean fused = false;
+        boolean serial = false;
+        LinkedList<String> names = new LinkedList<>();
+
+        try
+        {
+            for (int i = 0; i < args.length; i++)
+            {
+                switch (args[i])
+                {
+                    case "-w": warmup = Integer.parseInt(args[++i]); break;
+                    case "-n": count = Integer.parseInt(args[++i]); break;
+                    case "-x": fused = true; break;
+                    case "-s": serial = true; break;
+                    default: names.add(args[i]); break;
+                }
+            }
+        }
+        catch (RuntimeException e)
+        {
+            System.out.println("Usage: java Miny18Bench [Options] [names]");
+            System.out.println("   -w N  Warmup runs, default 3");
+            System.out.println("   -n N  Timed runs, default 10");
+            System.out.println("   -x    Skip the asm text, fused assemble");
+            System.out.println("   -s    Serial front end, no fork-join");
+            System.exit(-1);
+        }
+
+        try
+        {
+            if (names.size() == 0)
+            {
+                names.add("TestAll");
+                names.add(synthetic("Bench10k", 10_000));
+                names.add(synthetic("Bench100k", 100_000));
+            }
+
+            for (String name : names)
+            {
+                Miny18Bench bench = new Miny18Bench();
+                bench.fused = fused;
+                bench.serial = serial;
+                bench.run(name, warmup, count);
+            }
+
+            System.out.println("---- Success ----");
+        }
+        catch (MError e)
+        {
+            System.out.println(e.msg);
+            System.exit(-2);
+        }
+        catch (IOException e)
+        {
+            System.out.println("Error writing synthetic program");
+            System.exit(-2);
+        }
+    }
+
+    //-------------------------------------------------------------------------
+    public void run(String name, int warmup, int count) throws MError
+    {
+        Arrays.fill(total, 0);
+        Arrays.fill(best, Long.MAX_VALUE);
+
+        for (int i = 0; i < warmup; i++)
+            compile(name);
+
+        for (int i = 0; i < count; i++)
+        {
+            compile(name);
+            for (int j = 0; j < PHASES.length; j++)
+            {
+                total[j] += times[j];
+                if (times[j] < best[j]) best[j] = times[j];
+            }
+        }
+
+        long sum = 0, sum_best = 0;
+        for (int j = 0; j < PHASES.length; j++)
+        {
+            sum += total[j];
+            sum_best += best[j];
+        }
+
+        System.out.printf("%s, %d lines, %d runs\n", name, lines, count);
+        System.out.println("    Phase        Mean ms     Min ms");
+        for (int j = 0; j < PHASES.length; j++)
+            System.out.printf("    %-10s %9.3f  %9.3f\n", PHASES[j],
+                total[j] / 1e6 / count, best[j] / 1e6);
+        System.out.printf("    %-10s %9.3f  %9.3f\n", "Total",
+            sum / 1e6 / count, sum_best / 1e6);
+        System.out.printf("    Lines/sec  %9.0f\n\n",
+            lines * 1e9 * count / sum);
+    }
+
+    //-------------------------------------------------------------------------
+    // One full compile and assemble of the program. Miny18Asm output is
+    // limited to the list file, since the synthetic programs do not fit in
+    // the 4K code ROM.
+    //-------------------------------------------------------------------------
+    private void compile(String name) throws MError
+    {
+        CompilationContext ctx = new CompilationContext(name);
+        ctx.log = null_out;
+        ctx.parallel = serial == false;
+
+        Parser parser = new Parser(ctx);
+        Checker checker = new Checker(ctx);
+        FoldConst fold_const = new FoldConst(ctx);
+        ICodeGen icode_gen = new ICodeGen(ctx);
+        ICodeOpt icode_opt = new ICodeOpt(ctx);
+        AsmGen18 asm_gen = new AsmGen18(ctx);
+        Miny18Asm asm = new Miny18Asm();
+        StringWriter asm_text = new StringWriter();
+
+        try
+        {
+            ctx.add_isr(0, name + ".main");
+
+            long t0 = System.nanoTime();
+            parser.start();
+            long t1 = System.nanoTime();
+            checker.check();
+            long t2 = System.nanoTime();
+            fold_const.fold();
+            long t3 = System.nanoTime();
+            icode_gen.run();
+            long t4 = System.nanoTime();
+            icode_opt.run();
+            long t5 = System.nanoTime();
+            if (fused)
+                asm_gen.run(name, null, asm);
+            else
+                asm_gen.run(name, asm_text);
+            long t6 = System.nanoTime();
+            if (fused)
+            {
+                asm.fill_adrs();
+            }
+            else
+            {
+                String text = asm_text.toString();
+                asm.read_input(new BufferedReader(new StringReader(text)));
+                asm.fill_adrs();
+                asm.write_list(new BufferedReader(new StringReader(text)),
+                               new StringWriter());
+            }
+            long t7 = System.nanoTime();
+
+            times[0] = t1 - t0;
+            times[1] = t2 - t1;
+            times[2] = t3 - t2;
+            times[3] = t4 - t3;
+            times[4] = t5 - t4;
+            times[5] = t6 - t5;
+            times[6] = t7 - t6;
+        }
+        catch (MError e)
+        {
+            e.msg = ctx.error_message(e);
+            throw e;
+        }
+
+        lines = 0;
+        for (String file_name : ctx.file_names)
+            lines += count_lines(file_name);
+    }
+
+    //-------------------------------------------------------------------------
+    private static int count_lines(String file_name)
+    {
+        int count = 0;
+
+        try
+        {
+            BufferedReader reader =
+                new BufferedReader(new FileReader(file_name));
+            while (reader.readLine() != null) count++;
+            reader.close();
+        }
+        catch (IOException e)
+        {
+            // Util files outside the current directory are not counted
+        }
+
+        return count;
+    }
+
+    //-------------------------------------------------------------------------
+    // Write a program of about the given number of lines. Main calls a
+    // chain of small functions that use loops, branches and int math, so
+    // every phase has work to do.
+    //-------------------------------------------------------------------------
+    private static String synthetic(String name, int size) throws IOException
+    {
+        int funcs = size / 17;
+        FileWriter ofp = new FileWriter(name + ".m");
+
+        ofp.write("# Synthetic benchmark program\n\n");
+        ofp.write("module " + name + "\n{\n");
+        ofp.write("    int total\n");
+        ofp.write("    bool flag\n\n");
+
+        for (int i = 0; i < funcs; i++)
+        {
+            ofp.write("    func f" + i + "(int a, int b) int\n");
+            ofp.write("    {\n");
+            ofp.write("        int i = 0\n");
+            ofp.write("        int s = a\n");
+            ofp.write("        loop\n");
+            ofp.write("        {\n");
+            ofp.write("            i += 1\n");
+            ofp.write("            if i == b break\n");
+            ofp.write("            s = s + i * " + (i % 7 + 2) + " - (a >> 1)\n");
+            ofp.write("            if s > 1000 and not flag s = s & 0xFF\n");
+            ofp.write("            else s = s | " + (i % 5 + 1) + "\n");
+            ofp.write("        }\n");
+            ofp.write("        return s\n");
+            ofp.write("    }\n\n");
+        }
+
+        ofp.write("    func main()\n");
+        ofp.write("    {\n");
+        ofp.write("        int x = 1\n");
+        for (int i = 0; i < funcs; i++)
+        {
+            ofp.write("        x = f" + i + "(x, " + (i % 9 + 2) + ")\n");
+            ofp.write("        total += x\n");
+        }
+        ofp.write("        loop halt\n");
+        ofp.write("    }\n");
+        ofp.write("}\n");
+        ofp.close();
+
+        return name;
+    }
+}
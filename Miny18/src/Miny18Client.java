@@ -0,0 +1,98 @@
+//-----------------------------------------------------------------------------
+// Miny18 Compile Client
+//
+// Sends one request to Miny18Server and prints the reply. A BUILD request
+// uses the current directory. Exits with -2 if the build failed.
+//
+// History:
+// 1.0.0   10/18/2026   File Created
+//-----------------------------------------------------------------------------
+// Copyright 2020 Mike Christle
+//
+// Permission is hereby granted, free of charge, to any person obtaining a
+// copy of this software and associated documentation files (the "Software"),
+// to deal in the Software without restriction, including without limitation
+// the rights to use, copy, modify, merge, publish, distribute, sublicense,
+// and/or sell copies of the Software, and to permit persons to whom the
+// Software is furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be
+// included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+// THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+// FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+// DEALINGS IN THE SOFTWARE.
+//-----------------------------------------------------------------------------
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.Socket;
+
+//-----------------------------------------------------------------------------
+public class Miny18Client
+{
+    //-------------------------------------------------------------------------
+    public static void main(String []args)
+    {
+        int port = Miny18Server.PORT;
+        String request = null;
+
+        try
+        {
+            for (int i = 0; i < args.length; i++)
+            {
+                switch (args[i])
+                {
+                    case "-p": port = Integer.parseInt(args[++i]); break;
+                    case "-stop": request = "STOP"; break;
+                    default:
+                        String dir = new File(".").getCanonicalPath();
+                        request = "BUILD " + args[i] + " " + dir;
+                        break;
+                }
+            }
+        }
+        catch (RuntimeException | IOException e)
+        {
+            request = null;
+        }
+
+        if (request == null)
+        {
+            System.out.println("Usage: java Miny18Client [Options] <file_name>");
+            System.out.println("   -p N   Port, default " + Miny18Server.PORT);
+            System.out.println("   -stop  Stop the server");
+            System.exit(-1);
+        }
+
+        String line, last = "";
+        try
+        {
+            Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+            PrintStream ofp = new PrintStream(socket.getOutputStream());
+            BufferedReader ifp = new BufferedReader(
+                new InputStreamReader(socket.getInputStream()));
+
+            ofp.println(request);
+            ofp.flush();
+
+            while ((line = ifp.readLine()) != null)
+            {
+                System.out.println(line);
+                last = line;
+            }
+            socket.close();
+        }
+        catch (IOException e)
+        {
+            System.out.println("Can't connect to Miny18Server on port " + port);
+            System.exit(-2);
+        }
+
+        if (last.equals("---- Success ----") == false) System.exit(-2);
+    }
+}
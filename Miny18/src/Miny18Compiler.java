@@ -0,0 +1,185 @@
+//-----------------------------------------------------------------------------
+// Miny18 Compiler
+//
+// Runs the compiler and assembler phases on a CompilationContext, with all
+// output kept in memory. Each context is independent, so separate threads
+// may each compile their own program.
+// When ctx.listing is false, the code generator feeds the assembler
+// directly and the asm text and listing are not produced.
+//
+// History:
+// 1.0.0   10/18/2026   File Created
+// 1.1.0   10/18/2026   Add fused gen_hex path
+// 1.2.0   10/18/2026   Save modules to the module cache
+// 1.3.0   10/18/2026   Add GlobalOpt pass
+// 1.4.0   10/18/2026   Add ExprOpt pass
+// 1.5.0   10/18/2026   Add Inliner pass
+// 1.6.0   10/18/2026   Write the debug map
+//-----------------------------------------------------------------------------
+// Copyright 2020 Mike Christle
+//
+// Permission is hereby granted, free of charge, to any person obtaining a
+// copy of this software and associated documentation files (the "Software"),
+// to deal in the Software without restriction, including without limitation
+// the rights to use, copy, modify, merge, publish, distribute, sublicense,
+// and/or sell copies of the Software, and to permit persons to whom the
+// Software is furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be
+// included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+// THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+// FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+// DEALINGS IN THE SOFTWARE.
+//-----------------------------------------------------------------------------
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+
+//-----------------------------------------------------------------------------
+public class Miny18Compiler
+{
+    //-------------------------------------------------------------------------
+    // Compile, generate asm and assemble.
+    //-------------------------------------------------------------------------
+    public static void build(CompilationContext ctx) throws MError
+    {
+        compile(ctx);
+
+        if (ctx.listing)
+        {
+            gen_asm(ctx);
+            assemble(ctx);
+        }
+        else
+        {
+            gen_hex(ctx);
+        }
+    }
+
+    //-------------------------------------------------------------------------
+    // Run the front end and the ICode phases.
+    //-------------------------------------------------------------------------
+    public static void compile(CompilationContext ctx) throws MError
+    {
+        ctx.add_isr(0, ctx.name + ".main");
+
+        if (ctx.debug) ctx.log.println("---- Parser -----");
+        new Parser(ctx).start();
+
+        if (ctx.debug) ctx.log.println("---- Checker ----");
+        new Checker(ctx).check();
+
+        if (ctx.debug) ctx.log.println("---- FoldConst ----");
+        new FoldConst(ctx).fold();
+
+        if (ctx.debug) ctx.log.println("---- ICodeGen ----");
+        new ICodeGen(ctx).run();
+
+        if (ctx.debug) ctx.log.println("---- Inliner ----");
+        new Inliner(ctx).run();
+
+        if (ctx.debug) ctx.log.println("---- GlobalOpt ----");
+        new GlobalOpt(ctx).run();
+
+        if (ctx.debug) ctx.log.println("---- ExprOpt ----");
+        new ExprOpt(ctx).run();
+
+        // Again, for the copies into the new locals
+        new GlobalOpt(ctx).run();
+
+        if (ctx.debug) ctx.log.println("---- ICodeOpt ----");
+        new ICodeOpt(ctx).run();
+
+        if (ctx.mod_cache != null) save_modules(ctx);
+    }
+
+    //-------------------------------------------------------------------------
+    // Save the modules that went through the front end to the module cache,
+    // before the back end changes them.
+    //-------------------------------------------------------------------------
+    private static void save_modules(CompilationContext ctx) throws MError
+    {
+        ArrayList<ModuleCache.Entry> entries = new ArrayList<>();
+
+        for (ModuleCache.Entry entry : ctx.mod_entries)
+        {
+            entry.module = ctx.modules.get(entry.name);
+            if (entry.module == null) continue;
+
+            for (int i = 0; i < ctx.isr_labels.length; i++)
+            {
+                Func func = entry.module.funcs.get(ctx.isr_labels[i]);
+                if (func != null && func.isr)
+                    entry.isrs.put(i, ctx.isr_labels[i]);
+            }
+
+            entries.add(entry);
+        }
+
+        ctx.for_each(entries, entry -> ctx.mod_cache.save(entry));
+    }
+
+    //-------------------------------------------------------------------------
+    public static void gen_asm(CompilationContext ctx) throws MError
+    {
+        if (ctx.debug) ctx.log.println("---- Miny18 ----");
+
+        StringWriter ofp = new StringWriter();
+        new AsmGen18(ctx).run(ctx.name, ofp);
+        ctx.asm = ofp.toString();
+    }
+
+    //-------------------------------------------------------------------------
+    // Generate code and assemble in one pass, skipping the asm text.
+    //-------------------------------------------------------------------------
+    public static void gen_hex(CompilationContext ctx) throws MError
+    {
+        if (ctx.debug) ctx.log.println("---- Miny18 ----");
+
+        Miny18Asm asm = new Miny18Asm();
+        StringWriter code = new StringWriter();
+        StringWriter cons = new StringWriter();
+
+        new AsmGen18(ctx).run(ctx.name, null, asm);
+        asm.fill_adrs();
+        asm.write_hex(code, cons);
+
+        ctx.code_hex = code.toString();
+        ctx.const_hex = cons.toString();
+        if (ctx.debug_map) ctx.map = write_map(asm);
+    }
+
+    //-------------------------------------------------------------------------
+    public static void assemble(CompilationContext ctx) throws MError
+    {
+        Miny18Asm asm = new Miny18Asm();
+        StringWriter code = new StringWriter();
+        StringWriter cons = new StringWriter();
+        StringWriter lst = new StringWriter();
+
+        asm.read_input(new BufferedReader(new StringReader(ctx.asm)));
+        asm.fill_adrs();
+        asm.write_hex(code, cons);
+        asm.write_list(new BufferedReader(new StringReader(ctx.asm)), lst);
+
+        ctx.code_hex = code.toString();
+        ctx.const_hex = cons.toString();
+        ctx.list = lst.toString();
+        if (ctx.debug_map) ctx.map = write_map(asm);
+    }
+
+    //-------------------------------------------------------------------------
+    private static String write_map(Miny18Asm asm) throws MError
+    {
+        StringWriter map = new StringWriter();
+        asm.write_map(map);
+        return map.toString();
+    }
+}
@@ -0,0 +1,223 @@
+//-----------------------------------------------------------------------------
+// Miny18 Compile Server
+//
+// Long running compiler, so a build that compiles many programs pays for
+// JVM startup and JIT warmup only once. Listens on a local socket, one
+// request per connection:
+//
+//   BUILD <name> <dir>   Compile and assemble <dir>/<name>.m, writing
+//                        <name>.asm, <name>.lst, code.hex and const.hex
+//                        to <dir>, the same as Miny18 -a then Miny18Asm.
+//   STOP                 Shut down the server.
+//
+// The reply is the compiler log, then "---- Success ----", or the error
+// message then "---- Failed ----". Source files are kept in a SourceCache
+// and only read again when they change on disk. The front end output of
+// each module stays resident in a ModuleCache, keyed by the hash of its
+// source, so a library module is only parsed, checked and optimized again
+// when it changes. With -c, the ModuleCache is also kept in that directory.
+//
+// History:
+// 1.0.0   10/18/2026   File Created
+// 1.1.0   10/18/2026   Add -c option
+// 1.2.0   10/18/2026   Keep the modules resident, close sockets on errors
+//-----------------------------------------------------------------------------
+// Copyright 2020 Mike Christle
+//
+// Permission is hereby granted, free of charge, to any person obtaining a
+// copy of this software and associated documentation files (the "Software"),
+// to deal in the Software without restriction, including without limitation
+// the rights to use, copy, modify, merge, publish, distribute, sublicense,
+// and/or sell copies of the Software, and to permit persons to whom the
+// Software is furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be
+// included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+// THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+// FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+// DEALINGS IN THE SOFTWARE.
+//-----------------------------------------------------------------------------
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+//-----------------------------------------------------------------------------
+public class Miny18Server
+{
+    public static final int PORT = 1818;
+
+    private SourceCache cache = new SourceCache();
+    private ModuleCache mod_cache;
+    private ServerSocket server;
+    private ExecutorService pool;
+
+    //-------------------------------------------------------------------------
+    public static void main(String []args)
+    {
+        int port = PORT;
+        int threads = Runtime.getRuntime().availableProcessors();
+        String cache_dir = null;
+
+        try
+        {
+            for (int i = 0; i < args.length; i++)
+            {
+                switch (args[i])
+                {
+                    case "-p": port = Integer.parseInt(args[++i]); break;
+                    case "-t": threads = Integer.parseInt(args[++i]); break;
+                    case "-c": cache_dir = args[++i]; break;
+                    default: throw new IllegalArgumentException();
+                }
+            }
+        }
+        catch (RuntimeException e)
+        {
+            System.out.println("Usage: java Miny18Server [Options]");
+            System.out.println("   -p N  Port, default " + PORT);
+            System.out.println("   -t N  Threads, default one per core");
+            System.out.println("   -c D  Also keep the module cache in directory D");
+            System.exit(-1);
+        }
+
+        try
+        {
+            Miny18Server server = new Miny18Server();
+            server.mod_cache = new ModuleCache(
+                (cache_dir == null) ? null : new File(cache_dir), true);
+            server.run(port, threads);
+        }
+        catch (IOException e)
+        {
+            System.out.println("Server error: " + e.getMessage());
+            System.exit(-2);
+        }
+    }
+
+    //-------------------------------------------------------------------------
+    public void run(int port, int threads) throws IOException
+    {
+        pool = Executors.newFixedThreadPool(threads);
+
+        try (ServerSocket ss = new ServerSocket(port, 50,
+                                  InetAddress.getLoopbackAddress()))
+        {
+            server = ss;
+            System.out.println("Miny18 Server on port " + port);
+
+            while (server.isClosed() == false)
+            {
+                Socket socket;
+                try
+                {
+                    socket = server.accept();
+                }
+                catch (IOException e)
+                {
+                    if (server.isClosed()) break;
+                    throw e;
+                }
+
+                pool.execute(() -> serve(socket));
+            }
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+
+        System.out.println("Miny18 Server stopped");
+    }
+
+    //-------------------------------------------------------------------------
+    private void serve(Socket socket)
+    {
+        try (Socket s = socket;
+             BufferedReader ifp = new BufferedReader(
+                 new InputStreamReader(s.getInputStream()));
+             PrintStream ofp = new PrintStream(s.getOutputStream()))
+        {
+
+            String line = ifp.readLine();
+            String[] parts = (line == null) ? new String[0] :
+                line.trim().split(" ", 3);
+
+            if (parts.length == 1 && parts[0].equals("STOP"))
+            {
+                ofp.println("---- Success ----");
+                server.close();
+            }
+            else if (parts.length == 3 && parts[0].equals("BUILD"))
+            {
+                build(parts[1], new File(parts[2]), ofp);
+            }
+            else
+            {
+                ofp.println("Invalid request: " + line);
+                ofp.println("---- Failed ----");
+            }
+
+            ofp.flush();
+        }
+        catch (IOException e)
+        {
+            // Client went away, nothing to report to
+        }
+    }
+
+    //-------------------------------------------------------------------------
+    private void build(String name, File dir, PrintStream ofp)
+    {
+        CompilationContext ctx = new CompilationContext(name);
+        ctx.dir = dir;
+        ctx.cache = cache;
+        ctx.mod_cache = mod_cache;
+        ctx.log = ofp;
+
+        try
+        {
+            Miny18Compiler.build(ctx);
+
+            write_file(new File(dir, name + ".asm"), ctx.asm);
+            write_file(new File(dir, name + ".lst"), ctx.list);
+            write_file(new File(dir, "code.hex"), ctx.code_hex);
+            if (ctx.const_hex.length() > 0)
+                write_file(new File(dir, "const.hex"), ctx.const_hex);
+
+            ofp.println("---- Success ----");
+        }
+        catch (MError e)
+        {
+            ofp.println(ctx.error_message(e));
+            ofp.println("---- Failed ----");
+        }
+        catch (IOException e)
+        {
+            ofp.println("Error writing output files in " + dir);
+            ofp.println("---- Failed ----");
+        }
+        catch (RuntimeException e)
+        {
+            ofp.println("Internal compiler error: " + e);
+            ofp.println("---- Failed ----");
+        }
+    }
+
+    //-------------------------------------------------------------------------
+    private static void write_file(File file, String text) throws IOException
+    {
+        try (FileWriter ofp = new FileWriter(file))
+        {
+            ofp.write(text);
+        }
+    }
+}
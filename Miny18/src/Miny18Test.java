@@ -0,0 +1,410 @@
+//-----------------------------------------------------------------------------
+// Miny18 Regression Runner
+//
+// Compiles each test program in memory, runs it on its own Proc18Sim, and
+// checks the lines that Util.checki, Util.checkb and Util.results write to
+// the UART. The programs run as tasks on a work-stealing ForkJoinPool, so
+// a full regression uses every core.
+//
+// A test is a module in the test directory with a main that runs a group
+// of checks, like TestBool. It is run by a main module made here:
+//
+//     module RunTestBool
+//     {
+//         func main()
+//         {
+//             Util.init()
+//             TestBool.main()
+//             Util.results()
+//             loop halt
+//         }
+//     }
+//
+// A module that calls Util.results itself, like TestAll, is run as is.
+// With no names, every Test*.m in the directory is run, except TestAll,
+// which only runs the others again.
+//
+// Each check line, "tn P value" or "tn F value", is a test case. The last
+// line gives the test and fail counts. A program is in error if it does
+// not compile, does not halt within the cycle limit, or its counts do not
+// agree with its check lines.
+//
+// A test may also give sizes in its header, with lines like these:
+//
+//     # Const size: 10
+//     # Global size: 4
+//
+// The first is the words of constant arrays, the second the RAM words,
+// registers and bits given to module symbols. When the test is run by its
+// own main module, each size given must match, so a symbol that is never
+// used is known to take no space.
+//
+// The report is in the JUnit XML format, one testsuite per program, for
+// the CI tools that read it.
+//
+// History:
+// 1.0.0   10/18/2026   File Created
+// 1.1.0   10/18/2026   Check the sizes a test gives
+//-----------------------------------------------------------------------------
+// Copyright 2020 Mike Christle
+//
+// Permission is hereby granted, free of charge, to any person obtaining a
+// copy of this software and associated documentation files (the "Software"),
+// to deal in the Software without restriction, including without limitation
+// the rights to use, copy, modify, merge, publish, distribute, sublicense,
+// and/or sell copies of the Software, and to permit persons to whom the
+// Software is furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be
+// included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+// THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+// FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+// DEALINGS IN THE SOFTWARE.
+//-----------------------------------------------------------------------------
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+//-----------------------------------------------------------------------------
+public class Miny18Test
+{
+    private static final PrintStream null_out =
+        new PrintStream(OutputStream.nullOutputStream());
+
+    //-------------------------------------------------------------------------
+    // What one test program did.
+    //-------------------------------------------------------------------------
+    private static class Result
+    {
+        public String name;
+        public ArrayList<String[]> checks = new ArrayList<>();
+        public int failures;
+        public String error;        // Null if it compiled, ran and agreed
+        public long cycles;
+        public double secs;
+
+        public Result(String _name)
+        {
+            name = _name;
+        }
+    }
+
+    private File dir;
+    private SourceCache cache = new SourceCache();
+    private long max_cycles;
+
+    //-------------------------------------------------------------------------
+    public static void main(String []args)
+    {
+        File dir = new File(".");
+        String report = "TEST-Miny18.xml";
+        long max_cycles = 1000000000L;
+        int threads = Runtime.getRuntime().availableProcessors();
+        LinkedList<String> names = new LinkedList<>();
+        boolean usage = false;
+
+        try
+        {
+            for (int i = 0; i < args.length; i++)
+            {
+                switch (args[i])
+                {
+                    case "-d": dir = new File(args[++i]); break;
+                    case "-o": report = args[++i]; break;
+                    case "-m": max_cycles = Long.parseLong(args[++i]); break;
+                    case "-j": threads = Integer.parseInt(args[++i]); break;
+                    default:
+                        if (args[i].startsWith("-")) usage = true;
+                        else names.add(args[i]);
+                        break;
+                }
+            }
+        }
+        catch (NumberFormatException | ArrayIndexOutOfBoundsException e)
+        {
+            usage = true;
+        }
+
+        if (usage || threads < 1 || dir.isDirectory() == false)
+        {
+            System.out.println("Usage: java Miny18Test [Options] [names]");
+            System.out.println("   -d D  Test directory, default .");
+            System.out.println("   -o F  Report file, TEST-Miny18.xml");
+            System.out.println("   -m N  Stop each test after N cycles");
+            System.out.println("   -j N  Threads, default one per core");
+            System.exit(-1);
+        }
+
+        if (names.isEmpty())
+        {
+            String[] files = dir.list();
+            Arrays.sort(files);
+            for (String file : files)
+                if (file.startsWith("Test") && file.endsWith(".m") &&
+                    file.equals("TestAll.m") == false)
+                    names.add(file.substring(0, file.length() - 2));
+        }
+
+        Miny18Test runner = new Miny18Test(dir, max_cycles);
+
+        long start = System.nanoTime();
+        ArrayList<Result> results = runner.run(names, threads);
+        double secs = (System.nanoTime() - start) / 1e9;
+
+        int tests = 0, failures = 0, errors = 0;
+        for (Result result : results)
+        {
+            System.out.println(String.format(
+                "%-16s %5d tests %5d failed %12d cycles %7.2f s  %s",
+                result.name, result.checks.size(), result.failures,
+                result.cycles, result.secs,
+                result.error == null ? "" : result.error));
+            tests += result.checks.size();
+            failures += result.failures;
+            if (result.error != null) errors++;
+        }
+
+        System.out.println(String.format(
+            "%d tests, %d failed, %d programs in error, %.2f s on %d threads",
+            tests, failures, errors, secs, threads));
+
+        try
+        {
+            Writer ofp = new FileWriter(report);
+            write_report(ofp, results, secs);
+            ofp.close();
+        }
+        catch (IOException e)
+        {
+            System.out.println("Error writing file: " + report);
+            System.exit(-2);
+        }
+
+        if (failures > 0 || errors > 0)
+        {
+            System.out.println("---- Failed ----");
+            System.exit(-2);
+        }
+        System.out.println("---- Success ----");
+    }
+
+    //-------------------------------------------------------------------------
+    public Miny18Test(File _dir, long _max_cycles)
+    {
+        dir = _dir;
+        max_cycles = _max_cycles;
+    }
+
+    //-------------------------------------------------------------------------
+    // Results are in the order of names.
+    //-------------------------------------------------------------------------
+    public ArrayList<Result> run(LinkedList<String> names, int threads)
+    {
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        ArrayList<ForkJoinTask<Result>> tasks = new ArrayList<>();
+        ArrayList<Result> results = new ArrayList<>();
+
+        for (String name : names)
+            tasks.add(pool.submit(() -> run_test(name)));
+        for (ForkJoinTask<Result> task : tasks)
+            results.add(task.join());
+
+        pool.shutdown();
+        return results;
+    }
+
+    //-------------------------------------------------------------------------
+    private Result run_test(String name)
+    {
+        Result result = new Result(name);
+        CompilationContext ctx = new CompilationContext(name);
+        long start = System.nanoTime();
+
+        try
+        {
+            String text = cache.read(new File(dir, name + ".m"));
+            if (text.contains("Util.results") == false)
+            {
+                ctx = new CompilationContext("Run" + name);
+                ctx.sources.put(ctx.name + ".m", driver(ctx.name, name));
+            }
+
+            ctx.dir = dir;
+            ctx.cache = cache;
+            ctx.log = null_out;
+            ctx.listing = false;
+            ctx.parallel = false;
+            Miny18Compiler.build(ctx);
+
+            Proc18Sim sim = new Proc18Sim(ctx.ram_bits, new SimBoard());
+            sim.load_text(ctx.code_hex, ctx.const_hex);
+            sim.run(max_cycles);
+            result.cycles = sim.cycles;
+
+            check(result, sim.board.tx_text.toString());
+            if (sim.stopped == false)
+                result.error = "Did not halt in " + max_cycles + " cycles";
+
+            if (ctx.name.equals(name) == false)
+            {
+                check_size(result, text, "Const", ctx.const_size);
+                check_size(result, text, "Global", ctx.global_size);
+            }
+        }
+        catch (MError e)
+        {
+            result.error = ctx.error_message(e).trim().replace('\n', ' ');
+        }
+        catch (IOException e)
+        {
+            result.error = "File not found: " + name + ".m";
+        }
+        catch (RuntimeException e)
+        {
+            result.error = "Internal error: " + e;
+        }
+
+        result.secs = (System.nanoTime() - start) / 1e9;
+        return result;
+    }
+
+    //-------------------------------------------------------------------------
+    private static String driver(String run_name, String name)
+    {
+        return "module " + run_name + "\n" +
+               "{\n" +
+               "    func main()\n" +
+               "    {\n" +
+               "        Util.init()\n" +
+               "        " + name + ".main()\n" +
+               "        Util.results()\n" +
+               "        loop halt\n" +
+               "    }\n" +
+               "}\n";
+    }
+
+    //-------------------------------------------------------------------------
+    // Check size against a "# <kind> size: N" line, if the test has one.
+    //-------------------------------------------------------------------------
+    private static void check_size(Result result, String text, String kind,
+                                   int size)
+    {
+        String key = "# " + kind + " size:";
+
+        for (String line : text.split("\n"))
+        {
+            if (line.startsWith(key))
+            {
+                int want = Integer.parseInt(line.substring(key.length()).trim());
+                if (size != want && result.error == null)
+                    result.error = String.format(
+                        "%s size is %d, not %d", kind, size, want);
+                return;
+            }
+        }
+    }
+
+    //-------------------------------------------------------------------------
+    // Read the check lines and the counts from the UART text.
+    //-------------------------------------------------------------------------
+    private static void check(Result result, String text)
+    {
+        int tests = -1, fails = -1;
+
+        for (String line : text.split("\n"))
+        {
+            String[] sa = line.trim().split("\\s+");
+            try
+            {
+                if (sa.length == 3 && (sa[1].equals("P") || sa[1].equals("F")))
+                {
+                    Integer.parseInt(sa[0], 16);
+                    result.checks.add(sa);
+                    if (sa[1].equals("F")) result.failures++;
+                }
+                else if (sa.length == 2)
+                {
+                    tests = Integer.parseInt(sa[0], 16);
+                    fails = Integer.parseInt(sa[1], 16);
+                }
+            }
+            catch (NumberFormatException e)
+            {
+                // Not a line from Util
+            }
+        }
+
+        if (tests < 0)
+            result.error = "No results line";
+        else if (tests != result.checks.size() || fails != result.failures)
+            result.error = String.format(
+                "Results say %d tests, %d failed", tests, fails);
+    }
+
+    //-------------------------------------------------------------------------
+    private static void write_report(Writer ofp, ArrayList<Result> results,
+                                     double secs) throws IOException
+    {
+        int tests = 0, failures = 0, errors = 0;
+        for (Result result : results)
+        {
+            tests += result.checks.size() + (result.error == null ? 0 : 1);
+            failures += result.failures;
+            if (result.error != null) errors++;
+        }
+
+        ofp.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        ofp.write(String.format("<testsuites name=\"Miny18\" tests=\"%d\" " +
+            "failures=\"%d\" errors=\"%d\" time=\"%.3f\">\n",
+            tests, failures, errors, secs));
+
+        for (Result result : results)
+        {
+            int count = result.checks.size() + (result.error == null ? 0 : 1);
+            ofp.write(String.format("  <testsuite name=\"%s\" tests=\"%d\" " +
+                "failures=\"%d\" errors=\"%d\" time=\"%.3f\">\n",
+                xml(result.name), count, result.failures,
+                result.error == null ? 0 : 1, result.secs));
+            ofp.write(String.format("    <properties><property " +
+                "name=\"cycles\" value=\"%d\"/></properties>\n",
+                result.cycles));
+
+            for (String[] sa : result.checks)
+            {
+                String head = String.format("    <testcase classname=\"%s\" " +
+                    "name=\"%s\"", xml(result.name), xml(sa[0]));
+                if (sa[1].equals("P"))
+                    ofp.write(head + "/>\n");
+                else
+                    ofp.write(head + ">\n      <failure message=\"" +
+                        "Value " + xml(sa[2]) + "\"/>\n    </testcase>\n");
+            }
+
+            if (result.error != null)
+                ofp.write(String.format("    <testcase classname=\"%s\" " +
+                    "name=\"results\">\n      <error message=\"%s\"/>\n" +
+                    "    </testcase>\n",
+                    xml(result.name), xml(result.error)));
+
+            ofp.write("  </testsuite>\n");
+        }
+
+        ofp.write("</testsuites>\n");
+    }
+
+    //-------------------------------------------------------------------------
+    private static String xml(String str)
+    {
+        return str.replace("&", "&amp;").replace("<", "&lt;")
+                  .replace(">", "&gt;").replace("\"", "&quot;");
+    }
+}
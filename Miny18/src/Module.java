@@ -5,6 +5,10 @@
 // 0.1.0   07/27/2017   File Created
 // 1.0.0   09/01/2020   Initial release
 // 1.1.0   09/13/2020   Add variables to track hardwage config
+// 1.2.0   10/18/2026   Move static state to CompilationContext
+// 1.3.0   10/18/2026   Serializable for the module cache
+// 1.4.0   10/18/2026   Add serialVersionUID
+// 1.5.0   10/18/2026   Add the call counts before inlining
 //-----------------------------------------------------------------------------
 // Copyright 2020 Mike Christle
 //
@@ -27,59 +31,16 @@
 // DEALINGS IN THE SOFTWARE.
 //-----------------------------------------------------------------------------
 
+import java.io.Serializable;
 import java.util.HashMap;
 
 //-----------------------------------------------------------------------------
-public class Module
+public class Module implements Serializable
 {
+    private static final long serialVersionUID = 1L;
+
     public HashMap<String, Func> funcs = new HashMap<String, Func>();
     public HashMap<String, Symbol> symbols = new HashMap<String, Symbol>();
-
-    public static String[] isr_labels = new String[16];
-    public static HashMap<String, Module> modules =
-                     new HashMap<String, Module>();
-
-    public static int rom_bits = 12;
-    public static int ram_bits = 12;
-    public static int con_bits = 12;
-
-    //-------------------------------------------------------------------------
-    public static Symbol find_symbol(Func func, String label) throws MError
-    {
-        int idx = label.indexOf('.');
-        if (idx < 0)
-        {
-            if (func.symbols.containsKey(label))
-                return func.symbols.get(label);
-
-            if (func.mod_syms.containsKey(label))
-                return func.mod_syms.get(label);
-        }
-        else
-        {
-            Module mod = Module.modules.get(label.substring(0, idx));
-            label = label.substring(idx + 1, label.length());
-            if (mod.symbols.containsKey(label))
-                return mod.symbols.get(label);
-        }
-
-        throw new MError("Label not found: " + label);
-    }
-
-    //-------------------------------------------------------------------------
-    public static Func find_func(String func_name)
-    {
-        int idx = func_name.indexOf('.');
-        Module mod = Module.modules.get(func_name.substring(0, idx));
-        return mod.funcs.get(func_name);
-    }
-
-    //-------------------------------------------------------------------------
-    public static void add_isr(int level, String label) throws MError
-    {
-        if (isr_labels[level] != null)
-            throw new MError(String.format("Duplicate ISR level: %d", level));
-
-        isr_labels[level] = label;
-    }
+    public HashMap<String, Integer> calls = new HashMap<String, Integer>();
+    public boolean cached = false;
 }
@@ -0,0 +1,215 @@
+//-----------------------------------------------------------------------------
+// Miny Module Cache
+//
+// On disk cache of each module after the front end, the checked and folded
+// parse tree plus the optimized ICodes, so a build only reprocesses the
+// modules that changed. One file per module, named by the module name and
+// the hash of its source. The entry also records the hash of every module
+// it imports, directly or not, the config bits and the compiler version,
+// and is only used when all of these match the current build.
+// A resident cache also keeps each entry in memory, serialized, so a long
+// running server loads it again without a parse or a disk read. Each load
+// still gets its own copy, as the back end changes the module.
+//
+// History:
+// 1.0.0   10/18/2026   File Created
+// 1.1.0   10/18/2026   New version for the flow graph
+// 1.2.0   10/18/2026   Cached ICodes are from GlobalOpt
+// 1.3.0   10/18/2026   Cached ICodes are from ExprOpt
+// 1.4.0   10/18/2026   Cached ICodes have strength reduction
+// 1.5.0   10/18/2026   Cached ICodes have calls inlined
+// 1.6.0   10/18/2026   Add serialVersionUID, new version
+// 1.7.0   10/18/2026   Cached ICodes reduce divides by negative constants
+// 1.8.0   10/18/2026   Add resident entries
+// 1.9.0   10/18/2026   Cached ICodes only share common expressions in order
+// 1.10.0  10/18/2026   Cached modules have their call counts
+//-----------------------------------------------------------------------------
+// Copyright 2020 Mike Christle
+//
+// Permission is hereby granted, free of charge, to any person obtaining a
+// copy of this software and associated documentation files (the "Software"),
+// to deal in the Software without restriction, including without limitation
+// the rights to use, copy, modify, merge, publish, distribute, sublicense,
+// and/or sell copies of the Software, and to permit persons to whom the
+// Software is furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be
+// included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+// THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+// FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+// DEALINGS IN THE SOFTWARE.
+//-----------------------------------------------------------------------------
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+//-----------------------------------------------------------------------------
+public class ModuleCache
+{
+    // Change this whenever a change to the front end changes its output.
+    public static final String VERSION = "Miny18 1.9";
+
+    //-------------------------------------------------------------------------
+    public static class Entry implements Serializable
+    {
+        private static final long serialVersionUID = 1L;
+
+        public String version = VERSION;
+        public String name;
+        public String hash;
+        public int rom_bits = -1, ram_bits, con_bits;
+        public LinkedList<String> imports = new LinkedList<>();
+        public HashMap<Integer, String> isrs = new HashMap<>();
+
+        // Set when the entry is saved
+        public TreeMap<String, String> deps;
+        public int[] config;
+        public Module module;
+    }
+
+    //-------------------------------------------------------------------------
+    // Gives all the Src objects read from a cache file the file number of
+    // the module in the current build.
+    //-------------------------------------------------------------------------
+    private static class Input extends ObjectInputStream
+    {
+        private int file_idx;
+
+        public Input(InputStream in, int _file_idx) throws IOException
+        {
+            super(in);
+            file_idx = _file_idx;
+            enableResolveObject(true);
+        }
+
+        protected Object resolveObject(Object obj)
+        {
+            if (obj instanceof Src) ((Src)obj).file = file_idx;
+            return obj;
+        }
+    }
+
+    private File dir;
+    private ConcurrentHashMap<String, byte[]> resident = null;
+
+    //-------------------------------------------------------------------------
+    public ModuleCache(File _dir)
+    {
+        this(_dir, false);
+    }
+
+    //-------------------------------------------------------------------------
+    // With _resident, entries are kept in memory too. The dir may then be
+    // null, to keep them only in memory.
+    //-------------------------------------------------------------------------
+    public ModuleCache(File _dir, boolean _resident)
+    {
+        dir = _dir;
+        if (dir != null) dir.mkdirs();
+        if (_resident) resident = new ConcurrentHashMap<>();
+    }
+
+    //-------------------------------------------------------------------------
+    // Returns null if there is no entry for this source, or it can't be
+    // read. The caller must still check the deps and config.
+    //-------------------------------------------------------------------------
+    public Entry load(String name, String hash, int file_idx)
+    {
+        String key = name + "." + hash + ".mc";
+        byte[] bytes = (resident == null) ? null : resident.get(key);
+
+        try
+        {
+            if (bytes == null)
+            {
+                if (dir == null) return null;
+                File file = new File(dir, key);
+                if (file.isFile() == false) return null;
+                bytes = Files.readAllBytes(file.toPath());
+                if (resident != null) resident.put(key, bytes);
+            }
+        }
+        catch (IOException e)
+        {
+            return null;
+        }
+
+        try (Input ifp = new Input(new ByteArrayInputStream(bytes), file_idx))
+        {
+            Entry entry = (Entry)ifp.readObject();
+            if (VERSION.equals(entry.version) == false ||
+                entry.module == null) return null;
+            entry.module.cached = true;
+            return entry;
+        }
+        catch (IOException | ClassNotFoundException | ClassCastException e)
+        {
+            return null;
+        }
+    }
+
+    //-------------------------------------------------------------------------
+    // Written to a temp file and renamed, so a reader never sees a
+    // partial entry.
+    //-------------------------------------------------------------------------
+    public void save(Entry entry) throws MError
+    {
+        String key = entry.name + "." + entry.hash + ".mc";
+        File file = new File(dir, key);
+        File temp = null;
+
+        try
+        {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (ObjectOutputStream ofp = new ObjectOutputStream(bytes))
+            {
+                ofp.writeObject(entry);
+            }
+            if (resident != null) resident.put(key, bytes.toByteArray());
+            if (dir == null) return;
+
+            temp = File.createTempFile(entry.name + ".mc.", ".tmp", dir);
+            Files.write(temp.toPath(), bytes.toByteArray());
+            Files.move(temp.toPath(), file.toPath(),
+                       StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (IOException e)
+        {
+            if (temp != null) temp.delete();
+            throw new MError("Error writing module cache: " + file);
+        }
+    }
+
+    //-------------------------------------------------------------------------
+    public static String hash(String text)
+    {
+        try
+        {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            byte[] digest = md.digest(text.getBytes(StandardCharsets.UTF_8));
+
+            StringBuilder str = new StringBuilder();
+            for (int i = 0; i < 16; i++)
+                str.append(String.format("%02x", digest[i]));
+            return str.toString();
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -5,6 +5,8 @@
 // 0.1.0   07/27/2017   File Created
 // 1.0.0   09/01/2020   Initial release
 // 1.1.0   09/16/2020   Add NOP statement
+// 1.2.0   10/18/2026   Serializable for the module cache
+// 1.3.0   10/18/2026   Add serialVersionUID
 //-----------------------------------------------------------------------------
 // Copyright 2020 Mike Christle
 //
@@ -27,6 +29,8 @@
 // DEALINGS IN THE SOFTWARE.
 //-----------------------------------------------------------------------------
 
+import java.io.Serializable;
+
 //-----------------------------------------------------------------------------
 enum NodeId
 {
@@ -62,8 +66,10 @@ enum NodeId
 }
 
 //-----------------------------------------------------------------------------
-public class Node
+public class Node implements Serializable
 {
+    private static final long serialVersionUID = 1L;
+
     public NodeId id;
     public Src src;
     public TypeId type;
@@ -6,6 +6,9 @@
 // 1.0.0   09/01/2020   Initial release
 // 1.1.0   09/13/2020   Add hardware config statement
 // 1.2.0   09/16/2020   Add nop statement
+// 1.3.0   10/18/2026   Move static state to CompilationContext
+// 1.4.0   10/18/2026   Parse imported files in parallel
+// 1.5.0   10/18/2026   Load and check module cache entries
 //-----------------------------------------------------------------------------
 // Copyright 2020 Mike Christle
 //
@@ -28,8 +31,12 @@
 // DEALINGS IN THE SOFTWARE.
 //-----------------------------------------------------------------------------
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.Objects;
+import java.util.TreeMap;
 
 //-----------------------------------------------------------------------------
 public class Parser
@@ -38,38 +45,197 @@ public class Parser
     private Module module;
     private String module_name;
     private Func func;
-    private LinkedList<String> files_to_read = new LinkedList<>();
+    private LinkedList<String> imports = new LinkedList<>();
+    private int file_idx;
+    private int rom_bits = -1, ram_bits, con_bits;
+    private String text, hash;
+    private ModuleCache.Entry entry;
+    private CompilationContext ctx;
 
     //-------------------------------------------------------------------------
-    public Parser(Scanner _scanner, String module_name)
+    public Parser(CompilationContext _ctx)
     {
-        scanner = _scanner;
-        files_to_read.add(module_name);
+        ctx = _ctx;
     }
 
     //-------------------------------------------------------------------------
-    // Start -> ConfigStmt | ModuleDecl* ;
+    private Parser(CompilationContext _ctx, String _module_name, int _file_idx)
+    {
+        ctx = _ctx;
+        module_name = _module_name;
+        file_idx = _file_idx;
+        scanner = new Scanner(ctx);
+    }
+
+    //-------------------------------------------------------------------------
+    // Files are parsed in waves, the main file, then the modules it
+    // imports, then the modules they import, and so on. The files in a
+    // wave are parsed in parallel, each by its own Parser. Results are
+    // merged in file order, so file numbers and modules are the same as
+    // reading the files one at a time.
     //-------------------------------------------------------------------------
     public void start() throws MError
     {
-        while (files_to_read.size() > 0)
+        ArrayList<Parser> files = new ArrayList<>();
+        ArrayList<String> wave = new ArrayList<>();
+        wave.add(ctx.name);
+
+        while (wave.size() > 0)
         {
-            module_name = files_to_read.poll();
-            scanner.open(module_name + ".m");
+            ArrayList<Parser> parsers = new ArrayList<>();
+            for (String name : wave)
+            {
+                String file_name = name + ".m";
+                if (ctx.file_names.contains(file_name)) continue;
+                ctx.file_names.add(file_name);
+                ctx.log.println("Openning " + file_name);
+                parsers.add(new Parser(ctx, name, ctx.file_names.size() - 1));
+            }
 
-            while (true)
+            ctx.for_each(parsers, parser -> parser.read_file());
+
+            wave.clear();
+            for (Parser parser : parsers)
             {
-                Token tk = scanner.token();
-                if      (tk.id == TokenId.EOF) break;
-                else if (tk.id == TokenId.CONFIG) ConfigStmt();
-                else if (tk.id == TokenId.MODULE)
+                if (parser.rom_bits >= 0)
                 {
-                    ModuleDecl();
-                    Module.modules.put(module_name, module);
+                    ctx.rom_bits = parser.rom_bits;
+                    ctx.ram_bits = parser.ram_bits;
+                    ctx.con_bits = parser.con_bits;
                 }
-                else
-                    throw new MError("Invalid statement", tk.src);
+
+                wave.addAll(parser.imports);
+            }
+            files.addAll(parsers);
+        }
+
+        if (ctx.mod_cache != null) check_cache(files);
+
+        for (Parser parser : files)
+        {
+            if (parser.module != null)
+                ctx.modules.put(parser.module_name, parser.module);
+        }
+    }
+
+    //-------------------------------------------------------------------------
+    // Parse the file, or with a module cache, take the module from the
+    // cache if there is an entry for this source text.
+    //-------------------------------------------------------------------------
+    private void read_file() throws MError
+    {
+        if (ctx.mod_cache == null)
+        {
+            scanner.open(module_name + ".m", file_idx);
+            parse_file();
+            return;
+        }
+
+        text = scanner.read(module_name + ".m");
+        hash = ModuleCache.hash(text);
+        entry = ctx.mod_cache.load(module_name, hash, file_idx);
+
+        if (entry != null)
+        {
+            imports = entry.imports;
+            rom_bits = entry.rom_bits;
+            ram_bits = entry.ram_bits;
+            con_bits = entry.con_bits;
+        }
+        else
+        {
+            scanner.open_text(text, file_idx);
+            parse_file();
+        }
+    }
+
+    //-------------------------------------------------------------------------
+    // A cache entry is only used if every module it imports, directly or
+    // not, is unchanged, and the config is the same. Files without a usable
+    // entry are parsed, and added to mod_entries to be saved to the cache
+    // after the front end.
+    //-------------------------------------------------------------------------
+    private void check_cache(ArrayList<Parser> files) throws MError
+    {
+        HashMap<String, Parser> by_name = new HashMap<>();
+        for (Parser parser : files)
+            by_name.put(parser.module_name, parser);
+
+        int[] config = {ctx.rom_bits, ctx.ram_bits, ctx.con_bits};
+        ArrayList<Parser> stale = new ArrayList<>();
+
+        for (Parser parser : files)
+        {
+            TreeMap<String, String> deps = parser.deps(by_name);
+
+            if (parser.entry != null &&
+                deps.equals(parser.entry.deps) &&
+                Arrays.equals(config, parser.entry.config))
+            {
+                parser.module = parser.entry.module;
+                if (ctx.debug)
+                    ctx.log.println("Cached " + parser.module_name + ".m");
+                for (Integer level : parser.entry.isrs.keySet())
+                    ctx.add_isr(level, parser.entry.isrs.get(level));
+                continue;
             }
+
+            if (parser.entry != null) stale.add(parser);
+
+            parser.entry = new ModuleCache.Entry();
+            parser.entry.name = parser.module_name;
+            parser.entry.hash = parser.hash;
+            parser.entry.rom_bits = parser.rom_bits;
+            parser.entry.ram_bits = parser.ram_bits;
+            parser.entry.con_bits = parser.con_bits;
+            parser.entry.imports = parser.imports;
+            parser.entry.deps = deps;
+            parser.entry.config = config;
+            ctx.mod_entries.add(parser.entry);
+        }
+
+        ctx.for_each(stale, parser ->
+        {
+            parser.scanner.open_text(parser.text, parser.file_idx);
+            parser.parse_file();
+        });
+    }
+
+    //-------------------------------------------------------------------------
+    // The name and source hash of every module this one imports, directly
+    // or not.
+    //-------------------------------------------------------------------------
+    private TreeMap<String, String> deps(HashMap<String, Parser> files)
+    {
+        TreeMap<String, String> deps = new TreeMap<>();
+        LinkedList<String> todo = new LinkedList<>(imports);
+
+        while (todo.size() > 0)
+        {
+            String name = todo.poll();
+            if (name.equals(module_name) || deps.containsKey(name)) continue;
+
+            Parser parser = files.get(name);
+            deps.put(name, parser.hash);
+            todo.addAll(parser.imports);
+        }
+
+        return deps;
+    }
+
+    //-------------------------------------------------------------------------
+    // Start -> ConfigStmt | ModuleDecl* ;
+    //-------------------------------------------------------------------------
+    private void parse_file() throws MError
+    {
+        while (true)
+        {
+            Token tk = scanner.token();
+            if      (tk.id == TokenId.EOF) break;
+            else if (tk.id == TokenId.CONFIG) ConfigStmt();
+            else if (tk.id == TokenId.MODULE) ModuleDecl();
+            else
+                throw new MError("Invalid statement", tk.src);
         }
     }
 
@@ -86,9 +252,9 @@ public class Parser
         Token tk3 = scanner.token();
         scanner.expect(TokenId.ICON);
 
-        int rom_bits = (int)(tk1.value);
-        int ram_bits = (int)(tk2.value);
-        int con_bits = (int)(tk3.value);
+        rom_bits = (int)(tk1.value);
+        ram_bits = (int)(tk2.value);
+        con_bits = (int)(tk3.value);
 
         if (rom_bits < 1 || rom_bits > 12)
             throw new MError("ROM size error", tk1.src);
@@ -98,10 +264,6 @@ public class Parser
 
         if (con_bits < 0 || con_bits > 18)
             throw new MError("Constants size error", tk3.src);
-
-        Module.rom_bits = rom_bits;
-        Module.ram_bits = ram_bits;
-        Module.con_bits = con_bits;
     }
 
     //-------------------------------------------------------------------------
@@ -122,6 +284,8 @@ public class Parser
                                  tk.src);
             
             Func init = new Func(module_label, tk.src);
+            init.mod_syms = module.symbols;
+            init.mod_name = module_label;
 
             scanner.expect(TokenId.BRACEL);
             while (scanner.token().id != TokenId.BRACER)
@@ -182,6 +346,7 @@ public class Parser
         String func_label = module_name + '.' + (String)tk.value;
         func = new Func(func_label, tk.src);
         func.mod_syms = module.symbols;
+        func.mod_name = module_name;
 
         scanner.expect(TokenId.PARENL);
         while (true)
@@ -230,7 +395,7 @@ public class Parser
             tk = scanner.token();
             scanner.expect(TokenId.ICON);
             func.isr = true;
-            Module.add_isr((int)tk.value, func_label);
+            ctx.add_isr((int)tk.value, func_label);
         }
 
         scanner.expect(TokenId.BRACEL);
@@ -904,11 +1069,8 @@ public class Parser
         Token tk = scanner.token();
         if (tk.id == TokenId.PERIOD)
         {
-            if (files_to_read.contains(label) == false &&
-                scanner.file_names.contains(label + ".m") == false)
-            {
-                files_to_read.add(label);
-            }
+            if (imports.contains(label) == false)
+                imports.add(label);
 
             scanner.next(); // '.'
             tk = scanner.token();
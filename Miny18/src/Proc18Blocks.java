@@ -0,0 +1,701 @@
+//-----------------------------------------------------------------------------
+// Proc18 Simulator, Block Translator
+//
+// A faster tier for Proc18Sim. Once a basic block of the code ROM has run
+// HOT_COUNT times, it is translated to a JVM class with one method. The
+// method calls a helper below for each instruction, with the registers
+// and immediate as constants, so the JIT compiles the block into one piece
+// of host code. Blocks are linked to the blocks that follow them, so a
+// loop runs from block to block without a lookup.
+//
+// A block ends after a jump, call or return, or before an instruction
+// left to the interpreter: HALT, PAUSE, RTI, LEVEL, RESET, IN and OUT.
+// Those change the level or talk to the board, so the interrupt vector is
+// checked again after them. Code at the reset and interrupt vectors, and
+// the interrupt entry itself, are also interpreted.
+//
+// Between those instructions, the vector can only change when the board's
+// timer expires. A block only runs if its last instruction starts before
+// that cycle and the cycle limit, otherwise the interpreter takes the next
+// step. The cycles are added before each instruction that reads them, so
+// the board sees the same cycle as with the interpreter.
+//
+// A wait loop, a Bxx and a Jxx back to it, runs as a block and then lets
+// Proc18Sim.skip_wait count the passes that would change nothing.
+//
+// The code ROM is only written by load, which drops the blocks. Code does
+// not run from RAM, so a store can not change a block.
+//
+// The class files have no branches, so they need no stack map frames.
+//
+// History:
+// 1.0.0   10/18/2026   File Created
+// 1.1.0   10/18/2026   Skip the passes of wait loops
+//-----------------------------------------------------------------------------
+// Copyright 2020 Mike Christle
+//
+// Permission is hereby granted, free of charge, to any person obtaining a
+// copy of this software and associated documentation files (the "Software"),
+// to deal in the Software without restriction, including without limitation
+// the rights to use, copy, modify, merge, publish, distribute, sublicense,
+// and/or sell copies of the Software, and to permit persons to whom the
+// Software is furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be
+// included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+// THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+// FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+// DEALINGS IN THE SOFTWARE.
+//-----------------------------------------------------------------------------
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+
+//-----------------------------------------------------------------------------
+public class Proc18Blocks
+{
+    private static final int MAX_INSTS = 64;    // Per block
+    private static final int HOT_COUNT = 16;    // Runs before translation
+    private static final int VECTORS = 16;      // Interpreted
+
+    private static final String SIM = "LProc18Sim;";
+
+    //-------------------------------------------------------------------------
+    // Superclass of the translated blocks.
+    //-------------------------------------------------------------------------
+    public static abstract class Code
+    {
+        public abstract void run(Proc18Sim sim);
+    }
+
+    //-------------------------------------------------------------------------
+    private static class Block
+    {
+        public Code code;
+        public int span;            // Cycles before the last instruction
+        public int next_pc;         // PC after the block, if it falls through
+        public int taken_pc = -1;   // Target of a Jxx or CALL
+        public Block fall, taken;   // Linked when first followed
+        public boolean wait;        // Two insts that jump back to the first
+    }
+
+    // Marks an address whose instruction is interpreted
+    private static final Block SLOW = new Block();
+
+    //-------------------------------------------------------------------------
+    private static class Loader extends ClassLoader
+    {
+        public Loader()
+        {
+            super(Proc18Blocks.class.getClassLoader());
+        }
+
+        public Class<?> define(String name, byte[] bytes)
+        {
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+
+    private Block[] blocks = new Block[0];
+    private int[] hits = new int[0];
+    private Loader loader;
+    private Proc18Sim sim;
+
+    public int translated;          // Blocks made
+
+    //-------------------------------------------------------------------------
+    public Proc18Blocks(Proc18Sim _sim)
+    {
+        sim = _sim;
+    }
+
+    //-------------------------------------------------------------------------
+    // Call when the code ROM changes.
+    //-------------------------------------------------------------------------
+    public void invalidate()
+    {
+        blocks = new Block[sim.rom.length];
+        hits = new int[sim.rom.length];
+        loader = new Loader();
+        translated = 0;
+    }
+
+    //-------------------------------------------------------------------------
+    public void run(long max_cycles) throws MError
+    {
+        if (blocks.length != sim.rom.length) invalidate();
+
+        while (!sim.stopped && sim.cycles < max_cycles)
+        {
+            Block block = null;
+            if (sim.halted == false &&
+                sim.board.vector(sim.cycles) <= sim.level)
+                block = find(sim.pc);
+
+            long limit = Math.min(max_cycles,
+                                  sim.board.vector_stable_until(sim.cycles));
+
+            if (block == null || sim.cycles + block.span >= limit)
+            {
+                sim.step();
+                continue;
+            }
+
+            do
+            {
+                block.code.run(sim);
+                if (block.wait && sim.pc == block.taken_pc) sim.skip_wait();
+                block = next(block);
+            }
+            while (block != null && sim.cycles + block.span < limit);
+        }
+    }
+
+    //-------------------------------------------------------------------------
+    // The block at the new PC, linked to the one just run.
+    //-------------------------------------------------------------------------
+    private Block next(Block block)
+    {
+        int pc = sim.pc;
+
+        if (pc == block.taken_pc)
+        {
+            if (block.taken == null) block.taken = find(pc);
+            return block.taken;
+        }
+        if (pc == block.next_pc)
+        {
+            if (block.fall == null) block.fall = find(pc);
+            return block.fall;
+        }
+        return find(pc);
+    }
+
+    //-------------------------------------------------------------------------
+    // The block at pc, or null if it is not hot yet or its first
+    // instruction is interpreted.
+    //-------------------------------------------------------------------------
+    private Block find(int pc)
+    {
+        if (pc < VECTORS || pc >= blocks.length) return null;
+
+        Block block = blocks[pc];
+        if (block == null)
+        {
+            if (++hits[pc] < HOT_COUNT) return null;
+            block = translate(pc);
+            blocks[pc] = block;
+        }
+        return block == SLOW ? null : block;
+    }
+
+    //-------------------------------------------------------------------------
+    private Block translate(int start)
+    {
+        Block block = new Block();
+        ClassGen gen = new ClassGen();
+        int count = 0;
+        int pc = start;
+        int last = 0;
+        boolean jumps = false;
+
+        while (count < MAX_INSTS && pc >= VECTORS && pc < sim.rom.length)
+        {
+            int inst = sim.rom[pc];
+            if (slow(inst, pc)) break;
+
+            jumps = decode(gen, inst, pc, block);
+            last = cycles(inst);
+            gen.cycles += last;
+            block.span += last;
+            count++;
+
+            pc += is_ldi(inst) ? 2 : 1;
+            if (jumps) break;
+        }
+
+        if (count == 0) return SLOW;
+
+        block.span -= last;
+        block.next_pc = pc & 07777;
+        block.wait = count == 2 && block.taken_pc == start;
+        if (jumps == false) gen.call("to", "I", block.next_pc);
+        gen.end(count);
+
+        try
+        {
+            String name = String.format("Proc18Block%04o", start);
+            Class<?> cls = loader.define(name, gen.bytes(name));
+            block.code = (Code)cls.getDeclaredConstructor().newInstance();
+        }
+        catch (ReflectiveOperationException | IOException e)
+        {
+            return SLOW;
+        }
+
+        translated++;
+        return block;
+    }
+
+    //-------------------------------------------------------------------------
+    // Instructions left to the interpreter.
+    //-------------------------------------------------------------------------
+    private boolean slow(int inst, int pc)
+    {
+        if ((inst >> 15) != 0) return false;
+
+        switch ((inst >> 12) & 7)
+        {
+            case 0:
+                switch ((inst >> 6) & 077)
+                {
+                    case 0:  return false;  // NOP
+                    case 3:  return false;  // RTS
+                    case 7:  return pc + 1 >= sim.rom.length;  // LDI
+                    default: return true;
+                }
+
+            case 6:  // IN
+            case 7:  // OUT
+                return true;
+
+            default:
+                return false;
+        }
+    }
+
+    //-------------------------------------------------------------------------
+    private static boolean is_ldi(int inst)
+    {
+        return (inst >> 12) == 0 && ((inst >> 6) & 077) == 7;
+    }
+
+    //-------------------------------------------------------------------------
+    // Cycles of an instruction, as Proc18Sim.step counts them.
+    //-------------------------------------------------------------------------
+    private static int cycles(int inst)
+    {
+        switch (inst >> 15)
+        {
+            case 0:
+                switch ((inst >> 12) & 7)
+                {
+                    case 0:
+                        switch ((inst >> 6) & 077)
+                        {
+                            case 3:  return 3;  // RTS
+                            case 7:  return 2;  // LDI
+                            default: return 1;  // NOP
+                        }
+                    case 2:  return 2;  // LDR
+                    case 4:  return 2;  // LDC
+                    default: return 1;
+                }
+
+            case 2:  return 2;  // Jxx
+            default: return 1;
+        }
+    }
+
+    //-------------------------------------------------------------------------
+    // Add the calls for one instruction. Returns true if it sets the PC.
+    //-------------------------------------------------------------------------
+    private boolean decode(ClassGen gen, int inst, int pc, Block block)
+    {
+        int d = inst & 077;
+        int s = (inst >> 6) & 077;
+        int adrs = inst & 07777;
+        int next = (pc + 1) & 07777;
+        int op = (inst >> 12) & 7;
+
+        switch (inst >> 15)
+        {
+            case 0:
+                switch (op)
+                {
+                    case 0:
+                        if (s == 3)         // RTS
+                        {
+                            gen.call("rts", "");
+                            return true;
+                        }
+                        if (s == 7)         // LDI
+                            gen.call("ldi", "II", d,
+                                     sim.rom[pc + 1] & Proc18Sim.MASK);
+                        break;              // NOP
+
+                    case 1: // CALL
+                        gen.call("call", "II", next, adrs);
+                        block.taken_pc = adrs;
+                        return true;
+
+                    case 2: gen.call("ldr", "II", d, s); break;
+                    case 3: gen.call("str", "II", d, s); break;
+                    case 4: gen.call("ldc", "II", d, s); break;
+
+                    case 5: // TIMER
+                        gen.tick();
+                        gen.call("timer", "I", adrs);
+                        break;
+                }
+                break;
+
+            case 1: // Sxx
+                gen.call("sxx", "II", op, d);
+                break;
+
+            case 2: // Jxx
+                gen.call("jxx", "III", op, adrs, next);
+                block.taken_pc = adrs;
+                return true;
+
+            case 3: // Bxx
+                gen.tick();
+                gen.call("bxx", "III", op, s, d);
+                break;
+
+            case 4: // ALU D, S
+            case 5:
+                gen.call("alu", "III", (inst >> 12) & 017, d, s);
+                break;
+
+            default: // ALU D, #N
+                gen.call("alui", "III", (inst >> 12) & 017, d, s);
+                break;
+        }
+        return false;
+    }
+
+    //-------------------------------------------------------------------------
+    // Helpers called by the translated blocks. Each does what
+    // Proc18Sim.step does for the instruction, except for the PC and the
+    // counts.
+    //-------------------------------------------------------------------------
+    public static void tick(Proc18Sim m, long cycles)
+    {
+        m.cycles += cycles;
+    }
+
+    public static void end(Proc18Sim m, long cycles, int insts)
+    {
+        m.cycles += cycles;
+        m.insts += insts;
+    }
+
+    public static void to(Proc18Sim m, int pc)
+    {
+        m.pc = pc;
+    }
+
+    public static void rts(Proc18Sim m)
+    {
+        int word = m.ram[m.sp & m.ram_mask];
+        m.sp = (m.sp + 1) & Proc18Sim.MASK;
+        m.pc = word & 07777;
+    }
+
+    public static void ldi(Proc18Sim m, int d, int value)
+    {
+        m.regs[d] = value;
+    }
+
+    public static void call(Proc18Sim m, int next, int adrs)
+    {
+        m.push(next);
+        m.pc = adrs;
+    }
+
+    public static void ldr(Proc18Sim m, int d, int s)
+    {
+        m.alu_flags(2, m.regs[d], m.regs[s]);
+        m.regs[d] = m.ram[m.regs[s] & m.ram_mask];
+    }
+
+    public static void str(Proc18Sim m, int d, int s)
+    {
+        m.ram[m.regs[d] & m.ram_mask] = m.regs[s];
+    }
+
+    public static void ldc(Proc18Sim m, int d, int s)
+    {
+        m.alu_flags(4, m.regs[d], m.regs[s]);
+        if (m.con.length > 0)
+            m.regs[d] = m.con[m.regs[s] & (m.con.length - 1)];
+        else
+            m.regs[d] = 0;
+    }
+
+    public static void timer(Proc18Sim m, int count)
+    {
+        m.timer_zero = m.cycles + 1 + count;
+    }
+
+    public static void sxx(Proc18Sim m, int cond, int d)
+    {
+        m.set_bit(d, m.branch(cond));
+    }
+
+    public static void jxx(Proc18Sim m, int cond, int adrs, int next)
+    {
+        m.pc = m.branch(cond) ? adrs : next;
+    }
+
+    public static void bxx(Proc18Sim m, int op, int s, int d)
+    {
+        m.bit_op(op, s, d);
+    }
+
+    public static void alu(Proc18Sim m, int op, int d, int s)
+    {
+        m.alu_op(op, d, m.regs[s]);
+    }
+
+    public static void alui(Proc18Sim m, int op, int d, int n)
+    {
+        m.ndata = n;
+        m.alu_op(op, d, n);
+    }
+
+    //-------------------------------------------------------------------------
+    // Writes the class file of one block: a subclass of Code whose run
+    // method is a list of calls to the helpers above.
+    //-------------------------------------------------------------------------
+    private static class ClassGen
+    {
+        private ByteArrayOutputStream pool_bytes = new ByteArrayOutputStream();
+        private DataOutputStream pool = new DataOutputStream(pool_bytes);
+        private HashMap<String, Integer> entries = new HashMap<>();
+        private int pool_count = 1;
+
+        private ByteArrayOutputStream code_bytes = new ByteArrayOutputStream();
+        private DataOutputStream code = new DataOutputStream(code_bytes);
+
+        public long cycles;         // Not yet added to the sim
+
+        //---------------------------------------------------------------------
+        // aload_1, the int args, invokestatic Proc18Blocks.name
+        //---------------------------------------------------------------------
+        public void call(String name, String args, int... values)
+        {
+            try
+            {
+                code.writeByte(0x2B);
+                for (int value : values) push_int(value);
+                code.writeByte(0xB8);
+                code.writeShort(method("Proc18Blocks", name,
+                                       "(" + SIM + args + ")V"));
+            }
+            catch (IOException e)
+            {
+                throw new RuntimeException(e);
+            }
+        }
+
+        //---------------------------------------------------------------------
+        // Add the cycles so far, before an instruction that reads them.
+        //---------------------------------------------------------------------
+        public void tick()
+        {
+            if (cycles == 0) return;
+            call_long("tick", "J", cycles, -1);
+            cycles = 0;
+        }
+
+        //---------------------------------------------------------------------
+        public void end(int insts)
+        {
+            call_long("end", "JI", cycles, insts);
+            cycles = 0;
+        }
+
+        //---------------------------------------------------------------------
+        private void call_long(String name, String args, long value, int insts)
+        {
+            try
+            {
+                code.writeByte(0x2B);
+                if (value == 0 || value == 1)
+                    code.writeByte(0x09 + (int)value);  // lconst
+                else
+                {
+                    code.writeByte(0x14);               // ldc2_w
+                    code.writeShort(long_const(value));
+                }
+                if (insts >= 0) push_int(insts);
+                code.writeByte(0xB8);
+                code.writeShort(method("Proc18Blocks", name,
+                                       "(" + SIM + args + ")V"));
+            }
+            catch (IOException e)
+            {
+                throw new RuntimeException(e);
+            }
+        }
+
+        //---------------------------------------------------------------------
+        private void push_int(int value) throws IOException
+        {
+            if (value >= -1 && value <= 5)
+                code.writeByte(0x03 + value);           // iconst
+            else if (value >= -128 && value <= 127)
+            {
+                code.writeByte(0x10);                   // bipush
+                code.writeByte(value);
+            }
+            else if (value >= -32768 && value <= 32767)
+            {
+                code.writeByte(0x11);                   // sipush
+                code.writeShort(value);
+            }
+            else
+            {
+                code.writeByte(0x13);                   // ldc_w
+                code.writeShort(int_const(value));
+            }
+        }
+
+        //---------------------------------------------------------------------
+        public byte[] bytes(String name) throws IOException
+        {
+            code.writeByte(0xB1);                       // return
+
+            int this_class = class_ref(name);
+            int super_class = class_ref("Proc18Blocks$Code");
+            int init = method("Proc18Blocks$Code", "<init>", "()V");
+            int code_name = utf8("Code");
+            int init_name = utf8("<init>");
+            int init_desc = utf8("()V");
+            int run_name = utf8("run");
+            int run_desc = utf8("(" + SIM + ")V");
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(52);                         // Java 8
+            out.writeShort(pool_count);
+            pool.flush();
+            pool_bytes.writeTo(out);
+
+            out.writeShort(0x0031);                     // Public final super
+            out.writeShort(this_class);
+            out.writeShort(super_class);
+            out.writeShort(0);                          // Interfaces
+            out.writeShort(0);                          // Fields
+            out.writeShort(2);                          // Methods
+
+            // aload_0, invokespecial Code.<init>, return
+            byte[] ctor = {0x2A, (byte)0xB7,
+                           (byte)(init >> 8), (byte)init, (byte)0xB1};
+            method_info(out, init_name, init_desc, code_name, 1, 1, ctor);
+
+            code.flush();
+            method_info(out, run_name, run_desc, code_name, 6, 2,
+                        code_bytes.toByteArray());
+
+            out.writeShort(0);                          // Attributes
+            out.flush();
+            return bytes.toByteArray();
+        }
+
+        //---------------------------------------------------------------------
+        private static void method_info(DataOutputStream out, int name,
+            int desc, int code_name, int max_stack, int max_locals,
+            byte[] code) throws IOException
+        {
+            out.writeShort(0x0001);                     // Public
+            out.writeShort(name);
+            out.writeShort(desc);
+            out.writeShort(1);                          // Attributes
+            out.writeShort(code_name);
+            out.writeInt(12 + code.length);
+            out.writeShort(max_stack);
+            out.writeShort(max_locals);
+            out.writeInt(code.length);
+            out.write(code);
+            out.writeShort(0);                          // Exceptions
+            out.writeShort(0);                          // Attributes
+        }
+
+        //---------------------------------------------------------------------
+        // Constant pool entries, each added once.
+        //---------------------------------------------------------------------
+        private int utf8(String str) throws IOException
+        {
+            Integer idx = entries.get("U" + str);
+            if (idx != null) return idx;
+
+            pool.writeByte(1);
+            pool.writeUTF(str);
+            return add("U" + str, 1);
+        }
+
+        private int int_const(int value) throws IOException
+        {
+            Integer idx = entries.get("I" + value);
+            if (idx != null) return idx;
+
+            pool.writeByte(3);
+            pool.writeInt(value);
+            return add("I" + value, 1);
+        }
+
+        private int long_const(long value) throws IOException
+        {
+            Integer idx = entries.get("J" + value);
+            if (idx != null) return idx;
+
+            pool.writeByte(5);
+            pool.writeLong(value);
+            return add("J" + value, 2);
+        }
+
+        private int class_ref(String name) throws IOException
+        {
+            Integer idx = entries.get("C" + name);
+            if (idx != null) return idx;
+
+            int name_idx = utf8(name);
+            pool.writeByte(7);
+            pool.writeShort(name_idx);
+            return add("C" + name, 1);
+        }
+
+        private int method(String owner, String name, String desc)
+            throws IOException
+        {
+            String key = "M" + owner + "." + name + desc;
+            Integer idx = entries.get(key);
+            if (idx != null) return idx;
+
+            int owner_idx = class_ref(owner);
+            int name_idx = utf8(name);
+            int desc_idx = utf8(desc);
+            pool.writeByte(12);                         // NameAndType
+            pool.writeShort(name_idx);
+            pool.writeShort(desc_idx);
+            int nat = add("N" + name + desc, 1);
+
+            pool.writeByte(10);                         // Methodref
+            pool.writeShort(owner_idx);
+            pool.writeShort(nat);
+            return add(key, 1);
+        }
+
+        private int add(String key, int slots)
+        {
+            int idx = pool_count;
+            entries.put(key, idx);
+            pool_count += slots;
+            return idx;
+        }
+    }
+}
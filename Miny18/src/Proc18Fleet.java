@@ -0,0 +1,589 @@
+//-----------------------------------------------------------------------------
+// Proc18 Simulator, Fleet
+//
+// Runs many copies of one program, each on its own SimBoard, for load and
+// protocol tests of a fleet of boards. The state of the copies is kept as
+// a structure of arrays: copy i has its registers at regs[i * 64], its
+// RAM at ram[i << ram_bits], and its PC, bits, flags and counts at index
+// i of those arrays. The code ROM is decoded once, and shared by all.
+//
+// The copies run in lockstep quanta. For each quantum, they are split into
+// shards on a work-stealing ForkJoinPool, and each shard steps its copies
+// to the end of the quantum. Between quanta the hook, if given, can look
+// at the boards and change their inputs, to pass data between copies.
+//
+// Each step is the same as Proc18Sim.step, with the same idle skipping,
+// so a copy gives the same cycles and insts as Proc18Sim would.
+//
+// History:
+// 1.0.0   10/18/2026   File Created
+//-----------------------------------------------------------------------------
+// Copyright 2020 Mike Christle
+//
+// Permission is hereby granted, free of charge, to any person obtaining a
+// copy of this software and associated documentation files (the "Software"),
+// to deal in the Software without restriction, including without limitation
+// the rights to use, copy, modify, merge, publish, distribute, sublicense,
+// and/or sell copies of the Software, and to permit persons to whom the
+// Software is furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be
+// included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+// THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+// FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+// DEALINGS IN THE SOFTWARE.
+//-----------------------------------------------------------------------------
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+//-----------------------------------------------------------------------------
+public class Proc18Fleet
+{
+    private static final int MASK = Proc18Sim.MASK;
+    private static final int SHARDS_PER_THREAD = 4;
+
+    //-------------------------------------------------------------------------
+    // Called on the main thread after each quantum.
+    //-------------------------------------------------------------------------
+    public interface Hook
+    {
+        void at(Proc18Fleet fleet, long cycle);
+    }
+
+    // Decoded code ROM
+    private final int[] rom;
+    private final byte[] dec_op;        // Instruction bits 17-12
+    private final byte[] dec_s;         // Bits 11-6
+    private final byte[] dec_d;         // Bits 5-0
+    private final short[] dec_adrs;     // Bits 11-0
+    private final int[] con;
+
+    // State of each copy
+    public final int count;
+    public final SimBoard[] boards;
+    public final int[] regs;
+    public final int[] ram;
+    public final long[] bits;
+    public final int[] pc, sp, level, ndata;
+    public final boolean[] zflag, fflag;
+    public final boolean[] halted, stopped;
+    public final long[] cycles, insts;
+    public final long[] timer_zero;
+    public final String[] errors;
+
+    private final int ram_bits;
+    private final int ram_mask;
+    private final ForkJoinPool pool;
+    private final int shards;
+
+    //-------------------------------------------------------------------------
+    public static void main(String []args)
+    {
+        int count = 1000;
+        long max_cycles = Long.MAX_VALUE;
+        long quantum = 100000;
+        int ram_bits = 12;
+        int threads = Runtime.getRuntime().availableProcessors();
+        boolean usage = false;
+
+        try
+        {
+            for (int i = 0; i < args.length; i++)
+            {
+                switch (args[i])
+                {
+                    case "-n": count = Integer.parseInt(args[++i]); break;
+                    case "-m": max_cycles = Long.parseLong(args[++i]); break;
+                    case "-s": quantum = Long.parseLong(args[++i]); break;
+                    case "-r": ram_bits = Integer.parseInt(args[++i]); break;
+                    case "-j": threads = Integer.parseInt(args[++i]); break;
+                    default: usage = true; break;
+                }
+            }
+        }
+        catch (NumberFormatException | ArrayIndexOutOfBoundsException e)
+        {
+            usage = true;
+        }
+
+        if (usage || count < 1 || quantum < 1 || threads < 1 ||
+            ram_bits < 1 || ram_bits > 18)
+        {
+            System.out.println("Usage: java Proc18Fleet [Options]");
+            System.out.println("   -n N  Number of boards, default 1000");
+            System.out.println("   -m N  Stop after N cycles");
+            System.out.println("   -s N  Cycles per quantum, default 100000");
+            System.out.println("   -r N  RAM address bits, default 12");
+            System.out.println("   -j N  Threads, default one per core");
+            System.exit(-1);
+        }
+
+        try
+        {
+            int[] rom = Proc18Sim.read_hex("code.hex");
+            int[] con = new int[0];
+            if (new File("const.hex").exists())
+                con = Proc18Sim.read_hex("const.hex");
+
+            Proc18Fleet fleet =
+                new Proc18Fleet(count, ram_bits, rom, con, threads);
+
+            // Each board's RX data starts with its number, low byte first
+            for (int i = 0; i < count; i++)
+            {
+                fleet.boards[i].rx_data.add(i & 0xFF);
+                fleet.boards[i].rx_data.add((i >> 8) & 0xFF);
+            }
+
+            long start = System.nanoTime();
+            fleet.run(max_cycles, quantum, null);
+            double secs = (System.nanoTime() - start) / 1e9;
+
+            fleet.report(secs);
+            System.out.println("---- Success ----\n");
+        }
+        catch (MError e)
+        {
+            System.out.println(e.msg);
+            System.exit(-2);
+        }
+    }
+
+    //-------------------------------------------------------------------------
+    public Proc18Fleet(int _count, int _ram_bits, int[] _rom, int[] _con,
+                       int threads)
+    {
+        count = _count;
+        ram_bits = _ram_bits;
+        ram_mask = (1 << ram_bits) - 1;
+        rom = _rom;
+        con = _con;
+        dec_op = new byte[rom.length];
+        dec_s = new byte[rom.length];
+        dec_d = new byte[rom.length];
+        dec_adrs = new short[rom.length];
+        decode();
+
+        boards = new SimBoard[count];
+        regs = new int[count * 64];
+        ram = new int[count << ram_bits];
+        bits = new long[count];
+        pc = new int[count];
+        sp = new int[count];
+        level = new int[count];
+        ndata = new int[count];
+        zflag = new boolean[count];
+        fflag = new boolean[count];
+        halted = new boolean[count];
+        stopped = new boolean[count];
+        cycles = new long[count];
+        insts = new long[count];
+        timer_zero = new long[count];
+        errors = new String[count];
+
+        for (int i = 0; i < count; i++)
+        {
+            boards[i] = new SimBoard();
+            level[i] = 15;
+            boards[i].reset(0);
+        }
+
+        pool = new ForkJoinPool(threads);
+        shards = Math.min(count, threads * SHARDS_PER_THREAD);
+    }
+
+    //-------------------------------------------------------------------------
+    private void decode()
+    {
+        for (int i = 0; i < rom.length; i++)
+        {
+            dec_op[i] = (byte)(rom[i] >> 12);
+            dec_s[i] = (byte)((rom[i] >> 6) & 077);
+            dec_d[i] = (byte)(rom[i] & 077);
+            dec_adrs[i] = (short)(rom[i] & 07777);
+        }
+    }
+
+    //-------------------------------------------------------------------------
+    // Run until every copy has stopped, or reached max_cycles.
+    //-------------------------------------------------------------------------
+    public void run(long max_cycles, long quantum, Hook hook)
+    {
+        long end = 0;
+
+        while (end < max_cycles && running())
+        {
+            end = (max_cycles - end > quantum) ? end + quantum : max_cycles;
+            run_quantum(end);
+            if (hook != null) hook.at(this, end);
+        }
+    }
+
+    //-------------------------------------------------------------------------
+    private boolean running()
+    {
+        for (int i = 0; i < count; i++)
+            if (stopped[i] == false) return true;
+        return false;
+    }
+
+    //-------------------------------------------------------------------------
+    private void run_quantum(long end)
+    {
+        ArrayList<ForkJoinTask<?>> tasks = new ArrayList<>();
+
+        for (int n = 0; n < shards; n++)
+        {
+            int first = (int)((long)count * n / shards);
+            int last = (int)((long)count * (n + 1) / shards);
+            tasks.add(pool.submit(() ->
+            {
+                for (int i = first; i < last; i++)
+                    run_board(i, end);
+            }));
+        }
+
+        for (ForkJoinTask<?> task : tasks) task.join();
+    }
+
+    //-------------------------------------------------------------------------
+    // Proc18Sim.step, in a loop to the end cycle, for copy i. The scalar
+    // state of the copy is held in locals for the loop, and stored back.
+    //-------------------------------------------------------------------------
+    private void run_board(int i, long end)
+    {
+        if (stopped[i]) return;
+
+        SimBoard board = boards[i];
+        int r = i << 6;
+        int m = i << ram_bits;
+        int p = pc[i], s_p = sp[i], lvl = level[i], nd = ndata[i];
+        boolean z = zflag[i], f = fflag[i], halt = halted[i];
+        boolean stop = false;
+        long b = bits[i], cyc = cycles[i], n = insts[i], tz = timer_zero[i];
+
+        while (cyc < end)
+        {
+            int vector = board.vector(cyc);
+            if (vector > lvl)
+            {
+                nd = lvl;
+                lvl = vector;
+                s_p = (s_p - 1) & MASK;
+                ram[m + (s_p & ram_mask)] = link(p, nd, z, f);
+                p = vector;
+                halt = false;
+                cyc += 2;
+                continue;
+            }
+
+            if (halt)
+            {
+                if (lvl == 15 || board.quiet(cyc))
+                {
+                    stop = true;
+                    cyc++;
+                    break;
+                }
+                cyc = idle_until(board, cyc, Long.MAX_VALUE, end);
+                continue;
+            }
+
+            // Restart, PC zero resets the stack pointer and level
+            if (p == 0)
+            {
+                s_p = 0;
+                lvl = 15;
+            }
+
+            if (p >= rom.length)
+            {
+                errors[i] = String.format("PC out of range: %04o", p);
+                stop = true;
+                break;
+            }
+
+            int op = dec_op[p];
+            int s = dec_s[p];
+            int d = dec_d[p];
+            int next = p + 1;
+            int result;
+            boolean back = false;
+
+            switch (op >> 3)
+            {
+                case 0:
+                    switch (op & 7)
+                    {
+                        case 0:
+                            switch (s)
+                            {
+                                case 1: // HALT
+                                    halt = true;
+                                    break;
+
+                                case 2: // PAUSE
+                                    if (cyc < tz)
+                                    {
+                                        cyc = idle_until(board, cyc, tz, end);
+                                        continue;
+                                    }
+                                    break;
+
+                                case 3: // RTS
+                                case 4: // RTI
+                                    int word = ram[m + (s_p & ram_mask)];
+                                    s_p = (s_p + 1) & MASK;
+                                    next = word;
+                                    if (s == 4)
+                                    {
+                                        lvl = (word >> 12) & 15;
+                                        z = (word & 0200000) != 0;
+                                        f = (word & 0400000) != 0;
+                                    }
+                                    cyc += 2;
+                                    break;
+
+                                case 5: // LEVEL
+                                    lvl = dec_adrs[p] & 15;
+                                    break;
+
+                                case 6: // RESET
+                                    board.reset(cyc);
+                                    break;
+
+                                case 7: // LDI
+                                    regs[r + d] = rom[next & 07777] & MASK;
+                                    next++;
+                                    cyc++;
+                                    break;
+
+                                default: // NOP
+                                    break;
+                            }
+                            cyc++;
+                            break;
+
+                        case 1: // CALL
+                            s_p = (s_p - 1) & MASK;
+                            ram[m + (s_p & ram_mask)] = link(next, nd, z, f);
+                            next = dec_adrs[p];
+                            cyc++;
+                            break;
+
+                        case 2: // LDR
+                            result = Proc18Sim.alu_result(2, regs[r + d],
+                                                          regs[r + s]);
+                            z = result == 0;
+                            f = Proc18Sim.alu_fflag(2, regs[r + d], result);
+                            regs[r + d] = ram[m + (regs[r + s] & ram_mask)];
+                            cyc += 2;
+                            break;
+
+                        case 3: // STR
+                            ram[m + (regs[r + d] & ram_mask)] = regs[r + s];
+                            cyc++;
+                            break;
+
+                        case 4: // LDC
+                            result = Proc18Sim.alu_result(4, regs[r + d],
+                                                          regs[r + s]);
+                            z = result == 0;
+                            f = Proc18Sim.alu_fflag(4, regs[r + d], result);
+                            if (con.length > 0)
+                                regs[r + d] = con[regs[r + s] &
+                                                  (con.length - 1)];
+                            else
+                                regs[r + d] = 0;
+                            cyc += 2;
+                            break;
+
+                        case 5: // TIMER
+                            tz = cyc + 1 + dec_adrs[p];
+                            cyc++;
+                            break;
+
+                        case 6: // IN
+                            nd = s;
+                            result = board.port_in(s, cyc) & MASK;
+                            regs[r + d] = result;
+                            z = result == 0;
+                            f = (result & 0400000) != 0;
+                            cyc++;
+                            break;
+
+                        case 7: // OUT
+                            nd = d;
+                            board.port_out(d, regs[r + s], cyc);
+                            cyc++;
+                            break;
+                    }
+                    break;
+
+                case 1: // Sxx
+                    if (Proc18Sim.branch(op & 7, z, f)) b |= 1L << d;
+                    else                                 b &= ~(1L << d);
+                    cyc++;
+                    break;
+
+                case 2: // Jxx
+                    if (Proc18Sim.branch(op & 7, z, f))
+                    {
+                        back = dec_adrs[p] == p - 1;
+                        next = dec_adrs[p];
+                    }
+                    cyc += 2;
+                    break;
+
+                case 3: // Bxx
+                    long bits_in = board.bits_in(b, cyc);
+                    boolean bit = Proc18Sim.bit_result(op & 7,
+                        ((bits_in >> d) & 1) != 0, ((bits_in >> s) & 1) != 0);
+                    if ((op & 7) != 0)
+                    {
+                        if (bit) b |= 1L << d;
+                        else     b &= ~(1L << d);
+                    }
+                    z = !bit;
+                    f = false;
+                    cyc++;
+                    break;
+
+                default: // ALU D, S and ALU D, #N
+                    int sdata;
+                    if ((op >> 3) < 6)
+                        sdata = regs[r + s];
+                    else
+                    {
+                        nd = s;
+                        sdata = s;
+                    }
+                    result = Proc18Sim.alu_result(op & 017, regs[r + d],
+                                                  sdata);
+                    z = result == 0;
+                    f = Proc18Sim.alu_fflag(op & 017, regs[r + d], result);
+                    if ((op & 017) != 0) regs[r + d] = result;
+                    cyc++;
+                    break;
+            }
+
+            p = next & 07777;
+            n++;
+
+            if (back)
+            {
+                long passes = wait_passes(board, p, b, z, f, lvl, cyc, end);
+                cyc += 3 * passes;
+                n += 2 * passes;
+            }
+        }
+
+        pc[i] = p;
+        sp[i] = s_p;
+        level[i] = lvl;
+        ndata[i] = nd;
+        zflag[i] = z;
+        fflag[i] = f;
+        halted[i] = halt;
+        stopped[i] = stop;
+        bits[i] = b;
+        cycles[i] = cyc;
+        insts[i] = n;
+        timer_zero[i] = tz;
+    }
+
+    //-------------------------------------------------------------------------
+    // The word a CALL or interrupt pushes, see Proc18Sim.push.
+    //-------------------------------------------------------------------------
+    private static int link(int adrs, int nd, boolean z, boolean f)
+    {
+        int word = (adrs & 07777) | ((nd & 15) << 12);
+        if (z) word |= 0200000;
+        if (f) word |= 0400000;
+        return word;
+    }
+
+    //-------------------------------------------------------------------------
+    // See Proc18Sim.idle_until.
+    //-------------------------------------------------------------------------
+    private static long idle_until(SimBoard board, long cyc, long until,
+                                   long end)
+    {
+        until = Math.min(until, board.vector_stable_until(cyc));
+        return Math.max(cyc + 1, Math.min(until, end));
+    }
+
+    //-------------------------------------------------------------------------
+    // The wait loop passes to skip, see Proc18Sim.skip_wait.
+    //-------------------------------------------------------------------------
+    private long wait_passes(SimBoard board, int p, long b, boolean z,
+                             boolean f, int lvl, long cyc, long end)
+    {
+        if (p + 1 >= rom.length) return 0;
+        if ((dec_op[p] >> 3) != 3 || (dec_op[p + 1] >> 3) != 2 ||
+            dec_adrs[p + 1] != p)
+            return 0;
+
+        int op = dec_op[p] & 7;
+        int d = dec_d[p];
+        long bits_in = board.bits_in(b, cyc);
+        boolean bit = Proc18Sim.bit_result(op, ((bits_in >> d) & 1) != 0,
+                                           ((bits_in >> dec_s[p]) & 1) != 0);
+
+        if (op != 0 && bit != (((b >> d) & 1) != 0)) return 0;
+        if (z == bit || f) return 0;
+        if (Proc18Sim.branch(dec_op[p + 1] & 7, z, f) == false) return 0;
+        if (board.vector(cyc) > lvl) return 0;
+
+        long limit = Math.min(end, board.vector_stable_until(cyc));
+        limit = Math.min(limit, board.bits_stable_until(cyc));
+        if (limit - cyc < 2) return 0;
+
+        return (limit - cyc - 2) / 3 + 1;
+    }
+
+    //-------------------------------------------------------------------------
+    // Totals, and each different UART output with the number of boards
+    // that wrote it, by its last line.
+    //-------------------------------------------------------------------------
+    public void report(double secs)
+    {
+        long total = 0, max = 0;
+        int done = 0;
+        LinkedHashMap<String, Integer> outputs = new LinkedHashMap<>();
+
+        for (int i = 0; i < count; i++)
+        {
+            total += insts[i];
+            max = Math.max(max, cycles[i]);
+            if (stopped[i]) done++;
+            if (errors[i] != null)
+                System.out.println(String.format("BOARD %d: %s",
+                                                 i, errors[i]));
+
+            String text = boards[i].tx_text.toString().trim();
+            String last = text.substring(text.lastIndexOf('\n') + 1);
+            outputs.merge(last, 1, Integer::sum);
+        }
+
+        for (Map.Entry<String, Integer> entry : outputs.entrySet())
+            System.out.println(String.format("%6d  %s", entry.getValue(),
+                                             entry.getKey()));
+
+        System.out.println(String.format("BOARDS  %d, %d stopped",
+                                         count, done));
+        System.out.println(String.format("CYCLES  %d", max));
+        System.out.println(String.format("INSTS   %d", total));
+        System.out.println(String.format("MIPS    %.1f", total / secs / 1e6));
+    }
+}
@@ -0,0 +1,332 @@
+//-----------------------------------------------------------------------------
+// Proc18 Simulator, Source Profiler
+//
+// Runs Proc18Sim one step at a time, and counts the cycles of each step
+// against the address it started at. The debug map written by Miny18 -g
+// turns the addresses into funcs and source lines.
+//
+// A shadow call stack follows the stack pointer. A step that pushes is a
+// CALL or an interrupt entry, and pushes the func of the new PC. A step
+// that pops is an RTS or RTI, and pops. A jump into another func, from a
+// tail call or an interrupt vector, replaces the top. A restart at PC
+// zero empties the stack.
+//
+// Idle cycles that Proc18Sim skips are counted against the PAUSE or HALT,
+// or for a wait loop, against its jump.
+//
+// The report gives the self and total cycles of each func, and the cycles
+// of each source line, most first. The folded stacks have one line per
+// call path, "main;f1;f2 cycles", the input of flamegraph.pl and the
+// tools like it.
+//
+// History:
+// 1.0.0   10/18/2026   File Created
+// 1.1.0   10/18/2026   Set the cycle limit for idle skipping
+//-----------------------------------------------------------------------------
+// Copyright 2020 Mike Christle
+//
+// Permission is hereby granted, free of charge, to any person obtaining a
+// copy of this software and associated documentation files (the "Software"),
+// to deal in the Software without restriction, including without limitation
+// the rights to use, copy, modify, merge, publish, distribute, sublicense,
+// and/or sell copies of the Software, and to permit persons to whom the
+// Software is furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be
+// included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+// THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+// FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+// DEALINGS IN THE SOFTWARE.
+//-----------------------------------------------------------------------------
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+//-----------------------------------------------------------------------------
+public class Proc18Prof
+{
+    private static final int ROM_SIZE = 4096;   // 12 bit PC
+    private static final int BAR = 40;          // Width of the longest bar
+    private static final String NONE = "(vectors)";
+
+    //-------------------------------------------------------------------------
+    // A node of the call tree, one for each call path.
+    //-------------------------------------------------------------------------
+    private static class Frame
+    {
+        public int func;
+        public long cycles;         // Self cycles on this path
+        public Frame parent;
+        public HashMap<Integer, Frame> kids = new HashMap<>();
+
+        public Frame(int _func, Frame _parent)
+        {
+            func = _func;
+            parent = _parent;
+        }
+
+        public Frame kid(int _func)
+        {
+            Frame frame = kids.get(_func);
+            if (frame == null)
+            {
+                frame = new Frame(_func, this);
+                kids.put(_func, frame);
+            }
+            return frame;
+        }
+    }
+
+    private Proc18Sim sim;
+    private ArrayList<String> func_names = new ArrayList<>();
+    private ArrayList<String> line_names = new ArrayList<>();
+    private int[] pc_func = new int[ROM_SIZE];     // Index 0 is NONE
+    private int[] pc_line = new int[ROM_SIZE];
+    private long[] pc_cycles = new long[ROM_SIZE];
+    private long[] pc_insts = new long[ROM_SIZE];
+    private Frame root = new Frame(-1, null);
+    private long[] calls;
+    private long total;
+
+    //-------------------------------------------------------------------------
+    public Proc18Prof(Proc18Sim _sim)
+    {
+        sim = _sim;
+        func_names.add(NONE);
+        line_names.add(NONE);
+    }
+
+    //-------------------------------------------------------------------------
+    public void read_map(String file_name) throws MError
+    {
+        HashMap<String, Integer> lines = new HashMap<>();
+        int last = 0, line = 0;
+
+        try
+        {
+            BufferedReader ifp = new BufferedReader(new FileReader(file_name));
+            while (true)
+            {
+                String sline = ifp.readLine();
+                if (sline == null) break;
+                String[] sa = sline.trim().split("\\s+", 4);
+
+                if (sa[0].equals("FUNC") && sa.length == 4)
+                {
+                    int first = Integer.parseInt(sa[1], 16);
+                    int end = Integer.parseInt(sa[2], 16);
+                    for (int pc = first; pc <= end && pc < ROM_SIZE; pc++)
+                        pc_func[pc] = func_names.size();
+                    func_names.add(sa[3]);
+                }
+                else if (sa[0].equals("LINE") && sa.length == 4)
+                {
+                    int pc = Integer.parseInt(sa[1], 16);
+                    while (last < pc && last < ROM_SIZE)
+                        pc_line[last++] = line;
+
+                    String name = sa[2] + ' ' + sa[3];
+                    Integer idx = lines.get(name);
+                    if (idx == null)
+                    {
+                        idx = line_names.size();
+                        line_names.add(name);
+                        lines.put(name, idx);
+                    }
+                    line = idx;
+                }
+                else if (sline.trim().length() > 0)
+                    throw new MError("Invalid map file: " + file_name);
+            }
+            ifp.close();
+        }
+        catch (IOException e)
+        {
+            throw new MError("File not found: " + file_name);
+        }
+        catch (NumberFormatException e)
+        {
+            throw new MError("Invalid map file: " + file_name);
+        }
+
+        while (last < ROM_SIZE) pc_line[last++] = line;
+        calls = new long[func_names.size()];
+    }
+
+    //-------------------------------------------------------------------------
+    // Like Proc18Sim.run, but with the interpreter only, so every step is
+    // seen.
+    //-------------------------------------------------------------------------
+    public void run(long max_cycles) throws MError
+    {
+        Frame frame = root.kid(pc_func[sim.pc & 07777]);
+        sim.stop_at = max_cycles;
+
+        while (!sim.stopped && sim.cycles < max_cycles)
+        {
+            if (sim.pc == 0) frame = root.kid(pc_func[0]);
+
+            int pc = sim.pc & 07777;
+            int sp = sim.sp;
+            long cycles = sim.cycles;
+            long insts = sim.insts;
+
+            sim.step();
+
+            long used = sim.cycles - cycles;
+            pc_cycles[pc] += used;
+            pc_insts[pc] += sim.insts - insts;
+            frame.cycles += used;
+
+            int func = pc_func[sim.pc & 07777];
+            int moved = (sim.sp - sp) & Proc18Sim.MASK;
+            if (moved == Proc18Sim.MASK)
+            {
+                frame = frame.kid(func);
+                calls[func]++;
+            }
+            else if (moved == 1)
+            {
+                if (frame.parent != root) frame = frame.parent;
+            }
+            else if (func != frame.func)
+            {
+                frame = frame.parent.kid(func);
+                calls[func]++;
+            }
+        }
+    }
+
+    //-------------------------------------------------------------------------
+    public void write_report(String file_name) throws MError
+    {
+        try
+        {
+            FileWriter ofp = new FileWriter(file_name);
+            write_report(ofp);
+            ofp.close();
+        }
+        catch (IOException e)
+        {
+            throw new MError("Error writing file: " + file_name);
+        }
+    }
+
+    //-------------------------------------------------------------------------
+    public void write_report(Writer ofp) throws IOException
+    {
+        int nfuncs = func_names.size();
+        long[] self = new long[nfuncs];
+        long[] insts = new long[nfuncs];
+        long[] totals = new long[nfuncs];
+        long[] lines = new long[line_names.size()];
+
+        total = 0;
+        for (int pc = 0; pc < ROM_SIZE; pc++)
+        {
+            self[pc_func[pc]] += pc_cycles[pc];
+            insts[pc_func[pc]] += pc_insts[pc];
+            lines[pc_line[pc]] += pc_cycles[pc];
+            total += pc_cycles[pc];
+        }
+        add_totals(root, totals, new int[nfuncs]);
+
+        ofp.write(String.format("%-32s %12s %6s %12s %6s %10s %10s\n",
+            "Func", "Self", "%", "Total", "%", "Calls", "Insts"));
+        ArrayList<Integer> order = sort(self);
+        for (int f : order)
+            ofp.write(String.format(
+                "%-32s %12d %6s %12d %6s %10d %10d  %s\n",
+                func_names.get(f), self[f], percent(self[f]),
+                totals[f], percent(totals[f]), calls[f], insts[f],
+                bar(self[f], self[order.get(0)])));
+
+        ofp.write(String.format("\n%-32s %12s %6s\n", "Line", "Cycles", "%"));
+        order = sort(lines);
+        for (int l : order)
+            ofp.write(String.format("%-32s %12d %6s  %s\n",
+                line_names.get(l), lines[l], percent(lines[l]),
+                bar(lines[l], lines[order.get(0)])));
+    }
+
+    //-------------------------------------------------------------------------
+    // A func called from inside itself, by an interrupt, is only counted
+    // once in its total.
+    //-------------------------------------------------------------------------
+    private long add_totals(Frame frame, long[] totals, int[] on_path)
+    {
+        long sum = frame.cycles;
+
+        if (frame.func >= 0) on_path[frame.func]++;
+        for (Frame kid : frame.kids.values())
+            sum += add_totals(kid, totals, on_path);
+        if (frame.func >= 0 && --on_path[frame.func] == 0)
+            totals[frame.func] += sum;
+
+        return sum;
+    }
+
+    //-------------------------------------------------------------------------
+    public void write_folded(String file_name) throws MError
+    {
+        try
+        {
+            FileWriter ofp = new FileWriter(file_name);
+            for (Frame frame : root.kids.values())
+                write_folded(ofp, frame, func_names.get(frame.func));
+            ofp.close();
+        }
+        catch (IOException e)
+        {
+            throw new MError("Error writing file: " + file_name);
+        }
+    }
+
+    //-------------------------------------------------------------------------
+    private void write_folded(Writer ofp, Frame frame, String path)
+        throws IOException
+    {
+        if (frame.cycles > 0)
+            ofp.write(path + ' ' + frame.cycles + '\n');
+        for (Frame kid : frame.kids.values())
+            write_folded(ofp, kid, path + ';' + func_names.get(kid.func));
+    }
+
+    //-------------------------------------------------------------------------
+    // Indexes with cycles, most first.
+    //-------------------------------------------------------------------------
+    private static ArrayList<Integer> sort(long[] counts)
+    {
+        ArrayList<Integer> list = new ArrayList<>();
+        for (int i = 0; i < counts.length; i++)
+            if (counts[i] > 0) list.add(i);
+        list.sort((a, b) -> Long.compare(counts[b], counts[a]));
+        return list;
+    }
+
+    //-------------------------------------------------------------------------
+    private String percent(long count)
+    {
+        if (total == 0) return "";
+        return String.format("%.1f", 100.0 * count / total);
+    }
+
+    //-------------------------------------------------------------------------
+    private static String bar(long count, long max)
+    {
+        StringBuilder sb = new StringBuilder();
+        for (long i = (count * BAR + max - 1) / max; i > 0; i--)
+            sb.append('#');
+        return sb.toString();
+    }
+}
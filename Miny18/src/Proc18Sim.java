@@ -0,0 +1,669 @@
+//-----------------------------------------------------------------------------
+// Proc18 Instruction Set Simulator
+//
+// Executes the code.hex and const.hex images written by Miny18Asm. The
+// cycle counts follow the InstDecode state machine in Proc18/proc.
+// Proc18Blocks runs most of the code, and this steps the rest.
+//
+// History:
+// 1.0.0   10/18/2026   File Created
+// 1.1.0   10/18/2026   Run in translated blocks
+// 1.2.0   10/18/2026   Add -p option for the source profiler
+// 1.3.0   10/18/2026   Add load_text for hex from the compiler
+// 1.4.0   10/18/2026   Skip idle PAUSE, HALT and wait loop cycles, add -n and -e
+// 1.5.0   10/18/2026   Make ALU, bit and branch helpers static for Proc18Fleet
+//-----------------------------------------------------------------------------
+// Copyright 2020 Mike Christle
+//
+// Permission is hereby granted, free of charge, to any person obtaining a
+// copy of this software and associated documentation files (the "Software"),
+// to deal in the Software without restriction, including without limitation
+// the rights to use, copy, modify, merge, publish, distribute, sublicense,
+// and/or sell copies of the Software, and to permit persons to whom the
+// Software is furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be
+// included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+// THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+// FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+// DEALINGS IN THE SOFTWARE.
+//-----------------------------------------------------------------------------
+
+import java.io.*;
+import java.util.LinkedList;
+
+//-----------------------------------------------------------------------------
+public class Proc18Sim
+{
+    public static final int MASK = 0x3FFFF;
+
+    public int[] rom = new int[0];
+    public int[] con = new int[0];
+    public int[] ram;
+    public int[] regs = new int[64];
+    public long bits;
+    public int pc, sp, level, ndata;
+    public boolean zflag, fflag;
+    public boolean halted, stopped;
+    public long cycles, insts;
+    public long timer_zero;
+    public boolean trace = false;
+    public boolean translate = true;
+    public boolean skip_idle = true;
+    public SimBoard board;
+
+    int ram_mask;
+    long stop_at = Long.MAX_VALUE;      // Cycle limit of the current run
+    private Proc18Blocks blocks = new Proc18Blocks(this);
+
+    //-------------------------------------------------------------------------
+    public static void main(String []args)
+    {
+        long max_cycles = Long.MAX_VALUE;
+        int ram_bits = 12;
+        boolean trace = false;
+        boolean translate = true;
+        boolean skip_idle = true;
+        LinkedList<long[]> events = new LinkedList<>();
+        boolean echo = true;
+        boolean usage = false;
+        String prof_name = null;
+
+        try
+        {
+            for (int i = 0; i < args.length; i++)
+            {
+                switch (args[i])
+                {
+                    case "-t": trace = true; break;
+                    case "-i": translate = false; break;
+                    case "-n": skip_idle = false; break;
+                    case "-e":
+                        String[] sa = args[++i].split(":");
+                        long[] event = {Long.parseLong(sa[0]),
+                            Integer.parseInt(sa[1]), Integer.parseInt(sa[2])};
+                        if (sa.length != 3 || event[1] < 1 || event[1] > 15)
+                            usage = true;
+                        events.add(event);
+                        break;
+                    case "-q": echo = false; break;
+                    case "-m": max_cycles = Long.parseLong(args[++i]); break;
+                    case "-r": ram_bits = Integer.parseInt(args[++i]); break;
+                    case "-p": prof_name = args[++i]; break;
+                    default: usage = true; break;
+                }
+            }
+        }
+        catch (NumberFormatException | ArrayIndexOutOfBoundsException e)
+        {
+            usage = true;
+        }
+
+        if (usage || ram_bits < 1 || ram_bits > 18)
+        {
+            System.out.println("Usage: java Proc18Sim [Options]");
+            System.out.println("   -m N  Stop after N cycles");
+            System.out.println("   -r N  RAM address bits, default 12");
+            System.out.println("   -q    Do not echo UART output");
+            System.out.println("   -i    Interpret only, no translation");
+            System.out.println("   -n    Step through idle cycles");
+            System.out.println("   -e E  Set an interrupt line at a cycle,");
+            System.out.println("         E is cycle:line:state, state 0 or 1");
+            System.out.println("   -t    Trace instructions");
+            System.out.println("   -p N  Profile with N.map, write N.prof");
+            System.out.println("         and N.folded");
+            System.exit(-1);
+        }
+
+        Proc18Sim sim = new Proc18Sim(ram_bits, new SimBoard());
+        sim.trace = trace;
+        sim.translate = translate;
+        sim.skip_idle = skip_idle;
+        for (long[] event : events)
+            sim.board.schedule_line(event[0], (int)event[1], event[2] != 0);
+        sim.board.echo = echo;
+
+        try
+        {
+            sim.load("code.hex", "const.hex");
+
+            Proc18Prof prof = null;
+            if (prof_name != null)
+            {
+                prof = new Proc18Prof(sim);
+                prof.read_map(prof_name + ".map");
+            }
+
+            long start = System.nanoTime();
+            if (prof != null)
+                prof.run(max_cycles);
+            else
+                sim.run(max_cycles);
+            double secs = (System.nanoTime() - start) / 1e9;
+
+            if (prof != null)
+            {
+                prof.write_report(prof_name + ".prof");
+                prof.write_folded(prof_name + ".folded");
+            }
+
+            System.out.println();
+            System.out.println(String.format("CYCLES %d", sim.cycles));
+            System.out.println(String.format("INSTS  %d", sim.insts));
+            System.out.println(String.format("MIPS   %.1f",
+                                             sim.insts / secs / 1e6));
+            System.out.println("---- Success ----\n");
+        }
+        catch (MError e)
+        {
+            System.out.println(e.msg);
+            System.exit(-2);
+        }
+    }
+
+    //-------------------------------------------------------------------------
+    public Proc18Sim(int ram_bits, SimBoard _board)
+    {
+        ram = new int[1 << ram_bits];
+        ram_mask = ram.length - 1;
+        board = _board;
+        reset();
+    }
+
+    //-------------------------------------------------------------------------
+    public void load(String code_name, String const_name) throws MError
+    {
+        rom = read_hex(code_name);
+        if (new File(const_name).exists())
+            con = read_hex(const_name);
+        else
+            con = new int[0];
+        blocks.invalidate();
+    }
+
+    //-------------------------------------------------------------------------
+    // Load hex text, as Miny18Compiler leaves it in code_hex and const_hex.
+    // Empty constants text means there is no constants ROM.
+    //-------------------------------------------------------------------------
+    public void load_text(String code_hex, String const_hex) throws MError
+    {
+        try
+        {
+            rom = read_hex(new BufferedReader(new StringReader(code_hex)));
+            con = new int[0];
+            if (const_hex.length() > 0)
+                con = read_hex(
+                    new BufferedReader(new StringReader(const_hex)));
+        }
+        catch (IOException | NumberFormatException e)
+        {
+            throw new MError("Invalid hex text");
+        }
+        blocks.invalidate();
+    }
+
+    //-------------------------------------------------------------------------
+    public static int[] read_hex(String file_name) throws MError
+    {
+        try
+        {
+            BufferedReader ifp = new BufferedReader(new FileReader(file_name));
+            int[] mem = read_hex(ifp);
+            ifp.close();
+            return mem;
+        }
+        catch (IOException e)
+        {
+            throw new MError("File not found: " + file_name);
+        }
+        catch (NumberFormatException e)
+        {
+            throw new MError("Invalid hex file: " + file_name);
+        }
+    }
+
+    //-------------------------------------------------------------------------
+    private static int[] read_hex(BufferedReader ifp) throws IOException
+    {
+        LinkedList<Integer> words = new LinkedList<>();
+
+        while (true)
+        {
+            String sline = ifp.readLine();
+            if (sline == null) break;
+            for (String str : sline.trim().split("\\s+"))
+                if (str.length() > 0)
+                    words.add(Integer.parseInt(str, 16) & MASK);
+        }
+
+        int[] mem = new int[words.size()];
+        int i = 0;
+        for (int word : words) mem[i++] = word;
+        return mem;
+    }
+
+    //-------------------------------------------------------------------------
+    public void reset()
+    {
+        for (int i = 0; i < regs.length; i++) regs[i] = 0;
+        bits = 0;
+        pc = sp = ndata = 0;
+        level = 15;
+        zflag = fflag = false;
+        halted = stopped = false;
+        cycles = insts = 0;
+        timer_zero = 0;
+        board.reset(0);
+    }
+
+    //-------------------------------------------------------------------------
+    // Runs in translated blocks, unless tracing.
+    //-------------------------------------------------------------------------
+    public void run(long max_cycles) throws MError
+    {
+        stop_at = max_cycles;
+
+        if (translate && !trace)
+        {
+            blocks.run(max_cycles);
+            return;
+        }
+
+        while (!stopped && cycles < max_cycles)
+            step();
+    }
+
+    //-------------------------------------------------------------------------
+    // Execute one instruction, one stalled cycle of PAUSE or HALT, or
+    // one interrupt entry.
+    //-------------------------------------------------------------------------
+    public void step() throws MError
+    {
+        int vector = board.vector(cycles);
+        if (vector > level)
+        {
+            interrupt(vector);
+            return;
+        }
+
+        if (halted)
+        {
+            if (level == 15 || board.quiet(cycles))
+            {
+                stopped = true;
+                cycles++;
+            }
+            else
+                cycles = idle_until(Long.MAX_VALUE);
+            return;
+        }
+
+        // Restart, PC zero resets the stack pointer and level
+        if (pc == 0)
+        {
+            sp = 0;
+            level = 15;
+        }
+
+        if (pc >= rom.length)
+            throw new MError(String.format("PC out of range: %04o", pc));
+
+        int inst = rom[pc];
+        if (trace)
+            System.out.println(String.format("%10d %04o %06o",
+                                             cycles, pc, inst));
+
+        int d = inst & 077;
+        int s = (inst >> 6) & 077;
+        boolean back = false;
+
+        switch (inst >> 15)
+        {
+            case 0:
+                switch ((inst >> 12) & 7)
+                {
+                    case 0: system_op(inst, s, d); return;
+
+                    case 1: // CALL
+                        push(pc + 1);
+                        pc = inst & 07777;
+                        cycles++;
+                        break;
+
+                    // The decoder runs the ALU on the address register
+                    // while a load completes, so the flags follow that.
+                    case 2: // LDR
+                        alu_flags(2, regs[d], regs[s]);
+                        regs[d] = ram[regs[s] & ram_mask];
+                        pc++;
+                        cycles += 2;
+                        break;
+
+                    case 3: // STR
+                        ram[regs[d] & ram_mask] = regs[s];
+                        pc++;
+                        cycles++;
+                        break;
+
+                    case 4: // LDC
+                        alu_flags(4, regs[d], regs[s]);
+                        if (con.length > 0)
+                            regs[d] = con[regs[s] & (con.length - 1)];
+                        else
+                            regs[d] = 0;
+                        pc++;
+                        cycles += 2;
+                        break;
+
+                    case 5: // TIMER
+                        timer_zero = cycles + 1 + (inst & 07777);
+                        pc++;
+                        cycles++;
+                        break;
+
+                    case 6: // IN
+                        ndata = s;
+                        regs[d] = board.port_in(s, cycles) & MASK;
+                        alu_flags(1, 0, regs[d]);
+                        pc++;
+                        cycles++;
+                        break;
+
+                    case 7: // OUT
+                        ndata = d;
+                        board.port_out(d, regs[s], cycles);
+                        pc++;
+                        cycles++;
+                        break;
+                }
+                break;
+
+            case 1: // Sxx
+                set_bit(d, branch((inst >> 12) & 7));
+                pc++;
+                cycles++;
+                break;
+
+            case 2: // Jxx
+                if (branch((inst >> 12) & 7))
+                {
+                    back = (inst & 07777) == pc - 1;
+                    pc = inst & 07777;
+                }
+                else
+                    pc++;
+                cycles += 2;
+                break;
+
+            case 3: // Bxx
+                bit_op((inst >> 12) & 7, s, d);
+                pc++;
+                cycles++;
+                break;
+
+            case 4: // ALU D, S
+            case 5:
+                alu_op((inst >> 12) & 017, d, regs[s]);
+                pc++;
+                cycles++;
+                break;
+
+            default: // ALU D, #N
+                ndata = s;
+                alu_op((inst >> 12) & 017, d, s);
+                pc++;
+                cycles++;
+                break;
+        }
+
+        pc &= 07777;
+        insts++;
+        if (back) skip_wait();
+    }
+
+    //-------------------------------------------------------------------------
+    private void system_op(int inst, int s, int d) throws MError
+    {
+        switch (s)
+        {
+            case 1: // HALT
+                halted = true;
+                pc++;
+                break;
+
+            case 2: // PAUSE
+                if (cycles < timer_zero)
+                {
+                    cycles = idle_until(timer_zero);
+                    return;
+                }
+                pc++;
+                break;
+
+            case 3: // RTS
+            case 4: // RTI
+                int word = ram[sp & ram_mask];
+                sp = (sp + 1) & MASK;
+                pc = word & 07777;
+                if (s == 4)
+                {
+                    level = (word >> 12) & 15;
+                    zflag = (word & 0200000) != 0;
+                    fflag = (word & 0400000) != 0;
+                }
+                cycles += 2;
+                break;
+
+            case 5: // LEVEL
+                level = inst & 15;
+                pc++;
+                break;
+
+            case 6: // RESET
+                board.reset(cycles);
+                pc++;
+                break;
+
+            case 7: // LDI
+                regs[d] = rom[(pc + 1) & 07777] & MASK;
+                pc += 2;
+                cycles++;
+                break;
+
+            default: // NOP
+                pc++;
+                break;
+        }
+
+        pc &= 07777;
+        cycles++;
+        insts++;
+    }
+
+    //-------------------------------------------------------------------------
+    // The cycle a PAUSE or HALT stall can go on to, without stepping each
+    // cycle. Up to then the vector can not change, so the stall only ends
+    // at the end cycle, the next board event or the cycle limit.
+    //-------------------------------------------------------------------------
+    private long idle_until(long end)
+    {
+        if (skip_idle == false) return cycles + 1;
+
+        long until = Math.min(end, board.vector_stable_until(cycles));
+        return Math.max(cycles + 1, Math.min(until, stop_at));
+    }
+
+    //-------------------------------------------------------------------------
+    // With the PC at a loop of a Bxx and a Jxx back to it, like the wait
+    // for TX_EMPTY, count the passes that would change nothing instead of
+    // running them. The loop is still if the Bxx would leave its bit and
+    // the flags as they are, and the Jxx is taken. A pass is 3 cycles, and
+    // pass i reads the bits at cycles + 3i, and the vector then and one
+    // cycle later. All the passes that do so before the bits or vector can
+    // change, or the cycle limit, are skipped.
+    //-------------------------------------------------------------------------
+    void skip_wait()
+    {
+        if (skip_idle == false || pc + 1 >= rom.length) return;
+
+        int inst = rom[pc];
+        int jump = rom[pc + 1];
+        if ((inst >> 15) != 3 || (jump >> 15) != 2 ||
+            (jump & 07777) != pc)
+            return;
+
+        int op = (inst >> 12) & 7;
+        int s = (inst >> 6) & 077;
+        int d = inst & 077;
+        long bits_in = board.bits_in(bits, cycles);
+        boolean bit = bit_result(op, ((bits_in >> d) & 1) != 0,
+                                 ((bits_in >> s) & 1) != 0);
+
+        if (op != 0 && bit != (((bits >> d) & 1) != 0)) return;
+        if (zflag == bit || fflag) return;
+        if (branch((jump >> 12) & 7) == false) return;
+        if (board.vector(cycles) > level) return;
+
+        long limit = Math.min(stop_at, board.vector_stable_until(cycles));
+        limit = Math.min(limit, board.bits_stable_until(cycles));
+        if (limit - cycles < 2) return;
+
+        long passes = (limit - cycles - 2) / 3 + 1;
+        cycles += 3 * passes;
+        insts += 2 * passes;
+    }
+
+    //-------------------------------------------------------------------------
+    private void interrupt(int vector)
+    {
+        ndata = level;
+        level = vector;
+        push(pc);
+        pc = vector;
+        halted = false;
+        cycles += 2;
+    }
+
+    //-------------------------------------------------------------------------
+    void push(int adrs)
+    {
+        int word = (adrs & 07777) | ((ndata & 15) << 12);
+        if (zflag) word |= 0200000;
+        if (fflag) word |= 0400000;
+
+        sp = (sp - 1) & MASK;
+        ram[sp & ram_mask] = word;
+    }
+
+    //-------------------------------------------------------------------------
+    boolean branch(int op)
+    {
+        return branch(op, zflag, fflag);
+    }
+
+    //-------------------------------------------------------------------------
+    static boolean branch(int op, boolean z, boolean f)
+    {
+        switch (op)
+        {
+            case 2:  return z;
+            case 3:  return !z;
+            case 4:  return !z && f;
+            case 5:  return !z && !f;
+            case 6:  return z || f;
+            case 7:  return z || !f;
+            default: return true;
+        }
+    }
+
+    //-------------------------------------------------------------------------
+    void set_bit(int d, boolean value)
+    {
+        if (value) bits |= 1L << d;
+        else       bits &= ~(1L << d);
+    }
+
+    //-------------------------------------------------------------------------
+    void bit_op(int op, int s, int d)
+    {
+        long bits_in = board.bits_in(bits, cycles);
+        boolean bit = bit_result(op, ((bits_in >> d) & 1) != 0,
+                                 ((bits_in >> s) & 1) != 0);
+
+        if (op != 0) set_bit(d, bit);
+        zflag = !bit;
+        fflag = false;
+    }
+
+    //-------------------------------------------------------------------------
+    static boolean bit_result(int op, boolean dbit, boolean sbit)
+    {
+        switch (op)
+        {
+            case 1:  return sbit;               // BMOV
+            case 2:  return !sbit;              // BNOT
+            case 3:  return false;              // BCLR
+            case 4:  return true;               // BSET
+            case 5:  return dbit & sbit;        // BAND
+            case 6:  return dbit | sbit;        // BOR
+            default: return dbit ^ sbit;        // BCMP, BXOR
+        }
+    }
+
+    //-------------------------------------------------------------------------
+    void alu_op(int op, int d, int sdata)
+    {
+        int result = alu_flags(op, regs[d], sdata);
+        if (op != 0) regs[d] = result;
+    }
+
+    //-------------------------------------------------------------------------
+    // Compute an ALU result and load the Z and F flags from it.
+    //-------------------------------------------------------------------------
+    int alu_flags(int op, int ddata, int sdata)
+    {
+        int result = alu_result(op, ddata, sdata);
+        zflag = result == 0;
+        fflag = alu_fflag(op, ddata, result);
+        return result;
+    }
+
+    //-------------------------------------------------------------------------
+    static int alu_result(int op, int ddata, int sdata)
+    {
+        int result;
+
+        switch (op)
+        {
+            case 000: result = ddata - sdata; break;  // CMP
+            case 002: result = -sdata; break;         // NEG
+            case 003: result = ~sdata; break;         // INV
+            case 004: result = ddata >>> (sdata & 31); break;  // SHR
+            case 005: result = ddata << (sdata & 31); break;   // SHL
+            case 011: result = ddata + sdata; break;  // ADD
+            case 012: result = ddata - sdata; break;  // SUB
+            case 013: result = ddata * sdata; break;  // MUL
+            case 014: result = ddata & sdata; break;  // AND
+            case 015: result = ddata | sdata; break;  // OR
+            case 016: result = ddata ^ sdata; break;  // XOR
+            default:  result = sdata; break;          // PAS
+        }
+
+        return result & MASK;
+    }
+
+    //-------------------------------------------------------------------------
+    // The F flag is the bit shifted out, or the sign of the result.
+    //-------------------------------------------------------------------------
+    static boolean alu_fflag(int op, int ddata, int result)
+    {
+        if (op == 004) return (ddata & 1) != 0;
+        if (op == 005) return (ddata & 0400000) != 0;
+        return (result & 0400000) != 0;
+    }
+}
@@ -6,6 +6,10 @@
 // 1.0.0   09/01/2020   Initial release
 // 1.1.0   09/13/2020   Add config command
 // 1.2.0   09/16/2020   Add nop command
+// 1.3.0   10/18/2026   Move static state to CompilationContext
+// 1.4.0   10/18/2026   Read sources from the context dir and cache
+// 1.5.0   10/18/2026   File index set by Parser, one Scanner per file
+// 1.6.0   10/18/2026   Add read and open_text
 //-----------------------------------------------------------------------------
 // Copyright 2020 Mike Christle
 //
@@ -29,25 +33,27 @@
 //-----------------------------------------------------------------------------
 
 import java.io.*;
+import java.nio.file.Files;
 import java.util.LinkedList;
 import java.util.Map;
 
 //-----------------------------------------------------------------------------
 public class Scanner
 {
-    public LinkedList<String> file_names = new LinkedList<>();
-
     private String sline = "";
     private LinkedList<Token> tokens = new LinkedList<Token>();
     private Token current_token;
     private int idx = 0;
     private int line_no;
+    private int file_idx;
     private BufferedReader ifp;
     private String util_dir;
+    private CompilationContext ctx;
 
     //-------------------------------------------------------------------------
-    public Scanner()
+    public Scanner(CompilationContext _ctx)
     {
+        ctx = _ctx;
         String util_dir_string = "MINY_UTIL";
         Map<String, String> env = System.getenv();
         if (env.containsKey(util_dir_string))
@@ -55,27 +61,41 @@ public class Scanner
     }
 
     //-------------------------------------------------------------------------
-    public void open(String file_name) throws MError
+    public void open(String file_name, int _file_idx) throws MError
+    {
+        open_text(read(file_name), _file_idx);
+    }
+
+    //-------------------------------------------------------------------------
+    public String read(String file_name) throws MError
     {
-        if (file_names.contains(file_name)) return;
-        file_names.add(file_name);
-        System.out.println("Openning " + file_name);
+        if (ctx.sources.containsKey(file_name))
+            return ctx.sources.get(file_name);
 
         try
         {
-            File file = new File(file_name);
+            File file = new File(ctx.dir, file_name);
             if (file.exists() == false && util_dir != null)
                 file = new File(util_dir + file_name);
 
-            FileReader reader = new FileReader(file);
-            ifp = new BufferedReader(reader);
-            line_no = 0;
+            if (ctx.cache != null)
+                return ctx.cache.read(file);
+            else
+                return new String(Files.readAllBytes(file.toPath()));
         }
-        catch (FileNotFoundException e)
+        catch (IOException e)
         {
             String emsg = "File not found: " + file_name;
             throw new MError(emsg);
         }
+    }
+
+    //-------------------------------------------------------------------------
+    public void open_text(String text, int _file_idx) throws MError
+    {
+        file_idx = _file_idx;
+        ifp = new BufferedReader(new StringReader(text));
+        line_no = 0;
 
         while (tokens.size() == 0) get_tokens();
         current_token = tokens.poll();
@@ -392,6 +412,6 @@ public class Scanner
     //-------------------------------------------------------------------------
     private Src src()
     {
-        return new Src(file_names.size() - 1, line_no);
+        return new Src(file_idx, line_no);
     }
 }
@@ -0,0 +1,254 @@
+//-----------------------------------------------------------------------------
+// Proc18 Simulator Board
+//
+// Models the peripherals of the test board described by test/IO.m: the
+// IntVector15 interrupt mask, the IntTimer periodic interrupt on I5, the
+// BaudRateClk and the UART with its RX_READY and TX_EMPTY bits.
+//
+// External interrupt lines can be set now with set_line, or at a later
+// cycle with schedule_line. The simulator asks when the vector and the
+// input bits can next change, so it can skip the cycles before that.
+//
+// History:
+// 1.0.0   10/18/2026   File Created
+// 1.1.0   10/18/2026   Add vector_stable_until for the block translator
+// 1.2.0   10/18/2026   Add scheduled line events and bits_stable_until
+//-----------------------------------------------------------------------------
+// Copyright 2020 Mike Christle
+//
+// Permission is hereby granted, free of charge, to any person obtaining a
+// copy of this software and associated documentation files (the "Software"),
+// to deal in the Software without restriction, including without limitation
+// the rights to use, copy, modify, merge, publish, distribute, sublicense,
+// and/or sell copies of the Software, and to permit persons to whom the
+// Software is furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be
+// included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+// THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+// FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+// DEALINGS IN THE SOFTWARE.
+//-----------------------------------------------------------------------------
+
+import java.util.LinkedList;
+
+//-----------------------------------------------------------------------------
+public class SimBoard
+{
+    public static final int INT_CLR   = 000;
+    public static final int INT_SET   = 001;
+    public static final int INT_TIMER = 020;
+    public static final int BAUD_RATE = 040;
+    public static final int UART_DATA = 060;
+
+    public static final int RX_READY  = 076;
+    public static final int TX_EMPTY  = 077;
+
+    // IntTimer prescaler, 10 uSec at 50 MHz
+    public static final int TICK_CYCLES = 500;
+
+    // UART frame, 11 bits of 16 baud clocks
+    public static final int FRAME_BCLKS = 176;
+
+    public StringBuilder tx_text = new StringBuilder();
+    public LinkedList<Integer> rx_data = new LinkedList<>();
+    public boolean echo = false;
+
+    private int int_mask;
+    private int int_lines;
+    private int timer_count;
+    private long timer_next;
+    private boolean timer_int;
+    private long baud_start;
+    private int baud_cycles;
+    private long tx_empty_at;
+    private long tx_busy_until;
+    private LinkedList<long[]> events = new LinkedList<>(); // Cycle, line, 0/1
+
+    //-------------------------------------------------------------------------
+    public void reset(long cycle)
+    {
+        int_mask = 0;
+        timer_count = 0;
+        timer_int = false;
+        tx_empty_at = cycle;
+        tx_busy_until = cycle;
+        if (cycle == 0)
+        {
+            baud_start = 0;
+            baud_cycles = 1;
+        }
+    }
+
+    //-------------------------------------------------------------------------
+    // Raise or lower external interrupt line 1 to 15.
+    //-------------------------------------------------------------------------
+    public void set_line(int line, boolean state)
+    {
+        if (state) int_lines |= 1 << (line - 1);
+        else       int_lines &= ~(1 << (line - 1));
+    }
+
+    //-------------------------------------------------------------------------
+    // Set external interrupt line 1 to 15 when the core reaches the given
+    // cycle. Events for the same cycle are done in the order given.
+    //-------------------------------------------------------------------------
+    public void schedule_line(long cycle, int line, boolean state)
+    {
+        int idx = events.size();
+        while (idx > 0 && events.get(idx - 1)[0] > cycle) idx--;
+        events.add(idx, new long[] {cycle, line, state ? 1 : 0});
+    }
+
+    //-------------------------------------------------------------------------
+    // Interrupt vector seen by the core at the given cycle.
+    //-------------------------------------------------------------------------
+    public int vector(long cycle)
+    {
+        update_timer(cycle);
+        update_lines(cycle);
+
+        int ints = int_lines;
+        if (timer_int) ints |= 1 << 4;
+        ints &= int_mask;
+
+        return 32 - Integer.numberOfLeadingZeros(ints);
+    }
+
+    //-------------------------------------------------------------------------
+    // The first cycle, from the given one, at which the vector can change
+    // without a port write or a call to set_line.
+    //-------------------------------------------------------------------------
+    public long vector_stable_until(long cycle)
+    {
+        update_timer(cycle);
+        update_lines(cycle);
+
+        long until = Long.MAX_VALUE;
+        if (timer_count != 0 && (int_mask & (1 << 4)) != 0)
+            until = timer_next + 2;
+        if (events.size() > 0)
+            until = Math.min(until, events.getFirst()[0]);
+        return until;
+    }
+
+    //-------------------------------------------------------------------------
+    // The first cycle, from the given one, at which bits_in can change
+    // without a port write or new RX data.
+    //-------------------------------------------------------------------------
+    public long bits_stable_until(long cycle)
+    {
+        return (cycle < tx_empty_at) ? tx_empty_at : Long.MAX_VALUE;
+    }
+
+    //-------------------------------------------------------------------------
+    // True if no interrupt can ever be raised without a port write.
+    //-------------------------------------------------------------------------
+    public boolean quiet(long cycle)
+    {
+        update_lines(cycle);
+
+        int ints = int_lines;
+        if (timer_int || timer_count != 0) ints |= 1 << 4;
+        for (long[] event : events)
+            if (event[2] != 0) ints |= 1 << (event[1] - 1);
+        return (ints & int_mask) == 0;
+    }
+
+    //-------------------------------------------------------------------------
+    public long bits_in(long bits_out, long cycle)
+    {
+        bits_out &= ~((1L << RX_READY) | (1L << TX_EMPTY));
+        if (rx_data.size() > 0) bits_out |= 1L << RX_READY;
+        if (cycle >= tx_empty_at) bits_out |= 1L << TX_EMPTY;
+        return bits_out;
+    }
+
+    //-------------------------------------------------------------------------
+    public int port_in(int port, long cycle)
+    {
+        switch (port & 060)
+        {
+            case INT_TIMER:
+                update_timer(cycle);
+                timer_int = false;
+                return timer_count;
+
+            case UART_DATA:
+                if (rx_data.size() == 0) return 0;
+                return rx_data.poll() & 0xFF;
+
+            default:
+                return 0;
+        }
+    }
+
+    //-------------------------------------------------------------------------
+    public void port_out(int port, int value, long cycle)
+    {
+        switch (port & 060)
+        {
+            case INT_CLR:
+                if ((port & 1) == 0) int_mask &= ~value;
+                else                 int_mask |= value;
+                int_mask &= 077777;
+                break;
+
+            case INT_TIMER:
+                update_timer(cycle);
+                timer_count = value;
+                timer_next = cycle + (long)TICK_CYCLES * value;
+                break;
+
+            case BAUD_RATE:
+                baud_start = cycle;
+                baud_cycles = (value & 07777) + 1;
+                break;
+
+            case UART_DATA:
+                if (cycle < tx_empty_at) break;
+
+                char c = (char)(value & 0xFF);
+                tx_text.append(c);
+                if (echo) System.out.print(c);
+
+                long start = Math.max(cycle + 1, tx_busy_until + 1);
+                long phase = (start - baud_start) % baud_cycles;
+                if (phase != 0) start += baud_cycles - phase;
+                tx_empty_at = start;
+                tx_busy_until = start + (long)FRAME_BCLKS * baud_cycles;
+                break;
+        }
+    }
+
+    //-------------------------------------------------------------------------
+    private void update_lines(long cycle)
+    {
+        while (events.size() > 0 && events.getFirst()[0] <= cycle)
+        {
+            long[] event = events.removeFirst();
+            set_line((int)event[1], event[2] != 0);
+        }
+    }
+
+    //-------------------------------------------------------------------------
+    // The INT output is set on the tick the count expires, and the vector
+    // register adds one more clock before the core sees it.
+    //-------------------------------------------------------------------------
+    private void update_timer(long cycle)
+    {
+        if (timer_count == 0) return;
+
+        long period = (long)TICK_CYCLES * timer_count;
+        while (cycle >= timer_next + 2)
+        {
+            timer_int = true;
+            timer_next += period;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+//-----------------------------------------------------------------------------
+// Miny Source Cache
+//
+// Keeps the text of source files read by the Scanner, so a long running
+// compiler only goes back to disk when a file has changed. Parse trees are
+// not cached, since Checker, FoldConst and the code generators modify them.
+//
+// History:
+// 1.0.0   10/18/2026   File Created
+//-----------------------------------------------------------------------------
+// Copyright 2020 Mike Christle
+//
+// Permission is hereby granted, free of charge, to any person obtaining a
+// copy of this software and associated documentation files (the "Software"),
+// to deal in the Software without restriction, including without limitation
+// the rights to use, copy, modify, merge, publish, distribute, sublicense,
+// and/or sell copies of the Software, and to permit persons to whom the
+// Software is furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be
+// included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+// THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+// FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+// DEALINGS IN THE SOFTWARE.
+//-----------------------------------------------------------------------------
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.ConcurrentHashMap;
+
+//-----------------------------------------------------------------------------
+public class SourceCache
+{
+    private class Entry
+    {
+        public long modified;
+        public long length;
+        public String text;
+    }
+
+    private ConcurrentHashMap<String, Entry> files = new ConcurrentHashMap<>();
+
+    //-------------------------------------------------------------------------
+    public String read(File file) throws IOException
+    {
+        if (file.isFile() == false)
+            throw new FileNotFoundException(file.getPath());
+
+        String key = file.getCanonicalPath();
+        long modified = file.lastModified();
+        long length = file.length();
+
+        Entry entry = files.get(key);
+        if (entry != null &&
+            entry.modified == modified && entry.length == length)
+        {
+            return entry.text;
+        }
+
+        entry = new Entry();
+        entry.modified = modified;
+        entry.length = length;
+        entry.text = new String(Files.readAllBytes(file.toPath()));
+        files.put(key, entry);
+        return entry.text;
+    }
+}
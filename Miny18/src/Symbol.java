@@ -4,6 +4,8 @@
 // History: 
 // 0.1.0   07/27/2017   File Created
 // 1.0.0   09/01/2020   Initial release
+// 1.1.0   10/18/2026   Serializable for the module cache
+// 1.2.0   10/18/2026   Add serialVersionUID
 //-----------------------------------------------------------------------------
 // Copyright 2020 Mike Christle
 //
@@ -26,13 +28,16 @@
 // DEALINGS IN THE SOFTWARE.
 //-----------------------------------------------------------------------------
 
+import java.io.Serializable;
 import java.util.LinkedList;
 
 enum StoreId {NONE, REG, RAM, ROM, BIT, PORT};
 
 //-----------------------------------------------------------------------------
-public class Symbol
+public class Symbol implements Serializable
 {
+    private static final long serialVersionUID = 1L;
+
     public TypeId type;
     public Object value;
     public LinkedList<Object> values;
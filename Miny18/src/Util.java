@@ -5,6 +5,8 @@
 // 0.1.0   07/27/2017   File Created
 // 1.0.0   09/01/2020   Initial release
 // 1.1.0   09/16/2020   Change NOP ICodeId to NONE to support NOP command
+// 1.2.0   10/18/2026   Move static state to CompilationContext
+// 1.3.0   10/18/2026   Dump the flow graph with the icodes
 //-----------------------------------------------------------------------------
 // Copyright 2020 Mike Christle
 //
@@ -31,13 +33,13 @@
 public class Util
 {
     //-------------------------------------------------------------------------
-    public static void dump_icodes()
+    public static void dump_icodes(CompilationContext ctx)
     {
         System.out.println("=============================");
 
-        for (String mkey : Module.modules.keySet())
+        for (String mkey : ctx.modules.keySet())
         {
-            Module module = Module.modules.get(mkey);
+            Module module = ctx.modules.get(mkey);
             for (String fkey : module.funcs.keySet())
             {
                 System.out.println("-------------------");
@@ -52,18 +54,19 @@ public class Util
                         System.out.println(str);
                     }
                 }
+                if (func.cfg != null) func.cfg.dump(System.out);
             }
         }
     }
 
     //-------------------------------------------------------------------------
-    public static void dump_parse_tree()
+    public static void dump_parse_tree(CompilationContext ctx)
     {
         System.out.println("=============================");
 
-        for (String mkey : Module.modules.keySet())
+        for (String mkey : ctx.modules.keySet())
         {
-            Module module = Module.modules.get(mkey);
+            Module module = ctx.modules.get(mkey);
             for (String fkey : module.funcs.keySet())
             {
                 Func func = module.funcs.get(fkey);
@@ -112,13 +115,13 @@ public class Util
     }
 
     //-------------------------------------------------------------------------
-    public static void dump_symbols()
+    public static void dump_symbols(CompilationContext ctx)
     {
         System.out.println("=============================");
 
-        for (String mkey : Module.modules.keySet())
+        for (String mkey : ctx.modules.keySet())
         {
-            Module module = Module.modules.get(mkey);
+            Module module = ctx.modules.get(mkey);
             System.out.println("======== Module " + mkey + " ========");
 
             for (String skey : module.symbols.keySet())
@@ -144,8 +147,8 @@ public class Util
 
         System.out.println("======== ISR Vectors ========");
         for (int i = 0; i < 16; i++)
-            if (Module.isr_labels[i] != null)
+            if (ctx.isr_labels[i] != null)
                 System.out.println(String.format("%2d %s", i,
-                                                 Module.isr_labels[i]));
+                                                 ctx.isr_labels[i]));
     }
 }
@@ -3,6 +3,8 @@
 #
 # History: 
 # 1.0.0   09/01/2020   Initial release
+# 1.1.0   10/18/2026   Add TestSpill
+# 1.2.0   10/18/2026   Add TestExpr
 #----------------------------------------------------------
 
 module TestAll
@@ -19,6 +21,8 @@ module TestAll
         TestFunc.main()     # 0x7xx
         TestIfLoop.main()   # 0x8xx
         TestPort.main()     # 0x9xx
+        TestSpill.main()    # 0xAxx
+        TestExpr.main()     # 0xBxx
 
         Util.results()
 
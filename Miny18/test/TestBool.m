@@ -3,10 +3,15 @@
 #
 # History: 
 # 1.0.0   09/01/2020   Initial release
+# 1.1.0   10/18/2026   Add if statements that only set a bool
+# 1.2.0   10/18/2026   Compare a large constant with zero
 #----------------------------------------------------------
 
 module TestBool
 {
+    bool c1, c2, c3, c4, c5
+    int g0, g1
+
     func main()
     {
         int i1 = 5
@@ -140,5 +145,49 @@ module TestBool
         Util.checkb(0x275, IO.LED0, true)
         IO.LED0 = 1 == i1
         Util.checkb(0x276, IO.LED0, false)
+
+        if_set(2, true)
+        Util.checkb(0x280, c1, true)
+        Util.checkb(0x281, c2, true)
+        Util.checkb(0x282, c3, true)
+        Util.checkb(0x283, c4, true)
+        Util.checkb(0x284, c5, true)
+        if_set(5, false)
+        Util.checkb(0x285, c1, false)
+        Util.checkb(0x286, c2, false)
+        Util.checkb(0x287, c3, false)
+        Util.checkb(0x288, c4, false)
+        Util.checkb(0x289, c5, true)
+        if_set(1, false)
+        Util.checkb(0x28A, c1, true)
+        Util.checkb(0x28B, c2, false)
+        Util.checkb(0x28C, c3, true)
+        Util.checkb(0x28D, c4, false)
+        Util.checkb(0x28E, c5, false)
+
+        g1 = 5
+        g1 -= 5
+        g0 = 1000
+        if g0 == 0 c1 = true
+        else c1 = false
+        Util.checkb(0x290, c1, false)
+    }
+
+    func if_set(int i, bool b)
+    {
+        if i < 3 c1 = true
+        else c1 = false
+
+        c2 = false
+        if i == 2 c2 = true
+
+        c3 = true
+        if i > 4 c3 = false
+
+        if i >= 2 c4 = b
+        else c4 = false
+
+        if i < 4 c5 = b
+        else c5 = true
     }
 }
@@ -1,8 +1,13 @@
 #----------------------------------------------------------
 # Test constant statements
 #
+# Const size: 10
+# Global size: 2
+#
 # History: 
 # 1.0.0   09/01/2020   Initial release
+# 1.1.0   10/18/2026   Add globals that are never used
+# 1.2.0   10/18/2026   Give the sizes, without the unused symbols
 #----------------------------------------------------------
 
 module TestConst
@@ -13,6 +18,11 @@ module TestConst
 
     const TABLE1 1, 2, SIZE, 4 * 5
     const MSG    "Hello world."
+    const SPARE  9, 8, 7
+
+    # Never used, so these take no space
+    int spare, spares[4]
+    bool spare_b
 
     func main()
     {
@@ -0,0 +1,159 @@
+#----------------------------------------------------------
+# Expression Optimizer Tests
+#
+# History: 
+# 1.0.0   10/18/2026   File Created
+# 1.1.0   10/18/2026   Add strength reduction tests
+# 1.2.0   10/18/2026   Read the strength reduction inputs from a global
+# 1.3.0   10/18/2026   Add a common expression in a call argument
+#----------------------------------------------------------
+
+module TestExpr
+{
+    int ia1[8]
+    int g1
+    const ca1 3, 1, 4, 1, 5, 9, 2, 6
+
+    func sum(int a, int b) int
+    {
+        int i = 2
+        int s = 0
+        loop
+        {
+            s += ia1[i] * (a + b) + ca1[a - b]
+            i += 1
+            if i == 4 break
+        }
+        return s
+    }
+
+    func fill(int a, int b)
+    {
+        int i = 0
+        loop
+        {
+            int j = 0
+            loop
+            {
+                ia1[(a * 2 + j) & 7] = i * (b - a) + j
+                j += 1
+                if j == 2 break
+            }
+            i += 1
+            if i == 4 break
+        }
+    }
+
+    func common(int a, int b) int
+    {
+        int x = (a + b) * 3
+        int y = 0
+        if a > b y = (a + b) * 3 - 1
+        else y = a + b
+        return x + y + ca1[b] + ca1[b]
+    }
+
+    func div4(int a) int
+    {
+        return a / 4
+    }
+
+    func mod8(int a) int
+    {
+        return a % 8
+    }
+
+    func half(int a) int
+    {
+        return (a + 1) / 2
+    }
+
+    func ndiv4(int a) int
+    {
+        return a / -4
+    }
+
+    func nmod8(int a) int
+    {
+        return a % -8
+    }
+
+    func mod1(int a) int
+    {
+        return a % 1 + a % -1
+    }
+
+    func scale(int a) int
+    {
+        return a * 256 - a * 1
+    }
+
+    func h1(int a, int b) int
+    {
+        return a * b + 1
+    }
+
+    func mixed(int x) int
+    {
+        return (ca1[x] ^ 8) + h1(ca1[x], 5)
+    }
+
+    func steps(int n) int
+    {
+        int i = 0
+        int s = 0
+        loop
+        {
+            s += i * 3
+            i += 1
+            if i == n break
+        }
+        return s
+    }
+
+    func main()
+    {
+        int i = 0
+
+        i = common(5, 2)
+        Util.checki(0xB00, i, 21 + 20 + 4 + 4)
+        i = common(1, 2)
+        Util.checki(0xB01, i, 9 + 3 + 4 + 4)
+
+        fill(1, 3)
+        Util.checki(0xB02, ia1[2], 6)
+        Util.checki(0xB03, ia1[3], 7)
+
+        i = sum(3, 1)
+        Util.checki(0xB04, i, 6 * 4 + 4 + 7 * 4 + 4)
+
+        g1 = 9
+        Util.checki(0xB05, div4(g1), 2)
+        g1 = -9
+        Util.checki(0xB06, div4(g1), -2)
+        g1 = 13
+        Util.checki(0xB07, mod8(g1), 5)
+        g1 = -13
+        Util.checki(0xB08, mod8(g1), -5)
+        g1 = 6
+        Util.checki(0xB09, half(g1), 3)
+        g1 = -4
+        Util.checki(0xB0A, half(g1), -1)
+        g1 = 3
+        Util.checki(0xB0B, scale(g1), 765)
+        g1 = 5
+        Util.checki(0xB0C, steps(g1), 30)
+        g1 = 9
+        Util.checki(0xB0D, ndiv4(g1), -2)
+        g1 = -9
+        Util.checki(0xB0E, ndiv4(g1), 2)
+        g1 = 13
+        Util.checki(0xB0F, nmod8(g1), 5)
+        g1 = -13
+        Util.checki(0xB10, nmod8(g1), -5)
+        g1 = -7
+        Util.checki(0xB11, mod1(g1), 0)
+        g1 = 5
+        Util.checki(0xB12, mixed(g1), 1 + 46)
+    }
+}
@@ -3,11 +3,14 @@
 #
 # History: 
 # 1.0.0   09/01/2020   Initial release
+# 1.1.0   10/18/2026   Pass a bool expression to a bool parm
+# 1.2.0   10/18/2026   Add calls that are inlined
+# 1.3.0   10/18/2026   Add a tail call
 #----------------------------------------------------------
 
 module TestFunc
 {
-    int i1, ia1[10]
+    int i1, i2, ia1[10]
     const ca1 1, 2, 3, 4, 5, 6
 
     func f0()
@@ -38,6 +41,29 @@ module TestFunc
         return arr[3]
     }
 
+    func f5(bool b) bool
+    {
+        return not b
+    }
+
+    func f6(int i) int
+    {
+        i += 1
+        if i > 5 return i
+        return i * 2
+    }
+
+    func f7(ram arr)
+    {
+        arr[0] += 1
+        f8(arr)
+    }
+
+    func f8(ram arr)
+    {
+        arr[1] = arr[0] * 2
+    }
+
     func main()
     {
         int i = 10
@@ -67,5 +93,29 @@ module TestFunc
         ia1[3] = 55
         i = f4(ia1)
         Util.checki(0x709, i, 55)
+
+        bool b = false
+        i2 = 9
+        i = f2(i2, b or i1 > i2)
+        Util.checki(0x70A, i, 10)
+        Util.checki(0x70B, i2, 9)
+
+        if f5(false) i = 1
+        else i = 2
+        Util.checki(0x70C, i, 1)
+
+        i = 3
+        i = f6(f6(i))
+        Util.checki(0x70D, i, 9)
+
+        i = 2
+        Util.checki(0x70E, f6(i), 6)
+        Util.checki(0x70F, i, 2)
+        Util.checkb(0x710, f5(true), false)
+
+        ia1[0] = 5
+        f7(ia1)
+        f7(ia1)
+        Util.checki(0x711, ia1[1], 14)
     }
 }
@@ -3,11 +3,13 @@
 #
 # History: 
 # 1.0.0   09/01/2020   Initial release
+# 1.1.0   10/18/2026   Set bools by if while the timer interrupts
 #----------------------------------------------------------
 
 module TestISR
 {
-    int i1, i2
+    int i1, i2, i3, i4
+    bool c1, c2, c3
 
     func main()
     {
@@ -30,11 +32,57 @@ module TestISR
 
         IO.INT_TIMER = 0
         IO.INT_CLR = 0x10
+
+        # The ISR uses bit zero while main sets bools by if
+        IO.INT_TIMER = 1
+        IO.INT_SET = 0x10
+        level 0
+        race()
+        IO.INT_TIMER = 0
+        IO.INT_CLR = 0x10
+        Util.checki(0x103, i3, 0)
+    }
+
+    func race()
+    {
+        int n = 0
+        int m = 0
+        bool b = false
+        i3 = 0
+        loop
+        {
+            b = n < 50
+            if n >= 25 c1 = b
+            else c1 = false
+            c2 = true
+            if n < 50 c2 = false
+
+            if n >= 25 and n < 50
+            {
+                if not c1 i3 += 1
+            }
+            elif c1 i3 += 1
+            if n >= 50
+            {
+                if not c2 i3 += 1
+            }
+            elif c2 i3 += 1
+
+            n += 1
+            if n == 100
+            {
+                n = 0
+                m += 1
+                if m == 40 break
+            }
+        }
     }
 
     func timer_isr() isr 5
     {
         i2 = IO.INT_TIMER
         i1 += 1
+        c3 = not c3
+        if c3 i4 += 1
     }
 }
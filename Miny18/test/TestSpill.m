@@ -0,0 +1,222 @@
+#----------------------------------------------------------
+# Register Spilling Tests
+#
+# More locals are live at once than there are registers,
+# so some are kept in RAM.
+#
+# History: 
+# 1.0.0   10/18/2026   Initial release
+#----------------------------------------------------------
+
+module TestSpill
+{
+    func main()
+    {
+        int v0 = 0
+        int v1 = 1
+        int v2 = 2
+        int v3 = 3
+        int v4 = 4
+        int v5 = 5
+        int v6 = 6
+        int v7 = 7
+        int v8 = 8
+        int v9 = 9
+        int v10 = 10
+        int v11 = 11
+        int v12 = 12
+        int v13 = 13
+        int v14 = 14
+        int v15 = 15
+        int v16 = 16
+        int v17 = 17
+        int v18 = 18
+        int v19 = 19
+        int v20 = 20
+        int v21 = 21
+        int v22 = 22
+        int v23 = 23
+        int v24 = 24
+        int v25 = 25
+        int v26 = 26
+        int v27 = 27
+        int v28 = 28
+        int v29 = 29
+        int v30 = 30
+        int v31 = 31
+        int v32 = 32
+        int v33 = 33
+        int v34 = 34
+        int v35 = 35
+        int v36 = 36
+        int v37 = 37
+        int v38 = 38
+        int v39 = 39
+        int v40 = 40
+        int v41 = 41
+        int v42 = 42
+        int v43 = 43
+        int v44 = 44
+        int v45 = 45
+        int v46 = 46
+        int v47 = 47
+        int v48 = 48
+        int v49 = 49
+        int v50 = 50
+        int v51 = 51
+        int v52 = 52
+        int v53 = 53
+        int v54 = 54
+        int v55 = 55
+        int v56 = 56
+        int v57 = 57
+        int v58 = 58
+        int v59 = 59
+        int v60 = 60
+        int v61 = 61
+        int v62 = 62
+        int v63 = 63
+        int i1 = 0
+
+        loop
+        {
+            i1 += 1
+            if i1 == 4 break
+            v0 += i1
+            v1 += i1
+            v2 += i1
+            v3 += i1
+            v4 += i1
+            v5 += i1
+            v6 += i1
+            v7 += i1
+            v8 += i1
+            v9 += i1
+            v10 += i1
+            v11 += i1
+            v12 += i1
+            v13 += i1
+            v14 += i1
+            v15 += i1
+            v16 += i1
+            v17 += i1
+            v18 += i1
+            v19 += i1
+            v20 += i1
+            v21 += i1
+            v22 += i1
+            v23 += i1
+            v24 += i1
+            v25 += i1
+            v26 += i1
+            v27 += i1
+            v28 += i1
+            v29 += i1
+            v30 += i1
+            v31 += i1
+            v32 += i1
+            v33 += i1
+            v34 += i1
+            v35 += i1
+            v36 += i1
+            v37 += i1
+            v38 += i1
+            v39 += i1
+            v40 += i1
+            v41 += i1
+            v42 += i1
+            v43 += i1
+            v44 += i1
+            v45 += i1
+            v46 += i1
+            v47 += i1
+            v48 += i1
+            v49 += i1
+            v50 += i1
+            v51 += i1
+            v52 += i1
+            v53 += i1
+            v54 += i1
+            v55 += i1
+            v56 += i1
+            v57 += i1
+            v58 += i1
+            v59 += i1
+            v60 += i1
+            v61 += i1
+            v62 += i1
+            v63 += i1
+        }
+
+        i1 = 0
+        i1 += v0
+        i1 += v1
+        i1 += v2
+        i1 += v3
+        i1 += v4
+        i1 += v5
+        i1 += v6
+        i1 += v7
+        i1 += v8
+        i1 += v9
+        i1 += v10
+        i1 += v11
+        i1 += v12
+        i1 += v13
+        i1 += v14
+        i1 += v15
+        i1 += v16
+        i1 += v17
+        i1 += v18
+        i1 += v19
+        i1 += v20
+        i1 += v21
+        i1 += v22
+        i1 += v23
+        i1 += v24
+        i1 += v25
+        i1 += v26
+        i1 += v27
+        i1 += v28
+        i1 += v29
+        i1 += v30
+        i1 += v31
+        i1 += v32
+        i1 += v33
+        i1 += v34
+        i1 += v35
+        i1 += v36
+        i1 += v37
+        i1 += v38
+        i1 += v39
+        i1 += v40
+        i1 += v41
+        i1 += v42
+        i1 += v43
+        i1 += v44
+        i1 += v45
+        i1 += v46
+        i1 += v47
+        i1 += v48
+        i1 += v49
+        i1 += v50
+        i1 += v51
+        i1 += v52
+        i1 += v53
+        i1 += v54
+        i1 += v55
+        i1 += v56
+        i1 += v57
+        i1 += v58
+        i1 += v59
+        i1 += v60
+        i1 += v61
+        i1 += v62
+        i1 += v63
+        Util.checki(0xA00, i1, 2400)
+        Util.checki(0xA01, v0, 6)
+        Util.checki(0xA02, v63, 69)
+        v32 = v0 * v1
+        Util.checki(0xA03, v32, 42)
+    }
+}